@@ -0,0 +1,67 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * 14-segment encodings of printable ASCII for HT16K33 alphanumeric backpacks, the same bit
+ * layout the contrib driver uses. Bit 14 is the decimal point.
+ */
+public final class AlphanumericFont {
+
+    public static final short DECIMAL_POINT = 0x4000;
+
+    private static final short[] ASCII = {
+            0x0000, 0x0006, 0x0220, 0x12CE, 0x12ED, 0x0C24, 0x235D, 0x0400, // space ! " # $ % & '
+            0x2400, 0x0900, 0x3FC0, 0x12C0, 0x0800, 0x00C0, 0x0000, 0x0C00, // ( ) * + , - . /
+            0x0C3F, 0x0006, 0x00DB, 0x008F, 0x00E6, 0x2069, 0x00FD, 0x0007, // 0 - 7
+            0x00FF, 0x00EF, 0x1200, 0x0A00, 0x2400, 0x00C8, 0x0900, 0x1083, // 8 9 : ; < = > ?
+            0x02BB, 0x00F7, 0x128F, 0x0039, 0x120F, 0x00F9, 0x0071, 0x00BD, // @ A - G
+            0x00F6, 0x1200, 0x001E, 0x2470, 0x0038, 0x0536, 0x2136, 0x003F, // H - O
+            0x00F3, 0x203F, 0x20F3, 0x00ED, 0x1201, 0x003E, 0x0C30, 0x2836, // P - W
+            0x2D00, 0x1500, 0x0C09, 0x0039, 0x2100, 0x000F, 0x0C03, 0x0008, // X Y Z [ \ ] ^ _
+            0x0100, 0x1058, 0x2078, 0x00D8, 0x088E, 0x0858, 0x0071, 0x048E, // ` a - g
+            0x1070, 0x1000, 0x000E, 0x3600, 0x0030, 0x10D4, 0x1050, 0x00DC, // h - o
+            0x0170, 0x0486, 0x0050, 0x2088, 0x0078, 0x001C, 0x2004, 0x2814, // p - w
+            0x28C0, 0x200C, 0x0848, 0x0949, 0x1200, 0x2489, 0x0520, 0x3FFF, // x y z { | } ~ DEL
+    };
+
+    private AlphanumericFont() {
+    }
+
+    public static short glyph(char c) {
+        if (c < ' ' || c > 0x7f) {
+            return 0;
+        }
+        return ASCII[c - ' '];
+    }
+
+    /**
+     * Number of digits {@code text} takes once dots are folded into the digit before them.
+     */
+    public static int digits(String text) {
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) != '.' || i == 0 || text.charAt(i - 1) == '.') {
+                digits++;
+            }
+        }
+        return digits;
+    }
+
+    /**
+     * Encodes {@code text} into {@code out} starting at {@code offset}, folding each dot into
+     * the digit before it like the driver does.
+     *
+     * @return the number of digits written
+     */
+    public static int encode(String text, short[] out, int offset) {
+        int digit = offset;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.' && i > 0 && text.charAt(i - 1) != '.') {
+                out[digit - 1] |= DECIMAL_POINT;
+            } else {
+                out[digit++] = c == '.' ? DECIMAL_POINT : glyph(c);
+            }
+        }
+        return digit - offset;
+    }
+}
@@ -0,0 +1,91 @@
+package things.wolfsoft.com.androidthings;
+
+import android.content.Context;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * {@link SpeechEngine} backed by the platform {@link TextToSpeech}.
+ */
+public class AndroidSpeechEngine implements SpeechEngine, TextToSpeech.OnInitListener {
+
+    private final static String LOG_TAG = AndroidSpeechEngine.class.getSimpleName();
+
+    private final TextToSpeech textToSpeech;
+    private Listener listener;
+    private Boolean initResult;
+
+    public AndroidSpeechEngine(Context context) {
+        textToSpeech = new TextToSpeech(context, this);
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+        Boolean result;
+        synchronized (this) {
+            this.listener = listener;
+            result = initResult;
+        }
+        textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                listener.onStart(utteranceId);
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                listener.onDone(utteranceId);
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                listener.onError(utteranceId);
+            }
+        });
+        if (result != null) {
+            listener.onInit(result);
+        }
+    }
+
+    @Override
+    public void onInit(int status) {
+        boolean success = status == TextToSpeech.SUCCESS;
+        if (success) {
+            textToSpeech.setLanguage(Locale.US);
+        } else {
+            Log.d(LOG_TAG, "TextToSpeech initialization failed: " + String.valueOf(status));
+        }
+        Listener current;
+        synchronized (this) {
+            initResult = success;
+            current = listener;
+        }
+        if (current != null) {
+            current.onInit(success);
+        }
+    }
+
+    @Override
+    public boolean speak(String text, String utteranceId) {
+        return textToSpeech.speak(text, TextToSpeech.QUEUE_ADD, null, utteranceId) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public boolean synthesizeToFile(String text, File file, String utteranceId) {
+        return textToSpeech.synthesizeToFile(text, null, file, utteranceId) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public boolean addSpeech(String text, File file) {
+        return textToSpeech.addSpeech(text, file) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public void shutdown() {
+        textToSpeech.shutdown();
+    }
+}
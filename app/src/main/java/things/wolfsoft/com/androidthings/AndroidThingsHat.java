@@ -0,0 +1,183 @@
+package things.wolfsoft.com.androidthings;
+
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import com.google.android.things.contrib.driver.apa102.Apa102;
+import com.google.android.things.contrib.driver.button.Button;
+import com.google.android.things.contrib.driver.ht16k33.AlphanumericDisplay;
+import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.PeripheralManagerService;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * {@link RainbowHat} on the real Android Things drivers, with pins from {@link BoardDefaults}.
+ */
+public class AndroidThingsHat implements RainbowHat {
+    private static final String TAG = "AndroidThingsHat";
+
+    /**
+     * LEDs the HAT's own strip has; the contrib driver handles up to this many.
+     */
+    public static final int RAINBOW_HAT_LEDS = 7;
+    private static final int LEDSTRIP_SPI_FREQUENCY = 1000000;
+
+    private final SensorManager sensorManager;
+    private final int spiMaxTransferBytes;
+
+    private volatile Button[] buttons;
+    private volatile Gpio[] ledGpios;
+    private volatile Apa102 ledstrip;
+    private volatile SpiDevice ledSpiDevice;
+    private volatile AlphanumericDisplay alphaDisplay;
+    private volatile Speaker speaker;
+    private volatile SensorSource sensors;
+
+    /**
+     * @param spiMaxTransferBytes largest SPI transfer the board takes, for strips longer than
+     *                            the HAT's own
+     */
+    public AndroidThingsHat(SensorManager sensorManager, int spiMaxTransferBytes) {
+        this.sensorManager = sensorManager;
+        this.spiMaxTransferBytes = spiMaxTransferBytes;
+    }
+
+    @Override
+    public void openButtons(final ButtonListener listener) throws IOException {
+        String[] pins = {BoardDefaults.getGPIOForBtnA(), BoardDefaults.getGPIOForBtnB(),
+                BoardDefaults.getGPIOForBtnC()};
+        Button[] opened = new Button[pins.length];
+        // Held before opening, so close() also gets the ones opened before a failure
+        buttons = opened;
+        for (int i = 0; i < pins.length; i++) {
+            final int index = i;
+            opened[i] = new Button(pins[i], Button.LogicState.PRESSED_WHEN_LOW);
+            // The app debounces, without waiting for the edge to settle like the driver does
+            opened[i].setDebounceDelay(0);
+            opened[i].setOnButtonEventListener(new Button.OnButtonEventListener() {
+                @Override
+                public void onButtonEvent(Button button, boolean pressed) {
+                    listener.onButton(index, pressed, System.nanoTime());
+                }
+            });
+        }
+    }
+
+    @Override
+    public GpioOutput[] openLeds() throws IOException {
+        PeripheralManagerService service = new PeripheralManagerService();
+        String[] pins = {BoardDefaults.getGPIOForRedLED(), BoardDefaults.getGPIOForBlueLED(),
+                BoardDefaults.getGPIOForGreenLED()};
+        Gpio[] opened = new Gpio[pins.length];
+        // Held before opening, so close() also gets the ones opened before a failure
+        ledGpios = opened;
+        GpioOutput[] outputs = new GpioOutput[pins.length];
+        for (int i = 0; i < pins.length; i++) {
+            opened[i] = service.openGpio(pins[i]);
+            outputs[i] = new PioGpioOutput(opened[i]);
+        }
+        return outputs;
+    }
+
+    @Override
+    public LedStripSink openLedStrip(int leds) throws IOException {
+        if (leds <= RAINBOW_HAT_LEDS) {
+            ledstrip = new Apa102(BoardDefaults.getSpiBus(), Apa102.Mode.BGR);
+            return new Apa102Sink(ledstrip);
+        }
+        // Longer chains outgrow a single SPI transfer, drive them in chunks ourselves
+        final SpiDevice device = new PeripheralManagerService().openSpiDevice(BoardDefaults.getSpiBus());
+        ledSpiDevice = device;
+        device.setFrequency(LEDSTRIP_SPI_FREQUENCY);
+        device.setMode(SpiDevice.MODE2);
+        device.setBitsPerWord(8);
+        return new ChunkedApa102Sink(new SpiWriter() {
+            @Override
+            public void write(byte[] buffer, int length) throws IOException {
+                device.write(buffer, length);
+            }
+        }, leds, true, spiMaxTransferBytes);
+    }
+
+    @Override
+    public SegmentOutput openDisplay() throws IOException {
+        AlphanumericDisplay display = new AlphanumericDisplay(BoardDefaults.getI2cBus());
+        alphaDisplay = display;
+        display.setEnabled(true);
+        display.clear();
+        return new Ht16k33SegmentOutput(display);
+    }
+
+    @Override
+    public ToneOutput openSpeaker() throws IOException {
+        speaker = new Speaker(BoardDefaults.getSpeakerPwmPin());
+        return new SpeakerToneOutput(speaker);
+    }
+
+    @Override
+    public SensorSource openSensors() {
+        sensors = new Bmx280SensorSource(sensorManager, BoardDefaults.getI2cBus());
+        return sensors;
+    }
+
+    /**
+     * Closes every driver that was opened, carrying on past any that fail.
+     */
+    @Override
+    public void close() {
+        Button[] openButtons = buttons;
+        buttons = null;
+        if (openButtons != null) {
+            for (Button button : openButtons) {
+                close(button, "button");
+            }
+        }
+        Gpio[] gpios = ledGpios;
+        ledGpios = null;
+        if (gpios != null) {
+            for (Gpio gpio : gpios) {
+                close(gpio, "LED");
+            }
+        }
+        close(ledstrip, "ledstrip");
+        ledstrip = null;
+        close(ledSpiDevice, "ledstrip SPI device");
+        ledSpiDevice = null;
+        AlphanumericDisplay display = alphaDisplay;
+        alphaDisplay = null;
+        if (display != null) {
+            try {
+                display.clear();
+                display.setEnabled(false);
+            } catch (IOException e) {
+                Log.e(TAG, "Error disabling display", e);
+            }
+            close(display, "display");
+        }
+        close(speaker, "speaker");
+        speaker = null;
+        SensorSource source = sensors;
+        sensors = null;
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing sensors", e);
+            }
+        }
+    }
+
+    private static void close(AutoCloseable device, String name) {
+        if (device == null) {
+            return;
+        }
+        try {
+            device.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Error closing " + name, e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two tier cache of Vision response bodies keyed by image URI, feature type and maxResults.
+ *
+ * The memory tier is an LRU bounded by entry count and by approximate bytes. The optional disk
+ * tier keeps one file per entry so annotations survive restarts, and is bounded by bytes.
+ * Entries in both tiers expire after the TTL. A disk hit is promoted back into memory.
+ */
+public class AnnotationCache {
+    private static final String TAG = "AnnotationCache";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FILE_SUFFIX = ".json";
+
+    /**
+     * Time source for expiry, swappable in tests.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final File diskDir;
+    private final long maxDiskBytes;
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private long hits;
+    private long diskHits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public AnnotationCache(int maxEntries, long maxBytes, long ttlMs) {
+        this(maxEntries, maxBytes, ttlMs, null, 0, SYSTEM_CLOCK);
+    }
+
+    /**
+     * @param diskDir directory for the disk tier, or null for memory only
+     */
+    public AnnotationCache(int maxEntries, long maxBytes, long ttlMs, File diskDir, long maxDiskBytes,
+                           Clock clock) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+        this.clock = clock;
+        if (diskDir != null && !diskDir.isDirectory() && !diskDir.mkdirs()) {
+            Log.w(TAG, "Could not create cache directory " + diskDir);
+        }
+    }
+
+    public static String key(String imageUri, String featureType, int maxResults) {
+        return featureType + '|' + maxResults + '|' + imageUri;
+    }
+
+    /**
+     * Returns the cached body for {@code key}, or null on a miss.
+     */
+    public String get(String key) {
+        long now = clock.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits++;
+                    return entry.body;
+                }
+                removeLocked(key);
+                expirations++;
+            }
+        }
+
+        Entry fromDisk = readFromDisk(key, now);
+        synchronized (this) {
+            if (fromDisk == null) {
+                misses++;
+                return null;
+            }
+            diskHits++;
+            putInMemoryLocked(key, fromDisk);
+            return fromDisk.body;
+        }
+    }
+
+    public void put(String key, String body) {
+        Entry entry = new Entry(body, clock.currentTimeMillis() + ttlMs);
+        synchronized (this) {
+            putInMemoryLocked(key, entry);
+        }
+        writeToDisk(key, entry);
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        if (diskDir != null) {
+            File[] files = diskDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(FILE_SUFFIX) && !file.delete()) {
+                        Log.w(TAG, "Could not delete " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + " entries=" + memory.size() + " bytes=" + memoryBytes + " hits=" + hits
+                + " diskHits=" + diskHits + " misses=" + misses + " evictions=" + evictions
+                + " expirations=" + expirations;
+    }
+
+    private void putInMemoryLocked(String key, Entry entry) {
+        if (entry.bytes > maxBytes) {
+            // Never worth evicting everything else for a single oversized response.
+            return;
+        }
+        removeLocked(key);
+        memory.put(key, entry);
+        memoryBytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+        while ((memory.size() > maxEntries || memoryBytes > maxBytes) && eldest.hasNext()) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            memoryBytes -= evicted.getValue().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void removeLocked(String key) {
+        Entry removed = memory.remove(key);
+        if (removed != null) {
+            memoryBytes -= removed.bytes;
+        }
+    }
+
+    private File fileFor(String key) {
+        // hashCode collisions are resolved by the key stored in the file's first line
+        return new File(diskDir, Integer.toHexString(key.hashCode()) + FILE_SUFFIX);
+    }
+
+    private Entry readFromDisk(String key, long now) {
+        if (diskDir == null) {
+            return null;
+        }
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String content = new String(readFile(file), UTF_8);
+            int keyEnd = content.indexOf('\n');
+            int expiresEnd = keyEnd < 0 ? -1 : content.indexOf('\n', keyEnd + 1);
+            if (expiresEnd < 0 || !key.equals(content.substring(0, keyEnd))) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(content.substring(keyEnd + 1, expiresEnd));
+            if (expiresAt <= now) {
+                synchronized (this) {
+                    expirations++;
+                }
+                if (!file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+                return null;
+            }
+            return new Entry(content.substring(expiresEnd + 1), expiresAt);
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Ignoring unreadable cache file " + file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (diskDir == null) {
+            return;
+        }
+        File file = fileFor(key);
+        File tmp = new File(diskDir, file.getName() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write((key + '\n' + entry.expiresAt + '\n').getBytes(UTF_8));
+                out.write(entry.body.getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+            trimDisk();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write cache file " + file, e);
+            if (tmp.exists() && !tmp.delete()) {
+                Log.w(TAG, "Could not delete " + tmp);
+            }
+        }
+    }
+
+    private synchronized void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evictions++;
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            return offset == data.length ? data : Arrays.copyOf(data, offset);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Entry {
+        final String body;
+        final long expiresAt;
+        final long bytes;
+
+        Entry(String body, long expiresAt) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+            // UTF-16 payload plus a rough allowance for object headers
+            this.bytes = body.length() * 2L + 64;
+        }
+    }
+}
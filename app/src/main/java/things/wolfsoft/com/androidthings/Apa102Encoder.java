@@ -0,0 +1,63 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Encodes frames for a chain of APA102 pixels into one reusable SPI buffer.
+ *
+ * The buffer is sized for the chain when the encoder is built, with the start frame and end
+ * frame already in place; encoding a frame only rewrites the four bytes of each pixel.
+ */
+public class Apa102Encoder {
+
+    public static final int MAX_BRIGHTNESS = 31;
+    private static final int START_FRAME_BYTES = 4;
+    private static final int PIXEL_BYTES = 4;
+
+    private final int numLeds;
+    private final boolean bgr;
+    private final byte[] buffer;
+
+    /**
+     * @param bgr true for the Rainbow HAT's blue-green-red wiring
+     */
+    public Apa102Encoder(int numLeds, boolean bgr) {
+        this.numLeds = numLeds;
+        this.bgr = bgr;
+        // The end frame only has to clock the data through the chain: half a bit per pixel.
+        int endFrameBytes = Math.max(4, (numLeds + 15) / 16);
+        buffer = new byte[START_FRAME_BYTES + numLeds * PIXEL_BYTES + endFrameBytes];
+    }
+
+    public int getNumLeds() {
+        return numLeds;
+    }
+
+    /**
+     * Encodes {@code colors} (ARGB, alpha ignored) at global {@code brightness} 0-31.
+     *
+     * @return the shared buffer, valid until the next call
+     */
+    public byte[] encode(int[] colors, int brightness) {
+        byte header = (byte) (0xE0 | (Math.max(0, Math.min(MAX_BRIGHTNESS, brightness))));
+        int count = Math.min(colors.length, numLeds);
+        int pos = START_FRAME_BYTES;
+        for (int i = 0; i < numLeds; i++) {
+            int color = i < count ? colors[i] : 0;
+            buffer[pos] = header;
+            if (bgr) {
+                buffer[pos + 1] = (byte) color;
+                buffer[pos + 2] = (byte) (color >> 8);
+                buffer[pos + 3] = (byte) (color >> 16);
+            } else {
+                buffer[pos + 1] = (byte) (color >> 16);
+                buffer[pos + 2] = (byte) (color >> 8);
+                buffer[pos + 3] = (byte) color;
+            }
+            pos += PIXEL_BYTES;
+        }
+        return buffer;
+    }
+
+    public int length() {
+        return buffer.length;
+    }
+}
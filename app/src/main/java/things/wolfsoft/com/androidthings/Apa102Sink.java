@@ -0,0 +1,27 @@
+package things.wolfsoft.com.androidthings;
+
+import com.google.android.things.contrib.driver.apa102.Apa102;
+
+import java.io.IOException;
+
+/**
+ * {@link LedStripSink} backed by the Rainbow HAT {@link Apa102} driver.
+ */
+public class Apa102Sink implements LedStripSink {
+
+    private final Apa102 ledstrip;
+
+    public Apa102Sink(Apa102 ledstrip) {
+        this.ledstrip = ledstrip;
+    }
+
+    @Override
+    public void setBrightness(int brightness) throws IOException {
+        ledstrip.setBrightness(brightness);
+    }
+
+    @Override
+    public void write(int[] colors) throws IOException {
+        ledstrip.write(colors);
+    }
+}
@@ -1,53 +1,362 @@
 package things.wolfsoft.com.androidthings;
 
 import android.content.Context;
-import android.speech.tts.TextToSpeech;
 import android.util.Log;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashSet;
 import java.util.Locale;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by akmalrakhimov on 6/3/17.
+ *
+ * Speaks text on a single worker thread. {@link #say} never blocks: text goes into a small
+ * bounded queue, is held there until the engine is ready, and is dropped if the same phrase is
+ * already waiting. Utterances are spoken one after another. When idle, the worker renders the
+ * fixed vocabulary to files once so those words play back without synthesis.
  */
-public class AppTextToSpeech implements TextToSpeech.OnInitListener {
+public class AppTextToSpeech implements SpeechEngine.Listener {
 
     private final static String LOG_TAG = AppTextToSpeech.class.getSimpleName();
 
-    private TextToSpeech textToSpeech;
+    public static final String[] VOCABULARY = {"DOOR", "IN", "OUT", "CLEAR"};
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+    static final long UTTERANCE_TIMEOUT_MS = 5000;
+
+    private static final class Utterance {
+        final String text;
+        final long enqueuedAt;
+
+        Utterance(String text, long enqueuedAt) {
+            this.text = text;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final SpeechEngine engine;
+    private final File cacheDir;
+    private final String[] vocabulary;
+    private final int capacity;
+    private final Thread worker;
+
+    private final ArrayDeque<Utterance> queue = new ArrayDeque<>();
+    private final Set<String> cached = new HashSet<>();
     private boolean isReady;
+    private boolean failed;
+    private boolean shutdown;
+    private int prerendered;
+    private long nextId;
+
+    private String currentId;
+    private long currentEnqueuedAt;
+    private boolean currentDone;
+
+    private long spoken;
+    private long spokenFromCache;
+    private long deduplicated;
+    private long dropped;
+    private long errors;
+    private long latencyCount;
+    private long latencyTotalNanos;
+    private long latencyMaxNanos;
+    private long currentStartedAt;
+
+    private Metrics.Counter spokenCounter;
+    private Metrics.Counter droppedCounter;
+    private Metrics.Counter errorCounter;
+    private Metrics.Histogram startLatency;
+    private Metrics.Histogram utteranceTime;
 
     public AppTextToSpeech(Context context) {
-        textToSpeech = new TextToSpeech(context, this);
-        textToSpeech.setLanguage(Locale.US);
-        isReady = false;
+        this(new AndroidSpeechEngine(context), new File(context.getCacheDir(), "tts"), VOCABULARY,
+                DEFAULT_QUEUE_CAPACITY);
     }
 
-    public boolean isReady() {
+    /**
+     * @param cacheDir where the vocabulary is rendered to, or null to always synthesize
+     */
+    public AppTextToSpeech(SpeechEngine engine, File cacheDir, String[] vocabulary, int capacity) {
+        this.engine = engine;
+        this.cacheDir = cacheDir;
+        this.vocabulary = cacheDir == null ? new String[0] : vocabulary.clone();
+        this.capacity = capacity;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, LOG_TAG);
+        worker.setDaemon(true);
+        worker.start();
+        engine.setListener(this);
+    }
+
+    /**
+     * Counts utterances spoken, dropped and failed under {@code tts.*}, and times each from
+     * {@link #say} to the engine starting ({@code tts.start}) and from there to done
+     * ({@code tts.utterance}).
+     */
+    public synchronized void setMetrics(Metrics metrics) {
+        spokenCounter = metrics.counter("tts.spoken");
+        droppedCounter = metrics.counter("tts.dropped");
+        errorCounter = metrics.counter("tts.errors");
+        startLatency = metrics.histogram("tts.start");
+        utteranceTime = metrics.histogram("tts.utterance");
+    }
+
+    public synchronized boolean isReady() {
         return isReady;
     }
 
     public void shutdown() {
-        if (textToSpeech != null) {
-            textToSpeech.shutdown();
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
         }
+        worker.interrupt();
+        engine.shutdown();
     }
 
+    /**
+     * Queues {@code text} to be spoken and returns straight away.
+     */
     public void say(String text) {
-        if (isReady()) {
-            Log.d(LOG_TAG, "Saying: " + text);
-            textToSpeech.speak(text, TextToSpeech.QUEUE_FLUSH, null, UUID.randomUUID().toString());
-            Log.d(LOG_TAG, "Done.");
+        synchronized (this) {
+            if (shutdown || failed) {
+                countDropped(1);
+                return;
+            }
+            for (Utterance pending : queue) {
+                if (pending.text.equals(text)) {
+                    deduplicated++;
+                    return;
+                }
+            }
+            if (queue.size() >= capacity) {
+                // The newest text reflects the current state, lose the oldest
+                queue.poll();
+                countDropped(1);
+            }
+            queue.add(new Utterance(text, System.nanoTime()));
+            notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Utterance next;
+            String render;
+            synchronized (this) {
+                while (!shutdown && (!isReady || (queue.isEmpty() && prerendered == vocabulary.length))) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Woken by shutdown
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                next = queue.poll();
+                // Speech waiting to be said goes before pre-rendering
+                render = next == null ? vocabulary[prerendered++] : null;
+            }
+            if (next != null) {
+                speakNow(next);
+            } else {
+                prerender(render);
+            }
+        }
+    }
+
+    private void speakNow(Utterance utterance) {
+        String id = begin(utterance.enqueuedAt);
+        boolean fromCache;
+        synchronized (this) {
+            fromCache = cached.contains(utterance.text);
+        }
+        Log.d(LOG_TAG, "Saying: " + utterance.text + (fromCache ? " (cached)" : ""));
+        if (!engine.speak(utterance.text, id)) {
+            fail(id);
+            return;
+        }
+        if (awaitDone(id)) {
+            synchronized (this) {
+                spoken++;
+                if (fromCache) {
+                    spokenFromCache++;
+                }
+                if (spokenCounter != null) {
+                    spokenCounter.increment();
+                    if (currentStartedAt != 0) {
+                        utteranceTime.recordSince(currentStartedAt);
+                    }
+                }
+            }
+        }
+    }
+
+    private void prerender(String text) {
+        File file = new File(cacheDir, text.toLowerCase(Locale.US) + ".wav");
+        if (!file.isFile() || file.length() == 0) {
+            cacheDir.mkdirs();
+            String id = begin(0);
+            if (!engine.synthesizeToFile(text, file, id)) {
+                fail(id);
+                return;
+            }
+            if (!awaitDone(id)) {
+                return;
+            }
+        }
+        if (file.length() > 0 && engine.addSpeech(text, file)) {
+            synchronized (this) {
+                cached.add(text);
+            }
+            Log.d(LOG_TAG, "Cached speech for " + text);
+        }
+    }
+
+    private synchronized String begin(long enqueuedAt) {
+        currentId = "u" + (++nextId);
+        currentEnqueuedAt = enqueuedAt;
+        currentStartedAt = 0;
+        currentDone = false;
+        return currentId;
+    }
+
+    private synchronized void fail(String id) {
+        countError();
+        if (id.equals(currentId)) {
+            currentId = null;
+        }
+    }
+
+    private synchronized boolean awaitDone(String id) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(UTTERANCE_TIMEOUT_MS);
+        while (!currentDone && id.equals(currentId) && !shutdown) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                Log.e(LOG_TAG, "Timed out waiting for utterance " + id);
+                countError();
+                currentId = null;
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            } catch (InterruptedException e) {
+                // Woken by shutdown
+            }
+        }
+        boolean done = currentDone;
+        currentId = null;
+        return done;
+    }
+
+    @Override
+    public void onInit(boolean success) {
+        synchronized (this) {
+            if (success) {
+                isReady = true;
+            } else {
+                // Nothing will ever be said, release what was waiting
+                failed = true;
+                countDropped(queue.size());
+                queue.clear();
+            }
+            notifyAll();
+        }
+        Log.d(LOG_TAG, success ? "AppTextToSpeech is now ready." : "AppTextToSpeech initialization failed");
+    }
+
+    @Override
+    public synchronized void onStart(String utteranceId) {
+        if (utteranceId.equals(currentId) && currentEnqueuedAt != 0) {
+            currentStartedAt = System.nanoTime();
+            long latency = currentStartedAt - currentEnqueuedAt;
+            latencyCount++;
+            latencyTotalNanos += latency;
+            latencyMaxNanos = Math.max(latencyMaxNanos, latency);
+            if (startLatency != null) {
+                startLatency.record(latency);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onDone(String utteranceId) {
+        if (utteranceId.equals(currentId)) {
+            currentDone = true;
+            notifyAll();
         }
     }
 
     @Override
-    public void onInit(int status) {
-        if (status == TextToSpeech.SUCCESS) {
-            isReady = true;
-            Log.d(LOG_TAG, "AppTextToSpeech is now ready.");
-        } else {
-            Log.d(LOG_TAG, "AppTextToSpeech initialization failed: " + String.valueOf(status));
+    public synchronized void onError(String utteranceId) {
+        if (utteranceId.equals(currentId)) {
+            countError();
+            currentId = null;
+            notifyAll();
         }
     }
+
+    private void countDropped(int count) {
+        dropped += count;
+        if (droppedCounter != null) {
+            droppedCounter.add(count);
+        }
+    }
+
+    private void countError() {
+        errors++;
+        if (errorCounter != null) {
+            errorCounter.increment();
+        }
+    }
+
+    public synchronized boolean isCached(String text) {
+        return cached.contains(text);
+    }
+
+    public synchronized long getSpoken() {
+        return spoken;
+    }
+
+    public synchronized long getSpokenFromCache() {
+        return spokenFromCache;
+    }
+
+    public synchronized long getDeduplicated() {
+        return deduplicated;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Average time from {@link #say} until the engine started speaking, 0 before the first.
+     */
+    public synchronized long getAverageStartLatencyNanos() {
+        return latencyCount == 0 ? 0 : latencyTotalNanos / latencyCount;
+    }
+
+    public synchronized long getMaxStartLatencyNanos() {
+        return latencyMaxNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return LOG_TAG + "{spoken=" + spoken + ", fromCache=" + spokenFromCache + ", deduplicated=" + deduplicated
+                + ", dropped=" + dropped + ", errors=" + errors
+                + ", avgStartLatency=" + getAverageStartLatencyNanos() / 1000000 + "ms"
+                + ", maxStartLatency=" + latencyMaxNanos / 1000000 + "ms}";
+    }
 }
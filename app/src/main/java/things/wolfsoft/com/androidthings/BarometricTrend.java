@@ -0,0 +1,203 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Turns pressure readings into a level and a tendency that only change when the weather does.
+ *
+ * Each reading passes through a {@link SignalFilter} before the level is classified, and the
+ * level only moves once the filtered pressure is past a threshold by the hysteresis margin, so
+ * noise around a threshold cannot flicker it. The tendency comes from the least-squares slope
+ * of the raw readings over a sliding window, again with a margin between entering and leaving
+ * RISING or FALLING. Listeners hear only about changes, a small fraction of the readings.
+ */
+public class BarometricTrend {
+
+    public enum Level {
+        LOW,
+        MED,
+        HIGH
+    }
+
+    public enum Tendency {
+        FALLING,
+        STEADY,
+        RISING
+    }
+
+    public interface Listener {
+        /**
+         * Called on the thread that fed the reading, only when the level or tendency changed.
+         */
+        void onChange(Level level, Tendency tendency, float pressureHpa, double slopeHpaPerHour);
+    }
+
+    public static final class Config {
+        final float lowHpa;
+        final float highHpa;
+        final float levelHysteresisHpa;
+        final double slopeHpaPerHour;
+        final double slopeHysteresisHpaPerHour;
+        final long windowMs;
+        final long minSpanMs;
+        final int windowCapacity;
+
+        /**
+         * @param slopeHpaPerHour tendency leaves STEADY beyond this, and returns inside it less
+         *                        the slope hysteresis
+         * @param minSpanMs       readings must cover this long before any tendency but STEADY
+         */
+        public Config(float lowHpa, float highHpa, float levelHysteresisHpa, double slopeHpaPerHour,
+                      double slopeHysteresisHpaPerHour, long windowMs, long minSpanMs, int windowCapacity) {
+            if (lowHpa >= highHpa || levelHysteresisHpa < 0 || slopeHysteresisHpaPerHour < 0
+                    || slopeHysteresisHpaPerHour >= slopeHpaPerHour || minSpanMs > windowMs) {
+                throw new IllegalArgumentException("Bad trend config");
+            }
+            this.lowHpa = lowHpa;
+            this.highHpa = highHpa;
+            this.levelHysteresisHpa = levelHysteresisHpa;
+            this.slopeHpaPerHour = slopeHpaPerHour;
+            this.slopeHysteresisHpaPerHour = slopeHysteresisHpaPerHour;
+            this.windowMs = windowMs;
+            this.minSpanMs = minSpanMs;
+            this.windowCapacity = windowCapacity;
+        }
+    }
+
+    /**
+     * The old display thresholds, 965 and 1035hPa, with a 1hPa margin. A change of over 1hPa
+     * an hour across a 3 hour window counts as rising or falling, once 30 minutes are in.
+     */
+    public static final Config DEFAULT_CONFIG = new Config(965f, 1035f, 1f, 1.0, 0.4,
+            3 * 60 * 60 * 1000L, 30 * 60 * 1000L, 2048);
+
+    private final SignalFilter filter;
+    private final Config config;
+    private final TrendSlope slope;
+    private final Listener listener;
+
+    private Level level;
+    private Tendency tendency = Tendency.STEADY;
+    private float filtered = Float.NaN;
+    private double slopeHpaPerHour;
+
+    private long readings;
+    private long levelChanges;
+    private long tendencyChanges;
+
+    public BarometricTrend(SignalFilter filter, Config config, Listener listener) {
+        this.filter = filter;
+        this.config = config;
+        this.listener = listener;
+        slope = new TrendSlope(config.windowMs * 1000000L, config.windowCapacity);
+    }
+
+    /**
+     * Feeds one reading.
+     *
+     * @return whether the level or tendency changed
+     */
+    public boolean update(long timestampNanos, float pressureHpa) {
+        Level newLevel;
+        Tendency newTendency;
+        float value;
+        double rate;
+        synchronized (this) {
+            readings++;
+            filtered = filter.update(pressureHpa);
+            slope.add(timestampNanos, pressureHpa);
+            slopeHpaPerHour = slope.slopePerHour();
+            newLevel = classify(level, filtered);
+            newTendency = slope.spanNanos() < config.minSpanMs * 1000000L
+                    ? Tendency.STEADY : tend(tendency, slopeHpaPerHour);
+            boolean changed = newLevel != level || newTendency != tendency;
+            if (newLevel != level) {
+                // Settling on the first level is not a change
+                if (level != null) {
+                    levelChanges++;
+                }
+                level = newLevel;
+            }
+            if (newTendency != tendency) {
+                tendencyChanges++;
+                tendency = newTendency;
+            }
+            if (!changed) {
+                return false;
+            }
+            value = filtered;
+            rate = slopeHpaPerHour;
+        }
+        if (listener != null) {
+            listener.onChange(newLevel, newTendency, value, rate);
+        }
+        return true;
+    }
+
+    private Level classify(Level current, float pressure) {
+        float margin = current == null ? 0 : config.levelHysteresisHpa;
+        // Leaving a level takes the margin beyond its edge, entering the middle from either side too
+        if (current != Level.HIGH && pressure > config.highHpa + margin) {
+            return Level.HIGH;
+        }
+        if (current != Level.LOW && pressure < config.lowHpa - margin) {
+            return Level.LOW;
+        }
+        if (current == Level.HIGH && pressure < config.highHpa - margin) {
+            return pressure < config.lowHpa - margin ? Level.LOW : Level.MED;
+        }
+        if (current == Level.LOW && pressure > config.lowHpa + margin) {
+            return pressure > config.highHpa + margin ? Level.HIGH : Level.MED;
+        }
+        return current == null ? Level.MED : current;
+    }
+
+    private Tendency tend(Tendency current, double rate) {
+        double enter = config.slopeHpaPerHour;
+        double leave = config.slopeHpaPerHour - config.slopeHysteresisHpaPerHour;
+        switch (current) {
+            case RISING:
+                return rate < -enter ? Tendency.FALLING : (rate < leave ? Tendency.STEADY : Tendency.RISING);
+            case FALLING:
+                return rate > enter ? Tendency.RISING : (rate > -leave ? Tendency.STEADY : Tendency.FALLING);
+            default:
+                return rate > enter ? Tendency.RISING : (rate < -enter ? Tendency.FALLING : Tendency.STEADY);
+        }
+    }
+
+    /**
+     * @return the level, or null before the first reading
+     */
+    public synchronized Level getLevel() {
+        return level;
+    }
+
+    public synchronized Tendency getTendency() {
+        return tendency;
+    }
+
+    public synchronized float getFilteredHpa() {
+        return filtered;
+    }
+
+    public synchronized double getSlopeHpaPerHour() {
+        return slopeHpaPerHour;
+    }
+
+    public synchronized long getReadings() {
+        return readings;
+    }
+
+    public synchronized long getLevelChanges() {
+        return levelChanges;
+    }
+
+    public synchronized long getTendencyChanges() {
+        return tendencyChanges;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BarometricTrend{level=" + level + ", tendency=" + tendency + ", filtered=" + filtered
+                + ", slope=" + String.format("%.2f", slopeHpaPerHour) + "hPa/h, readings=" + readings
+                + ", levelChanges=" + levelChanges + ", tendencyChanges=" + tendencyChanges + "}";
+    }
+}
@@ -0,0 +1,113 @@
+package things.wolfsoft.com.androidthings;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.google.android.things.contrib.driver.bmx280.Bmx280SensorDriver;
+
+import java.io.IOException;
+
+/**
+ * {@link SensorSource} over the BMP280 user sensor driver.
+ *
+ * Readings arrive on a dedicated handler thread, never the main looper. They are registered
+ * with a report latency so that sensors with a hardware FIFO can batch them; the framework
+ * delivers one at a time when the sensor has none.
+ */
+public class Bmx280SensorSource implements SensorSource {
+    private static final String TAG = "Bmx280SensorSource";
+
+    private final SensorManager sensorManager;
+    private final String i2cBus;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private Bmx280SensorDriver driver;
+    private volatile SampleSink sink;
+    private int samplingPeriodUs;
+    private int maxReportLatencyUs;
+
+    public Bmx280SensorSource(SensorManager sensorManager, String i2cBus) {
+        this.sensorManager = sensorManager;
+        this.i2cBus = i2cBus;
+    }
+
+    @Override
+    public synchronized void start(SampleSink sink, int samplingPeriodUs, int maxReportLatencyUs)
+            throws IOException {
+        this.sink = sink;
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+        thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        sensorManager.registerDynamicSensorCallback(dynamicSensorCallback, handler);
+        driver = new Bmx280SensorDriver(i2cBus);
+        driver.registerTemperatureSensor();
+        driver.registerPressureSensor();
+    }
+
+    @Override
+    public void flush() {
+        sensorManager.flush(eventListener);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sensorManager.unregisterListener(eventListener);
+        sensorManager.unregisterDynamicSensorCallback(dynamicSensorCallback);
+        try {
+            if (driver != null) {
+                driver.close();
+            }
+        } finally {
+            driver = null;
+            if (thread != null) {
+                thread.quitSafely();
+                thread = null;
+            }
+        }
+    }
+
+    private final SensorManager.DynamicSensorCallback dynamicSensorCallback =
+            new SensorManager.DynamicSensorCallback() {
+                @Override
+                public void onDynamicSensorConnected(Sensor sensor) {
+                    int type = sensor.getType();
+                    if (type == Sensor.TYPE_AMBIENT_TEMPERATURE || type == Sensor.TYPE_PRESSURE) {
+                        Log.d(TAG, "Sensor " + type + " connected, FIFO holds "
+                                + sensor.getFifoMaxEventCount() + " events");
+                        synchronized (Bmx280SensorSource.this) {
+                            sensorManager.registerListener(eventListener, sensor, samplingPeriodUs,
+                                    maxReportLatencyUs, handler);
+                        }
+                    }
+                }
+            };
+
+    private final SensorEventListener eventListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            SampleSink target = sink;
+            if (target == null) {
+                return;
+            }
+            int type = event.sensor.getType();
+            if (type == Sensor.TYPE_AMBIENT_TEMPERATURE) {
+                target.onSample(SensorChannel.TEMPERATURE, event.timestamp, event.values[0]);
+            } else if (type == Sensor.TYPE_PRESSURE) {
+                target.onSample(SensorChannel.PRESSURE, event.timestamp, event.values[0]);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            Log.d(TAG, "Sensor " + sensor.getType() + " accuracy changed: " + accuracy);
+        }
+    };
+}
@@ -1,23 +1,81 @@
 package things.wolfsoft.com.androidthings;
+import android.content.Context;
 import android.os.Build;
+import android.util.Log;
 
 import com.google.android.things.pio.PeripheralManagerService;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("WeakerAccess")
 public class BoardDefaults {
+    private static final String TAG = "BoardDefaults";
 
+    private static volatile BoardProfile sProfile;
+    private static volatile long sResolveNanos;
 
+    /**
+     * Resolves the board profile once, layering {@code R.raw.board_profiles} over the built-in
+     * table. Call early in startup; lookups before that resolve from the built-ins alone.
+     */
+    public static synchronized BoardProfile init(Context context) {
+        long start = System.nanoTime();
+        Map<String, BoardProfile> profiles;
+        try {
+            profiles = BoardProfile.load(context.getResources().openRawResource(R.raw.board_profiles));
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error loading board profiles, using built-in ones", e);
+            profiles = BoardProfile.builtIn();
+        }
+        return init(BoardProfile.resolve(Build.DEVICE, peripheralGpioLister(), profiles), start);
+    }
+
+    /**
+     * Installs an explicit profile, e.g. one resolved for an injected device name in tests.
+     */
+    public static synchronized BoardProfile init(BoardProfile profile) {
+        return init(profile, System.nanoTime());
+    }
+
+    private static BoardProfile init(BoardProfile profile, long start) {
+        sProfile = profile;
+        sResolveNanos = System.nanoTime() - start;
+        Log.d(TAG, "Board profile " + profile + " resolved in " + sResolveNanos / 1000 + "us");
+        return profile;
+    }
+
+    public static BoardProfile getProfile() {
+        BoardProfile profile = sProfile;
+        if (profile == null) {
+            synchronized (BoardDefaults.class) {
+                profile = sProfile;
+                if (profile == null) {
+                    long start = System.nanoTime();
+                    profile = init(BoardProfile.resolve(Build.DEVICE, peripheralGpioLister(),
+                            BoardProfile.builtIn()), start);
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * How long resolving the current profile took, for the startup metrics.
+     */
+    public static long getResolveNanos() {
+        return sResolveNanos;
+    }
 
-    private static final String DEVICE_EDISON_ARDUINO = "edison_arduino";
-    private static final String DEVICE_EDISON = "edison";
-    private static final String DEVICE_JOULE = "joule";
-    private static final String DEVICE_RPI3 = "rpi3";
-    private static final String DEVICE_PICO = "imx6ul_pico";
-    private static final String DEVICE_VVDN = "imx6ul_iopb";
-    private static final String DEVICE_NXP = "imx6ul";
-    private static String sBoardVariant = "";
+    private static BoardProfile.GpioLister peripheralGpioLister() {
+        return new BoardProfile.GpioLister() {
+            @Override
+            public List<String> getGpioList() {
+                return new PeripheralManagerService().getGpioList();
+            }
+        };
+    }
 
     /**
      * Return the GPIO pin that the LED is connected on.
@@ -25,18 +83,7 @@ public class BoardDefaults {
      * that turns on when the GPIO pin is HIGH, and off when low.
      */
     public static String getGPIOForRedLED() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO13";
-            case DEVICE_EDISON:
-                return "GP45";
-            case DEVICE_RPI3:
-                return "BCM6";
-            case DEVICE_NXP:
-                return "GPIO4_IO20";
-            default:
-                throw new IllegalStateException("Unknown Build.DEVICE " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_RED_LED);
     }
 
     /**
@@ -45,18 +92,7 @@ public class BoardDefaults {
      * that turns on when the GPIO pin is HIGH, and off when low.
      */
     public static String getGPIOForGreenLED() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO13";
-            case DEVICE_EDISON:
-                return "GP45";
-            case DEVICE_RPI3:
-                return "BCM19";
-            case DEVICE_NXP:
-                return "GPIO4_IO20";
-            default:
-                throw new IllegalStateException("Unknown Build.DEVICE " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_GREEN_LED);
     }
 
     /**
@@ -65,157 +101,39 @@ public class BoardDefaults {
      * that turns on when the GPIO pin is HIGH, and off when low.
      */
     public static String getGPIOForBlueLED() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO13";
-            case DEVICE_EDISON:
-                return "GP45";
-            case DEVICE_RPI3:
-                return "BCM26";
-            case DEVICE_NXP:
-                return "GPIO4_IO20";
-            default:
-                throw new IllegalStateException("Unknown Build.DEVICE " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_BLUE_LED);
     }
 
     /**
-     * Return the GPIO pin that the LED is connected on.
-     * For example, on Intel Edison Arduino breakout, pin "IO13" is connected to an onboard LED
-     * that turns on when the GPIO pin is HIGH, and off when low.
+     * Return the GPIO pin that button A is connected on.
      */
     public static String getGPIOForBtnA() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO13";
-            case DEVICE_EDISON:
-                return "GP45";
-            case DEVICE_RPI3:
-                return "BCM21";
-            case DEVICE_NXP:
-                return "GPIO4_IO20";
-            default:
-                throw new IllegalStateException("Unknown Build.DEVICE " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_BUTTON_A);
     }
 
     /**
-     * Return the GPIO pin that the LED is connected on.
-     * For example, on Intel Edison Arduino breakout, pin "IO13" is connected to an onboard LED
-     * that turns on when the GPIO pin is HIGH, and off when low.
+     * Return the GPIO pin that button B is connected on.
      */
     public static String getGPIOForBtnB() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO13";
-            case DEVICE_EDISON:
-                return "GP45";
-            case DEVICE_RPI3:
-                return "BCM20";
-            case DEVICE_NXP:
-                return "GPIO4_IO20";
-            default:
-                throw new IllegalStateException("Unknown Build.DEVICE " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_BUTTON_B);
     }
 
     /**
-     * Return the GPIO pin that the LED is connected on.
-     * For example, on Intel Edison Arduino breakout, pin "IO13" is connected to an onboard LED
-     * that turns on when the GPIO pin is HIGH, and off when low.
+     * Return the GPIO pin that button C is connected on.
      */
     public static String getGPIOForBtnC() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO13";
-            case DEVICE_EDISON:
-                return "GP45";
-            case DEVICE_RPI3:
-                return "BCM16";
-            case DEVICE_NXP:
-                return "GPIO4_IO20";
-            default:
-                throw new IllegalStateException("Unknown Build.DEVICE " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_BUTTON_C);
     }
 
     public static String getI2cBus() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "I2C6";
-            case DEVICE_EDISON:
-                return "I2C1";
-            case DEVICE_JOULE:
-                return "I2C0";
-            case DEVICE_RPI3:
-                return "I2C1";
-            case DEVICE_PICO:
-                return "I2C2";
-            case DEVICE_VVDN:
-                return "I2C4";
-            default:
-                throw new IllegalArgumentException("Unknown device: " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_I2C_BUS);
     }
 
     public static String getSpiBus() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "SPI1";
-            case DEVICE_EDISON:
-                return "SPI2";
-            case DEVICE_JOULE:
-                return "SPI0.0";
-            case DEVICE_RPI3:
-                return "SPI0.0";
-            case DEVICE_PICO:
-                return "SPI3.0";
-            case DEVICE_VVDN:
-                return "SPI1.0";
-            default:
-                throw new IllegalArgumentException("Unknown device: " + Build.DEVICE);
-        }
+        return getProfile().get(BoardProfile.KEY_SPI_BUS);
     }
 
     public static String getSpeakerPwmPin() {
-        switch (getBoardVariant()) {
-            case DEVICE_EDISON_ARDUINO:
-                return "IO3";
-            case DEVICE_EDISON:
-                return "GP13";
-            case DEVICE_JOULE:
-                return "PWM_0";
-            case DEVICE_RPI3:
-                return "PWM1";
-            case DEVICE_PICO:
-                return "PWM7";
-            case DEVICE_VVDN:
-                return "PWM3";
-            default:
-                throw new IllegalArgumentException("Unknown device: " + Build.DEVICE);
-        }
-    }
-
-    private static String getBoardVariant() {
-        if (!sBoardVariant.isEmpty()) {
-            return sBoardVariant;
-        }
-        sBoardVariant = Build.DEVICE;
-        // For the edison check the pin prefix
-        // to always return Edison Breakout pin name when applicable.
-        if (sBoardVariant.equals(DEVICE_EDISON)) {
-            PeripheralManagerService pioService = new PeripheralManagerService();
-            List<String> gpioList = pioService.getGpioList();
-            if (gpioList.size() != 0) {
-                String pin = gpioList.get(0);
-                if (pin.startsWith("IO")) {
-                    sBoardVariant = DEVICE_EDISON_ARDUINO;
-                }
-            }
-        }
-        return sBoardVariant;
+        return getProfile().get(BoardProfile.KEY_SPEAKER_PWM);
     }
-
-
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Immutable pin and bus table of one board, resolved once at startup.
+ *
+ * Built-in profiles cover the boards Android Things supported when this demo was written.
+ * More can be supplied as a properties file ({@code <device>.<key>=<pin>}, keys as in
+ * {@link #KEYS}) without touching code; an entry there overrides the built-in one.
+ */
+public class BoardProfile {
+
+    public static final String DEVICE_EDISON_ARDUINO = "edison_arduino";
+    public static final String DEVICE_EDISON = "edison";
+    public static final String DEVICE_JOULE = "joule";
+    public static final String DEVICE_RPI3 = "rpi3";
+    public static final String DEVICE_PICO = "imx6ul_pico";
+    public static final String DEVICE_VVDN = "imx6ul_iopb";
+    public static final String DEVICE_NXP = "imx6ul";
+
+    public static final String KEY_RED_LED = "redLed";
+    public static final String KEY_GREEN_LED = "greenLed";
+    public static final String KEY_BLUE_LED = "blueLed";
+    public static final String KEY_BUTTON_A = "buttonA";
+    public static final String KEY_BUTTON_B = "buttonB";
+    public static final String KEY_BUTTON_C = "buttonC";
+    public static final String KEY_I2C_BUS = "i2cBus";
+    public static final String KEY_SPI_BUS = "spiBus";
+    public static final String KEY_SPEAKER_PWM = "speakerPwm";
+    public static final String[] KEYS = {KEY_RED_LED, KEY_GREEN_LED, KEY_BLUE_LED, KEY_BUTTON_A,
+            KEY_BUTTON_B, KEY_BUTTON_C, KEY_I2C_BUS, KEY_SPI_BUS, KEY_SPEAKER_PWM};
+
+    /**
+     * Lists GPIO names on the running board; only consulted to tell the Edison breakouts apart.
+     */
+    public interface GpioLister {
+        List<String> getGpioList();
+    }
+
+    private static final Map<String, BoardProfile> BUILT_IN;
+
+    static {
+        Map<String, BoardProfile> profiles = new HashMap<>();
+        add(profiles, DEVICE_EDISON_ARDUINO, "IO13", "IO13", "IO13", "IO13", "IO13", "IO13", "I2C6", "SPI1", "IO3");
+        add(profiles, DEVICE_EDISON, "GP45", "GP45", "GP45", "GP45", "GP45", "GP45", "I2C1", "SPI2", "GP13");
+        add(profiles, DEVICE_JOULE, null, null, null, null, null, null, "I2C0", "SPI0.0", "PWM_0");
+        add(profiles, DEVICE_RPI3, "BCM6", "BCM19", "BCM26", "BCM21", "BCM20", "BCM16", "I2C1", "SPI0.0", "PWM1");
+        add(profiles, DEVICE_PICO, null, null, null, null, null, null, "I2C2", "SPI3.0", "PWM7");
+        add(profiles, DEVICE_VVDN, null, null, null, null, null, null, "I2C4", "SPI1.0", "PWM3");
+        add(profiles, DEVICE_NXP, "GPIO4_IO20", "GPIO4_IO20", "GPIO4_IO20", "GPIO4_IO20", "GPIO4_IO20",
+                "GPIO4_IO20", null, null, null);
+        BUILT_IN = Collections.unmodifiableMap(profiles);
+    }
+
+    private final String device;
+    private final Map<String, String> pins;
+
+    public BoardProfile(String device, Map<String, String> pins) {
+        this.device = device;
+        this.pins = Collections.unmodifiableMap(new HashMap<>(pins));
+    }
+
+    private static void add(Map<String, BoardProfile> profiles, String device, String... values) {
+        Map<String, String> pins = new HashMap<>();
+        for (int i = 0; i < KEYS.length; i++) {
+            if (values[i] != null) {
+                pins.put(KEYS[i], values[i]);
+            }
+        }
+        profiles.put(device, new BoardProfile(device, pins));
+    }
+
+    public static Map<String, BoardProfile> builtIn() {
+        return BUILT_IN;
+    }
+
+    /**
+     * Reads profiles from a properties stream and layers them over the built-in ones.
+     */
+    public static Map<String, BoardProfile> load(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        Map<String, Map<String, String>> byDevice = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            int dot = name.lastIndexOf('.');
+            if (dot <= 0) {
+                throw new IOException("Board profile key must be <device>.<pin>: " + name);
+            }
+            String device = name.substring(0, dot);
+            Map<String, String> pins = byDevice.get(device);
+            if (pins == null) {
+                pins = new HashMap<>();
+                BoardProfile base = BUILT_IN.get(device);
+                if (base != null) {
+                    pins.putAll(base.pins);
+                }
+                byDevice.put(device, pins);
+            }
+            pins.put(name.substring(dot + 1), properties.getProperty(name).trim());
+        }
+        Map<String, BoardProfile> profiles = new HashMap<>(BUILT_IN);
+        for (Map.Entry<String, Map<String, String>> entry : byDevice.entrySet()) {
+            profiles.put(entry.getKey(), new BoardProfile(entry.getKey(), entry.getValue()));
+        }
+        return Collections.unmodifiableMap(profiles);
+    }
+
+    /**
+     * Picks the profile for {@code device}, e.g. {@code Build.DEVICE}.
+     *
+     * @param gpioLister used for the Edison only, may be null elsewhere
+     */
+    public static BoardProfile resolve(String device, GpioLister gpioLister, Map<String, BoardProfile> profiles) {
+        String variant = device;
+        // For the edison check the pin prefix
+        // to always return Edison Breakout pin name when applicable.
+        if (DEVICE_EDISON.equals(device) && gpioLister != null) {
+            List<String> gpioList = gpioLister.getGpioList();
+            if (gpioList != null && gpioList.size() != 0 && gpioList.get(0).startsWith("IO")) {
+                variant = DEVICE_EDISON_ARDUINO;
+            }
+        }
+        BoardProfile profile = profiles.get(variant);
+        if (profile == null) {
+            // An empty profile keeps the old behaviour: unknown boards fail on first pin lookup.
+            return new BoardProfile(variant, Collections.<String, String>emptyMap());
+        }
+        return profile;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * @throws IllegalStateException if this board has no such pin
+     */
+    public String get(String key) {
+        String pin = pins.get(key);
+        if (pin == null) {
+            throw new IllegalStateException("Unknown device " + device + " for " + key);
+        }
+        return pin;
+    }
+
+    public boolean has(String key) {
+        return pins.containsKey(key);
+    }
+
+    @Override
+    public String toString() {
+        return device + pins;
+    }
+}
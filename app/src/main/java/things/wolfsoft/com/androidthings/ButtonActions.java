@@ -0,0 +1,287 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * What the HAT's buttons do: edges go into a {@link ButtonEventPipeline} and each actuator
+ * reads them on its own thread, A, B and C switching the display mode, the LED strip and
+ * indicator LEDs, the speaker and, for A, a Vision request.
+ *
+ * Plain Java over a {@link RainbowHat}, so the activity and the JVM benchmarks run the same
+ * code. Outputs are handed in as startup opens them; a button whose output is not open yet
+ * does nothing for it.
+ */
+public class ButtonActions {
+    private static final String TAG = "ButtonActions";
+
+    private static final int BUTTON_A = RainbowHat.BUTTON_A;
+    private static final int BUTTON_B = RainbowHat.BUTTON_B;
+    private static final int BUTTON_C = RainbowHat.BUTTON_C;
+    private static final int LEDSTRIP_BRIGHTNESS = 1;
+    private static final int SPEAKER_READY_DELAY_MS = 300;
+
+    private static final int SOUND_LOW = 1;
+    private static final int SOUND_MED = 4;
+    private static final int SOUND_HIGH = 8;
+    // Six 50ms sweeps up to 1760Hz, starting 100Hz per sound type
+    private static final ToneSequence[] SOUNDS = new ToneSequence[SOUND_HIGH + 1];
+    static {
+        for (int soundType : new int[]{SOUND_LOW, SOUND_MED, SOUND_HIGH}) {
+            SOUNDS[soundType] = beep(soundType, 0);
+        }
+    }
+    /**
+     * The low beep, after a rest while the speaker gets ready.
+     */
+    public static final ToneSequence STARTUP_SOUND = beep(SOUND_LOW, SPEAKER_READY_DELAY_MS);
+
+    private final RainbowHat hat;
+    private final PeripheralExecutor peripheralExecutor;
+    private final DisplayModeMachine displayModeMachine;
+    private final LedPalette ledPalette;
+    private final VisionDispatcher visionDispatcher;
+    private final ButtonEventPipeline pipeline = new ButtonEventPipeline();
+    private final Random random = new Random();
+
+    private volatile IndicatorLeds indicatorLeds;
+    private volatile LedStripRenderer ledStripRenderer;
+    private volatile LedAnimator ledAnimator;
+    private volatile ToneSequencer toneSequencer;
+    private volatile boolean speakerMute;
+
+    // Only touched by the leds handler
+    private final int[] ledFrame;
+    private boolean rainbowOrder = true;
+
+    /**
+     * @param ledCount LEDs on the strip
+     * @param visionDispatcher null to ignore Vision presses
+     */
+    public ButtonActions(RainbowHat hat, PeripheralExecutor peripheralExecutor,
+                         DisplayModeMachine displayModeMachine, LedPalette ledPalette, int ledCount,
+                         VisionDispatcher visionDispatcher) {
+        this.hat = hat;
+        this.peripheralExecutor = peripheralExecutor;
+        this.displayModeMachine = displayModeMachine;
+        this.ledPalette = ledPalette;
+        this.visionDispatcher = visionDispatcher;
+        ledFrame = new int[ledCount];
+        pipeline.addHandler("display", ButtonGestureDetector.DEFAULT_CONFIG, displayHandler);
+        pipeline.addHandler("leds", ButtonGestureDetector.DEFAULT_CONFIG, ledHandler);
+        pipeline.addHandler("sound", ButtonGestureDetector.DEFAULT_CONFIG, soundHandler);
+        pipeline.addHandler("network", ButtonGestureDetector.DEFAULT_CONFIG, networkHandler);
+    }
+
+    /**
+     * Call before {@link #start()}.
+     */
+    public void setMetrics(Metrics metrics) {
+        pipeline.setMetrics(metrics);
+    }
+
+    /**
+     * Starts the handler threads.
+     */
+    public void start() {
+        pipeline.start();
+    }
+
+    /**
+     * Opens the buttons; edges are stamped where the HAT reports them.
+     */
+    public void openButtons() throws IOException {
+        hat.openButtons(new RainbowHat.ButtonListener() {
+            @Override
+            public void onButton(int button, boolean pressed, long timeNanos) {
+                pipeline.publish(button, pressed, timeNanos);
+            }
+        });
+    }
+
+    public void shutdown(long timeoutMs) {
+        pipeline.shutdown(timeoutMs);
+    }
+
+    public List<ButtonEventPipeline.Stats> getStats() {
+        return pipeline.getStats();
+    }
+
+    public void setIndicatorLeds(IndicatorLeds indicatorLeds) {
+        this.indicatorLeds = indicatorLeds;
+    }
+
+    public IndicatorLeds getIndicatorLeds() {
+        return indicatorLeds;
+    }
+
+    public void setLedStrip(LedStripRenderer renderer, LedAnimator animator) {
+        ledStripRenderer = renderer;
+        // Set last, the handler treats a null animator as no strip yet
+        ledAnimator = animator;
+    }
+
+    public LedStripRenderer getLedStripRenderer() {
+        return ledStripRenderer;
+    }
+
+    public LedAnimator getLedAnimator() {
+        return ledAnimator;
+    }
+
+    public void setToneSequencer(ToneSequencer toneSequencer) {
+        this.toneSequencer = toneSequencer;
+    }
+
+    public ToneSequencer getToneSequencer() {
+        return toneSequencer;
+    }
+
+    public boolean isSpeakerMute() {
+        return speakerMute;
+    }
+
+    /**
+     * Display mode changes from the buttons.
+     */
+    final ButtonGestureDetector.Listener displayHandler =
+            new ButtonGestureDetector.Listener() {
+                @Override
+                public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+                    if (gesture != ButtonGestureDetector.Gesture.PRESS) {
+                        return;
+                    }
+                    if (button == BUTTON_A) {
+                        Log.d(TAG, "The button A event was received KEY DOWN");
+                        displayModeMachine.fire(DisplayModeMachine.Event.DOOR, timeNanos);
+                    } else if (button == BUTTON_B) {
+                        Log.d(TAG, "button B pressed");
+                        displayModeMachine.fire(DisplayModeMachine.Event.TOGGLE, timeNanos);
+                    } else if (button == BUTTON_C) {
+                        Log.d(TAG, "button C pressed");
+                        displayModeMachine.fire(DisplayModeMachine.Event.CLEAR, timeNanos);
+                    }
+                }
+            };
+
+    /**
+     * LED strip and indicator LEDs.
+     */
+    final ButtonGestureDetector.Listener ledHandler =
+            new ButtonGestureDetector.Listener() {
+                @Override
+                public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+                    if (gesture != ButtonGestureDetector.Gesture.PRESS) {
+                        return;
+                    }
+                    if (button == BUTTON_A) {
+                        // Runs the rainbow from left to right, switching direction on each press
+                        rainbowOrder = !rainbowOrder;
+                        playLedStrip(rainbowOrder ? LedAnimator.Pattern.CHASE
+                                : LedAnimator.Pattern.REVERSE_CHASE);
+                        showLED(RainbowHat.LED_RED);
+                    } else if (button == BUTTON_B) {
+                        ledPalette.fillRandom(ledFrame);
+                        runLedStrip(ledFrame);
+                        showLED(RainbowHat.LED_GREEN);
+                    } else if (button == BUTTON_C) {
+                        clearLedStrip();
+                        showLED(RainbowHat.LED_BLUE);
+                    }
+                }
+            };
+
+    /**
+     * Speaker beeps; holding C mutes and unmutes.
+     */
+    final ButtonGestureDetector.Listener soundHandler =
+            new ButtonGestureDetector.Listener() {
+                @Override
+                public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+                    if (gesture == ButtonGestureDetector.Gesture.LONG_PRESS && button == BUTTON_C) {
+                        speakerMute = !speakerMute;
+                        Log.d(TAG, "Speaker " + (speakerMute ? "muted" : "unmuted"));
+                    } else if (gesture == ButtonGestureDetector.Gesture.PRESS) {
+                        if (button == BUTTON_A) {
+                            //soundSpeaker(SOUND_LOW);
+                        } else if (button == BUTTON_B) {
+                            soundSpeaker(SOUND_MED);
+                        } else if (button == BUTTON_C) {
+                            soundSpeaker(SOUND_HIGH);
+                        }
+                    }
+                }
+            };
+
+    /**
+     * Vision requests for button A.
+     */
+    final ButtonGestureDetector.Listener networkHandler =
+            new ButtonGestureDetector.Listener() {
+                @Override
+                public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+                    if (gesture == ButtonGestureDetector.Gesture.PRESS && button == BUTTON_A
+                            && visionDispatcher != null) {
+                        String imageUri = Constants.IMAGES[random.nextInt(Constants.IMAGES.length)];
+                        // Comes back with the result, to drop it if newer input has arrived
+                        visionDispatcher.submit(imageUri, timeNanos);
+                    }
+                }
+            };
+
+    /**
+     * Lights one of the 3 LEDs and turns off the others.
+     */
+    private void showLED(final int led) {
+        peripheralExecutor.submit(PeripheralExecutor.Bus.GPIO, "leds", new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                // Writes only the pins that change, nothing when the LED is already lit
+                IndicatorLeds leds = indicatorLeds;
+                if (leds != null) {
+                    leds.show(led);
+                }
+            }
+        });
+    }
+
+    private void runLedStrip(int[] colors) {
+        if (ledAnimator != null) {
+            ledAnimator.stop();
+            ledStripRenderer.submit(colors, LEDSTRIP_BRIGHTNESS);
+        }
+    }
+
+    private void playLedStrip(LedAnimator.Pattern pattern) {
+        if (ledAnimator != null) {
+            ledAnimator.play(pattern);
+        }
+    }
+
+    private void clearLedStrip() {
+        if (ledAnimator != null) {
+            ledAnimator.stop();
+            ledStripRenderer.clear();
+        }
+    }
+
+    private void soundSpeaker(int soundType) {
+        ToneSequencer sequencer = toneSequencer;
+        if (!speakerMute && sequencer != null) {
+            // A new beep cuts off the previous one
+            sequencer.play(SOUNDS[soundType]);
+        }
+    }
+
+    private static ToneSequence beep(int soundType, int delayMs) {
+        return new ToneSequence.Builder()
+                .rest(delayMs)
+                .mark()
+                .sweep(soundType * 100, 440 * 4, 50)
+                .repeat(5)
+                .build();
+    }
+}
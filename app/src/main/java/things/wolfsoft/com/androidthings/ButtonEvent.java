@@ -0,0 +1,17 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * A button edge as read back from {@link ButtonEventRing}. Consumers own one instance and
+ * have it overwritten on every poll, so reading events allocates nothing.
+ */
+public final class ButtonEvent {
+    public long sequence;
+    public int button;
+    public boolean pressed;
+    public long timeNanos;
+
+    @Override
+    public String toString() {
+        return "ButtonEvent{#" + sequence + " button=" + button + (pressed ? " down" : " up") + " @" + timeNanos + "}";
+    }
+}
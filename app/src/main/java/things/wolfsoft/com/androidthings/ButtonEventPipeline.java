@@ -0,0 +1,263 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans button edges out to independent handlers.
+ *
+ * Button callbacks only {@link #publish} into a {@link ButtonEventRing}; each handler reads the
+ * ring on its own thread through its own {@link ButtonGestureDetector}, so a slow actuator never
+ * delays input capture or another handler. Handlers are added before {@link #start()}.
+ */
+public class ButtonEventPipeline {
+    private static final String TAG = "ButtonEventPipeline";
+
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public static class Stats {
+        public final String name;
+        public final long events;
+        public final long gestures;
+        public final long bounces;
+        public final long failures;
+        public final long backlog;
+        public final long averageLatencyNanos;
+        public final long maxLatencyNanos;
+
+        Stats(String name, long events, long gestures, long bounces, long failures, long backlog,
+              long averageLatencyNanos, long maxLatencyNanos) {
+            this.name = name;
+            this.events = events;
+            this.gestures = gestures;
+            this.bounces = bounces;
+            this.failures = failures;
+            this.backlog = backlog;
+            this.averageLatencyNanos = averageLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return TAG + "." + name + "{events=" + events + ", gestures=" + gestures + ", bounces=" + bounces
+                    + ", failures=" + failures + ", backlog=" + backlog
+                    + ", avgLatency=" + averageLatencyNanos / 1000 + "us, maxLatency=" + maxLatencyNanos / 1000 + "us}";
+        }
+    }
+
+    private final ButtonEventRing ring;
+    private final List<Consumer> consumers = new ArrayList<>();
+    private volatile Consumer[] started = new Consumer[0];
+    private volatile boolean running;
+    private Metrics metrics;
+    // Set before start, read by the publisher after it reads started
+    private Metrics.Counter publishedEdges;
+    private Metrics.Counter droppedEdges;
+
+    public ButtonEventPipeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity ring size, a power of two
+     */
+    public ButtonEventPipeline(int capacity) {
+        ring = new ButtonEventRing(capacity);
+    }
+
+    public synchronized void addHandler(String name, ButtonGestureDetector.Config config,
+                                        ButtonGestureDetector.Listener handler) {
+        if (running) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        consumers.add(new Consumer(name, config, handler, ring.newCursor()));
+    }
+
+    /**
+     * Counts edges under {@code button.edges} and {@code button.dropped}, and times each
+     * handler's delay from edge to handling under {@code button.<handler>.latency}. Call
+     * before {@link #start()}.
+     */
+    public synchronized void setMetrics(Metrics metrics) {
+        if (running) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        this.metrics = metrics;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (metrics != null) {
+            publishedEdges = metrics.counter("button.edges");
+            droppedEdges = metrics.counter("button.dropped");
+        }
+        for (Consumer consumer : consumers) {
+            if (metrics != null) {
+                consumer.latencyHistogram = metrics.histogram("button." + consumer.name + ".latency");
+            }
+            consumer.thread.start();
+        }
+        started = consumers.toArray(new Consumer[consumers.size()]);
+    }
+
+    /**
+     * Records an edge now. Call from one thread only.
+     */
+    public long publish(int button, boolean pressed) {
+        return publish(button, pressed, System.nanoTime());
+    }
+
+    /**
+     * @return the edge's sequence number, or -1 if a handler is a full ring behind
+     */
+    public long publish(int button, boolean pressed, long timeNanos) {
+        long sequence = ring.publish(button, pressed, timeNanos);
+        // The ring published with a volatile store, so either a consumer's re-check of its
+        // backlog sees the edge or this read sees it sleeping
+        Consumer[] consumers = started;
+        for (Consumer consumer : consumers) {
+            if (consumer.sleeping) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+        Metrics.Counter counter = sequence < 0 ? droppedEdges : publishedEdges;
+        if (counter != null) {
+            counter.increment();
+        }
+        return sequence;
+    }
+
+    /**
+     * Edges dropped because some handler fell a full ring behind. Publishing thread only.
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    public synchronized Stats getStats(String name) {
+        for (Consumer consumer : consumers) {
+            if (consumer.name.equals(name)) {
+                return consumer.stats();
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>();
+        for (Consumer consumer : consumers) {
+            stats.add(consumer.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Lets handlers finish what is already published, then stops their threads.
+     */
+    public void shutdown(long timeoutMs) {
+        Consumer[] threads;
+        synchronized (this) {
+            running = false;
+            threads = started;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Consumer consumer : threads) {
+            LockSupport.unpark(consumer.thread);
+            try {
+                consumer.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class Consumer implements Runnable, ButtonGestureDetector.Listener {
+        final String name;
+        final ButtonGestureDetector detector;
+        final ButtonGestureDetector.Listener handler;
+        final ButtonEventRing.Cursor cursor;
+        final Thread thread;
+        final ButtonEvent event = new ButtonEvent();
+        volatile boolean sleeping;
+        // Set before the thread starts
+        Metrics.Histogram latencyHistogram;
+
+        // Written by the consumer thread only
+        volatile long events;
+        volatile long gestures;
+        volatile long failures;
+        volatile long latencyTotalNanos;
+        volatile long latencyMaxNanos;
+
+        Consumer(String name, ButtonGestureDetector.Config config, ButtonGestureDetector.Listener handler,
+                 ButtonEventRing.Cursor cursor) {
+            this.name = name;
+            this.detector = new ButtonGestureDetector(config);
+            this.handler = handler;
+            this.cursor = cursor;
+            thread = new Thread(this, TAG + "-" + name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean drained = false;
+                while (cursor.poll(event)) {
+                    drained = true;
+                    long latency = System.nanoTime() - event.timeNanos;
+                    latencyTotalNanos += latency;
+                    if (latency > latencyMaxNanos) {
+                        latencyMaxNanos = latency;
+                    }
+                    if (latencyHistogram != null) {
+                        latencyHistogram.record(latency);
+                    }
+                    events++;
+                    detector.onEdge(event.button, event.pressed, event.timeNanos, this);
+                }
+                long now = System.nanoTime();
+                detector.tick(now, this);
+                if (drained) {
+                    continue;
+                }
+                if (!running) {
+                    return;
+                }
+                long wait = detector.nanosUntilNextTick(now);
+                sleeping = true;
+                // Re-check after announcing, or an edge published in between could wait a whole park
+                if (cursor.backlog() == 0 && running) {
+                    LockSupport.parkNanos(this, wait < 0 ? IDLE_PARK_NANOS : Math.max(1, wait));
+                }
+                sleeping = false;
+            }
+        }
+
+        @Override
+        public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+            gestures++;
+            try {
+                handler.onGesture(button, gesture, timeNanos);
+            } catch (RuntimeException e) {
+                failures++;
+                Log.e(TAG, "Handler " + name + " failed on " + gesture + " of button " + button, e);
+            }
+        }
+
+        Stats stats() {
+            long count = events;
+            return new Stats(name, count, gestures, detector.getBounces(), failures, cursor.backlog(),
+                    count == 0 ? 0 : latencyTotalNanos / count, latencyMaxNanos);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package things.wolfsoft.com.androidthings;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single-producer, multi-consumer ring of timestamped button edges.
+ *
+ * Every {@link Cursor} sees every event, in order. The producer never overwrites a slot some
+ * cursor has not read yet and never blocks either: when the slowest cursor is a full ring
+ * behind, new edges are dropped and counted. {@link #publish} must always be called from the
+ * same thread, e.g. the looper the button drivers deliver on.
+ */
+public class ButtonEventRing {
+
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final int[] codes;
+    private final AtomicLong published = new AtomicLong(-1);
+    private volatile Cursor[] cursors = new Cursor[0];
+
+    // Producer thread only
+    private long next;
+    private long cachedGate = -1;
+    private long dropped;
+
+    /**
+     * @param capacity a power of two
+     */
+    public ButtonEventRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        mask = capacity - 1;
+        times = new long[capacity];
+        codes = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the event's sequence number, or -1 if the ring was full and it was dropped
+     */
+    public long publish(int button, boolean pressed, long timeNanos) {
+        long sequence = next;
+        if (sequence - cachedGate > capacity) {
+            cachedGate = minimumCursor(sequence - 1);
+            if (sequence - cachedGate > capacity) {
+                dropped++;
+                return -1;
+            }
+        }
+        int slot = (int) sequence & mask;
+        times[slot] = timeNanos;
+        codes[slot] = button << 1 | (pressed ? 1 : 0);
+        next = sequence + 1;
+        // A full volatile store, not lazySet: besides releasing the slot writes it must not be
+        // reordered after the caller's read of a consumer's sleeping flag, or a consumer that
+        // just announced it is going to sleep could miss the edge and park for its full timeout
+        published.set(sequence);
+        return sequence;
+    }
+
+    private long minimumCursor(long fallback) {
+        long minimum = fallback;
+        for (Cursor cursor : cursors) {
+            minimum = Math.min(minimum, cursor.read.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Last published sequence, -1 before the first event.
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * Edges dropped because a cursor fell a full ring behind. Producer thread only.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Adds a cursor that starts after the last published event.
+     */
+    public synchronized Cursor newCursor() {
+        Cursor cursor = new Cursor(published.get());
+        Cursor[] grown = new Cursor[cursors.length + 1];
+        System.arraycopy(cursors, 0, grown, 0, cursors.length);
+        grown[cursors.length] = cursor;
+        cursors = grown;
+        return cursor;
+    }
+
+    /**
+     * One consumer's read position. Use from a single thread.
+     */
+    public final class Cursor {
+        /**
+         * Last sequence read, published for the producer's gate.
+         */
+        private final AtomicLong read;
+
+        Cursor(long start) {
+            read = new AtomicLong(start);
+        }
+
+        /**
+         * Copies the next event into {@code into}.
+         *
+         * @return false if there is nothing new
+         */
+        public boolean poll(ButtonEvent into) {
+            long sequence = read.get() + 1;
+            if (sequence > published.get()) {
+                return false;
+            }
+            int slot = (int) sequence & mask;
+            int code = codes[slot];
+            into.sequence = sequence;
+            into.button = code >>> 1;
+            into.pressed = (code & 1) != 0;
+            into.timeNanos = times[slot];
+            read.lazySet(sequence);
+            return true;
+        }
+
+        /**
+         * Events published but not read by this cursor yet.
+         */
+        public long backlog() {
+            return published.get() - read.get();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package things.wolfsoft.com.androidthings;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns raw button edges into debounced gestures for one consumer.
+ *
+ * {@link Gesture#PRESS} fires on the first accepted down edge, without waiting to see if a
+ * double press follows; {@link Gesture#DOUBLE_PRESS} fires in addition on the second one.
+ * {@link Gesture#LONG_PRESS} fires while the button is still held, from {@link #tick}.
+ * Edges closer than the debounce interval to the last accepted edge of the same button,
+ * and edges that repeat the current state, are ignored. Ignoring an edge never loses where the
+ * button ended up: once the raw level has held for the debounce interval without matching
+ * the accepted state, it is accepted by the next edge or {@link #tick}, so a tap shorter than
+ * the interval still releases.
+ */
+public class ButtonGestureDetector {
+
+    public static final int MAX_BUTTONS = 8;
+
+    public enum Gesture {
+        PRESS,
+        RELEASE,
+        LONG_PRESS,
+        DOUBLE_PRESS
+    }
+
+    public interface Listener {
+        void onGesture(int button, Gesture gesture, long timeNanos);
+    }
+
+    public static class Config {
+        public final long debounceNanos;
+        public final long longPressNanos;
+        public final long doublePressNanos;
+
+        /**
+         * @param longPressMs 0 to never report long presses
+         * @param doublePressMs 0 to never report double presses
+         */
+        public Config(long debounceMs, long longPressMs, long doublePressMs) {
+            debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMs);
+            longPressNanos = TimeUnit.MILLISECONDS.toNanos(longPressMs);
+            doublePressNanos = TimeUnit.MILLISECONDS.toNanos(doublePressMs);
+        }
+    }
+
+    public static final Config DEFAULT_CONFIG = new Config(20, 800, 300);
+
+    private final Config config;
+    private final boolean[] down = new boolean[MAX_BUTTONS];
+    private final boolean[] longFired = new boolean[MAX_BUTTONS];
+    private final boolean[] accepted = new boolean[MAX_BUTTONS];
+    // Level and time of the latest edge, accepted or not
+    private final boolean[] raw = new boolean[MAX_BUTTONS];
+    private final long[] rawAt = new long[MAX_BUTTONS];
+    private final long[] lastEdge = new long[MAX_BUTTONS];
+    private final long[] downAt = new long[MAX_BUTTONS];
+    private final long[] lastPress = new long[MAX_BUTTONS];
+    private final boolean[] pressCounted = new boolean[MAX_BUTTONS];
+
+    private long bounces;
+
+    public ButtonGestureDetector(Config config) {
+        this.config = config;
+    }
+
+    public void reset() {
+        Arrays.fill(down, false);
+        Arrays.fill(longFired, false);
+        Arrays.fill(accepted, false);
+        Arrays.fill(raw, false);
+        Arrays.fill(pressCounted, false);
+    }
+
+    /**
+     * @return false if the edge was filtered out
+     */
+    public boolean onEdge(int button, boolean pressed, long timeNanos, Listener listener) {
+        if (button < 0 || button >= MAX_BUTTONS) {
+            throw new IllegalArgumentException("No button " + button);
+        }
+        // A level that settled since the last edge counts before this edge is judged against it
+        settle(button, timeNanos, listener);
+        raw[button] = pressed;
+        rawAt[button] = timeNanos;
+        if (pressed == down[button]
+                || (accepted[button] && timeNanos - lastEdge[button] < config.debounceNanos)) {
+            bounces++;
+            return false;
+        }
+        accept(button, pressed, timeNanos, listener);
+        return true;
+    }
+
+    private void accept(int button, boolean pressed, long timeNanos, Listener listener) {
+        accepted[button] = true;
+        lastEdge[button] = timeNanos;
+        down[button] = pressed;
+        if (pressed) {
+            downAt[button] = timeNanos;
+            longFired[button] = false;
+            listener.onGesture(button, Gesture.PRESS, timeNanos);
+            if (config.doublePressNanos > 0 && pressCounted[button]
+                    && timeNanos - lastPress[button] <= config.doublePressNanos) {
+                // A third quick press starts a new pair
+                pressCounted[button] = false;
+                listener.onGesture(button, Gesture.DOUBLE_PRESS, timeNanos);
+            } else {
+                pressCounted[button] = true;
+                lastPress[button] = timeNanos;
+            }
+        } else {
+            listener.onGesture(button, Gesture.RELEASE, timeNanos);
+        }
+    }
+
+    /**
+     * Accepts the raw level, as of its edge, if it differs from the accepted state and has held
+     * for the debounce interval by {@code nowNanos}.
+     */
+    private void settle(int button, long nowNanos, Listener listener) {
+        if (raw[button] != down[button] && nowNanos - rawAt[button] >= config.debounceNanos) {
+            accept(button, raw[button], rawAt[button], listener);
+        }
+    }
+
+    /**
+     * Reports levels that have settled and long presses that have become due by {@code nowNanos}.
+     */
+    public void tick(long nowNanos, Listener listener) {
+        for (int button = 0; button < MAX_BUTTONS; button++) {
+            settle(button, nowNanos, listener);
+            if (config.longPressNanos > 0 && down[button] && !longFired[button] && nowNanos - downAt[button] >= config.longPressNanos) {
+                longFired[button] = true;
+                // A long press does not count towards a double press
+                pressCounted[button] = false;
+                listener.onGesture(button, Gesture.LONG_PRESS, downAt[button] + config.longPressNanos);
+            }
+        }
+    }
+
+    /**
+     * Nanos until a level could settle or the next long press could fire, or -1 if none is pending.
+     */
+    public long nanosUntilNextTick(long nowNanos) {
+        long next = -1;
+        for (int button = 0; button < MAX_BUTTONS; button++) {
+            if (raw[button] != down[button]) {
+                next = sooner(next, rawAt[button] + config.debounceNanos - nowNanos);
+            }
+            if (config.longPressNanos > 0 && down[button] && !longFired[button]) {
+                next = sooner(next, downAt[button] + config.longPressNanos - nowNanos);
+            }
+        }
+        return next;
+    }
+
+    private static long sooner(long next, long left) {
+        left = Math.max(0, left);
+        return next < 0 ? left : Math.min(next, left);
+    }
+
+    public long getBounces() {
+        return bounces;
+    }
+}
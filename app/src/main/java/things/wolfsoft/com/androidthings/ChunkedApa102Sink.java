@@ -0,0 +1,61 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * {@link LedStripSink} for long APA102 chains driven straight over SPI.
+ *
+ * A frame is encoded once and sent as consecutive transfers no larger than the SPI driver
+ * accepts, copied through one preallocated chunk buffer. The APA102 latches on clock edges,
+ * not on chip select, so splitting a frame across transfers is harmless.
+ */
+public class ChunkedApa102Sink implements LedStripSink {
+
+    private final SpiWriter spi;
+    private final Apa102Encoder encoder;
+    private final byte[] chunk;
+    private int brightness = Apa102Encoder.MAX_BRIGHTNESS;
+
+    private long transfers;
+    private long bytesWritten;
+
+    public ChunkedApa102Sink(SpiWriter spi, int numLeds, boolean bgr, int maxTransferBytes) {
+        if (maxTransferBytes < 1) {
+            throw new IllegalArgumentException("maxTransferBytes must be positive: " + maxTransferBytes);
+        }
+        this.spi = spi;
+        this.encoder = new Apa102Encoder(numLeds, bgr);
+        this.chunk = new byte[Math.min(maxTransferBytes, encoder.length())];
+    }
+
+    @Override
+    public void setBrightness(int brightness) throws IOException {
+        this.brightness = brightness;
+    }
+
+    @Override
+    public void write(int[] colors) throws IOException {
+        byte[] frame = encoder.encode(colors, brightness);
+        int length = encoder.length();
+        if (length <= chunk.length) {
+            spi.write(frame, length);
+            transfers++;
+        } else {
+            for (int offset = 0; offset < length; offset += chunk.length) {
+                int size = Math.min(chunk.length, length - offset);
+                System.arraycopy(frame, offset, chunk, 0, size);
+                spi.write(chunk, size);
+                transfers++;
+            }
+        }
+        bytesWritten += length;
+    }
+
+    public long getTransfers() {
+        return transfers;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
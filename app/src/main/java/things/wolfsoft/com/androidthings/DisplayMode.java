@@ -0,0 +1,24 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * What the alphanumeric display shows. New modes need a row in {@link DisplayModeMachine}.
+ */
+public enum DisplayMode {
+    DOOR("DOOR"),
+    IN("IN"),
+    OUT("OUT"),
+    CLEAR(null);
+
+    private final String text;
+
+    DisplayMode(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Text for the display, null to blank it.
+     */
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,208 @@
+package things.wolfsoft.com.androidthings;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe {@link DisplayMode} state machine.
+ *
+ * Transitions come from a fixed table and are applied with compare-and-set, so concurrent
+ * events never lose an update. The version goes up, and listeners hear about it, only when
+ * the mode actually changes. Every state also remembers the time of the newest input that
+ * touched it, changed or not: results of slow work such as a Vision call are applied with
+ * {@link #fireIfNotNewer} and dropped when the user has pressed something since.
+ */
+public class DisplayModeMachine {
+
+    public enum Event {
+        /**
+         * Button A, someone at the door.
+         */
+        DOOR,
+        /**
+         * Button B, flips between in and out.
+         */
+        TOGGLE,
+        /**
+         * Button C.
+         */
+        CLEAR,
+        /**
+         * Vision saw an angry face.
+         */
+        ANGRY,
+        /**
+         * Vision saw nothing alarming.
+         */
+        CALM
+    }
+
+    public static final class State {
+        public final DisplayMode mode;
+        public final long version;
+        /**
+         * Time of the newest input applied to this state, in {@code System.nanoTime()} terms.
+         */
+        public final long inputNanos;
+
+        State(DisplayMode mode, long version, long inputNanos) {
+            this.mode = mode;
+            this.version = version;
+            this.inputNanos = inputNanos;
+        }
+
+        @Override
+        public String toString() {
+            return mode + "@v" + version;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the thread that fired the event, after the change is visible. Changes from
+         * different threads may be reported out of order; compare versions if that matters.
+         */
+        void onChange(State previous, State current, Event cause);
+    }
+
+    private static final Map<DisplayMode, Map<Event, DisplayMode>> TRANSITIONS =
+            new EnumMap<>(DisplayMode.class);
+
+    static {
+        for (DisplayMode mode : DisplayMode.values()) {
+            Map<Event, DisplayMode> row = new EnumMap<>(Event.class);
+            row.put(Event.DOOR, DisplayMode.DOOR);
+            row.put(Event.TOGGLE, mode == DisplayMode.OUT ? DisplayMode.IN : DisplayMode.OUT);
+            row.put(Event.CLEAR, DisplayMode.CLEAR);
+            row.put(Event.ANGRY, DisplayMode.OUT);
+            row.put(Event.CALM, DisplayMode.IN);
+            TRANSITIONS.put(mode, row);
+        }
+    }
+
+    /**
+     * The mode {@code event} leads to from {@code mode}.
+     */
+    public static DisplayMode next(DisplayMode mode, Event event) {
+        return TRANSITIONS.get(mode).get(event);
+    }
+
+    private final AtomicReference<State> state;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    public DisplayModeMachine(DisplayMode initial) {
+        state = new AtomicReference<>(new State(initial, 0, Long.MIN_VALUE));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public DisplayMode getMode() {
+        return state.get().mode;
+    }
+
+    /**
+     * Applies user input made at {@code inputNanos}.
+     *
+     * @return the state after the event
+     */
+    public State fire(Event event, long inputNanos) {
+        return apply(event, inputNanos, false);
+    }
+
+    /**
+     * Applies the result of work started by input at {@code inputNanos}, unless newer input has
+     * been applied since.
+     *
+     * @return the state after the event, or null if it was stale and dropped
+     */
+    public State fireIfNotNewer(Event event, long inputNanos) {
+        return apply(event, inputNanos, true);
+    }
+
+    /**
+     * Applies {@code event} only if the state is still at {@code expectedVersion}.
+     *
+     * @return the state after the event, or null if the version had moved on
+     */
+    public State compareAndFire(long expectedVersion, Event event) {
+        while (true) {
+            State current = state.get();
+            if (current.version != expectedVersion) {
+                stale.incrementAndGet();
+                return null;
+            }
+            State updated = transition(current, event, current.inputNanos);
+            if (updated == current || state.compareAndSet(current, updated)) {
+                return publish(current, updated, event);
+            }
+        }
+    }
+
+    private State apply(Event event, long inputNanos, boolean onlyIfNotNewer) {
+        while (true) {
+            State current = state.get();
+            if (onlyIfNotNewer && current.inputNanos > inputNanos) {
+                stale.incrementAndGet();
+                return null;
+            }
+            State updated = transition(current, event, Math.max(current.inputNanos, inputNanos));
+            if (updated == current || state.compareAndSet(current, updated)) {
+                return publish(current, updated, event);
+            }
+        }
+    }
+
+    private static State transition(State current, Event event, long inputNanos) {
+        DisplayMode mode = next(current.mode, event);
+        if (mode != current.mode) {
+            return new State(mode, current.version + 1, inputNanos);
+        }
+        if (inputNanos != current.inputNanos) {
+            // Same mode, but newer input still makes older async results stale
+            return new State(mode, current.version, inputNanos);
+        }
+        return current;
+    }
+
+    private State publish(State previous, State updated, Event event) {
+        if (updated.version == previous.version) {
+            unchanged.incrementAndGet();
+            return updated;
+        }
+        changes.incrementAndGet();
+        for (Listener listener : listeners) {
+            listener.onChange(previous, updated, event);
+        }
+        return updated;
+    }
+
+    public long getChanges() {
+        return changes.get();
+    }
+
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    public long getStale() {
+        return stale.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DisplayModeMachine{" + state.get() + ", changes=" + changes.get() + ", unchanged="
+                + unchanged.get() + ", stale=" + stale.get() + "}";
+    }
+}
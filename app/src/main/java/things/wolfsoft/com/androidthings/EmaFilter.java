@@ -0,0 +1,44 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Exponential moving average: each reading moves the output {@code alpha} of the way to it.
+ */
+public class EmaFilter implements SignalFilter {
+
+    private final float alpha;
+    private float value;
+    private boolean primed;
+
+    /**
+     * @param alpha between 0 (never moves) and 1 (no smoothing)
+     */
+    public EmaFilter(float alpha) {
+        if (!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("alpha " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    /**
+     * The alpha that averages over roughly {@code readings} readings.
+     */
+    public static EmaFilter ofSpan(int readings) {
+        return new EmaFilter(2f / (readings + 1));
+    }
+
+    @Override
+    public float update(float reading) {
+        if (!primed) {
+            value = reading;
+            primed = true;
+        } else {
+            value += alpha * (reading - value);
+        }
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        primed = false;
+    }
+}
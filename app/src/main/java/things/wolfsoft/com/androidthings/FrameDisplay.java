@@ -0,0 +1,19 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * A four digit segment display that can show text or a window onto a pre-encoded strip.
+ */
+public interface FrameDisplay {
+
+    /**
+     * Shows {@link SegmentDisplayWriter#DIGITS} digits of {@code strip} starting at {@code offset}.
+     */
+    void showFrame(short[] strip, int offset) throws IOException;
+
+    /**
+     * Shows {@code text}, or blanks the display for null.
+     */
+    void show(String text) throws IOException;
+}
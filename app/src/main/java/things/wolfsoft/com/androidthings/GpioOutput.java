@@ -0,0 +1,16 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * One GPIO pin driven as an output, shaped like the PIO {@code Gpio} calls it needs.
+ */
+public interface GpioOutput {
+
+    /**
+     * Configures the pin as an output; each call is a syscall on device.
+     */
+    void setOutput(boolean initiallyHigh) throws IOException;
+
+    void setValue(boolean high) throws IOException;
+}
@@ -0,0 +1,22 @@
+package things.wolfsoft.com.androidthings;
+
+import com.google.android.things.contrib.driver.ht16k33.Ht16k33;
+
+import java.io.IOException;
+
+/**
+ * {@link SegmentOutput} backed by an {@link Ht16k33} driver such as the Rainbow HAT display.
+ */
+public class Ht16k33SegmentOutput implements SegmentOutput {
+
+    private final Ht16k33 display;
+
+    public Ht16k33SegmentOutput(Ht16k33 display) {
+        this.display = display;
+    }
+
+    @Override
+    public void writeColumn(int column, short data) throws IOException {
+        display.writeColumn(column, data);
+    }
+}
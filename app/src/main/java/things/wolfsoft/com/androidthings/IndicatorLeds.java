@@ -0,0 +1,194 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A few single color LEDs on GPIO outputs, such as the red, green and blue ones on the Rainbow HAT.
+ *
+ * Directions are set once when constructed. After that the logical state is tracked as a bit
+ * mask and only pins whose value actually changes are written, so lighting the LED that is
+ * already lit costs nothing. Blinking and other patterns are stepped from a timer thread;
+ * any direct state change cancels a running pattern.
+ */
+public class IndicatorLeds {
+    private static final String TAG = "IndicatorLeds";
+
+    private final GpioOutput[] pins;
+    private final ScheduledExecutorService timer;
+
+    private int mask;
+    private long pattern;
+    private long writes;
+    private long failures;
+
+    /**
+     * @param pins LED {@code i} is bit {@code 1 << i} of the state mask; all start off
+     */
+    public IndicatorLeds(GpioOutput... pins) throws IOException {
+        if (pins.length > Integer.SIZE) {
+            throw new IllegalArgumentException("At most " + Integer.SIZE + " LEDs");
+        }
+        this.pins = pins.clone();
+        for (GpioOutput pin : this.pins) {
+            pin.setOutput(false);
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int size() {
+        return pins.length;
+    }
+
+    /**
+     * Lights LED {@code index} and turns the others off.
+     */
+    public void show(int index) throws IOException {
+        setMask(1 << index);
+    }
+
+    public void set(int index, boolean on) throws IOException {
+        synchronized (this) {
+            setMask(on ? mask | (1 << index) : mask & ~(1 << index));
+        }
+    }
+
+    /**
+     * Stops any pattern and moves to {@code newMask}.
+     *
+     * @return the number of pins written
+     */
+    public synchronized int setMask(int newMask) throws IOException {
+        pattern++;
+        return apply(newMask);
+    }
+
+    public synchronized int getMask() {
+        return mask;
+    }
+
+    private int apply(int newMask) throws IOException {
+        int changed = (mask ^ newMask) & allPins();
+        int written = 0;
+        for (int i = 0; changed != 0; i++, changed >>>= 1) {
+            if ((changed & 1) != 0) {
+                boolean on = (newMask & (1 << i)) != 0;
+                pins[i].setValue(on);
+                // Track per pin so a failing write leaves the mask matching the hardware
+                mask = on ? mask | (1 << i) : mask & ~(1 << i);
+                written++;
+                writes++;
+            }
+        }
+        return written;
+    }
+
+    private int allPins() {
+        return pins.length == Integer.SIZE ? -1 : (1 << pins.length) - 1;
+    }
+
+    /**
+     * Blinks LED {@code index} alone, e.g. a 25% duty cycle with {@code onMs = 250, offMs = 750}.
+     */
+    public void blink(int index, long onMs, long offMs) {
+        play(new int[]{1 << index, 0}, new long[]{onMs, offMs}, true);
+    }
+
+    /**
+     * Steps through {@code masks}, holding each for the matching entry of {@code durationsMs}.
+     * Without {@code repeat} the last mask stays lit when the pattern ends.
+     */
+    public void play(int[] masks, long[] durationsMs, boolean repeat) {
+        if (masks.length == 0 || masks.length != durationsMs.length) {
+            throw new IllegalArgumentException("Need one duration per mask");
+        }
+        long generation;
+        synchronized (this) {
+            generation = ++pattern;
+        }
+        timer.execute(new PatternStep(generation, masks.clone(), durationsMs.clone(), repeat, 0));
+    }
+
+    /**
+     * Cancels a running pattern, leaving the LEDs as they are.
+     */
+    public synchronized void stopPattern() {
+        pattern++;
+    }
+
+    private final class PatternStep implements Runnable {
+        private final long generation;
+        private final int[] masks;
+        private final long[] durationsMs;
+        private final boolean repeat;
+        private final int step;
+
+        PatternStep(long generation, int[] masks, long[] durationsMs, boolean repeat, int step) {
+            this.generation = generation;
+            this.masks = masks;
+            this.durationsMs = durationsMs;
+            this.repeat = repeat;
+            this.step = step;
+        }
+
+        @Override
+        public void run() {
+            synchronized (IndicatorLeds.this) {
+                if (generation != pattern) {
+                    return;
+                }
+                try {
+                    apply(masks[step]);
+                } catch (IOException e) {
+                    failures++;
+                    Log.e(TAG, "Error stepping LED pattern", e);
+                }
+            }
+            int next = step + 1;
+            if (next == masks.length) {
+                if (!repeat) {
+                    return;
+                }
+                next = 0;
+            }
+            try {
+                timer.schedule(new PatternStep(generation, masks, durationsMs, repeat, next),
+                        durationsMs[step], TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shut down while stepping
+            }
+        }
+    }
+
+    /**
+     * Total pin writes since construction, excluding the initial direction setup.
+     */
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Stops the pattern timer. The pins are left as they are for the caller to close.
+     */
+    public void shutdown() {
+        stopPattern();
+        timer.shutdownNow();
+    }
+}
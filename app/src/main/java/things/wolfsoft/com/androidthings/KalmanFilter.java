@@ -0,0 +1,56 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * One dimensional Kalman filter for a slowly wandering level seen through sensor noise.
+ *
+ * Unlike an EMA the gain adapts: it starts high so the first readings are followed quickly and
+ * settles where the expected drift between readings balances the measurement noise.
+ */
+public class KalmanFilter implements SignalFilter {
+
+    private final float processVariance;
+    private final float measurementVariance;
+    private float estimate;
+    private float errorVariance;
+    private boolean primed;
+
+    /**
+     * @param processVariance     expected variance of the true value's drift per reading
+     * @param measurementVariance variance of the sensor noise
+     */
+    public KalmanFilter(float processVariance, float measurementVariance) {
+        if (!(processVariance > 0 && measurementVariance > 0)) {
+            throw new IllegalArgumentException("Variances must be positive");
+        }
+        this.processVariance = processVariance;
+        this.measurementVariance = measurementVariance;
+    }
+
+    @Override
+    public float update(float reading) {
+        if (!primed) {
+            estimate = reading;
+            errorVariance = measurementVariance;
+            primed = true;
+            return estimate;
+        }
+        float predicted = errorVariance + processVariance;
+        float gain = predicted / (predicted + measurementVariance);
+        estimate += gain * (reading - estimate);
+        errorVariance = (1 - gain) * predicted;
+        return estimate;
+    }
+
+    /**
+     * Current weight of a new reading, for tuning.
+     */
+    public float getGain() {
+        float predicted = errorVariance + processVariance;
+        return predicted / (predicted + measurementVariance);
+    }
+
+    @Override
+    public void reset() {
+        primed = false;
+    }
+}
@@ -0,0 +1,281 @@
+package things.wolfsoft.com.androidthings;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays LED strip animations built from a {@link LedPalette} at a fixed frame rate.
+ *
+ * Chases are rotations of the palette and are produced with a couple of array copies; the
+ * breathing cycle is rendered once into a ring of frames when it starts and then replayed;
+ * sparkle and fade fill the next ring slot from the palette tables, split across cores on
+ * long chains. Frames go to a {@link LedStripRenderer}, so producing one never allocates.
+ */
+public class LedAnimator {
+    private static final String TAG = "LedAnimator";
+
+    public static final int DEFAULT_FPS = 20;
+    public static final int BREATHE_STEPS = 48;
+    /** Chains at least this long compute per-pixel patterns in parallel. */
+    public static final int PARALLEL_THRESHOLD = 512;
+    private static final int SCRATCH_FRAMES = 2;
+
+    public enum Pattern {
+        CHASE,
+        REVERSE_CHASE,
+        SPARKLE,
+        BREATHE,
+        FADE
+    }
+
+    private final LedStripRenderer renderer;
+    private final LedPalette palette;
+    private final int[] paletteColors;
+    private final int numLeds;
+    private final int brightness;
+    private final int[] breatheLevels = new int[BREATHE_STEPS];
+
+    // Ring of preallocated frames: the breathing cycle, or scratch frames for other patterns
+    private final int[][] ring;
+    private int ringLength;
+    private int ringIndex;
+
+    private final Slice[] slices;
+    private final RecursiveAction parallelFrame;
+
+    private final long[] frameNanos = new long[Pattern.values().length];
+    private final long[] frameCounts = new long[Pattern.values().length];
+
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> running;
+    private Pattern pattern;
+    private long frame;
+    private int fps;
+
+    // Per-frame parameters read by the slices
+    private int[] sliceOut;
+    private int fadeStep;
+    private int fadeShift;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            renderNextFrame();
+        }
+    };
+
+    public LedAnimator(LedStripRenderer renderer, LedPalette palette, int brightness) {
+        this.renderer = renderer;
+        this.palette = palette;
+        this.paletteColors = palette.rainbow(true);
+        this.numLeds = renderer.getNumLeds();
+        this.brightness = brightness;
+        this.fps = DEFAULT_FPS;
+        ring = new int[Math.max(BREATHE_STEPS, SCRATCH_FRAMES)][numLeds];
+        for (int i = 0; i < BREATHE_STEPS; i++) {
+            double phase = 2 * Math.PI * i / BREATHE_STEPS;
+            breatheLevels[i] = (int) Math.round((1 - Math.cos(phase)) / 2 * LedPalette.LEVELS);
+        }
+
+        int sliceCount = numLeds >= PARALLEL_THRESHOLD
+                ? Math.min(Runtime.getRuntime().availableProcessors(), numLeds / (PARALLEL_THRESHOLD / 4))
+                : 1;
+        slices = new Slice[Math.max(1, sliceCount)];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = new Slice(numLeds * i / slices.length, numLeds * (i + 1) / slices.length,
+                    0x9E3779B9 * (i + 1));
+        }
+        parallelFrame = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(slices);
+            }
+        };
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public synchronized void setFrameRate(int fps) {
+        if (fps < 1) {
+            throw new IllegalArgumentException("fps must be positive: " + fps);
+        }
+        this.fps = fps;
+        if (running != null) {
+            schedule();
+        }
+    }
+
+    /**
+     * Starts {@code pattern}, replacing whatever was playing.
+     */
+    public synchronized void play(Pattern pattern) {
+        prepare(pattern);
+        schedule();
+    }
+
+    /**
+     * Switches to {@code pattern} without the timer; frames advance only via {@link #renderNextFrame()}.
+     */
+    public synchronized void prepare(Pattern pattern) {
+        this.pattern = pattern;
+        frame = 0;
+        ringIndex = 0;
+        if (pattern == Pattern.BREATHE) {
+            ringLength = BREATHE_STEPS;
+            for (int f = 0; f < BREATHE_STEPS; f++) {
+                for (int i = 0; i < numLeds; i++) {
+                    ring[f][i] = palette.dimmed(i % palette.size(), breatheLevels[f]);
+                }
+            }
+        } else {
+            ringLength = SCRATCH_FRAMES;
+        }
+    }
+
+    public synchronized void stop() {
+        if (running != null) {
+            running.cancel(false);
+            running = null;
+        }
+        pattern = null;
+    }
+
+    public void shutdown() {
+        stop();
+        executor.shutdownNow();
+    }
+
+    public synchronized Pattern getPattern() {
+        return pattern;
+    }
+
+    public int getParallelism() {
+        return slices.length;
+    }
+
+    private void schedule() {
+        if (running != null) {
+            running.cancel(false);
+        }
+        long periodMicros = 1000000L / fps;
+        running = executor.scheduleAtFixedRate(tick, 0, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Computes the next frame of the current pattern and hands it to the renderer.
+     */
+    public synchronized void renderNextFrame() {
+        if (pattern == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        int[] out = ring[ringIndex];
+        int cycle = (int) (frame % paletteColors.length);
+        switch (pattern) {
+            case CHASE:
+                rotate(out, -cycle);
+                break;
+            case REVERSE_CHASE:
+                rotate(out, cycle);
+                break;
+            case SPARKLE:
+            case FADE:
+                // Every pixel walks one palette step per FADE_STEPS frames
+                fadeStep = (int) (frame % LedPalette.FADE_STEPS);
+                fadeShift = (int) (frame / LedPalette.FADE_STEPS % palette.size());
+                sliceOut = out;
+                if (slices.length == 1) {
+                    slices[0].fill();
+                } else {
+                    for (Slice slice : slices) {
+                        slice.reinitialize();
+                    }
+                    parallelFrame.reinitialize();
+                    ForkJoinPool.commonPool().invoke(parallelFrame);
+                }
+                break;
+            default:
+                break;
+        }
+        renderer.submit(out, brightness);
+        ringIndex = (ringIndex + 1) % ringLength;
+        frame++;
+        frameNanos[pattern.ordinal()] += System.nanoTime() - start;
+        frameCounts[pattern.ordinal()]++;
+    }
+
+    /**
+     * out[i] = palette[(i + offset) mod size], as a few contiguous copies.
+     */
+    private void rotate(int[] out, int offset) {
+        int size = paletteColors.length;
+        int src = Math.floorMod(offset, size);
+        int i = 0;
+        while (i < numLeds) {
+            int run = Math.min(size - src, numLeds - i);
+            System.arraycopy(paletteColors, src, out, i, run);
+            i += run;
+            src = 0;
+        }
+    }
+
+    /**
+     * Average time spent producing one frame of {@code pattern}, renderer hand-off included.
+     */
+    public synchronized long getAverageFrameNanos(Pattern pattern) {
+        long count = frameCounts[pattern.ordinal()];
+        return count == 0 ? 0 : frameNanos[pattern.ordinal()] / count;
+    }
+
+    public synchronized long getFrameCount(Pattern pattern) {
+        return frameCounts[pattern.ordinal()];
+    }
+
+    /**
+     * A contiguous range of pixels of a per-pixel pattern, with its own random state so slices
+     * can run concurrently.
+     */
+    private class Slice extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private int randomState;
+
+        Slice(int from, int to, int seed) {
+            this.from = from;
+            this.to = to;
+            this.randomState = seed;
+        }
+
+        @Override
+        protected void compute() {
+            fill();
+        }
+
+        void fill() {
+            int[] out = sliceOut;
+            int size = paletteColors.length;
+            if (pattern == Pattern.SPARKLE) {
+                for (int i = from; i < to; i++) {
+                    randomState = LedPalette.xorshift(randomState);
+                    out[i] = paletteColors[(randomState >>> 1) % size];
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    out[i] = palette.faded((i + fadeShift) % size, fadeStep);
+                }
+            }
+        }
+    }
+}
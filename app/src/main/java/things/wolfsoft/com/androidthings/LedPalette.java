@@ -0,0 +1,176 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Fixed LED palette with everything the strip animations need precomputed: forward and reverse
+ * rainbow frames, gamma tables, per-level dimmed copies and crossfades between neighbouring
+ * colors. After construction nothing here allocates or does color space math.
+ *
+ * Fades are interpolated in perceptual space and gamma encoded for the LEDs, which are linear.
+ */
+public class LedPalette {
+
+    public static final float GAMMA = 2.2f;
+    public static final int LEVELS = 64;
+    public static final int FADE_STEPS = 32;
+
+    private final int[] colors;
+    private final int[] forward;
+    private final int[] reverse;
+    private final int[] gammaEncode = new int[256];
+    private final int[] gammaDecode = new int[256];
+    private final int[][] levels;
+    private final int[][] fades;
+    private int randomState = 0x2545F491;
+
+    /**
+     * @param colors ARGB colors, e.g. the HSV rainbow built at startup; copied
+     */
+    public LedPalette(int[] colors) {
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("Palette needs at least one color");
+        }
+        this.colors = colors.clone();
+        int size = colors.length;
+        forward = this.colors.clone();
+        reverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            reverse[i] = this.colors[size - 1 - i];
+        }
+
+        for (int v = 0; v < 256; v++) {
+            gammaEncode[v] = Math.round(255f * (float) Math.pow(v / 255f, GAMMA));
+            gammaDecode[v] = Math.round(255f * (float) Math.pow(v / 255f, 1f / GAMMA));
+        }
+
+        levels = new int[LEVELS + 1][size];
+        for (int level = 0; level <= LEVELS; level++) {
+            for (int i = 0; i < size; i++) {
+                levels[level][i] = dim(this.colors[i], level, LEVELS);
+            }
+        }
+
+        fades = new int[FADE_STEPS][size];
+        for (int step = 0; step < FADE_STEPS; step++) {
+            for (int i = 0; i < size; i++) {
+                fades[step][i] = blend(this.colors[i], this.colors[(i + 1) % size], step, FADE_STEPS);
+            }
+        }
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    public int color(int index) {
+        return colors[index];
+    }
+
+    /**
+     * The palette in order, or reversed. Shared, callers must not modify it.
+     */
+    public int[] rainbow(boolean forwardOrder) {
+        return forwardOrder ? forward : reverse;
+    }
+
+    /**
+     * Palette color {@code index} at perceptual brightness {@code level} of {@link #LEVELS}.
+     */
+    public int dimmed(int index, int level) {
+        return levels[level][index];
+    }
+
+    /**
+     * Color {@code index} faded {@code step} of {@link #FADE_STEPS} towards color {@code index + 1}.
+     */
+    public int faded(int index, int step) {
+        return fades[step][index];
+    }
+
+    /**
+     * Fills {@code out} with random palette colors.
+     */
+    public void fillRandom(int[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = colors[nextRandom(colors.length)];
+        }
+    }
+
+    /**
+     * {@code count} fully saturated, full value colors evenly spaced around the hue circle
+     * starting at red, the rainbow {@code Color.HSVToColor} gives but without the framework.
+     */
+    public static int[] hsvRainbow(int count) {
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i++) {
+            colors[i] = hueToColor(i * 360f / count);
+        }
+        return colors;
+    }
+
+    private static int hueToColor(float hue) {
+        float sector = hue / 60f;
+        int whole = (int) sector;
+        int rising = Math.round((sector - whole) * 255f);
+        int falling = 255 - rising;
+        int r, g, b;
+        switch (whole % 6) {
+            case 0:
+                r = 255; g = rising; b = 0;
+                break;
+            case 1:
+                r = falling; g = 255; b = 0;
+                break;
+            case 2:
+                r = 0; g = 255; b = rising;
+                break;
+            case 3:
+                r = 0; g = falling; b = 255;
+                break;
+            case 4:
+                r = rising; g = 0; b = 255;
+                break;
+            default:
+                r = 255; g = 0; b = falling;
+                break;
+        }
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * xorshift32, cheap and allocation free; good enough to pick sparkle colors.
+     */
+    public int nextRandom(int bound) {
+        randomState = xorshift(randomState);
+        return (randomState >>> 1) % bound;
+    }
+
+    /**
+     * One xorshift32 step, for callers that keep their own state (e.g. one per worker thread).
+     */
+    public static int xorshift(int x) {
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        return x;
+    }
+
+    private int dim(int color, int level, int maxLevel) {
+        int r = gammaEncode[gammaDecode[(color >> 16) & 0xff] * level / maxLevel];
+        int g = gammaEncode[gammaDecode[(color >> 8) & 0xff] * level / maxLevel];
+        int b = gammaEncode[gammaDecode[color & 0xff] * level / maxLevel];
+        return (color & 0xff000000) | (r << 16) | (g << 8) | b;
+    }
+
+    private int blend(int from, int to, int step, int steps) {
+        int r = mix((from >> 16) & 0xff, (to >> 16) & 0xff, step, steps);
+        int g = mix((from >> 8) & 0xff, (to >> 8) & 0xff, step, steps);
+        int b = mix(from & 0xff, to & 0xff, step, steps);
+        return (from & 0xff000000) | (r << 16) | (g << 8) | b;
+    }
+
+    private int mix(int from, int to, int step, int steps) {
+        int a = gammaDecode[from];
+        int b = gammaDecode[to];
+        return gammaEncode[a + (b - a) * step / steps];
+    }
+}
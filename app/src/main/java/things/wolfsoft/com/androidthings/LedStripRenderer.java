@@ -0,0 +1,228 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Double-buffered renderer for the LED strip.
+ *
+ * Callers {@link #submit(int[], int)} frames from any thread; the frame is copied into a
+ * preallocated back buffer and at most one SPI write happens per frame tick. Bursts of
+ * updates between two ticks collapse into the newest frame, and a frame identical to the one
+ * last sent (colors and brightness) is not written at all.
+ */
+public class LedStripRenderer {
+    private static final String TAG = "LedStripRenderer";
+
+    public static final long DEFAULT_FRAME_INTERVAL_MS = 16;
+
+    private final LedStripSink sink;
+    private final int numLeds;
+    private final long frameIntervalMs;
+
+    private final Object lock = new Object();
+    private final Object renderLock = new Object();
+    private int[] backBuffer;
+    private int[] frontBuffer;
+    private int backBrightness;
+    private int frontBrightness = -1;
+    private boolean dirty;
+    private boolean tickScheduled;
+
+    private long framesSubmitted;
+    private long framesWritten;
+    private long framesSkipped;
+    private volatile Metrics.Histogram writeTime;
+    private volatile Metrics.Counter writeFailures;
+
+    private ScheduledExecutorService executor;
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            renderFrame();
+        }
+    };
+
+    public LedStripRenderer(LedStripSink sink, int numLeds) {
+        this(sink, numLeds, DEFAULT_FRAME_INTERVAL_MS);
+    }
+
+    public LedStripRenderer(LedStripSink sink, int numLeds, long frameIntervalMs) {
+        this.sink = sink;
+        this.numLeds = numLeds;
+        this.frameIntervalMs = frameIntervalMs;
+        backBuffer = new int[numLeds];
+        frontBuffer = new int[numLeds];
+    }
+
+    /**
+     * Starts the render thread. Without it frames are only pushed out by {@link #renderFrame()}.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (executor != null) {
+                return;
+            }
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Renders any pending frame and stops the render thread.
+     */
+    public void stop() {
+        ScheduledExecutorService toStop;
+        synchronized (lock) {
+            toStop = executor;
+            executor = null;
+            tickScheduled = false;
+        }
+        if (toStop != null) {
+            toStop.shutdown();
+            try {
+                toStop.awaitTermination(frameIntervalMs * 4, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        renderFrame();
+    }
+
+    public int getNumLeds() {
+        return numLeds;
+    }
+
+    /**
+     * Queues a frame for the next tick. {@code colors} is copied, so callers may reuse it.
+     */
+    public void submit(int[] colors, int brightness) {
+        synchronized (lock) {
+            int count = Math.min(colors.length, numLeds);
+            System.arraycopy(colors, 0, backBuffer, 0, count);
+            if (count < numLeds) {
+                Arrays.fill(backBuffer, count, numLeds, 0);
+            }
+            backBrightness = brightness;
+            markDirtyLocked();
+        }
+    }
+
+    /**
+     * Queues an all-off frame.
+     */
+    public void clear() {
+        synchronized (lock) {
+            Arrays.fill(backBuffer, 0);
+            backBrightness = 0;
+            markDirtyLocked();
+        }
+    }
+
+    private void markDirtyLocked() {
+        dirty = true;
+        framesSubmitted++;
+        if (executor != null && !tickScheduled) {
+            tickScheduled = true;
+            executor.schedule(tick, frameIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the pending frame to the sink if it differs from the last one sent.
+     *
+     * @return true if an SPI write was issued
+     */
+    public boolean renderFrame() {
+        synchronized (renderLock) {
+            return renderFrameLocked();
+        }
+    }
+
+    private boolean renderFrameLocked() {
+        int[] frame;
+        int brightness;
+        boolean brightnessChanged;
+        synchronized (lock) {
+            tickScheduled = false;
+            if (!dirty) {
+                return false;
+            }
+            dirty = false;
+            if (backBrightness == frontBrightness && Arrays.equals(backBuffer, frontBuffer)) {
+                framesSkipped++;
+                return false;
+            }
+            int[] swap = frontBuffer;
+            frontBuffer = backBuffer;
+            backBuffer = swap;
+            brightnessChanged = backBrightness != frontBrightness;
+            frontBrightness = backBrightness;
+            frame = frontBuffer;
+            brightness = frontBrightness;
+            framesWritten++;
+        }
+        long start = System.nanoTime();
+        try {
+            if (brightnessChanged) {
+                sink.setBrightness(brightness);
+            }
+            sink.write(frame);
+            Metrics.Histogram histogram = writeTime;
+            if (histogram != null) {
+                histogram.recordSince(start);
+            }
+            return true;
+        } catch (IOException e) {
+            Metrics.Counter failures = writeFailures;
+            if (failures != null) {
+                failures.increment();
+            }
+            Log.e(TAG, "Error setting ledstrip", e);
+            synchronized (lock) {
+                // Force the next frame out even if it matches what we failed to send.
+                frontBrightness = -1;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Times every frame written to the strip under {@code io.spi.exec} and counts failed ones
+     * under {@code io.spi.failed}.
+     */
+    public void setMetrics(Metrics metrics) {
+        writeFailures = metrics.counter("io.spi.failed");
+        writeTime = metrics.histogram("io.spi.exec");
+    }
+
+    public long getFramesSubmitted() {
+        synchronized (lock) {
+            return framesSubmitted;
+        }
+    }
+
+    public long getFramesWritten() {
+        synchronized (lock) {
+            return framesWritten;
+        }
+    }
+
+    public long getFramesSkipped() {
+        synchronized (lock) {
+            return framesSkipped;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * Minimal output surface of an APA102 style LED strip, so the render path can be driven
+ * against the real driver on device and against a fake in JVM unit tests.
+ */
+public interface LedStripSink {
+
+    void setBrightness(int brightness) throws IOException;
+
+    void write(int[] colors) throws IOException;
+}
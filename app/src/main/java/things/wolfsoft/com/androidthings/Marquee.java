@@ -0,0 +1,348 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrolls queued messages across a four digit display, highest priority first.
+ *
+ * Each message is encoded into a strip once when it is built, so a frame is just an offset
+ * into that strip and ticking allocates nothing. A message posted above the priority of the
+ * one scrolling interrupts it; the interrupted message goes back on the queue and replays
+ * from the start. When the queue runs dry the idle text, normally the current mode, is shown.
+ *
+ * Nothing here touches the display directly: every frame and idle text is submitted to the
+ * {@link PeripheralExecutor.Bus#I2C} lane under one device key, so the lane stays the only
+ * thread on the bus and a frame the lane has not reached yet is replaced by the next one.
+ * Posting from the main or sensor thread therefore only queues.
+ */
+public class Marquee {
+    private static final String TAG = "Marquee";
+
+    public static final int PRIORITY_INFO = 0;
+    public static final int PRIORITY_STATUS = 5;
+    public static final int PRIORITY_ALERT = 10;
+    public static final long DEFAULT_FRAME_INTERVAL_MS = 250;
+
+    /**
+     * Device key of display writes on the I2C lane.
+     */
+    static final String DEVICE = "display";
+
+    /**
+     * An immutable message with its strip encoded up front.
+     */
+    public static final class Message {
+        private final String text;
+        private final int priority;
+        private final int passes;
+        private final long frameIntervalMs;
+        private final short[] strip;
+
+        /**
+         * @param passes          times the text scrolls fully across before the next message
+         * @param frameIntervalMs time each frame stays up; lower scrolls faster
+         */
+        public Message(String text, int priority, int passes, long frameIntervalMs) {
+            if (text == null) {
+                throw new IllegalArgumentException("text");
+            }
+            if (passes < 1 || frameIntervalMs < 1) {
+                throw new IllegalArgumentException("passes and frameIntervalMs must be positive");
+            }
+            this.text = text;
+            this.priority = priority;
+            this.passes = passes;
+            this.frameIntervalMs = frameIntervalMs;
+            this.strip = SegmentDisplayWriter.scrollStrip(text);
+        }
+
+        public Message(String text, int priority) {
+            this(text, priority, 1, DEFAULT_FRAME_INTERVAL_MS);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Frames in one pass, from entering on the right to leaving on the left.
+         */
+        public int getFramesPerPass() {
+            return strip.length - SegmentDisplayWriter.DIGITS + 1;
+        }
+
+        @Override
+        public String toString() {
+            return "Message{" + text + ", priority=" + priority + ", passes=" + passes + "}";
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final Message message;
+        final long sequence;
+
+        Entry(Message message, long sequence) {
+            this.message = message;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (message.priority != other.message.priority) {
+                return message.priority > other.message.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final FrameDisplay display;
+    private final int capacity;
+    private final PeripheralExecutor executor;
+    private final ScheduledExecutorService ticker;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+    private long sequence;
+    private long generation;
+    private Entry current;
+    private ScheduledFuture<?> scrolling;
+    private String idleText;
+
+    private long posted;
+    private long dropped;
+    private long interrupted;
+    private long completed;
+    private long frames;
+    private long rejected;
+
+    /**
+     * @param capacity messages held waiting; posting past it drops the lowest priority one
+     * @param executor whose I2C lane writes to {@code display}
+     */
+    public Marquee(FrameDisplay display, int capacity, PeripheralExecutor executor) {
+        this.display = display;
+        this.capacity = capacity;
+        this.executor = executor;
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues {@code message}, interrupting the current one if {@code message} outranks it.
+     */
+    public synchronized void post(Message message) {
+        posted++;
+        Entry entry = new Entry(message, sequence++);
+        if (current == null) {
+            start(entry);
+            return;
+        }
+        if (message.priority > current.message.priority) {
+            interrupted++;
+            // Replays in full once the interruption is over, ahead of later posts of its priority
+            queue.add(current);
+            start(entry);
+        } else {
+            queue.add(entry);
+        }
+        trim();
+    }
+
+    public void post(String text, int priority) {
+        post(new Message(text, priority));
+    }
+
+    /**
+     * Text shown while nothing is scrolling; null blanks the display.
+     */
+    public synchronized void setIdleText(String text) {
+        idleText = text;
+        if (current == null) {
+            showIdle();
+        }
+    }
+
+    /**
+     * Drops waiting and scrolling messages below {@code priority}, e.g. stale info on a mode change.
+     */
+    public synchronized void cancelBelow(int priority) {
+        Entry[] waiting = queue.toArray(new Entry[queue.size()]);
+        for (Entry entry : waiting) {
+            if (entry.message.priority < priority) {
+                queue.remove(entry);
+                dropped++;
+            }
+        }
+        if (current != null && current.message.priority < priority) {
+            dropped++;
+            next();
+        }
+    }
+
+    public synchronized void clear() {
+        cancelBelow(Integer.MAX_VALUE);
+    }
+
+    public synchronized Message getCurrent() {
+        return current == null ? null : current.message;
+    }
+
+    public synchronized int getPending() {
+        return queue.size();
+    }
+
+    private void trim() {
+        while (queue.size() > capacity) {
+            // Lowest priority, newest among equals: the last element in queue order
+            Entry last = null;
+            for (Entry entry : queue) {
+                if (last == null || entry.compareTo(last) > 0) {
+                    last = entry;
+                }
+            }
+            queue.remove(last);
+            dropped++;
+        }
+    }
+
+    private void next() {
+        Entry entry = queue.poll();
+        if (entry == null) {
+            stop();
+            showIdle();
+        } else {
+            start(entry);
+        }
+    }
+
+    private void stop() {
+        generation++;
+        current = null;
+        if (scrolling != null) {
+            scrolling.cancel(false);
+            scrolling = null;
+        }
+    }
+
+    private void start(final Entry entry) {
+        stop();
+        current = entry;
+        final long run = generation;
+        final Message message = entry.message;
+        final int framesPerPass = message.getFramesPerPass();
+        write(message.strip, 0);
+        try {
+            scrolling = ticker.scheduleAtFixedRate(new Runnable() {
+                private int frame;
+
+                @Override
+                public void run() {
+                    synchronized (Marquee.this) {
+                        if (run != generation) {
+                            return;
+                        }
+                        frame++;
+                        if (frame == framesPerPass * message.passes) {
+                            completed++;
+                            next();
+                            return;
+                        }
+                        write(message.strip, frame % framesPerPass);
+                    }
+                }
+            }, message.frameIntervalMs, message.frameIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            current = null;
+        }
+    }
+
+    private void showIdle() {
+        final String text = idleText;
+        submit(new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                display.show(text);
+            }
+        });
+    }
+
+    private void write(final short[] strip, final int offset) {
+        frames++;
+        submit(new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                display.showFrame(strip, offset);
+            }
+        });
+    }
+
+    /**
+     * Only queues; the lane logs and counts failed writes under its I2C stats.
+     */
+    private void submit(PeripheralExecutor.Command command) {
+        if (!executor.submit(PeripheralExecutor.Bus.I2C, DEVICE, command)) {
+            rejected++;
+        }
+    }
+
+    public synchronized long getPosted() {
+        return posted;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getInterrupted() {
+        return interrupted;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Frames handed to the lane, including ones a newer frame replaced before they were shown.
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Writes the lane refused, because it was full or shut down.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            queue.clear();
+            stop();
+        }
+        ticker.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{posted=" + posted + ", completed=" + completed + ", interrupted=" + interrupted
+                + ", dropped=" + dropped + ", frames=" + frames + ", rejected=" + rejected + "}";
+    }
+}
@@ -0,0 +1,232 @@
+package things.wolfsoft.com.androidthings;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters, latency histograms and gauges. Instruments are looked up once, when a
+ * component is wired up; recording into them afterwards takes no locks and allocates nothing,
+ * so it is safe on the input, bus and sensor threads.
+ *
+ * Names are dotted paths such as {@code io.gpio.exec}. Asking for a name twice returns the
+ * same instrument.
+ */
+public class Metrics {
+
+    public static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long amount) {
+            adder.add(amount);
+        }
+
+        public long get() {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * A value read when metrics are reported, e.g. a queue depth.
+     */
+    public interface Gauge {
+        long get();
+    }
+
+    /**
+     * Nanosecond latencies over fixed log-linear buckets, exact below 32ns and 16 buckets per
+     * power of two above, so percentiles are within 1/16th of the true value.
+     */
+    public static final class Histogram {
+        static final int SUB_BUCKET_BITS = 4;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Up to 2^40ns, about 18 minutes; anything longer lands in the last bucket
+        static final int MAX_MAGNITUDE = 40;
+        static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        static int bucketOf(long nanos) {
+            if (nanos <= 0) {
+                return 0;
+            }
+            if (nanos >= 1L << MAX_MAGNITUDE) {
+                return BUCKETS - 1;
+            }
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS);
+            return (shift << SUB_BUCKET_BITS) + (int) (nanos >>> shift);
+        }
+
+        static long lowestOf(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+            return (long) ((bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+        }
+
+        static long highestOf(int bucket) {
+            return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowestOf(bucket + 1) - 1;
+        }
+
+        public void record(long nanos) {
+            buckets.incrementAndGet(bucketOf(nanos));
+            sum.add(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            return new Snapshot(counts, count, sum.sum(), max.get());
+        }
+    }
+
+    /**
+     * A histogram's contents at one point in time.
+     */
+    public static final class Snapshot {
+        public final long count;
+        public final long sumNanos;
+        public final long maxNanos;
+        private final long[] buckets;
+
+        Snapshot(long[] buckets, long count, long sumNanos, long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long meanNanos() {
+            return count == 0 ? 0 : sumNanos / count;
+        }
+
+        /**
+         * The latency that {@code fraction} of the recordings were at or below, e.g. 0.99 for
+         * p99, rounded up to the top of its bucket. 0 when nothing was recorded.
+         */
+        public long percentileNanos(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.highestOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * What was recorded between {@code earlier} and this snapshot. The maximum is then the
+         * top of the highest bucket used, the exact value is not known.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] counts = new long[buckets.length];
+            long max = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i] - earlier.buckets[i];
+                if (counts[i] > 0) {
+                    max = Math.min(Histogram.highestOf(i), maxNanos);
+                }
+            }
+            return new Snapshot(counts, count - earlier.count, sumNanos - earlier.sumNanos, max);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers {@code gauge} under {@code name}, replacing any earlier one.
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Current counter values, by name.
+     */
+    public Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * Current gauge readings, by name. A gauge that throws is left out.
+     */
+    public Map<String, Long> gaugeValues() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                values.put(entry.getKey(), entry.getValue().get());
+            } catch (RuntimeException e) {
+                // The component behind it is gone or not ready
+            }
+        }
+        return values;
+    }
+
+    public Map<String, Snapshot> histogramSnapshots() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,99 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs a compact dump of a {@link Metrics} registry at a fixed interval, one line per metric
+ * that moved since the last dump: counters with their increase, histograms with count, p50,
+ * p99 and max of the interval, and every gauge. Run with {@code adb logcat -s MetricsReporter}.
+ */
+public class MetricsReporter {
+    private static final String TAG = "MetricsReporter";
+
+    public static final long DEFAULT_INTERVAL_MS = 60000;
+
+    private final Metrics metrics;
+    private final ScheduledExecutorService ticker;
+    private Map<String, Long> lastCounters = new HashMap<>();
+    private Map<String, Metrics.Snapshot> lastHistograms = new HashMap<>();
+
+    public MetricsReporter(Metrics metrics) {
+        this.metrics = metrics;
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start(long intervalMs) {
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (String line : report(false).split("\n")) {
+                    if (!line.isEmpty()) {
+                        Log.d(TAG, line);
+                    }
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The dump since the previous report, which it then becomes the start of.
+     *
+     * @param all include counters and histograms that did not move
+     */
+    public synchronized String report(boolean all) {
+        StringBuilder out = new StringBuilder();
+        Map<String, Long> counters = metrics.counterValues();
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            Long last = lastCounters.get(counter.getKey());
+            long delta = counter.getValue() - (last == null ? 0 : last);
+            if (all || delta != 0) {
+                out.append(counter.getKey()).append(' ').append(counter.getValue())
+                        .append(" +").append(delta).append('\n');
+            }
+        }
+        Map<String, Metrics.Snapshot> histograms = metrics.histogramSnapshots();
+        for (Map.Entry<String, Metrics.Snapshot> histogram : histograms.entrySet()) {
+            Metrics.Snapshot total = histogram.getValue();
+            Metrics.Snapshot last = lastHistograms.get(histogram.getKey());
+            Metrics.Snapshot interval = last == null ? total : total.since(last);
+            if (all || interval.count != 0) {
+                out.append(histogram.getKey()).append(" n=").append(interval.count)
+                        .append(" p50=").append(format(interval.percentileNanos(0.5)))
+                        .append(" p99=").append(format(interval.percentileNanos(0.99)))
+                        .append(" max=").append(format(interval.maxNanos))
+                        .append(" total=").append(total.count).append('\n');
+            }
+        }
+        for (Map.Entry<String, Long> gauge : metrics.gaugeValues().entrySet()) {
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue()).append('\n');
+        }
+        lastCounters = counters;
+        lastHistograms = histograms;
+        return out.toString();
+    }
+
+    static String format(long nanos) {
+        if (nanos < 10000000) {
+            return nanos / 1000 + "us";
+        }
+        return nanos / 1000000 + "ms";
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,440 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs peripheral I/O off the main looper, one worker thread per bus.
+ *
+ * Each bus lane has a bounded command queue. Commands submitted with a device key replace any
+ * command for the same device that is still waiting (last writer wins), so a slow bus only
+ * ever works through the newest state of each device. When a lane is full the configured
+ * {@link OverflowPolicy} decides what gives.
+ */
+public class PeripheralExecutor {
+    private static final String TAG = "PeripheralExecutor";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    public enum Bus {
+        SPI,
+        I2C,
+        GPIO,
+        PWM
+    }
+
+    public enum OverflowPolicy {
+        /** Reject the command being submitted. */
+        DROP_NEWEST,
+        /** Evict the oldest queued command to make room. */
+        DROP_OLDEST,
+        /** Block the caller until there is room or the block timeout expires. */
+        BLOCK
+    }
+
+    /**
+     * A unit of peripheral I/O.
+     */
+    public interface Command {
+        void execute() throws IOException;
+    }
+
+    private final Map<Bus, Lane> lanes = new EnumMap<>(Bus.class);
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private volatile boolean shutdown;
+
+    public PeripheralExecutor() {
+        this(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, 0);
+    }
+
+    public PeripheralExecutor(int queueCapacity, OverflowPolicy overflowPolicy, long blockTimeoutMs) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        for (Bus bus : Bus.values()) {
+            lanes.put(bus, new Lane(bus));
+        }
+    }
+
+    /**
+     * Queues a command that is never coalesced with others.
+     */
+    public boolean submit(Bus bus, Command command) {
+        return submit(bus, null, command);
+    }
+
+    /**
+     * Queues a command for {@code device} on {@code bus}, replacing any command for the same
+     * device that has not started yet.
+     *
+     * @return false if the command was dropped
+     */
+    public boolean submit(Bus bus, String device, Command command) {
+        if (shutdown) {
+            return false;
+        }
+        return lanes.get(bus).offer(device, command);
+    }
+
+    /**
+     * Waits until every command queued on {@code bus} so far has finished.
+     */
+    public boolean awaitIdle(Bus bus, long timeout, TimeUnit unit) throws InterruptedException {
+        return lanes.get(bus).awaitIdle(unit.toNanos(timeout));
+    }
+
+    /**
+     * Stops accepting commands, lets the lanes drain and stops the worker threads.
+     */
+    public void shutdown(long timeoutMs) {
+        shutdown = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Lane lane : lanes.values()) {
+            lane.stop(Math.max(0, deadline - System.nanoTime()));
+        }
+    }
+
+    /**
+     * Times every command under {@code io.<bus>.exec} and, queue wait included, under
+     * {@code io.<bus>.latency}; counts failed and dropped commands and exposes the queue depth.
+     */
+    public void setMetrics(Metrics metrics) {
+        for (final Lane lane : lanes.values()) {
+            String prefix = "io." + lane.bus.name().toLowerCase(Locale.US) + ".";
+            lane.metrics = new LaneMetrics(metrics.histogram(prefix + "exec"),
+                    metrics.histogram(prefix + "latency"), metrics.counter(prefix + "failed"),
+                    metrics.counter(prefix + "dropped"));
+            metrics.gauge(prefix + "queue", new Metrics.Gauge() {
+                @Override
+                public long get() {
+                    return lane.queueDepth();
+                }
+            });
+        }
+    }
+
+    public int getQueueDepth(Bus bus) {
+        return lanes.get(bus).queueDepth();
+    }
+
+    public Stats getStats(Bus bus) {
+        return lanes.get(bus).stats();
+    }
+
+    /**
+     * Point-in-time counters of one lane. Latency covers queue wait plus execution.
+     */
+    public static class Stats {
+        public final Bus bus;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long submitted;
+        public final long executed;
+        public final long coalesced;
+        public final long dropped;
+        public final long failed;
+        public final long totalLatencyNanos;
+        public final long maxLatencyNanos;
+
+        Stats(Bus bus, int queueDepth, int maxQueueDepth, long submitted, long executed,
+              long coalesced, long dropped, long failed, long totalLatencyNanos, long maxLatencyNanos) {
+            this.bus = bus;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.submitted = submitted;
+            this.executed = executed;
+            this.coalesced = coalesced;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        public long averageLatencyNanos() {
+            return executed == 0 ? 0 : totalLatencyNanos / executed;
+        }
+
+        @Override
+        public String toString() {
+            return bus + " depth=" + queueDepth + " maxDepth=" + maxQueueDepth
+                    + " submitted=" + submitted + " executed=" + executed
+                    + " coalesced=" + coalesced + " dropped=" + dropped + " failed=" + failed
+                    + " avgLatencyUs=" + averageLatencyNanos() / 1000
+                    + " maxLatencyUs=" + maxLatencyNanos / 1000;
+        }
+    }
+
+    private static class Entry {
+        final String device;
+        Command command;
+        long enqueuedNanos;
+
+        Entry(String device, Command command, long enqueuedNanos) {
+            this.device = device;
+            this.command = command;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static class LaneMetrics {
+        final Metrics.Histogram exec;
+        final Metrics.Histogram latency;
+        final Metrics.Counter failed;
+        final Metrics.Counter dropped;
+
+        LaneMetrics(Metrics.Histogram exec, Metrics.Histogram latency, Metrics.Counter failed,
+                    Metrics.Counter dropped) {
+            this.exec = exec;
+            this.latency = latency;
+            this.failed = failed;
+            this.dropped = dropped;
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final Bus bus;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Condition idle = lock.newCondition();
+        private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+        private final Map<String, Entry> pendingByDevice = new HashMap<>();
+        private Thread worker;
+        private boolean running;
+        private boolean stopping;
+        private volatile LaneMetrics metrics;
+
+        private int maxQueueDepth;
+        private long submitted;
+        private long executed;
+        private long coalesced;
+        private long dropped;
+        private long failed;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+
+        Lane(Bus bus) {
+            this.bus = bus;
+        }
+
+        boolean offer(String device, Command command) {
+            lock.lock();
+            try {
+                submitted++;
+                if (coalesce(device, command)) {
+                    return true;
+                }
+                if (queue.size() >= queueCapacity) {
+                    if (!makeRoom()) {
+                        countDropped();
+                        return false;
+                    }
+                    // Another command for the device may have been queued while we waited
+                    if (coalesce(device, command)) {
+                        return true;
+                    }
+                }
+                Entry entry = new Entry(device, command, System.nanoTime());
+                queue.addLast(entry);
+                if (device != null) {
+                    pendingByDevice.put(device, entry);
+                }
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+                ensureWorker();
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hands {@code command} to a queued entry for the same device, keeping its queue
+         * position and original enqueue time.
+         */
+        private boolean coalesce(String device, Command command) {
+            if (device == null) {
+                return false;
+            }
+            Entry pending = pendingByDevice.get(device);
+            if (pending == null) {
+                return false;
+            }
+            pending.command = command;
+            coalesced++;
+            return true;
+        }
+
+        private boolean makeRoom() {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    Entry evicted = queue.pollFirst();
+                    if (evicted.device != null) {
+                        pendingByDevice.remove(evicted.device, evicted);
+                    }
+                    countDropped();
+                    return true;
+                case BLOCK:
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+                    try {
+                        while (queue.size() >= queueCapacity && !stopping) {
+                            if (remaining <= 0) {
+                                return false;
+                            }
+                            remaining = notFull.awaitNanos(remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    return !stopping;
+                case DROP_NEWEST:
+                default:
+                    return false;
+            }
+        }
+
+        private void countDropped() {
+            dropped++;
+            LaneMetrics laneMetrics = metrics;
+            if (laneMetrics != null) {
+                laneMetrics.dropped.increment();
+            }
+        }
+
+        private void ensureWorker() {
+            if (worker == null && !stopping) {
+                worker = new Thread(this, TAG + "-" + bus);
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Entry entry;
+                lock.lock();
+                try {
+                    while (queue.isEmpty()) {
+                        if (stopping) {
+                            return;
+                        }
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    entry = queue.pollFirst();
+                    if (entry.device != null) {
+                        pendingByDevice.remove(entry.device, entry);
+                    }
+                    running = true;
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+
+                boolean ok = true;
+                long start = System.nanoTime();
+                try {
+                    entry.command.execute();
+                } catch (IOException | RuntimeException e) {
+                    ok = false;
+                    Log.e(TAG, "Error executing " + bus + " command", e);
+                }
+                long end = System.nanoTime();
+                long latency = end - entry.enqueuedNanos;
+                LaneMetrics laneMetrics = metrics;
+                if (laneMetrics != null) {
+                    laneMetrics.exec.record(end - start);
+                    laneMetrics.latency.record(latency);
+                    if (!ok) {
+                        laneMetrics.failed.increment();
+                    }
+                }
+
+                lock.lock();
+                try {
+                    running = false;
+                    executed++;
+                    if (!ok) {
+                        failed++;
+                    }
+                    totalLatencyNanos += latency;
+                    maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                    if (queue.isEmpty()) {
+                        idle.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        boolean awaitIdle(long nanos) throws InterruptedException {
+            lock.lock();
+            try {
+                while (!queue.isEmpty() || running) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = idle.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void stop(long nanos) {
+            Thread toJoin;
+            lock.lock();
+            try {
+                stopping = true;
+                toJoin = worker;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (toJoin != null) {
+                try {
+                    TimeUnit.NANOSECONDS.timedJoin(toJoin, Math.max(1, nanos));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        int queueDepth() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Stats stats() {
+            lock.lock();
+            try {
+                return new Stats(bus, queue.size(), maxQueueDepth, submitted, executed,
+                        coalesced, dropped, failed, totalLatencyNanos, maxLatencyNanos);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
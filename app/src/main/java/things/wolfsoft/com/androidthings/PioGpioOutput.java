@@ -0,0 +1,27 @@
+package things.wolfsoft.com.androidthings;
+
+import com.google.android.things.pio.Gpio;
+
+import java.io.IOException;
+
+/**
+ * {@link GpioOutput} backed by a Peripheral I/O {@link Gpio}.
+ */
+public class PioGpioOutput implements GpioOutput {
+
+    private final Gpio gpio;
+
+    public PioGpioOutput(Gpio gpio) {
+        this.gpio = gpio;
+    }
+
+    @Override
+    public void setOutput(boolean initiallyHigh) throws IOException {
+        gpio.setDirection(initiallyHigh ? Gpio.DIRECTION_OUT_INITIALLY_HIGH : Gpio.DIRECTION_OUT_INITIALLY_LOW);
+    }
+
+    @Override
+    public void setValue(boolean high) throws IOException {
+        gpio.setValue(high);
+    }
+}
@@ -0,0 +1,53 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * The Rainbow HAT's peripherals, each behind the narrow interface the app drives it through.
+ *
+ * {@link AndroidThingsHat} opens the real drivers on device; {@link SimulatedHat} stands in
+ * for them on a plain JVM. Whatever is opened is released by {@link #close()}.
+ */
+public interface RainbowHat {
+
+    int BUTTON_A = 0;
+    int BUTTON_B = 1;
+    int BUTTON_C = 2;
+
+    int LED_RED = 0;
+    int LED_BLUE = 1;
+    int LED_GREEN = 2;
+
+    /**
+     * Receives button edges, from whatever thread the buttons report on.
+     */
+    interface ButtonListener {
+        void onButton(int button, boolean pressed, long timeNanos);
+    }
+
+    void openButtons(ButtonListener listener) throws IOException;
+
+    /**
+     * @return the red, blue and green LEDs, indexed by {@link #LED_RED} and friends
+     */
+    GpioOutput[] openLeds() throws IOException;
+
+    LedStripSink openLedStrip(int leds) throws IOException;
+
+    /**
+     * Opens, enables and blanks the four digit display.
+     */
+    SegmentOutput openDisplay() throws IOException;
+
+    ToneOutput openSpeaker() throws IOException;
+
+    /**
+     * The temperature and pressure sensor; it is opened when the source is started.
+     */
+    SensorSource openSensors();
+
+    /**
+     * Closes everything opened so far, including devices an open that failed partway got to.
+     */
+    void close();
+}
@@ -0,0 +1,138 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Min, max, sum and count per fixed time bucket, in a memory-mapped ring of slots.
+ *
+ * A bucket's slot is its number modulo the slot count and carries the bucket's start time, so
+ * a slot left over from an older lap of the ring is recognised and overwritten. Adding a
+ * reading updates one slot in place.
+ */
+class RollupFile {
+
+    static final int MAGIC = 0x524f4c31;
+    static final int HEADER_BYTES = 16;
+    static final int SLOT_BYTES = 32;
+
+    // Slot layout
+    private static final int START = 0;
+    private static final int SUM = 8;
+    private static final int MIN = 16;
+    private static final int MAX = 20;
+    private static final int COUNT = 24;
+
+    final long bucketMillis;
+    final int slots;
+
+    private final RandomAccessFile raf;
+    private MappedByteBuffer map;
+
+    /**
+     * Opens or creates {@code file}; one written with another bucket size or slot count is wiped.
+     */
+    RollupFile(File file, long bucketMillis, int slots) throws IOException {
+        this.bucketMillis = bucketMillis;
+        this.slots = slots;
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean fresh = raf.length() != size;
+            raf.setLength(size);
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (fresh || map.getInt(0) != MAGIC || map.getLong(4) != bucketMillis || map.getInt(12) != slots) {
+                for (int i = 0; i < slots; i++) {
+                    map.putInt(HEADER_BYTES + i * SLOT_BYTES + COUNT, 0);
+                }
+                map.putInt(0, MAGIC);
+                map.putLong(4, bucketMillis);
+                map.putInt(12, slots);
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    long bucketStart(long epochMillis) {
+        return Math.floorDiv(epochMillis, bucketMillis) * bucketMillis;
+    }
+
+    private int slotOf(long bucketStart) {
+        return HEADER_BYTES + (int) Math.floorMod(bucketStart / bucketMillis, (long) slots) * SLOT_BYTES;
+    }
+
+    void add(long epochMillis, float value) {
+        long start = bucketStart(epochMillis);
+        int slot = slotOf(start);
+        if (map.getInt(slot + COUNT) == 0 || map.getLong(slot + START) != start) {
+            map.putLong(slot + START, start);
+            map.putDouble(slot + SUM, value);
+            map.putFloat(slot + MIN, value);
+            map.putFloat(slot + MAX, value);
+            map.putInt(slot + COUNT, 1);
+            return;
+        }
+        map.putDouble(slot + SUM, map.getDouble(slot + SUM) + value);
+        if (value < map.getFloat(slot + MIN)) {
+            map.putFloat(slot + MIN, value);
+        }
+        if (value > map.getFloat(slot + MAX)) {
+            map.putFloat(slot + MAX, value);
+        }
+        map.putInt(slot + COUNT, map.getInt(slot + COUNT) + 1);
+    }
+
+    /**
+     * Adds the bucket starting at {@code bucketStart} to {@code out}, if it is still held.
+     *
+     * @return whether the bucket held readings
+     */
+    boolean mergeInto(long bucketStart, SensorSummary out) {
+        int slot = slotOf(bucketStart);
+        int count = map.getInt(slot + COUNT);
+        if (count == 0 || map.getLong(slot + START) != bucketStart) {
+            return false;
+        }
+        out.merge(map.getFloat(slot + MIN), map.getFloat(slot + MAX), map.getDouble(slot + SUM), count);
+        return true;
+    }
+
+    /**
+     * Copies the held buckets starting in [{@code fromMillis}, {@code toMillis}) into the arrays.
+     *
+     * @return the number of buckets copied, at most the arrays' length
+     */
+    int read(long fromMillis, long toMillis, long[] starts, float[] mins, float[] maxs, float[] means) {
+        int n = 0;
+        // Buckets further back than one lap of the ring have been overwritten
+        long oldest = bucketStart(toMillis - 1) - (slots - 1) * bucketMillis;
+        long first = Math.max(bucketStart(fromMillis + bucketMillis - 1), oldest);
+        for (long start = first; start < toMillis && n < starts.length;
+             start += bucketMillis) {
+            int slot = slotOf(start);
+            int count = map.getInt(slot + COUNT);
+            if (count == 0 || map.getLong(slot + START) != start) {
+                continue;
+            }
+            starts[n] = start;
+            mins[n] = map.getFloat(slot + MIN);
+            maxs[n] = map.getFloat(slot + MAX);
+            means[n] = (float) (map.getDouble(slot + SUM) / count);
+            n++;
+        }
+        return n;
+    }
+
+    void close() throws IOException {
+        if (map != null) {
+            map.force();
+            map = null;
+        }
+        raf.close();
+    }
+}
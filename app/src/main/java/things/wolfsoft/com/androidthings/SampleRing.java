@@ -0,0 +1,104 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Fixed size ring of timestamped float readings, held in primitive arrays allocated once.
+ *
+ * Adding overwrites the oldest reading when full and never allocates. One thread adds, any
+ * thread may read; reads copy out under the same lock so they see whole readings.
+ */
+public class SampleRing {
+
+    private final long[] timestamps;
+    private final float[] values;
+    private final int mask;
+
+    private long total;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        timestamps = new long[size];
+        values = new float[size];
+        mask = size - 1;
+    }
+
+    public synchronized void add(long timestampNanos, float value) {
+        int index = (int) (total & mask);
+        timestamps[index] = timestampNanos;
+        values[index] = value;
+        total++;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Readings currently held, up to the capacity.
+     */
+    public synchronized int size() {
+        return (int) Math.min(total, mask + 1);
+    }
+
+    /**
+     * Readings ever added, including those overwritten since.
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the newest value, or NaN when empty
+     */
+    public synchronized float latestValue() {
+        return total == 0 ? Float.NaN : values[(int) ((total - 1) & mask)];
+    }
+
+    /**
+     * @return the newest timestamp, or 0 when empty
+     */
+    public synchronized long latestTimestamp() {
+        return total == 0 ? 0 : timestamps[(int) ((total - 1) & mask)];
+    }
+
+    /**
+     * Copies up to {@code max} of the newest readings into the arrays, oldest first.
+     *
+     * @return the number copied
+     */
+    public synchronized int copyLatest(int max, long[] timestampsOut, float[] valuesOut) {
+        int count = (int) Math.min(Math.min(max, total), mask + 1);
+        long first = total - count;
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((first + i) & mask);
+            timestampsOut[i] = timestamps[index];
+            valuesOut[i] = values[index];
+        }
+        return count;
+    }
+
+    /**
+     * Readings per second across the readings held, or 0 with fewer than two.
+     */
+    public synchronized double rateHz() {
+        int count = (int) Math.min(total, mask + 1);
+        if (count < 2) {
+            return 0;
+        }
+        long newest = timestamps[(int) ((total - 1) & mask)];
+        long oldest = timestamps[(int) ((total - count) & mask)];
+        return newest == oldest ? 0 : (count - 1) * 1e9 / (newest - oldest);
+    }
+
+    public synchronized void clear() {
+        total = 0;
+    }
+}
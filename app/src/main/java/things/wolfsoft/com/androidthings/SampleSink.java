@@ -0,0 +1,8 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Receives raw readings from a {@link SensorSource}.
+ */
+public interface SampleSink {
+    void onSample(SensorChannel channel, long timestampNanos, float value);
+}
@@ -0,0 +1,232 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects temperature and pressure readings from a {@link SensorSource} into per-channel
+ * {@link SampleRing}s and hands decimated readings to listeners.
+ *
+ * The sensor is asked for readings every sampling period but may hold them for up to the
+ * report latency and deliver them together, so the device wakes once per batch rather than
+ * once per reading. Each listener names how often it wants a reading and gets the mean of the
+ * readings in each such window, timed by the readings' own timestamps so a late batch still
+ * yields one reading per window. Recording a reading allocates nothing.
+ */
+public class SamplingService implements SampleSink {
+    private static final String TAG = "SamplingService";
+
+    /**
+     * Receives decimated readings, on the source's delivery thread.
+     */
+    public interface Listener {
+        /**
+         * @param timestampNanos time of the newest reading in the window
+         * @param mean           mean of the readings in the window
+         * @param samples        how many readings the mean covers
+         */
+        void onReading(SensorChannel channel, long timestampNanos, float mean, int samples);
+    }
+
+    public static final class Config {
+        final int samplingPeriodUs;
+        final int maxReportLatencyUs;
+        final int ringCapacity;
+
+        /**
+         * @param ringCapacity raw readings kept per channel
+         */
+        public Config(int samplingPeriodUs, int maxReportLatencyUs, int ringCapacity) {
+            if (samplingPeriodUs <= 0 || maxReportLatencyUs < 0 || ringCapacity < 1) {
+                throw new IllegalArgumentException("Bad sampling config");
+            }
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+            this.ringCapacity = ringCapacity;
+        }
+
+        @Override
+        public String toString() {
+            return "Config{period=" + samplingPeriodUs + "us, latency=" + maxReportLatencyUs
+                    + "us, ring=" + ringCapacity + "}";
+        }
+    }
+
+    /**
+     * 4 Hz, batched for up to 5 seconds, about 17 minutes of raw readings kept.
+     */
+    public static final Config DEFAULT_CONFIG = new Config(250000, 5000000, 4096);
+
+    private static final int CHANNELS = SensorChannel.values().length;
+
+    /**
+     * A listener with its window per channel, touched only on the delivery thread.
+     */
+    private static final class Subscription {
+        final Listener listener;
+        final long intervalNanos;
+        final long[] windowStart = new long[CHANNELS];
+        final long[] newest = new long[CHANNELS];
+        final double[] sum = new double[CHANNELS];
+        final int[] count = new int[CHANNELS];
+
+        Subscription(Listener listener, long intervalNanos) {
+            this.listener = listener;
+            this.intervalNanos = intervalNanos;
+        }
+    }
+
+    private final SensorSource source;
+    private final Config config;
+    private final SampleRing[] rings = new SampleRing[CHANNELS];
+    private final long[] lastTimestamp = new long[CHANNELS];
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private volatile boolean started;
+    private long samples;
+    private long outOfOrder;
+    private long readings;
+    private Metrics.Counter[] sampleCounters;
+    private Metrics.Counter outOfOrderCounter;
+
+    public SamplingService(SensorSource source, Config config) {
+        this.source = source;
+        this.config = config;
+        for (int i = 0; i < CHANNELS; i++) {
+            rings[i] = new SampleRing(config.ringCapacity);
+            lastTimestamp[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Delivers the mean of each {@code intervalMs} of readings to {@code listener}.
+     */
+    public void addListener(Listener listener, long intervalMs) {
+        subscriptions.add(new Subscription(listener, intervalMs * 1000000L));
+    }
+
+    public void removeListener(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Counts samples per channel under {@code sensor.<channel>.samples} and dropped out of
+     * order ones under {@code sensor.outOfOrder}. Call before {@link #start()}.
+     */
+    public synchronized void setMetrics(Metrics metrics) {
+        sampleCounters = new Metrics.Counter[CHANNELS];
+        for (SensorChannel channel : SensorChannel.values()) {
+            sampleCounters[channel.ordinal()] = metrics.counter(
+                    "sensor." + channel.name().toLowerCase(Locale.US) + ".samples");
+        }
+        outOfOrderCounter = metrics.counter("sensor.outOfOrder");
+    }
+
+    public void start() throws IOException {
+        started = true;
+        source.start(this, config.samplingPeriodUs, config.maxReportLatencyUs);
+        Log.d(TAG, "Sampling " + config);
+    }
+
+    /**
+     * Asks the source to hand over batched readings now, e.g. when the screen is looked at.
+     */
+    public void flush() {
+        if (started) {
+            source.flush();
+        }
+    }
+
+    public SampleRing getRing(SensorChannel channel) {
+        return rings[channel.ordinal()];
+    }
+
+    /**
+     * The newest raw reading, or NaN before the first.
+     */
+    public float getLatest(SensorChannel channel) {
+        return rings[channel.ordinal()].latestValue();
+    }
+
+    @Override
+    public void onSample(SensorChannel channel, long timestampNanos, float value) {
+        int c = channel.ordinal();
+        synchronized (this) {
+            samples++;
+            if (sampleCounters != null) {
+                sampleCounters[c].increment();
+            }
+            // Batches can overlap a flush, a reading older than the newest one kept is dropped
+            if (timestampNanos <= lastTimestamp[c]) {
+                outOfOrder++;
+                if (outOfOrderCounter != null) {
+                    outOfOrderCounter.increment();
+                }
+                return;
+            }
+            lastTimestamp[c] = timestampNanos;
+        }
+        rings[c].add(timestampNanos, value);
+        for (Subscription subscription : subscriptions) {
+            decimate(subscription, channel, c, timestampNanos, value);
+        }
+    }
+
+    private void decimate(Subscription s, SensorChannel channel, int c, long timestampNanos, float value) {
+        if (s.count[c] == 0) {
+            s.windowStart[c] = timestampNanos;
+        } else if (timestampNanos - s.windowStart[c] >= s.intervalNanos) {
+            float mean = (float) (s.sum[c] / s.count[c]);
+            int count = s.count[c];
+            s.sum[c] = 0;
+            s.count[c] = 0;
+            s.windowStart[c] = timestampNanos;
+            synchronized (this) {
+                readings++;
+            }
+            try {
+                s.listener.onReading(channel, s.newest[c], mean, count);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Reading listener failed", e);
+            }
+        }
+        s.sum[c] += value;
+        s.count[c]++;
+        s.newest[c] = timestampNanos;
+    }
+
+    public void close() {
+        started = false;
+        try {
+            source.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing sensor source", e);
+        }
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    public synchronized long getOutOfOrder() {
+        return outOfOrder;
+    }
+
+    public synchronized long getReadings() {
+        return readings;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{samples=" + samples + ", outOfOrder=" + outOfOrder + ", readings=" + readings
+                + ", temperatureHz=" + String.format("%.2f", rings[SensorChannel.TEMPERATURE.ordinal()].rateHz())
+                + ", pressureHz=" + String.format("%.2f", rings[SensorChannel.PRESSURE.ordinal()].rateHz()) + "}";
+    }
+}
@@ -0,0 +1,248 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes text to a four digit 14-segment display, touching only digits that change.
+ *
+ * The last frame written is kept and each new frame is compared digit by digit, so showing
+ * the same text again costs no I2C traffic and "IN" to "OUT" rewrites only what differs.
+ * Encodings of the fixed strings are computed once. Text longer than the display scrolls
+ * from a background ticker through a strip encoded once per text.
+ */
+public class SegmentDisplayWriter implements FrameDisplay {
+    private static final String TAG = "SegmentDisplayWriter";
+
+    public static final int DIGITS = 4;
+    /**
+     * One register write on the wire: register address plus a 16 bit column.
+     */
+    public static final int BYTES_PER_COLUMN = 3;
+    public static final long DEFAULT_SCROLL_INTERVAL_MS = 250;
+    private static final int MAX_CACHED_TEXTS = 32;
+
+    private final SegmentOutput output;
+    private final long scrollIntervalMs;
+    private final ScheduledExecutorService ticker;
+
+    private final Map<String, short[]> encodings = new HashMap<>();
+    private final short[] last = new short[DIGITS];
+    private final short[] scratch = new short[DIGITS];
+    /**
+     * Whether {@link #last} is known to match the hardware, per digit.
+     */
+    private final boolean[] known = new boolean[DIGITS];
+
+    private long generation;
+    private ScheduledFuture<?> scrolling;
+
+    private long frames;
+    private long columnWrites;
+    private long columnsSkipped;
+    private long failures;
+
+    /**
+     * @param fixedTexts encoded up front, e.g. every mode's text
+     */
+    public SegmentDisplayWriter(SegmentOutput output, long scrollIntervalMs, String... fixedTexts) {
+        this.output = output;
+        this.scrollIntervalMs = scrollIntervalMs;
+        for (String text : fixedTexts) {
+            if (text != null) {
+                encodings.put(text, encode(text));
+            }
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static short[] encode(String text) {
+        short[] encoded = new short[Math.max(DIGITS, AlphanumericFont.digits(text))];
+        AlphanumericFont.encode(text, encoded, 0);
+        return encoded;
+    }
+
+    private short[] encodingOf(String text) {
+        short[] encoded = encodings.get(text);
+        if (encoded == null) {
+            encoded = encode(text);
+            if (encodings.size() < MAX_CACHED_TEXTS) {
+                encodings.put(text, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes {@code text} with a display's width of blanks either side, so that windows from
+     * offset 0 to {@code length - DIGITS} scroll it in from the right and out to the left.
+     */
+    public static short[] scrollStrip(String text) {
+        short[] strip = new short[AlphanumericFont.digits(text) + 2 * DIGITS];
+        AlphanumericFont.encode(text, strip, DIGITS);
+        return strip;
+    }
+
+    /**
+     * Shows {@code text}, left aligned; longer text scrolls until something else is shown.
+     * Null blanks the display.
+     */
+    @Override
+    public synchronized void show(String text) throws IOException {
+        if (text == null) {
+            clear();
+            return;
+        }
+        short[] encoded = encodingOf(text);
+        if (encoded.length <= DIGITS) {
+            cancelScroll();
+            writeFrame(encoded, 0);
+        } else {
+            scroll(encoded);
+        }
+    }
+
+    /**
+     * Stops any scrolling of our own and shows one window of a caller's strip.
+     */
+    @Override
+    public synchronized void showFrame(short[] strip, int offset) throws IOException {
+        cancelScroll();
+        writeFrame(strip, offset);
+    }
+
+    public synchronized void clear() throws IOException {
+        cancelScroll();
+        Arrays.fill(scratch, (short) 0);
+        writeFrame(scratch, 0);
+    }
+
+    /**
+     * Forgets the last frame, e.g. after the display was cleared behind our back, so the next
+     * frame is written in full.
+     */
+    public synchronized void invalidate() {
+        Arrays.fill(known, false);
+    }
+
+    public synchronized boolean isScrolling() {
+        return scrolling != null;
+    }
+
+    private void scroll(short[] encoded) throws IOException {
+        cancelScroll();
+        // Blank digits either side so the text enters from the right and leaves on the left
+        final short[] strip = new short[encoded.length + 2 * DIGITS];
+        System.arraycopy(encoded, 0, strip, DIGITS, encoded.length);
+        final long scroll = ++generation;
+        writeFrame(strip, 0);
+        try {
+            scrolling = ticker.scheduleAtFixedRate(new Runnable() {
+                private int offset;
+
+                @Override
+                public void run() {
+                    synchronized (SegmentDisplayWriter.this) {
+                        if (scroll != generation) {
+                            return;
+                        }
+                        offset = (offset + 1) % (strip.length - DIGITS + 1);
+                        try {
+                            writeFrame(strip, offset);
+                        } catch (IOException e) {
+                            failures++;
+                            Log.e(TAG, "Error scrolling display", e);
+                        }
+                    }
+                }
+            }, scrollIntervalMs, scrollIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down, the first frame stays
+        }
+    }
+
+    private void cancelScroll() {
+        generation++;
+        if (scrolling != null) {
+            scrolling.cancel(false);
+            scrolling = null;
+        }
+    }
+
+    private void writeFrame(short[] source, int offset) throws IOException {
+        frames++;
+        for (int i = 0; i < DIGITS; i++) {
+            short data = source[offset + i];
+            if (known[i] && last[i] == data) {
+                columnsSkipped++;
+                continue;
+            }
+            // A failed write leaves the digit unknown, so it is written again next frame
+            known[i] = false;
+            output.writeColumn(i, data);
+            last[i] = data;
+            known[i] = true;
+            columnWrites++;
+        }
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized long getColumnWrites() {
+        return columnWrites;
+    }
+
+    public synchronized long getColumnsSkipped() {
+        return columnsSkipped;
+    }
+
+    /**
+     * I2C bytes spent on digit registers so far.
+     */
+    public synchronized long getBytesWritten() {
+        return columnWrites * BYTES_PER_COLUMN;
+    }
+
+    /**
+     * What the same frames would have cost rewriting all four digits each time.
+     */
+    public synchronized long getFullRewriteBytes() {
+        return frames * DIGITS * BYTES_PER_COLUMN;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            cancelScroll();
+        }
+        ticker.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{frames=" + frames + ", columnWrites=" + columnWrites + ", skipped=" + columnsSkipped
+                + ", bytes=" + getBytesWritten() + " of " + getFullRewriteBytes() + ", failures=" + failures + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * Digit registers of a segment display, shaped like {@code Ht16k33.writeColumn}.
+ */
+public interface SegmentOutput {
+
+    /**
+     * Writes one digit's segment bits; on device one I2C register write.
+     */
+    void writeColumn(int column, short data) throws IOException;
+}
@@ -0,0 +1,15 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * The environmental readings the app samples.
+ */
+public enum SensorChannel {
+    /**
+     * Degrees Celsius.
+     */
+    TEMPERATURE,
+    /**
+     * Hectopascals.
+     */
+    PRESSURE
+}
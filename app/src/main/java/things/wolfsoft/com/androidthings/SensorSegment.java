@@ -0,0 +1,186 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One append-only file of fixed size readings: an epoch millis timestamp and a float value.
+ *
+ * The file is sized for its full capacity when created and, while it is the one being written,
+ * mapped into memory so an append is two stores and a count update with no system call and no
+ * allocation. The count in the header is written after the reading, so a reading is either
+ * fully there after a crash or not counted. Reads go through the file channel, which sees the
+ * mapped writes, so sealed segments hold no mapping.
+ */
+class SensorSegment {
+
+    static final int MAGIC = 0x53454731;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 12;
+    private static final int COUNT_OFFSET = 12;
+
+    final File file;
+    final int capacity;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int count;
+    private long firstMillis;
+    private long lastMillis;
+
+    private SensorSegment(File file, RandomAccessFile raf, int capacity, int count) {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.capacity = capacity;
+        this.count = count;
+    }
+
+    static SensorSegment create(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(HEADER_BYTES + (long) capacity * RECORD_BYTES);
+            SensorSegment segment = new SensorSegment(file, raf, capacity, 0);
+            segment.map();
+            segment.map.putInt(0, MAGIC);
+            segment.map.putInt(4, RECORD_BYTES);
+            segment.map.putInt(8, capacity);
+            segment.map.putInt(COUNT_OFFSET, 0);
+            return segment;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment, which is mapped for writing only if {@code writable}.
+     */
+    static SensorSegment open(File file, boolean writable, ByteBuffer scratch) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            scratch.clear().limit(HEADER_BYTES);
+            raf.getChannel().read(scratch, 0);
+            if (scratch.position() < HEADER_BYTES || scratch.getInt(0) != MAGIC
+                    || scratch.getInt(4) != RECORD_BYTES) {
+                throw new IOException("Not a sensor segment: " + file);
+            }
+            int capacity = scratch.getInt(8);
+            int count = scratch.getInt(COUNT_OFFSET);
+            if (capacity <= 0 || count < 0 || count > capacity
+                    || raf.length() < HEADER_BYTES + (long) capacity * RECORD_BYTES) {
+                throw new IOException("Corrupt sensor segment: " + file);
+            }
+            SensorSegment segment = new SensorSegment(file, raf, capacity, count);
+            if (count > 0) {
+                segment.firstMillis = segment.timestampAt(0, scratch);
+                segment.lastMillis = segment.timestampAt(count - 1, scratch);
+            }
+            if (writable && count < capacity) {
+                segment.map();
+            }
+            return segment;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private void map() throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * RECORD_BYTES);
+    }
+
+    boolean isWritable() {
+        return map != null && count < capacity;
+    }
+
+    /**
+     * @return false when the segment is full or not open for writing
+     */
+    boolean append(long epochMillis, float value) {
+        if (!isWritable()) {
+            return false;
+        }
+        int position = HEADER_BYTES + count * RECORD_BYTES;
+        map.putLong(position, epochMillis);
+        map.putFloat(position + 8, value);
+        if (count == 0) {
+            firstMillis = epochMillis;
+        }
+        lastMillis = epochMillis;
+        count++;
+        map.putInt(COUNT_OFFSET, count);
+        return true;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getFirstMillis() {
+        return firstMillis;
+    }
+
+    long getLastMillis() {
+        return lastMillis;
+    }
+
+    long timestampAt(int index, ByteBuffer scratch) throws IOException {
+        readRecords(index, 1, scratch);
+        return scratch.getLong(0);
+    }
+
+    /**
+     * Reads up to {@code max} readings from {@code index} into {@code scratch}, from position 0.
+     *
+     * @return the number of whole readings read
+     */
+    int readRecords(int index, int max, ByteBuffer scratch) throws IOException {
+        int records = Math.min(Math.min(max, count - index), scratch.capacity() / RECORD_BYTES);
+        scratch.clear().limit(records * RECORD_BYTES);
+        long position = HEADER_BYTES + (long) index * RECORD_BYTES;
+        while (scratch.hasRemaining()) {
+            if (channel.read(scratch, position + scratch.position()) < 0) {
+                throw new IOException("Sensor segment truncated: " + file);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Index of the first reading at or after {@code epochMillis}, or the count if none is.
+     */
+    int lowerBound(long epochMillis, ByteBuffer scratch) throws IOException {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid, scratch) < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Flushes and drops the mapping; the segment stays readable.
+     */
+    void seal() {
+        if (map != null) {
+            map.force();
+            map = null;
+        }
+    }
+
+    void close() throws IOException {
+        seal();
+        raf.close();
+    }
+}
@@ -0,0 +1,24 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * Something that delivers environmental readings to a {@link SamplingService}.
+ */
+public interface SensorSource {
+
+    /**
+     * Starts delivering readings to {@code sink} on one thread of the source's choosing.
+     *
+     * @param samplingPeriodUs   requested time between readings
+     * @param maxReportLatencyUs how long readings may be held and delivered as a batch
+     */
+    void start(SampleSink sink, int samplingPeriodUs, int maxReportLatencyUs) throws IOException;
+
+    /**
+     * Asks for any batched readings to be delivered now.
+     */
+    void flush();
+
+    void close() throws IOException;
+}
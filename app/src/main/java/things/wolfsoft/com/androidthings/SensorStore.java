@@ -0,0 +1,338 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Local time series of sensor readings, one directory per {@link SensorChannel}.
+ *
+ * Raw readings are appended to fixed size {@link SensorSegment} files; when one fills a new one
+ * is started and, past the segment limit, the oldest is deleted. Every append also updates a
+ * 1-minute and a 1-hour {@link RollupFile}, so a summary over a long range reads whole hours
+ * and minutes from the rollups and only the partial minutes at either end from the raw log.
+ * Appending allocates nothing except when a segment rolls over.
+ */
+public class SensorStore implements Closeable {
+    private static final String TAG = "SensorStore";
+
+    public static final long MINUTE_MS = 60 * 1000L;
+    public static final long HOUR_MS = 60 * MINUTE_MS;
+    /**
+     * About 7 hours of 10Hz readings, 3MB per segment.
+     */
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 18;
+    /**
+     * With the default segment size, over a week of 10Hz readings.
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 28;
+    private static final int MINUTE_SLOTS = 14 * 24 * 60;
+    private static final int HOUR_SLOTS = 366 * 24;
+    private static final int SCRATCH_RECORDS = 4096;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    public enum Resolution {
+        MINUTE,
+        HOUR
+    }
+
+    private static final class Series {
+        final File dir;
+        final List<SensorSegment> segments = new ArrayList<>();
+        final RollupFile minutes;
+        final RollupFile hours;
+        long nextSequence;
+        long lastMillis = Long.MIN_VALUE;
+
+        Series(File dir) throws IOException {
+            this.dir = dir;
+            minutes = new RollupFile(new File(dir, "minute.rollup"), MINUTE_MS, MINUTE_SLOTS);
+            hours = new RollupFile(new File(dir, "hour.rollup"), HOUR_MS, HOUR_SLOTS);
+        }
+
+        SensorSegment active() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+    }
+
+    private final int recordsPerSegment;
+    private final int maxSegments;
+    private final Series[] series = new Series[SensorChannel.values().length];
+    // Reused by every read, queries hold the store's lock
+    private final ByteBuffer scratch = ByteBuffer.allocateDirect(SCRATCH_RECORDS * SensorSegment.RECORD_BYTES);
+
+    private long appended;
+    private long rejected;
+    private long rollovers;
+    private boolean closed;
+
+    public SensorStore(File dir) throws IOException {
+        this(dir, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public SensorStore(File dir, int recordsPerSegment, int maxSegments) throws IOException {
+        if (recordsPerSegment < 1 || maxSegments < 1) {
+            throw new IllegalArgumentException("Bad segment limits");
+        }
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+        try {
+            for (SensorChannel channel : SensorChannel.values()) {
+                series[channel.ordinal()] = openSeries(new File(dir, channel.name().toLowerCase(Locale.US)));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private Series openSeries(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        Series s = new Series(dir);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return s;
+        }
+        // Zero padded sequence numbers, so name order is write order
+        Arrays.sort(files);
+        List<File> segmentFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segmentFiles.add(file);
+            }
+        }
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            File file = segmentFiles.get(i);
+            try {
+                SensorSegment segment = SensorSegment.open(file, i == segmentFiles.size() - 1, scratch);
+                s.segments.add(segment);
+                if (segment.getCount() > 0) {
+                    s.lastMillis = segment.getLastMillis();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Dropping unreadable segment " + file, e);
+                if (!file.delete()) {
+                    Log.e(TAG, "Could not delete " + file);
+                }
+            }
+            String name = file.getName();
+            try {
+                long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                s.nextSequence = Math.max(s.nextSequence, sequence + 1);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Unexpected segment name " + name);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Appends a reading; readings older than the channel's newest, or arriving after close, are
+     * rejected.
+     *
+     * @return whether the reading was stored
+     */
+    public synchronized boolean append(SensorChannel channel, long epochMillis, float value) throws IOException {
+        Series s = series[channel.ordinal()];
+        if (closed || epochMillis < s.lastMillis) {
+            rejected++;
+            return false;
+        }
+        SensorSegment active = s.active();
+        if (active == null || !active.append(epochMillis, value)) {
+            rollOver(s).append(epochMillis, value);
+        }
+        s.lastMillis = epochMillis;
+        s.minutes.add(epochMillis, value);
+        s.hours.add(epochMillis, value);
+        appended++;
+        return true;
+    }
+
+    private SensorSegment rollOver(Series s) throws IOException {
+        SensorSegment previous = s.active();
+        if (previous != null) {
+            previous.seal();
+        }
+        File file = new File(s.dir, String.format(Locale.US, "%012d", s.nextSequence++) + SEGMENT_SUFFIX);
+        SensorSegment segment = SensorSegment.create(file, recordsPerSegment);
+        s.segments.add(segment);
+        rollovers++;
+        while (s.segments.size() > maxSegments) {
+            SensorSegment oldest = s.segments.remove(0);
+            oldest.close();
+            if (!oldest.file.delete()) {
+                Log.e(TAG, "Could not delete " + oldest.file);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Summarizes readings in [{@code fromMillis}, {@code toMillis}) into {@code out}, from hour
+     * and minute rollups wherever whole buckets fit and raw readings elsewhere.
+     */
+    public synchronized SensorSummary summarize(SensorChannel channel, long fromMillis, long toMillis,
+                                                SensorSummary out) throws IOException {
+        out.reset();
+        if (fromMillis >= toMillis) {
+            return out;
+        }
+        Series s = series[channel.ordinal()];
+        long firstMinute = ceil(fromMillis, MINUTE_MS);
+        long lastMinute = floor(toMillis, MINUTE_MS);
+        if (firstMinute >= lastMinute) {
+            scanRaw(s, fromMillis, toMillis, null, null, out);
+            return out;
+        }
+        scanRaw(s, fromMillis, firstMinute, null, null, out);
+        long firstHour = ceil(firstMinute, HOUR_MS);
+        long lastHour = floor(lastMinute, HOUR_MS);
+        if (firstHour < lastHour) {
+            mergeBuckets(s, s.minutes, firstMinute, firstHour, out);
+            mergeBuckets(s, s.hours, firstHour, lastHour, out);
+            mergeBuckets(s, s.minutes, lastHour, lastMinute, out);
+        } else {
+            mergeBuckets(s, s.minutes, firstMinute, lastMinute, out);
+        }
+        scanRaw(s, lastMinute, toMillis, null, null, out);
+        return out;
+    }
+
+    private void mergeBuckets(Series s, RollupFile rollup, long fromMillis, long toMillis, SensorSummary out)
+            throws IOException {
+        for (long start = fromMillis; start < toMillis; start += rollup.bucketMillis) {
+            if (!rollup.mergeInto(start, out) && rollup == s.hours) {
+                // Hours outlive minutes, but an hour slot can be missing after a wipe; use minutes
+                mergeBuckets(s, s.minutes, start, start + HOUR_MS, out);
+            }
+        }
+    }
+
+    /**
+     * Copies raw readings in [{@code fromMillis}, {@code toMillis}), oldest first.
+     *
+     * @return the number copied, at most the arrays' length
+     */
+    public synchronized int readRaw(SensorChannel channel, long fromMillis, long toMillis,
+                                    long[] timestamps, float[] values) throws IOException {
+        return scanRaw(series[channel.ordinal()], fromMillis, toMillis, timestamps, values, null);
+    }
+
+    /**
+     * Copies rollups for buckets starting in [{@code fromMillis}, {@code toMillis}), oldest first.
+     *
+     * @return the number copied, at most the arrays' length
+     */
+    public synchronized int readRollups(SensorChannel channel, Resolution resolution, long fromMillis,
+                                        long toMillis, long[] starts, float[] mins, float[] maxs,
+                                        float[] means) {
+        Series s = series[channel.ordinal()];
+        RollupFile rollup = resolution == Resolution.HOUR ? s.hours : s.minutes;
+        return rollup.read(fromMillis, toMillis, starts, mins, maxs, means);
+    }
+
+    /**
+     * Visits raw readings in range, copying them to the arrays if given, until the arrays are
+     * full, and adding them to {@code summary} if given.
+     */
+    private int scanRaw(Series s, long fromMillis, long toMillis, long[] timestamps, float[] values,
+                        SensorSummary summary) throws IOException {
+        int copied = 0;
+        if (fromMillis >= toMillis) {
+            return 0;
+        }
+        for (SensorSegment segment : s.segments) {
+            if (segment.getCount() == 0 || segment.getLastMillis() < fromMillis) {
+                continue;
+            }
+            if (segment.getFirstMillis() >= toMillis) {
+                break;
+            }
+            int index = segment.getFirstMillis() >= fromMillis ? 0 : segment.lowerBound(fromMillis, scratch);
+            while (index < segment.getCount()) {
+                int max = timestamps == null ? SCRATCH_RECORDS : Math.min(SCRATCH_RECORDS, timestamps.length - copied);
+                if (max == 0) {
+                    return copied;
+                }
+                int read = segment.readRecords(index, max, scratch);
+                for (int i = 0; i < read; i++) {
+                    int position = i * SensorSegment.RECORD_BYTES;
+                    long millis = scratch.getLong(position);
+                    if (millis >= toMillis) {
+                        return copied;
+                    }
+                    float value = scratch.getFloat(position + 8);
+                    if (timestamps != null) {
+                        timestamps[copied] = millis;
+                        values[copied] = value;
+                        copied++;
+                    }
+                    if (summary != null) {
+                        summary.add(value);
+                    }
+                }
+                index += read;
+            }
+        }
+        return copied;
+    }
+
+    private static long floor(long millis, long unit) {
+        return Math.floorDiv(millis, unit) * unit;
+    }
+
+    private static long ceil(long millis, long unit) {
+        return -Math.floorDiv(-millis, unit) * unit;
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized long getRollovers() {
+        return rollovers;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Series s : series) {
+            if (s == null) {
+                continue;
+            }
+            for (SensorSegment segment : s.segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing " + segment.file, e);
+                }
+            }
+            s.segments.clear();
+            try {
+                s.minutes.close();
+                s.hours.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing rollups in " + s.dir, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{appended=" + appended + ", rejected=" + rejected + ", rollovers=" + rollovers + "}";
+    }
+}
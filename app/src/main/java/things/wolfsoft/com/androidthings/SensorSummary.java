@@ -0,0 +1,73 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Min, max and mean of a run of readings. Mutable so queries can reuse one.
+ */
+public class SensorSummary {
+
+    private float min;
+    private float max;
+    private double sum;
+    private long count;
+
+    public SensorSummary() {
+        reset();
+    }
+
+    public void reset() {
+        min = Float.POSITIVE_INFINITY;
+        max = Float.NEGATIVE_INFINITY;
+        sum = 0;
+        count = 0;
+    }
+
+    public void add(float value) {
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        sum += value;
+        count++;
+    }
+
+    public void merge(float min, float max, double sum, long count) {
+        if (count == 0) {
+            return;
+        }
+        if (min < this.min) {
+            this.min = min;
+        }
+        if (max > this.max) {
+            this.max = max;
+        }
+        this.sum += sum;
+        this.count += count;
+    }
+
+    /**
+     * @return the smallest reading, or NaN when there were none
+     */
+    public float getMin() {
+        return count == 0 ? Float.NaN : min;
+    }
+
+    public float getMax() {
+        return count == 0 ? Float.NaN : max;
+    }
+
+    public float getMean() {
+        return count == 0 ? Float.NaN : (float) (sum / count);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "SensorSummary{min=" + getMin() + ", max=" + getMax() + ", mean=" + getMean()
+                + ", count=" + count + "}";
+    }
+}
@@ -0,0 +1,17 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Smooths a stream of readings one at a time, in constant time and space.
+ */
+public interface SignalFilter {
+
+    /**
+     * @return the smoothed value after {@code value}
+     */
+    float update(float value);
+
+    /**
+     * Forgets all readings; the next one is taken as is.
+     */
+    void reset();
+}
@@ -0,0 +1,350 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * In-memory {@link RainbowHat} for running the app's logic on a plain JVM.
+ *
+ * Every output call holds its bus for a configured time, spinning rather than sleeping so the
+ * delay is the same on every run, and is then recorded in a fixed size log and handed to an
+ * optional {@link IoListener}. Buttons and the sensor are driven by the caller: button edges
+ * are delivered on the calling thread, as the GPIO callback thread would on device, and sensor
+ * readings are generated from a seed so a run can be repeated exactly.
+ */
+public class SimulatedHat implements RainbowHat {
+
+    public enum Device {
+        LED,
+        STRIP,
+        DISPLAY,
+        SPEAKER
+    }
+
+    /**
+     * Time each bus is held per call.
+     */
+    public static final class Config {
+        final long gpioNanos;
+        final long i2cNanos;
+        final long spiNanosPerByte;
+        final long pwmNanos;
+        final int logCapacity;
+
+        /**
+         * @param i2cNanos        per register write
+         * @param spiNanosPerByte per byte of an LED strip frame, 4 bytes per LED plus 8 of framing
+         * @param logCapacity     output calls kept in the log, newest win
+         */
+        public Config(long gpioNanos, long i2cNanos, long spiNanosPerByte, long pwmNanos, int logCapacity) {
+            this.gpioNanos = gpioNanos;
+            this.i2cNanos = i2cNanos;
+            this.spiNanosPerByte = spiNanosPerByte;
+            this.pwmNanos = pwmNanos;
+            this.logCapacity = logCapacity;
+        }
+    }
+
+    /**
+     * No bus time, for measuring the app's own overhead.
+     */
+    public static final Config INSTANT = new Config(0, 0, 0, 0, 4096);
+
+    /**
+     * Roughly a Raspberry Pi 3: sysfs GPIO writes, a 3 byte I2C write at 400kHz, SPI at 1MHz.
+     */
+    public static final Config RASPBERRY_PI = new Config(20000, 100000, 8000, 50000, 4096);
+
+    /**
+     * Hears every output call once its bus time has passed, on the calling thread.
+     */
+    public interface IoListener {
+        /**
+         * @param index LED, display column or strip length
+         * @param value new state: 0 or 1, segment bits, frame hash or frequency in mHz
+         */
+        void onIo(Device device, int index, long value, long timeNanos);
+    }
+
+    private final Config config;
+    private final Object gpioBus = new Object();
+    private final Object i2cBus = new Object();
+    private final Object spiBus = new Object();
+    private final Object pwmBus = new Object();
+
+    // Output log, a ring of primitives so recording allocates nothing
+    private final long[] logTimes;
+    private final byte[] logDevices;
+    private final int[] logIndexes;
+    private final long[] logValues;
+    private long logged;
+    private final long[] counts = new long[Device.values().length];
+
+    private final boolean[] leds = new boolean[3];
+    private final short[] columns = new short[SegmentDisplayWriter.DIGITS];
+    private int[] strip = new int[0];
+    private double frequency;
+
+    private volatile IoListener ioListener;
+    private volatile ButtonListener buttonListener;
+    private volatile SampleSink sensorSink;
+    private volatile boolean closed;
+
+    public SimulatedHat(Config config) {
+        this.config = config;
+        logTimes = new long[config.logCapacity];
+        logDevices = new byte[config.logCapacity];
+        logIndexes = new int[config.logCapacity];
+        logValues = new long[config.logCapacity];
+    }
+
+    public void setIoListener(IoListener listener) {
+        ioListener = listener;
+    }
+
+    @Override
+    public void openButtons(ButtonListener listener) {
+        buttonListener = listener;
+    }
+
+    @Override
+    public GpioOutput[] openLeds() {
+        GpioOutput[] outputs = new GpioOutput[leds.length];
+        for (int i = 0; i < outputs.length; i++) {
+            final int index = i;
+            outputs[i] = new GpioOutput() {
+                @Override
+                public void setOutput(boolean initiallyHigh) throws IOException {
+                    setValue(initiallyHigh);
+                }
+
+                @Override
+                public void setValue(boolean high) throws IOException {
+                    synchronized (gpioBus) {
+                        hold(config.gpioNanos);
+                        synchronized (SimulatedHat.this) {
+                            leds[index] = high;
+                        }
+                        record(Device.LED, index, high ? 1 : 0);
+                    }
+                }
+            };
+        }
+        return outputs;
+    }
+
+    @Override
+    public LedStripSink openLedStrip(final int ledCount) {
+        return new LedStripSink() {
+            @Override
+            public void setBrightness(int brightness) throws IOException {
+                check();
+            }
+
+            @Override
+            public void write(int[] colors) throws IOException {
+                synchronized (spiBus) {
+                    hold(config.spiNanosPerByte * (4L * colors.length + 8));
+                    synchronized (SimulatedHat.this) {
+                        if (strip.length != colors.length) {
+                            strip = new int[colors.length];
+                        }
+                        System.arraycopy(colors, 0, strip, 0, colors.length);
+                    }
+                    record(Device.STRIP, colors.length, Arrays.hashCode(colors));
+                }
+            }
+        };
+    }
+
+    @Override
+    public SegmentOutput openDisplay() {
+        return new SegmentOutput() {
+            @Override
+            public void writeColumn(int column, short data) throws IOException {
+                synchronized (i2cBus) {
+                    hold(config.i2cNanos);
+                    synchronized (SimulatedHat.this) {
+                        columns[column] = data;
+                    }
+                    record(Device.DISPLAY, column, data);
+                }
+            }
+        };
+    }
+
+    @Override
+    public ToneOutput openSpeaker() {
+        return new ToneOutput() {
+            @Override
+            public void play(double hz) throws IOException {
+                synchronized (pwmBus) {
+                    hold(config.pwmNanos);
+                    synchronized (SimulatedHat.this) {
+                        frequency = hz;
+                    }
+                    record(Device.SPEAKER, 0, Math.round(hz * 1000));
+                }
+            }
+
+            @Override
+            public void stop() throws IOException {
+                play(0);
+            }
+        };
+    }
+
+    @Override
+    public SensorSource openSensors() {
+        return new SensorSource() {
+            @Override
+            public void start(SampleSink sink, int samplingPeriodUs, int maxReportLatencyUs) {
+                sensorSink = sink;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+                sensorSink = null;
+            }
+        };
+    }
+
+    /**
+     * Delivers a button edge now, on this thread.
+     */
+    public void button(int button, boolean pressed) {
+        button(button, pressed, System.nanoTime());
+    }
+
+    public void button(int button, boolean pressed, long timeNanos) {
+        ButtonListener listener = buttonListener;
+        if (listener != null && !closed) {
+            listener.onButton(button, pressed, timeNanos);
+        }
+    }
+
+    /**
+     * Delivers {@code count} readings of each channel {@code periodNanos} apart from
+     * {@code startNanos}: a slow sine around the given values plus noise from {@code seed}.
+     *
+     * @return the timestamp after the last reading
+     */
+    public long emitSensorReadings(int count, long startNanos, long periodNanos, float temperature,
+                                   float pressureHpa, float noise, long seed) {
+        SampleSink sink = sensorSink;
+        if (sink == null || closed) {
+            return startNanos;
+        }
+        Random random = new Random(seed);
+        long time = startNanos;
+        for (int i = 0; i < count; i++) {
+            double wave = Math.sin(time / 3.6e12);
+            sink.onSample(SensorChannel.TEMPERATURE, time,
+                    (float) (temperature + wave + random.nextGaussian() * noise));
+            sink.onSample(SensorChannel.PRESSURE, time,
+                    (float) (pressureHpa + 2 * wave + random.nextGaussian() * noise));
+            time += periodNanos;
+        }
+        return time;
+    }
+
+    private void check() throws IOException {
+        if (closed) {
+            throw new IOException("Simulated HAT closed");
+        }
+    }
+
+    private void hold(long nanos) throws IOException {
+        check();
+        if (nanos <= 0) {
+            return;
+        }
+        long until = System.nanoTime() + nanos;
+        while (System.nanoTime() < until) {
+            // Spin, a sleep would add scheduler jitter
+        }
+    }
+
+    private void record(Device device, int index, long value) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            int slot = (int) (logged % logTimes.length);
+            logTimes[slot] = now;
+            logDevices[slot] = (byte) device.ordinal();
+            logIndexes[slot] = index;
+            logValues[slot] = value;
+            logged++;
+            counts[device.ordinal()]++;
+        }
+        IoListener listener = ioListener;
+        if (listener != null) {
+            listener.onIo(device, index, value, now);
+        }
+    }
+
+    public synchronized long getCount(Device device) {
+        return counts[device.ordinal()];
+    }
+
+    /**
+     * Output calls still in the log, oldest at 0.
+     */
+    public synchronized int getLogSize() {
+        return (int) Math.min(logged, logTimes.length);
+    }
+
+    private int slot(int i) {
+        return (int) ((logged - getLogSize() + i) % logTimes.length);
+    }
+
+    public synchronized Device getLogDevice(int i) {
+        return Device.values()[logDevices[slot(i)]];
+    }
+
+    public synchronized int getLogIndex(int i) {
+        return logIndexes[slot(i)];
+    }
+
+    public synchronized long getLogValue(int i) {
+        return logValues[slot(i)];
+    }
+
+    public synchronized long getLogTime(int i) {
+        return logTimes[slot(i)];
+    }
+
+    public synchronized boolean isLedOn(int led) {
+        return leds[led];
+    }
+
+    public synchronized short getColumn(int column) {
+        return columns[column];
+    }
+
+    public synchronized int[] getStrip() {
+        return strip.clone();
+    }
+
+    public synchronized double getFrequency() {
+        return frequency;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        sensorSink = null;
+        buttonListener = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SimulatedHat{leds=" + counts[Device.LED.ordinal()] + ", strip=" + counts[Device.STRIP.ordinal()]
+                + ", display=" + counts[Device.DISPLAY.ordinal()] + ", speaker=" + counts[Device.SPEAKER.ordinal()]
+                + "}";
+    }
+}
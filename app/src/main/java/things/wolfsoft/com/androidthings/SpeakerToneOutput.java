@@ -0,0 +1,27 @@
+package things.wolfsoft.com.androidthings;
+
+import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
+
+import java.io.IOException;
+
+/**
+ * {@link ToneOutput} backed by the contrib PWM {@link Speaker} driver.
+ */
+public class SpeakerToneOutput implements ToneOutput {
+
+    private final Speaker speaker;
+
+    public SpeakerToneOutput(Speaker speaker) {
+        this.speaker = speaker;
+    }
+
+    @Override
+    public void play(double frequency) throws IOException {
+        speaker.play(frequency);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        speaker.stop();
+    }
+}
@@ -0,0 +1,44 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.File;
+
+/**
+ * The parts of a text-to-speech engine {@link AppTextToSpeech} drives, so the queueing and
+ * caching can run against the Android engine on device and against a fake in JVM unit tests.
+ */
+public interface SpeechEngine {
+
+    /**
+     * Engine events, called from whatever thread the engine uses.
+     */
+    interface Listener {
+        void onInit(boolean success);
+
+        void onStart(String utteranceId);
+
+        void onDone(String utteranceId);
+
+        void onError(String utteranceId);
+    }
+
+    /**
+     * Delivers {@link Listener#onInit} straight away if the engine already finished starting.
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Queues {@code text} behind anything the engine is already saying.
+     *
+     * @return false if the engine refused it
+     */
+    boolean speak(String text, String utteranceId);
+
+    boolean synthesizeToFile(String text, File file, String utteranceId);
+
+    /**
+     * From now on speaking exactly {@code text} plays {@code file} instead of synthesizing.
+     */
+    boolean addSpeech(String text, File file);
+
+    void shutdown();
+}
@@ -0,0 +1,11 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * Write-only view of an SPI device, shaped like {@code SpiDevice.write(byte[], int)}.
+ */
+public interface SpiWriter {
+
+    void write(byte[] buffer, int length) throws IOException;
+}
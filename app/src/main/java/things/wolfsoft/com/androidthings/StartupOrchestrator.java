@@ -0,0 +1,353 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens peripherals at startup without doing them one after another on the main thread.
+ *
+ * {@link Stage#INPUT} tasks run in order on the thread calling {@link #start()}, so drivers that
+ * register GPIO callbacks get its looper. {@link Stage#OUTPUT} tasks start on worker threads
+ * before that, one thread per bus so devices sharing a bus are still opened in sequence.
+ * {@link Stage#DEFERRED} tasks are held back until input is ready, and until the output tasks
+ * on their bus are done, so they never open a device next to one on the same bus. Every task
+ * lands in a timeline with its start and end relative to {@link #start()}.
+ *
+ * Tasks hand what they opened to the app through {@link #publish(Runnable)}, so nothing opened
+ * by a task still running at {@link #shutdown()} is left behind unclosed.
+ */
+public class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+
+    public enum Stage {
+        INPUT,
+        OUTPUT,
+        DEFERRED
+    }
+
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    public interface Listener {
+        /**
+         * All input tasks are done, button presses can be accepted.
+         */
+        void onInputReady(long elapsedNanos);
+
+        void onFinished(List<Entry> timeline);
+    }
+
+    /**
+     * One task in the startup timeline, times relative to {@link #start()}.
+     */
+    public static final class Entry {
+        public final String name;
+        public final String bus;
+        public final Stage stage;
+        public final String thread;
+        public final long startNanos;
+        public final long endNanos;
+        /**
+         * Null when the task succeeded.
+         */
+        public final Throwable error;
+
+        Entry(String name, String bus, Stage stage, String thread, long startNanos, long endNanos,
+              Throwable error) {
+            this.name = name;
+            this.bus = bus;
+            this.stage = stage;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.error = error;
+        }
+
+        public long getDurationNanos() {
+            return endNanos - startNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %-4s %-14s %6.1fms +%6.1fms%s", stage, bus, name,
+                    startNanos / 1e6, getDurationNanos() / 1e6, error == null ? "" : " FAILED " + error);
+        }
+    }
+
+    private static final class Step {
+        final Stage stage;
+        final String bus;
+        final String name;
+        final Task task;
+
+        Step(Stage stage, String bus, String name, Task task) {
+            this.stage = stage;
+            this.bus = bus;
+            this.name = name;
+            this.task = task;
+        }
+    }
+
+    private final Listener listener;
+    private final Executor callbackExecutor;
+    private final ExecutorService workers;
+
+    private final List<Step> steps = new ArrayList<>();
+    private final List<Entry> timeline = new ArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicInteger remainingGroups = new AtomicInteger();
+    // Deferred groups by bus, and what each still waits for: input and its bus's outputs
+    private Map<String, List<Step>> deferred;
+    private final Map<String, AtomicInteger> deferredGates = new HashMap<>();
+    private long startedAt;
+    private volatile long inputReadyNanos = -1;
+    private volatile long totalNanos = -1;
+    private boolean started;
+    private final Object publishLock = new Object();
+    private volatile boolean cancelled;
+
+    /**
+     * @param callbackExecutor where the listener is called, typically the main thread
+     */
+    public StartupOrchestrator(Listener listener, Executor callbackExecutor) {
+        this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
+        workers = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param bus tasks on the same bus run one after another, in the order added
+     */
+    public synchronized StartupOrchestrator add(Stage stage, String bus, String name, Task task) {
+        if (started) {
+            throw new IllegalStateException("Startup already running");
+        }
+        steps.add(new Step(stage, bus, name, task));
+        return this;
+    }
+
+    /**
+     * Starts output tasks in the background, runs input tasks on this thread, then releases
+     * the deferred ones. Returns once input is ready.
+     */
+    public void start() {
+        List<Step> input = new ArrayList<>();
+        Map<String, List<Step>> output;
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("Startup already running");
+            }
+            started = true;
+            output = groupByBus(Stage.OUTPUT);
+            deferred = groupByBus(Stage.DEFERRED);
+            for (Step step : steps) {
+                if (step.stage == Stage.INPUT) {
+                    input.add(step);
+                }
+            }
+            for (String bus : deferred.keySet()) {
+                deferredGates.put(bus, new AtomicInteger(output.containsKey(bus) ? 2 : 1));
+            }
+            remainingGroups.set(output.size() + deferred.size());
+            startedAt = System.nanoTime();
+        }
+
+        for (Map.Entry<String, List<Step>> group : output.entrySet()) {
+            submitGroup(group.getKey(), group.getValue());
+        }
+        for (Step step : input) {
+            runStep(step);
+        }
+        inputReadyNanos = System.nanoTime() - startedAt;
+        Log.d(TAG, "Input ready after " + inputReadyNanos / 1000000 + "ms");
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onInputReady(inputReadyNanos);
+            }
+        });
+        for (String bus : deferred.keySet()) {
+            releaseDeferred(bus);
+        }
+        if (output.isEmpty() && deferred.isEmpty()) {
+            finish();
+        }
+    }
+
+    private Map<String, List<Step>> groupByBus(Stage stage) {
+        Map<String, List<Step>> groups = new LinkedHashMap<>();
+        for (Step step : steps) {
+            if (step.stage != stage) {
+                continue;
+            }
+            List<Step> group = groups.get(step.bus);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(step.bus, group);
+            }
+            group.add(step);
+        }
+        return groups;
+    }
+
+    private void submitGroup(final String bus, final List<Step> group) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Step step : group) {
+                        if (cancelled) {
+                            break;
+                        }
+                        runStep(step);
+                    }
+                    if (group.get(0).stage == Stage.OUTPUT) {
+                        releaseDeferred(bus);
+                    }
+                    if (remainingGroups.decrementAndGet() == 0) {
+                        finish();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down while an output group was still running
+        }
+    }
+
+    /**
+     * Counts off one thing the deferred group on {@code bus} waits for, starting it after the last.
+     */
+    private void releaseDeferred(String bus) {
+        AtomicInteger gate = deferredGates.get(bus);
+        if (gate != null && gate.decrementAndGet() == 0) {
+            submitGroup(bus, deferred.get(bus));
+        }
+    }
+
+    private void runStep(Step step) {
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            step.task.run();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error initializing " + step.name, e);
+            error = e;
+        }
+        long end = System.nanoTime();
+        Entry entry = new Entry(step.name, step.bus, step.stage, Thread.currentThread().getName(),
+                start - startedAt, end - startedAt, error);
+        synchronized (timeline) {
+            timeline.add(entry);
+        }
+    }
+
+    private void finish() {
+        totalNanos = System.nanoTime() - startedAt;
+        final List<Entry> result = getTimeline();
+        for (Entry entry : result) {
+            Log.d(TAG, entry.toString());
+        }
+        Log.d(TAG, "Startup finished after " + totalNanos / 1000000 + "ms");
+        workers.shutdown();
+        finished.countDown();
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFinished(result);
+            }
+        });
+    }
+
+    public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Tasks completed so far, ordered by start time.
+     */
+    public List<Entry> getTimeline() {
+        List<Entry> copy;
+        synchronized (timeline) {
+            copy = new ArrayList<>(timeline);
+        }
+        Collections.sort(copy, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.startNanos < b.startNanos ? -1 : (a.startNanos == b.startNanos ? 0 : 1);
+            }
+        });
+        return copy;
+    }
+
+    /**
+     * Time from {@link #start()} until input was ready, or -1 before that.
+     */
+    public long getInputReadyNanos() {
+        return inputReadyNanos;
+    }
+
+    /**
+     * Time from {@link #start()} until every task was done, or -1 before that.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Runs {@code publish}, typically assigning what a task opened to the app's fields, unless
+     * {@link #shutdown()} was called first. Never runs concurrently with {@link #shutdown()},
+     * so whoever shuts down sees everything that was published.
+     *
+     * @return false when startup was cancelled; the task must then close what it opened itself
+     */
+    public boolean publish(Runnable publish) {
+        synchronized (publishLock) {
+            if (cancelled) {
+                return false;
+            }
+            publish.run();
+            return true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops tasks that have not started yet, e.g. when the activity goes away mid-startup.
+     * Tasks already running are refused by {@link #publish(Runnable)} from now on.
+     */
+    public void shutdown() {
+        synchronized (publishLock) {
+            cancelled = true;
+        }
+        workers.shutdownNow();
+    }
+}
@@ -1,83 +1,86 @@
 package things.wolfsoft.com.androidthings;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
-import android.graphics.Color;
-import android.os.AsyncTask;
+import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
-import android.view.animation.LinearInterpolator;
 import android.widget.TextView;
 
-import com.google.android.things.contrib.driver.apa102.Apa102;
-import com.google.android.things.contrib.driver.button.Button;
-import com.google.android.things.contrib.driver.ht16k33.AlphanumericDisplay;
-import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
-import com.google.android.things.pio.Gpio;
-import com.google.android.things.pio.PeripheralManagerService;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.converter.StringHttpMessageConverter;
-import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.Locale;
+import java.util.concurrent.Executor;
 
 public class ThingActivity extends AppCompatActivity {
     private static final String TAG = "ThingActivity";
 
-    private Button buttonA;
-    private Button buttonB;
-    private Button buttonC;
+    // Every peripheral is opened through the HAT, the real drivers on device
+    private RainbowHat hat;
 
-    private Gpio ledGpioRed;
-    private Gpio ledGpioBlue;
-    private Gpio ledGpioGreen;
-    private static int RED_LED = 1;
-    private static int BLUE_LED = 2;
-    private static int GREEN_LED = 3;
+    // What the buttons do, and the outputs they drive once startup has opened them
+    private ButtonActions buttonActions;
+    private static final long INPUT_SHUTDOWN_TIMEOUT_MS = 200;
 
-    private Apa102 ledstrip;
-    private int NUM_LEDS = 7;
-    private int[] mRainbow = new int[NUM_LEDS];
+    private LedPalette ledPalette;
+    private int NUM_LEDS = AndroidThingsHat.RAINBOW_HAT_LEDS;
+    private int[] mRainbow;
     private static final int LEDSTRIP_BRIGHTNESS = 1;
-    private boolean rainbowOrder = true;
-
-    private AlphanumericDisplay alphaDisplay;
-    private static final float CLEAR_DISPLAY = 73638.45f;
-    private enum DisplayMode {
-        DOOR,
-        IN,
-        OUT,
-        CLEAR
-    }
-    private DisplayMode displayMode = DisplayMode.DOOR;
 
-    private Speaker speaker;
-    private int SPEAKER_READY_DELAY_MS = 300;
-    private boolean isSpeakerMute = false;
-    private static int SOUND_LOW = 1;
-    private static int SOUND_MED = 4;
-    private static int SOUND_HIGH = 8;
+    private volatile SegmentDisplayWriter displayWriter;
+    private volatile Marquee marquee;
+    private static final int MARQUEE_CAPACITY = 8;
+    private static final int IP_MARQUEE_PASSES = 2;
+    // Set while publishing, the display may open before or after the lookup finishes
+    private String ipAddress;
+    private final DisplayModeMachine displayModeMachine = new DisplayModeMachine(DisplayMode.DOOR);
 
     private TextView titleTxt;
-
-    private AppTextToSpeech appTextToSpeech;
+    private TextView tempTxt;
+    private TextView pressureTxt;
+
+    private volatile SamplingService samplingService;
+    // Sensor readings averaged down for the screen and, much less often, the display
+    private static final long SENSOR_UI_INTERVAL_MS = 1000;
+    private static final long SENSOR_DISPLAY_INTERVAL_MS = 60 * 1000;
+    // Readings kept on disk at up to 10Hz, with minute and hour rollups
+    private volatile SensorStore sensorStore;
+    private static final long SENSOR_STORE_INTERVAL_MS = 100;
+    private long sensorEpochOffsetMillis;
+    // Pressure level and tendency, fed every few seconds rather than on every reading
+    private BarometricTrend barometricTrend;
+    private static final long TREND_INTERVAL_MS = 10 * 1000;
+    private static final long TREND_ALERT_BLINK_MS = 500;
+    // A 10 second reading drifts ~0.01hPa, BMP280 noise is ~0.05hPa
+    private static final float TREND_PROCESS_VARIANCE = 0.0001f;
+    private static final float TREND_MEASUREMENT_VARIANCE = 0.0025f;
+
+    private volatile AppTextToSpeech appTextToSpeech;
+
+    private static final VisionRequestBuilder WEB_DETECTION_REQUEST =
+            new VisionRequestBuilder(VisionRequestBuilder.WEB_DETECTION, 2);
+
+    private VisionAnnotator visionAnnotator;
+    private VisionDispatcher visionDispatcher;
+    private static final int ANNOTATION_CACHE_ENTRIES = 32;
+    private static final long ANNOTATION_CACHE_BYTES = 512 * 1024;
+    private static final long ANNOTATION_CACHE_DISK_BYTES = 2 * 1024 * 1024;
+    private static final long ANNOTATION_CACHE_TTL_MS = 24 * 60 * 60 * 1000L;
+
+    private PeripheralExecutor peripheralExecutor;
+    private static final long PERIPHERAL_SHUTDOWN_TIMEOUT_MS = 500;
+
+    private StartupOrchestrator startup;
+    private Handler mainHandler;
+
+    private final Metrics metrics = new Metrics();
+    private MetricsReporter metricsReporter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -85,375 +88,499 @@ public class ThingActivity extends AppCompatActivity {
         setContentView(R.layout.activity_thing);
 
         Log.d(TAG, "Hello Android Things!");
+        // Resolve the board pin map once, before any peripheral is opened
+        BoardDefaults.init(this);
+        hat = new AndroidThingsHat((SensorManager) getSystemService(SENSOR_SERVICE),
+                getResources().getInteger(R.integer.spi_max_transfer_bytes));
         titleTxt = (TextView) findViewById(R.id.text_title);
+        tempTxt = (TextView) findViewById(R.id.text_temperature);
+        pressureTxt = (TextView) findViewById(R.id.text_pressure);
+
+        mainHandler = new Handler(getMainLooper());
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+
+        // Latency and counts of the hot paths, dumped to logcat every minute
+        metricsReporter = new MetricsReporter(metrics);
+        metricsReporter.start(MetricsReporter.DEFAULT_INTERVAL_MS);
+
+        // All peripheral writes go through per-bus worker threads, never the main looper
+        peripheralExecutor = new PeripheralExecutor();
+        peripheralExecutor.setMetrics(metrics);
+
+        // The same handful of images get annotated over and over, keep the answers around
+        AnnotationCache annotationCache = new AnnotationCache(ANNOTATION_CACHE_ENTRIES,
+                ANNOTATION_CACHE_BYTES, ANNOTATION_CACHE_TTL_MS, new File(getCacheDir(), "vision"),
+                ANNOTATION_CACHE_DISK_BYTES, AnnotationCache.SYSTEM_CLOCK);
+        visionAnnotator = new VisionAnnotator(VisionClient.getInstance(), WEB_DETECTION_REQUEST,
+                annotationCache);
+        visionAnnotator.setMetrics(metrics);
+        visionDispatcher = new VisionDispatcher(visionAnnotator, VisionDispatcher.DEFAULT_WINDOW_MS,
+                visionListener, mainExecutor);
+
+        // Rainbow color array, sized for the configured chain
+        NUM_LEDS = getResources().getInteger(R.integer.led_count);
+        mRainbow = LedPalette.hsvRainbow(NUM_LEDS);
+        ledPalette = new LedPalette(mRainbow);
+
+        // Only real mode changes reach the display and speech
+        displayModeMachine.addListener(displayModeListener);
+
+        // Button edges go into a ring, each actuator reads it on its own thread
+        buttonActions = new ButtonActions(hat, peripheralExecutor, displayModeMachine, ledPalette,
+                NUM_LEDS, visionDispatcher);
+        buttonActions.setMetrics(metrics);
+        buttonActions.start();
+
+        // Buttons first, outputs open alongside on their own buses, the rest waits
+        startup = new StartupOrchestrator(startupListener, mainExecutor);
+        startup.add(StartupOrchestrator.Stage.INPUT, "GPIO", "buttons", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                buttonActions.openButtons();
+            }
+        }).add(StartupOrchestrator.Stage.OUTPUT, "GPIO", "leds", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                openLeds();
+            }
+        }).add(StartupOrchestrator.Stage.OUTPUT, "SPI", "ledstrip", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                openLedStrip();
+            }
+        }).add(StartupOrchestrator.Stage.OUTPUT, "I2C", "display", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                openDisplay();
+            }
+        }).add(StartupOrchestrator.Stage.DEFERRED, "PWM", "speaker", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                final ToneSequencer sequencer = new ToneSequencer(hat.openSpeaker());
+                sequencer.setMetrics(metrics);
+                if (!startup.publish(new Runnable() {
+                    @Override
+                    public void run() {
+                        buttonActions.setToneSequencer(sequencer);
+                    }
+                })) {
+                    sequencer.shutdown(0);
+                    return;
+                }
+                if (!buttonActions.isSpeakerMute()) {
+                    sequencer.enqueue(ButtonActions.STARTUP_SOUND);
+                }
+                Log.d(TAG, "Initialized PWM speaker");
+            }
+        }).add(StartupOrchestrator.Stage.DEFERRED, "TTS", "tts", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                final AppTextToSpeech tts = new AppTextToSpeech(ThingActivity.this);
+                tts.setMetrics(metrics);
+                if (!startup.publish(new Runnable() {
+                    @Override
+                    public void run() {
+                        appTextToSpeech = tts;
+                    }
+                })) {
+                    tts.shutdown();
+                }
+            }
+        }).add(StartupOrchestrator.Stage.DEFERRED, "I2C", "sensors", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                openSensors();
+            }
+        }).add(StartupOrchestrator.Stage.DEFERRED, "NET", "ip", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                // Set current IP on display (need this to connect ADB)
+                final String currentIp = getIPAddress(true);
+                Log.d(TAG, "Current IP address is: " + currentIp);
+                startup.publish(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Whichever of this and the display open publishes second scrolls it
+                        ipAddress = currentIp;
+                        postIpAddress();
+                    }
+                });
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        titleTxt.setText("Current IP (time started):\n    " + currentIp + "\n    "
+                                + Utilities.getDate());
+                    }
+                });
+            }
+        });
+        startup.start();
+    }
 
-        // Set current IP on display (need this to connect ADB)
-        String currentIp = getIPAddress(true);
-
-        titleTxt.setText("Current IP (time started):\n    " + currentIp + "\n    " + Utilities.getDate());
-        Log.d(TAG, "Current IP address is: " + currentIp);
-
-        appTextToSpeech = new AppTextToSpeech(this);
-
-        // Initialize buttons
-        try {
-            buttonA = new Button(BoardDefaults.getGPIOForBtnA(),
-                    Button.LogicState.PRESSED_WHEN_LOW);
-            buttonA.setOnButtonEventListener(buttonCallbackA);
-
-            buttonB = new Button(BoardDefaults.getGPIOForBtnB(),
-                    Button.LogicState.PRESSED_WHEN_LOW);
-            buttonB.setOnButtonEventListener(buttonCallbackB);
-
-            buttonC = new Button(BoardDefaults.getGPIOForBtnC(),
-                    Button.LogicState.PRESSED_WHEN_LOW);
-            buttonC.setOnButtonEventListener(buttonCallbackC);
-        } catch (IOException e) {
-            Log.e(TAG, "button driver error", e);
+    //GPIO Individual Color LED
+    private void openLeds() throws IOException {
+        // Order matches RED_LED, BLUE_LED, GREEN_LED
+        final IndicatorLeds leds = new IndicatorLeds(hat.openLeds());
+        if (!startup.publish(new Runnable() {
+            @Override
+            public void run() {
+                buttonActions.setIndicatorLeds(leds);
+            }
+        })) {
+            leds.shutdown();
         }
+    }
 
-        //GPIO Individual Color LED
-        try {
-            PeripheralManagerService service = new PeripheralManagerService();
-            ledGpioRed = service.openGpio(BoardDefaults.getGPIOForRedLED());
-            ledGpioGreen = service.openGpio(BoardDefaults.getGPIOForGreenLED());
-            ledGpioBlue = service.openGpio(BoardDefaults.getGPIOForBlueLED());
-        } catch (IOException e) {
-            throw new RuntimeException("Problem connecting to IO Port", e);
+    //SPI LED Lightstrip
+    private void openLedStrip() throws IOException {
+        LedStripSink ledStripSink = hat.openLedStrip(NUM_LEDS);
+        ledStripSink.setBrightness(LEDSTRIP_BRIGHTNESS);
+        final LedStripRenderer renderer = new LedStripRenderer(ledStripSink, NUM_LEDS);
+        renderer.setMetrics(metrics);
+        renderer.start();
+        final LedAnimator animator = new LedAnimator(renderer, ledPalette, LEDSTRIP_BRIGHTNESS);
+        if (!startup.publish(new Runnable() {
+            @Override
+            public void run() {
+                buttonActions.setLedStrip(renderer, animator);
+            }
+        })) {
+            animator.shutdown();
+            renderer.stop();
         }
+    }
 
-        //SPI LED Lightstrip and rainbow color array
-        for (int i = 0; i < NUM_LEDS; i++) {
-            float[] hsv = {i * 360.f / NUM_LEDS, 1.0f, 1.0f};
-            mRainbow[i] = Color.HSVToColor(255, hsv);
-        }
-        try {
-            ledstrip = new Apa102(BoardDefaults.getSpiBus(), Apa102.Mode.BGR);
-            ledstrip.setBrightness(LEDSTRIP_BRIGHTNESS);
-        } catch (IOException e) {
-            ledstrip = null; // Led strip is optional.
+    // I2C Sensors - Temperature and Pressure, read on their own thread
+    private void openSensors() throws IOException {
+        // Sensor timestamps count from boot, stored readings carry wall clock time
+        sensorEpochOffsetMillis = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        final SensorStore store = new SensorStore(new File(getFilesDir(), "sensors"));
+        final SamplingService service = new SamplingService(
+                hat.openSensors(),
+                SamplingService.DEFAULT_CONFIG);
+        service.addListener(sensorTextListener, SENSOR_UI_INTERVAL_MS);
+        service.addListener(sensorDisplayListener, SENSOR_DISPLAY_INTERVAL_MS);
+        service.addListener(sensorStoreListener, SENSOR_STORE_INTERVAL_MS);
+        barometricTrend = new BarometricTrend(
+                new KalmanFilter(TREND_PROCESS_VARIANCE, TREND_MEASUREMENT_VARIANCE),
+                BarometricTrend.DEFAULT_CONFIG, trendListener);
+        service.addListener(sensorTrendListener, TREND_INTERVAL_MS);
+        service.setMetrics(metrics);
+        service.start();
+        if (!startup.publish(new Runnable() {
+            @Override
+            public void run() {
+                sensorStore = store;
+                samplingService = service;
+            }
+        })) {
+            service.close();
+            store.close();
+            return;
         }
+        Log.d(TAG, "Initialized I2C environmental sensor");
+    }
 
-        // Alphanumeric Display
-        try {
-            alphaDisplay = new AlphanumericDisplay(BoardDefaults.getI2cBus());
-            alphaDisplay.setEnabled(true);
-            alphaDisplay.clear();
-            Log.d(TAG, "Initialized I2C Display");
-        } catch (IOException e) {
-            Log.e(TAG, "Error initializing display", e);
-            Log.d(TAG, "Display disabled");
-            alphaDisplay = null;
+    /**
+     * Scrolls the IP once both it and the display are known; only called while publishing.
+     */
+    private void postIpAddress() {
+        if (marquee != null && ipAddress != null && !ipAddress.isEmpty()) {
+            marquee.post(new Marquee.Message("IP " + ipAddress, Marquee.PRIORITY_INFO,
+                    IP_MARQUEE_PASSES, Marquee.DEFAULT_FRAME_INTERVAL_MS));
         }
+    }
 
-        // PWM speaker
-        try {
-            speaker = new Speaker(BoardDefaults.getSpeakerPwmPin());
-            soundSpeaker(1);
-            Log.d(TAG, "Initialized PWM speaker");
-        } catch (IOException e) {
-            throw new RuntimeException("Error initializing PWM speaker", e);
+    // Alphanumeric Display
+    private void openDisplay() throws IOException {
+        SegmentOutput display = hat.openDisplay();
+        // Every mode's text is encoded once, only digits that change get written
+        String[] texts = new String[DisplayMode.values().length];
+        for (DisplayMode mode : DisplayMode.values()) {
+            texts[mode.ordinal()] = mode.getText();
         }
-
+        displayWriter = new SegmentDisplayWriter(display,
+                SegmentDisplayWriter.DEFAULT_SCROLL_INTERVAL_MS, texts);
+        final Marquee opened = new Marquee(displayWriter, MARQUEE_CAPACITY, peripheralExecutor);
+        opened.setIdleText(displayModeMachine.getMode().getText());
+        if (!startup.publish(new Runnable() {
+            @Override
+            public void run() {
+                // Published last, mode changes treat a null marquee as no display yet
+                marquee = opened;
+                postIpAddress();
+            }
+        })) {
+            opened.shutdown();
+            displayWriter.shutdown();
+            return;
+        }
+        Log.d(TAG, "Initialized I2C Display");
     }
 
+    private StartupOrchestrator.Listener startupListener =
+            new StartupOrchestrator.Listener() {
+                @Override
+                public void onInputReady(long elapsedNanos) {
+                    Log.d(TAG, "Buttons ready " + elapsedNanos / 1000000 + "ms into startup");
+                }
+
+                @Override
+                public void onFinished(List<StartupOrchestrator.Entry> timeline) {
+                    Log.d(TAG, "Board profile resolved in " + BoardDefaults.getResolveNanos() / 1000 + "us, "
+                            + timeline.size() + " devices initialized in "
+                            + startup.getTotalNanos() / 1000000 + "ms");
+                }
+            };
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        //Buttons
-        if (buttonA != null) {
-            // TODO
+        startup.shutdown();
+        buttonActions.shutdown(INPUT_SHUTDOWN_TIMEOUT_MS);
+        for (ButtonEventPipeline.Stats stats : buttonActions.getStats()) {
+            Log.d(TAG, stats.toString());
+        }
+
+        // Let queued peripheral writes finish before the devices are closed
+        peripheralExecutor.shutdown(PERIPHERAL_SHUTDOWN_TIMEOUT_MS);
+        Log.d(TAG, peripheralExecutor.getStats(PeripheralExecutor.Bus.GPIO).toString());
+        Log.d(TAG, peripheralExecutor.getStats(PeripheralExecutor.Bus.I2C).toString());
+        visionDispatcher.shutdown();
+
+        if (samplingService != null) {
+            samplingService.close();
+            Log.d(TAG, samplingService.toString());
+        }
+        if (barometricTrend != null) {
+            Log.d(TAG, barometricTrend.toString());
+        }
+        if (sensorStore != null) {
+            sensorStore.close();
+            Log.d(TAG, sensorStore.toString());
         }
 
-        if (buttonB != null) {
-            // TODO
+        if (appTextToSpeech != null) {
+            appTextToSpeech.shutdown();
+            Log.d(TAG, appTextToSpeech.toString());
         }
 
-        if (buttonC != null) {
-            // TODO
+        // PWM speaker
+        ToneSequencer toneSequencer = buttonActions.getToneSequencer();
+        if (toneSequencer != null) {
+            toneSequencer.shutdown(PERIPHERAL_SHUTDOWN_TIMEOUT_MS);
+            Log.d(TAG, toneSequencer.toString());
+        }
+        Log.d(TAG, visionDispatcher.toString());
+        Log.d(TAG, visionAnnotator.getCache().toString());
+        Log.d(TAG, displayModeMachine.toString());
+        metricsReporter.shutdown();
+        for (String line : metricsReporter.report(true).split("\n")) {
+            Log.d(TAG, line);
         }
 
         // GPIO LEDS
-        try {
-            ledGpioRed.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-            ledGpioBlue.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-            ledGpioGreen.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-
-            ledGpioRed.close();
-            ledGpioBlue.close();
-            ledGpioGreen.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Error on PeripheralIO API", e);
+        IndicatorLeds indicatorLeds = buttonActions.getIndicatorLeds();
+        if (indicatorLeds != null) {
+            indicatorLeds.shutdown();
+            try {
+                indicatorLeds.setMask(0);
+            } catch (IOException e) {
+                Log.e(TAG, "Error on PeripheralIO API", e);
+            }
+            Log.d(TAG, "Indicator LED writes: " + indicatorLeds.getWrites());
         }
 
         // LED Lightstrip
         try {
-            if (ledstrip != null) {
-                try {
-                    ledstrip.write(new int[NUM_LEDS]);
-                    ledstrip.setBrightness(0);
-                    ledstrip.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Error disabling ledstrip", e);
-                } finally {
-                    ledstrip = null;
-                }
+            LedAnimator ledAnimator = buttonActions.getLedAnimator();
+            if (ledAnimator != null) {
+                ledAnimator.shutdown();
+            }
+            LedStripRenderer ledStripRenderer = buttonActions.getLedStripRenderer();
+            if (ledStripRenderer != null) {
+                ledStripRenderer.clear();
+                ledStripRenderer.stop();
             }
         } catch (Exception e) {
             Log.e(TAG, "Error on closing LED strip", e);
         }
 
         // Alphanumeric Display
-        if (alphaDisplay != null) {
-            try {
-                alphaDisplay.clear();
-                alphaDisplay.setEnabled(false);
-                alphaDisplay.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error disabling display", e);
-            } finally {
-                alphaDisplay = null;
-            }
+        if (marquee != null) {
+            marquee.shutdown();
+            Log.d(TAG, marquee.toString());
+            displayWriter.shutdown();
+            Log.d(TAG, displayWriter.toString());
         }
 
+        // Closes every driver, blanking the display
+        hat.close();
     }
 
     /**
-     * Callback for buttonA events.
+     * Once a second per channel, on the sensor thread; the text is built on the main thread.
      */
-    private Button.OnButtonEventListener buttonCallbackA =
-            new Button.OnButtonEventListener() {
+    private SamplingService.Listener sensorTextListener =
+            new SamplingService.Listener() {
                 @Override
-                public void onButtonEvent(Button button, boolean pressed) {
-                    if (pressed) {
-                        Log.d(TAG, "The button A event was received KEY DOWN");
-                        displayMode = DisplayMode.DOOR;
-                        updateDisplay(CLEAR_DISPLAY);
-                        int[] colors = new int[NUM_LEDS];
-                        // Switches the rainbow from left to right on each press
-                        if (rainbowOrder) {
-                            rainbowOrder = false;
-                            colors[0] = mRainbow[6];
-                            colors[1] = mRainbow[5];
-                            colors[2] = mRainbow[4];
-                            colors[3] = mRainbow[3];
-                            colors[4] = mRainbow[2];
-                            colors[5] = mRainbow[1];
-                            colors[6] = mRainbow[0];
-                        } else {
-                            rainbowOrder = true;
-                            colors[0] = mRainbow[0];
-                            colors[1] = mRainbow[1];
-                            colors[2] = mRainbow[2];
-                            colors[3] = mRainbow[3];
-                            colors[4] = mRainbow[4];
-                            colors[5] = mRainbow[5];
-                            colors[6] = mRainbow[6];
-                        }
-                        //soundSpeaker(SOUND_LOW);
-                        runLedStrip(colors);
-                        showLED(RED_LED);
-
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                //appTextToSpeech.say("DOOR");
+                public void onReading(final SensorChannel channel, long timestampNanos,
+                                      final float mean, int samples) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (channel == SensorChannel.TEMPERATURE) {
+                                tempTxt.setText("Current Temperature in Celcius (time reported):\n    "
+                                        + mean + "\n    " + Utilities.getDate());
+                            } else {
+                                pressureTxt.setText("Barometric Pressure in hectoPascals (time reported):\n    "
+                                        + mean + "\n    " + Utilities.getDate());
                             }
-                        }).start();
-
-                        int randIndex = randInt(0, 5);
-                        try {
-                            JSONObject requests = new JSONObject();
-
-                            JSONArray arrRequest = new JSONArray();
-                            JSONObject image = new JSONObject();
-                            JSONObject source = new JSONObject();
-                            JSONObject imageUri = new JSONObject();
-                            imageUri.put("imageUri", Constants.IMAGES[randIndex]);
-                            source.put("source", imageUri);
-                            image.put("image", source);
-                            JSONArray arrFeatures = new JSONArray();
-                            JSONObject feature = new JSONObject();
-                            feature.put("type", "WEB_DETECTION");
-                            feature.put("maxResults", 2);
-                            arrFeatures.put(0, feature);
-                            //JSONObject features = new JSONObject();
-                            image.put("features", arrFeatures);
-                            //image.put("features", features);
-
-
-                            arrRequest.put(0, image);
-                            requests.put("requests", arrRequest);
-
-                            new UploadFileTask().execute(requests.toString());
-                        } catch (JSONException e) {
-                            e.printStackTrace();
                         }
-                    }
+                    });
                 }
             };
 
     /**
-     * Callback for buttonB events.
+     * Appends to the store on the sensor thread; an append is a few stores into a mapped file.
      */
-    private Button.OnButtonEventListener buttonCallbackB =
-            new Button.OnButtonEventListener() {
+    private SamplingService.Listener sensorStoreListener =
+            new SamplingService.Listener() {
                 @Override
-                public void onButtonEvent(Button button, boolean pressed) {
-                    if (pressed) {
-                        if(displayMode == DisplayMode.OUT) {
-                            displayMode = DisplayMode.IN;
-                        } else {
-                            displayMode = DisplayMode.OUT;
-                        }
+                public void onReading(SensorChannel channel, long timestampNanos, float mean, int samples) {
+                    SensorStore store = sensorStore;
+                    if (store == null) {
+                        return;
+                    }
+                    try {
+                        store.append(channel, sensorEpochOffsetMillis + timestampNanos / 1000000L, mean);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Error storing sensor reading", e);
+                    }
+                }
+            };
 
-                        updateDisplay(CLEAR_DISPLAY);
-                        Log.d(TAG, "button B pressed");
-                        Random rand = new Random();
-                        int[] colors = new int[NUM_LEDS];
-                        colors[0] = mRainbow[rand.nextInt(NUM_LEDS)];
-                        colors[1] = mRainbow[rand.nextInt(NUM_LEDS)];
-                        colors[2] = mRainbow[rand.nextInt(NUM_LEDS)];
-                        colors[3] = mRainbow[rand.nextInt(NUM_LEDS)];
-                        colors[4] = mRainbow[rand.nextInt(NUM_LEDS)];
-                        colors[5] = mRainbow[rand.nextInt(NUM_LEDS)];
-                        colors[6] = mRainbow[rand.nextInt(NUM_LEDS)];
-
-                        soundSpeaker(SOUND_MED);
-                        runLedStrip(colors);
-                        showLED(GREEN_LED);
-
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                appTextToSpeech.say(displayMode.name());
-                            }
-                        }).start();
+    private SamplingService.Listener sensorTrendListener =
+            new SamplingService.Listener() {
+                @Override
+                public void onReading(SensorChannel channel, long timestampNanos, float mean, int samples) {
+                    if (channel == SensorChannel.PRESSURE) {
+                        barometricTrend.update(timestampNanos, mean);
                     }
                 }
             };
 
     /**
-     * Callback for buttonC events.
+     * Shows the pressure level when it settles somewhere new; falling pressure is an alert.
      */
-    private Button.OnButtonEventListener buttonCallbackC =
-            new Button.OnButtonEventListener() {
+    private BarometricTrend.Listener trendListener =
+            new BarometricTrend.Listener() {
                 @Override
-                public void onButtonEvent(Button button, boolean pressed) {
-                    if (pressed) {
-                        Log.d(TAG, "button C pressed");
-                        displayMode = DisplayMode.CLEAR;
-                        updateDisplay(CLEAR_DISPLAY);
-                        soundSpeaker(SOUND_HIGH);
-                        clearLedStrip();
-                        showLED(BLUE_LED);
+                public void onChange(BarometricTrend.Level level, BarometricTrend.Tendency tendency,
+                                     float pressureHpa, double slopeHpaPerHour) {
+                    Log.d(TAG, "Pressure " + level + " " + tendency + " at " + pressureHpa + "hPa, "
+                            + slopeHpaPerHour + "hPa/h");
+                    if (marquee == null) {
+                        return;
+                    }
+                    IndicatorLeds indicatorLeds = buttonActions.getIndicatorLeds();
+                    if (tendency == BarometricTrend.Tendency.FALLING) {
+                        marquee.post(level.name() + " FALLING", Marquee.PRIORITY_ALERT);
+                        if (indicatorLeds != null) {
+                            indicatorLeds.blink(0, TREND_ALERT_BLINK_MS, TREND_ALERT_BLINK_MS);
+                        }
+                    } else {
+                        marquee.post(level.name() + " " + tendency.name(), Marquee.PRIORITY_STATUS);
+                        if (indicatorLeds != null) {
+                            indicatorLeds.stopPattern();
+                        }
                     }
                 }
             };
 
     /**
-     * Helper Method to turn one of 3 LEDs, and turn off the others
-     * @param ledType
+     * Scrolls the weather across the display once a minute, below anything else queued.
      */
-    private void showLED(int ledType) {
-        try {
-            ledGpioRed.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-            ledGpioBlue.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-            ledGpioGreen.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-
-            switch (ledType) {
-                case 1:
-                    ledGpioRed.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
-                    break;
-                case 2:
-                    ledGpioBlue.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
-                    break;
-                case 3:
-                    ledGpioGreen.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
-                    break;
-
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void runLedStrip(int[] colors) {
-        try {
-            ledstrip.write(colors);
-            ledstrip.setBrightness(LEDSTRIP_BRIGHTNESS);
-        } catch (IOException e) {
-            Log.e(TAG, "Error setting ledstrip", e);
-        }
-    }
-
-    private void clearLedStrip() {
-        try {
-            ledstrip.write(new int[NUM_LEDS]);
-            ledstrip.setBrightness(0);
-        } catch (IOException e) {
-            Log.e(TAG, "Error setting ledstrip", e);
-        }
-    }
-
-    private void soundSpeaker(int soundType) {
-        if (!isSpeakerMute) {
-            int soundVal = soundType * 100;
-
-            final ValueAnimator slide = ValueAnimator.ofFloat(soundVal, 440 * 4);
-
-            slide.setDuration(50);
-            slide.setRepeatCount(5);
-            slide.setInterpolator(new LinearInterpolator());
-            slide.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+    private SamplingService.Listener sensorDisplayListener =
+            new SamplingService.Listener() {
                 @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    try {
-                        float v = (float) animation.getAnimatedValue();
-                        speaker.play(v);
-                    } catch (IOException e) {
-                        throw new RuntimeException("Error sliding speaker", e);
+                public void onReading(SensorChannel channel, long timestampNanos, float mean,
+                                      int samples) {
+                    if (channel != SensorChannel.PRESSURE || marquee == null) {
+                        return;
                     }
+                    // Readings can arrive before openSensors() has published the service
+                    SamplingService service = samplingService;
+                    float temperature = service == null ? Float.NaN
+                            : service.getLatest(SensorChannel.TEMPERATURE);
+                    String text = Float.isNaN(temperature)
+                            ? String.format(Locale.US, "%.0fHPA", mean)
+                            : String.format(Locale.US, "%.1fC %.0fHPA", temperature, mean);
+                    marquee.post(text, Marquee.PRIORITY_INFO);
                 }
-            });
-            slide.addListener(new AnimatorListenerAdapter() {
+            };
+
+    /**
+     * Shows and announces the display mode whenever it really changes.
+     */
+    private DisplayModeMachine.Listener displayModeListener =
+            new DisplayModeMachine.Listener() {
                 @Override
-                public void onAnimationEnd(Animator animation) {
-                    try {
-                        speaker.stop();
-                    } catch (IOException e) {
-                        throw new RuntimeException("Error sliding speaker", e);
+                public void onChange(DisplayModeMachine.State previous, DisplayModeMachine.State current,
+                                     DisplayModeMachine.Event cause) {
+                    updateDisplay();
+                    // Queued on the speech worker, held there until the engine is ready
+                    if (cause == DisplayModeMachine.Event.TOGGLE && appTextToSpeech != null) {
+                        appTextToSpeech.say(current.mode.name());
                     }
                 }
-            });
-            Handler handler = new Handler(getMainLooper());
-            handler.postDelayed(new Runnable() {
+            };
+
+    /**
+     * Applies Vision results, on the main thread, in press order and only for the newest batch.
+     */
+    private VisionDispatcher.Listener visionListener =
+            new VisionDispatcher.Listener() {
                 @Override
-                public void run() {
-                    slide.start();
+                public void onResult(long press, long pressedAtNanos, String imageUri,
+                                     WebDetectionResult result) {
+                    if(result != null && !result.isEmpty()) {
+                        // The last web entity decides, as it did when the display was set per entity
+                        boolean angry = false;
+                        for(int i = 0; i < result.getEntityCount(); i++) {
+                            angry = result.getDescription(i).contains("Anger") && result.getScore(i) > 0.5;
+                        }
+                        // Dropped if a button was pressed after the one that asked
+                        DisplayModeMachine.State applied = displayModeMachine.fireIfNotNewer(angry
+                                ? DisplayModeMachine.Event.ANGRY : DisplayModeMachine.Event.CALM,
+                                pressedAtNanos);
+                        // Scroll what Vision saw, unless newer input made the result stale
+                        String label = result.getDescription(0);
+                        if (applied != null && marquee != null && label != null) {
+                            marquee.post(label, Marquee.PRIORITY_STATUS);
+                        }
+                    }
                 }
-            }, SPEAKER_READY_DELAY_MS);
-        }
-    }
 
-    private void updateDisplay(float value) {
-        if (alphaDisplay != null) {
-            try {
-                if (displayMode == DisplayMode.DOOR) {
-                    alphaDisplay.display("DOOR");
-                } else if(displayMode == DisplayMode.IN) {
-                    alphaDisplay.display("IN");
-                } else if(displayMode == DisplayMode.OUT) {
-                    alphaDisplay.display("OUT");
-                } else if (displayMode == DisplayMode.CLEAR) {
-                    alphaDisplay.clear();
-                } else {
-                    alphaDisplay.display(value);
+                @Override
+                public void onError(long press, long pressedAtNanos, String imageUri, IOException e) {
+                    Log.e(TAG, "Error calling Vision API for press " + press, e);
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Error setting display", e);
-            }
+            };
+
+    private void updateDisplay() {
+        // Marquee only queues, its writes go through the I2C lane
+        if (marquee != null) {
+            // Read now, so changes reported out of order still end on the newest
+            marquee.setIdleText(displayModeMachine.getMode().getText());
+            // A mode change makes informational messages like the IP stale
+            marquee.cancelBelow(Marquee.PRIORITY_STATUS);
         }
     }
 
@@ -490,74 +617,4 @@ public class ThingActivity extends AppCompatActivity {
         }
         return "NO IP ADDRESS FOUND";
     }
-
-    private int randInt(int min, int max) {
-
-        Random rand = new Random();
-
-        int randomNum = rand.nextInt((max - min) + 1) + min;
-
-        return randomNum;
-    }
-
-    private class UploadFileTask extends AsyncTask<String, Integer, String> {
-
-        private long totalSize = 0;
-
-        @Override
-        protected String doInBackground(String... payload) {
-            Log.d(TAG, payload[0]);
-            String responseString = null;
-
-            RestTemplate restTemplate = new RestTemplate();
-            restTemplate.getMessageConverters().add(new MappingJackson2HttpMessageConverter());
-            restTemplate.getMessageConverters().add(new StringHttpMessageConverter());
-
-            List<MediaType> acceptableMediaTypes = new ArrayList<>();
-            acceptableMediaTypes.add(MediaType.APPLICATION_JSON);
-
-            // Prepare header
-            HttpHeaders headers = new HttpHeaders();
-            headers.setAccept(acceptableMediaTypes);
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.set("Connection", "Close");
-            // Pass the new person and header
-            HttpEntity entity = new HttpEntity(payload[0], headers);
-
-            responseString = restTemplate.exchange(Constants.GOOGLE_VISION_URL + "?" +
-                            Constants.PARAM_KEY + "=" + Constants.GOOGLE_VISION_API_KEY,
-                    HttpMethod.POST, entity, String.class).getBody();
-
-            Log.d(TAG, responseString);
-
-            return responseString;
-        }
-
-        @Override
-        protected void onPostExecute(String result) {
-            if(result != null && !"".equals(result)) {
-                try {
-                    JSONObject response = new JSONObject(result);
-                    JSONArray responses = response.getJSONArray("responses");
-                    JSONObject webDetection = responses.getJSONObject(0).getJSONObject("webDetection");
-                    JSONArray webEntities = webDetection.getJSONArray("webEntities");
-
-                    for(int i = 0; i < webEntities.length(); i++) {
-                        JSONObject webEntity = webEntities.getJSONObject(i);
-                        if(webEntity.getString("description").contains("Anger") &&
-                                webEntity.getDouble("score") > 0.5) {
-                            displayMode = DisplayMode.OUT;
-                            updateDisplay(CLEAR_DISPLAY);
-                        } else {
-                            displayMode = DisplayMode.IN;
-                            updateDisplay(CLEAR_DISPLAY);
-                        }
-                    }
-
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,67 @@
+package things.wolfsoft.com.androidthings;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats epoch millis with a fixed pattern, safe to share between threads.
+ *
+ * Each thread keeps its own {@link SimpleDateFormat} and {@link Date}, and the string of the
+ * last second it formatted. Calls within the same second return that string without
+ * allocating, which is the common case for sensor callbacks arriving many times a second.
+ * Patterns must not resolve below a second for the cached string to be correct.
+ */
+public class TimestampFormatter {
+
+    public static final String DISPLAY_PATTERN = "MM/dd/yyyy h:mm:ss";
+
+    private final String pattern;
+    private final Locale locale;
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State(new SimpleDateFormat(pattern, locale));
+        }
+    };
+
+    private static final class State {
+        final SimpleDateFormat format;
+        final Date date = new Date();
+        long second = Long.MIN_VALUE;
+        String formatted;
+
+        State(SimpleDateFormat format) {
+            this.format = format;
+        }
+    }
+
+    public TimestampFormatter(String pattern, Locale locale) {
+        if (pattern.contains("S")) {
+            throw new IllegalArgumentException("Sub-second pattern " + pattern);
+        }
+        // Fail here rather than on first use from some other thread
+        new SimpleDateFormat(pattern, locale);
+        this.pattern = pattern;
+        this.locale = locale;
+    }
+
+    /**
+     * Formats {@code epochMillis} in the time zone that was the default when the calling
+     * thread first used this formatter.
+     */
+    public String format(long epochMillis) {
+        State s = state.get();
+        long second = Math.floorDiv(epochMillis, 1000L);
+        if (second != s.second) {
+            s.date.setTime(second * 1000L);
+            s.formatted = s.format.format(s.date);
+            s.second = second;
+        }
+        return s.formatted;
+    }
+
+    public String now() {
+        return format(System.currentTimeMillis());
+    }
+}
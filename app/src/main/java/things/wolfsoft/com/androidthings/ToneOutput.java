@@ -0,0 +1,17 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * A tone generator such as the PWM piezo on the Rainbow HAT, shaped like the contrib
+ * {@code Speaker} driver.
+ */
+public interface ToneOutput {
+
+    /**
+     * Starts or retunes the tone; each call reprograms the PWM on device.
+     */
+    void play(double frequency) throws IOException;
+
+    void stop() throws IOException;
+}
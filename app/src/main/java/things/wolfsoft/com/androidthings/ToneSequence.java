@@ -0,0 +1,153 @@
+package things.wolfsoft.com.androidthings;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, precompiled list of tone steps for {@link ToneSequencer}.
+ *
+ * Notes, rests and linear sweeps are flattened when built: a sweep becomes one step every
+ * {@link #SWEEP_STEP_MS}, every frequency is rounded to the quantum, and consecutive steps
+ * with the same frequency are merged, so playback never reprograms the PWM for nothing.
+ */
+public final class ToneSequence {
+
+    public static final int SWEEP_STEP_MS = 5;
+    public static final float DEFAULT_QUANTUM_HZ = 10;
+
+    /**
+     * Step frequencies in Hz, 0 for silence.
+     */
+    private final float[] frequencies;
+    /**
+     * Step start times in ms from the start of the sequence.
+     */
+    private final int[] offsetsMs;
+    private final int durationMs;
+
+    private ToneSequence(float[] frequencies, int[] offsetsMs, int durationMs) {
+        this.frequencies = frequencies;
+        this.offsetsMs = offsetsMs;
+        this.durationMs = durationMs;
+    }
+
+    public int size() {
+        return frequencies.length;
+    }
+
+    public float getFrequency(int step) {
+        return frequencies[step];
+    }
+
+    public int getOffsetMs(int step) {
+        return offsetsMs[step];
+    }
+
+    public int getDurationMs() {
+        return durationMs;
+    }
+
+    @Override
+    public String toString() {
+        return "ToneSequence{" + size() + " steps, " + durationMs + "ms, " + Arrays.toString(frequencies) + "}";
+    }
+
+    public static class Builder {
+        private final float quantumHz;
+        private float[] frequencies = new float[16];
+        private int[] offsetsMs = new int[16];
+        private int size;
+        private int durationMs;
+        private int markSize;
+        private int markMs;
+
+        public Builder() {
+            this(DEFAULT_QUANTUM_HZ);
+        }
+
+        /**
+         * @param quantumHz frequencies are rounded to a multiple of this
+         */
+        public Builder(float quantumHz) {
+            if (quantumHz <= 0) {
+                throw new IllegalArgumentException("quantumHz must be positive");
+            }
+            this.quantumHz = quantumHz;
+        }
+
+        public Builder note(float frequency, int durationMs) {
+            add(quantize(frequency), durationMs);
+            return this;
+        }
+
+        public Builder rest(int durationMs) {
+            add(0, durationMs);
+            return this;
+        }
+
+        /**
+         * A linear ramp from {@code from} to {@code to} Hz, ending just short of {@code to}
+         * like an animator's last frame before it repeats.
+         */
+        public Builder sweep(float from, float to, int durationMs) {
+            for (int t = 0; t < durationMs; t += SWEEP_STEP_MS) {
+                float frequency = from + (to - from) * t / durationMs;
+                add(quantize(frequency), Math.min(SWEEP_STEP_MS, durationMs - t));
+            }
+            return this;
+        }
+
+        /**
+         * Marks where {@link #repeat(int)} starts copying from; the start by default.
+         */
+        public Builder mark() {
+            markSize = size;
+            markMs = durationMs;
+            return this;
+        }
+
+        /**
+         * Appends {@code times} more copies of everything since the last {@link #mark()}.
+         */
+        public Builder repeat(int times) {
+            int end = size;
+            int lengthMs = durationMs - markMs;
+            for (int n = 0; n < times; n++) {
+                for (int i = markSize; i < end; i++) {
+                    int stepEnd = i + 1 < end ? offsetsMs[i + 1] : markMs + lengthMs;
+                    add(frequencies[i], stepEnd - offsetsMs[i]);
+                }
+            }
+            return this;
+        }
+
+        public ToneSequence build() {
+            return new ToneSequence(Arrays.copyOf(frequencies, size), Arrays.copyOf(offsetsMs, size), durationMs);
+        }
+
+        private float quantize(float frequency) {
+            if (frequency <= 0) {
+                return 0;
+            }
+            return Math.max(quantumHz, Math.round(frequency / quantumHz) * quantumHz);
+        }
+
+        private void add(float frequency, int stepMs) {
+            if (stepMs < 0) {
+                throw new IllegalArgumentException("Negative duration");
+            }
+            if (stepMs == 0) {
+                return;
+            }
+            if (size == 0 || frequencies[size - 1] != frequency) {
+                if (size == frequencies.length) {
+                    frequencies = Arrays.copyOf(frequencies, size * 2);
+                    offsetsMs = Arrays.copyOf(offsetsMs, size * 2);
+                }
+                frequencies[size] = frequency;
+                offsetsMs[size] = durationMs;
+                size++;
+            }
+            durationMs += stepMs;
+        }
+    }
+}
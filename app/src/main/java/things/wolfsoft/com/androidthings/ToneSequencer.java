@@ -0,0 +1,310 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays {@link ToneSequence}s on a {@link ToneOutput} from its own timer thread.
+ *
+ * Callers only hand over a precompiled sequence, so a beep costs the calling thread no
+ * allocation and no hardware access. Steps are scheduled against the sequence start time so
+ * timing does not drift, and a step whose frequency is already playing is not written again.
+ * {@link #play} preempts whatever is sounding, {@link #enqueue} plays after it. An I/O error
+ * silences the output and drops the sequence instead of crashing the caller.
+ */
+public class ToneSequencer {
+    private static final String TAG = "ToneSequencer";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    /**
+     * Runs steps at their time and tells the time they are scheduled against. The default one
+     * is a timer thread on {@link System#nanoTime()}; tests step a manual one.
+     */
+    interface Scheduler {
+        long nanoTime();
+
+        /**
+         * @throws RejectedExecutionException once shut down
+         */
+        void schedule(Runnable step, long delayNanos);
+
+        void shutdown(long timeoutMs);
+    }
+
+    private final ToneOutput output;
+    private final int queueCapacity;
+    private final Scheduler timer;
+
+    private final ArrayDeque<ToneSequence> queue = new ArrayDeque<>();
+    private ToneSequence current;
+    private long generation;
+    /**
+     * Frequency the output is playing, 0 when silent. Only touched on the timer thread.
+     */
+    private float sounding;
+
+    private long played;
+    private long preempted;
+    private long dropped;
+    private long failures;
+    private long pwmWrites;
+    private long skippedWrites;
+    private Metrics.Histogram writeTime;
+
+    public ToneSequencer(ToneOutput output) {
+        this(output, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public ToneSequencer(ToneOutput output, int queueCapacity) {
+        this(output, queueCapacity, new TimerThread());
+    }
+
+    ToneSequencer(ToneOutput output, int queueCapacity, Scheduler timer) {
+        this.output = output;
+        this.queueCapacity = queueCapacity;
+        this.timer = timer;
+    }
+
+    /**
+     * Times every PWM write under {@code io.pwm.exec}.
+     */
+    public synchronized void setMetrics(Metrics metrics) {
+        writeTime = metrics.histogram("io.pwm.exec");
+    }
+
+    /**
+     * Cuts off anything playing or queued and starts {@code sequence} now.
+     */
+    public synchronized void play(ToneSequence sequence) {
+        if (current != null) {
+            preempted++;
+        }
+        dropped += queue.size();
+        queue.clear();
+        begin(sequence);
+    }
+
+    /**
+     * Plays {@code sequence} once everything before it has finished.
+     *
+     * @return false if the queue was full and the sequence was dropped
+     */
+    public synchronized boolean enqueue(ToneSequence sequence) {
+        if (current == null) {
+            begin(sequence);
+            return true;
+        }
+        if (queue.size() >= queueCapacity) {
+            dropped++;
+            return false;
+        }
+        queue.add(sequence);
+        return true;
+    }
+
+    /**
+     * Silences the output and forgets the queue.
+     */
+    public synchronized void stop() {
+        dropped += queue.size();
+        queue.clear();
+        current = null;
+        final long stopped = ++generation;
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ToneSequencer.this) {
+                    if (stopped == generation) {
+                        silence();
+                    }
+                }
+            }
+        }, 0);
+    }
+
+    public synchronized boolean isPlaying() {
+        return current != null;
+    }
+
+    private void begin(ToneSequence sequence) {
+        current = sequence;
+        played++;
+        schedule(new Step(++generation, sequence, 0, 0), 0);
+    }
+
+    private void schedule(Runnable step, long delayNanos) {
+        try {
+            timer.schedule(step, delayNanos);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            current = null;
+        }
+    }
+
+    private final class Step implements Runnable {
+        private final long generation;
+        private final ToneSequence sequence;
+        /**
+         * When the first step ran, so a late start does not shorten the first note.
+         */
+        private final long startNanos;
+        private final int index;
+
+        Step(long generation, ToneSequence sequence, long startNanos, int index) {
+            this.generation = generation;
+            this.sequence = sequence;
+            this.startNanos = startNanos;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            synchronized (ToneSequencer.this) {
+                if (generation != ToneSequencer.this.generation) {
+                    return;
+                }
+                if (index == sequence.size()) {
+                    finish();
+                    return;
+                }
+                long start = index == 0 ? timer.nanoTime() : startNanos;
+                try {
+                    tune(sequence.getFrequency(index));
+                } catch (IOException e) {
+                    failures++;
+                    Log.e(TAG, "Error playing tone", e);
+                    finish();
+                    return;
+                }
+                int next = index + 1;
+                long atNanos = start + TimeUnit.MILLISECONDS.toNanos(
+                        next == sequence.size() ? sequence.getDurationMs() : sequence.getOffsetMs(next));
+                schedule(new Step(generation, sequence, start, next), atNanos - timer.nanoTime());
+            }
+        }
+    }
+
+    private void tune(float frequency) throws IOException {
+        if (frequency == sounding) {
+            skippedWrites++;
+            return;
+        }
+        long start = System.nanoTime();
+        if (frequency == 0) {
+            output.stop();
+        } else {
+            output.play(frequency);
+        }
+        if (writeTime != null) {
+            writeTime.recordSince(start);
+        }
+        pwmWrites++;
+        sounding = frequency;
+    }
+
+    private void finish() {
+        ToneSequence next = queue.poll();
+        if (next != null) {
+            // Go straight into the next one, silence in between only if it starts with a rest
+            begin(next);
+            return;
+        }
+        current = null;
+        silence();
+    }
+
+    private void silence() {
+        try {
+            tune(0);
+        } catch (IOException e) {
+            failures++;
+            Log.e(TAG, "Error stopping tone", e);
+            sounding = 0;
+        }
+    }
+
+    public synchronized long getPlayed() {
+        return played;
+    }
+
+    public synchronized long getPreempted() {
+        return preempted;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Calls made to the output, each one a PWM reprogram on device.
+     */
+    public synchronized long getPwmWrites() {
+        return pwmWrites;
+    }
+
+    /**
+     * Steps that needed no write because the frequency was already playing.
+     */
+    public synchronized long getSkippedWrites() {
+        return skippedWrites;
+    }
+
+    /**
+     * Silences the output and stops the timer thread.
+     */
+    public void shutdown(long timeoutMs) {
+        stop();
+        timer.shutdown(timeoutMs);
+    }
+
+    private static final class TimerThread implements Scheduler {
+        private final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void schedule(Runnable step, long delayNanos) {
+            executor.schedule(step, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void shutdown(long timeoutMs) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{played=" + played + ", preempted=" + preempted + ", dropped=" + dropped
+                + ", failures=" + failures + ", pwmWrites=" + pwmWrites + ", skippedWrites=" + skippedWrites + "}";
+    }
+}
@@ -0,0 +1,120 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * Least-squares slope of the readings in a sliding time window.
+ *
+ * Running sums make adding and expiring a reading O(1). Times enter the sums relative to a
+ * base that is moved to the oldest reading whenever the ring wraps, recomputing the sums once
+ * per lap, so precision does not decay as absolute timestamps grow.
+ */
+public class TrendSlope {
+
+    private final long windowNanos;
+    private final long[] times;
+    private final float[] values;
+
+    private int head;
+    private int count;
+    private long base;
+    private double sumX;
+    private double sumY;
+    private double sumXX;
+    private double sumXY;
+    private int addedSinceRebase;
+
+    /**
+     * @param capacity most readings held, older ones are dropped even inside the window
+     */
+    public TrendSlope(long windowNanos, int capacity) {
+        if (windowNanos <= 0 || capacity < 2) {
+            throw new IllegalArgumentException("Bad window");
+        }
+        this.windowNanos = windowNanos;
+        times = new long[capacity];
+        values = new float[capacity];
+    }
+
+    public void add(long timestampNanos, float value) {
+        if (count == 0) {
+            base = timestampNanos;
+        }
+        // Expire by age, then by room
+        while (count > 0 && timestampNanos - times[head] > windowNanos) {
+            removeOldest();
+        }
+        if (count == times.length) {
+            removeOldest();
+        }
+        int index = (head + count) % times.length;
+        times[index] = timestampNanos;
+        values[index] = value;
+        count++;
+        accumulate(timestampNanos, value, 1);
+        if (++addedSinceRebase >= times.length) {
+            rebase();
+        }
+    }
+
+    private void removeOldest() {
+        accumulate(times[head], values[head], -1);
+        head = (head + 1) % times.length;
+        count--;
+    }
+
+    private void accumulate(long timestampNanos, float value, int sign) {
+        double x = (timestampNanos - base) / 1e9;
+        sumX += sign * x;
+        sumY += sign * value;
+        sumXX += sign * x * x;
+        sumXY += sign * x * value;
+    }
+
+    private void rebase() {
+        addedSinceRebase = 0;
+        sumX = sumY = sumXX = sumXY = 0;
+        if (count == 0) {
+            return;
+        }
+        base = times[head];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % times.length;
+            accumulate(times[index], values[index], 1);
+        }
+    }
+
+    /**
+     * Change per second of the best fit line, or 0 with fewer than two distinct times.
+     */
+    public double slopePerSecond() {
+        if (count < 2) {
+            return 0;
+        }
+        double denominator = count * sumXX - sumX * sumX;
+        if (denominator <= 1e-12) {
+            return 0;
+        }
+        return (count * sumXY - sumX * sumY) / denominator;
+    }
+
+    public double slopePerHour() {
+        return slopePerSecond() * 3600;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Time covered by the readings held.
+     */
+    public long spanNanos() {
+        return count < 2 ? 0 : times[(head + count - 1) % times.length] - times[head];
+    }
+
+    public void clear() {
+        count = 0;
+        head = 0;
+        addedSinceRebase = 0;
+        sumX = sumY = sumXX = sumXY = 0;
+    }
+}
@@ -1,9 +1,6 @@
 package things.wolfsoft.com.androidthings;
 
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 
 /**
@@ -12,15 +9,23 @@ import java.util.Locale;
 
 public class Utilities {
 
+    private static final TimestampFormatter DATE_FORMATTER =
+            new TimestampFormatter(TimestampFormatter.DISPLAY_PATTERN, Locale.US);
+
+    /**
+     * The current time as "MM/dd/yyyy h:mm:ss"; repeated calls within a second return the
+     * same string.
+     */
     public static String getDate() {
+        return DATE_FORMATTER.now();
+    }
 
-        try {
-            DateFormat sdf = new SimpleDateFormat("MM/dd/yyyy h:mm:ss", Locale.US);
-            Date netDate = (new Date());
-            return sdf.format(netDate);
-        } catch (Exception ex) {
-            return "xx";
-        }
+    /**
+     * {@code epochMillis} formatted like {@link #getDate()}, for stamping logged or reported
+     * readings with the time they were taken.
+     */
+    public static String getDate(long epochMillis) {
+        return DATE_FORMATTER.format(epochMillis);
     }
 
     // Converts to celcius
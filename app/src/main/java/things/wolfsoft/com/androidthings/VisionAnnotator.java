@@ -0,0 +1,147 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Annotates images through a {@link VisionTransport}, answering repeated requests for the same
+ * image, feature and maxResults from an {@link AnnotationCache} instead of the network.
+ */
+public class VisionAnnotator {
+    private static final String TAG = "VisionAnnotator";
+
+    private final VisionTransport transport;
+    private final VisionRequestBuilder requestBuilder;
+    private final AnnotationCache cache;
+
+    private Metrics.Counter cacheHits;
+    private Metrics.Counter cacheMisses;
+    private Metrics.Counter failures;
+    private Metrics.Histogram dnsTime;
+    private Metrics.Histogram connectTime;
+    private Metrics.Histogram tlsTime;
+    private Metrics.Histogram ttfbTime;
+    private Metrics.Histogram bodyTime;
+    private Metrics.Histogram totalTime;
+    private Metrics.Histogram parseTime;
+
+    public VisionAnnotator(VisionTransport transport, VisionRequestBuilder requestBuilder,
+                           AnnotationCache cache) {
+        this.transport = transport;
+        this.requestBuilder = requestBuilder;
+        this.cache = cache;
+    }
+
+    /**
+     * Times every phase of a request under {@code vision.<phase>} (dns, connect, tls, ttfb,
+     * body, total) and response parsing under {@code vision.parse}, and counts cache hits,
+     * misses and failed requests. Call before the first request.
+     */
+    public void setMetrics(Metrics metrics) {
+        cacheHits = metrics.counter("vision.cache.hit");
+        cacheMisses = metrics.counter("vision.cache.miss");
+        failures = metrics.counter("vision.failed");
+        dnsTime = metrics.histogram("vision.dns");
+        connectTime = metrics.histogram("vision.connect");
+        tlsTime = metrics.histogram("vision.tls");
+        ttfbTime = metrics.histogram("vision.ttfb");
+        bodyTime = metrics.histogram("vision.body");
+        totalTime = metrics.histogram("vision.total");
+        parseTime = metrics.histogram("vision.parse");
+    }
+
+    public WebDetectionResult annotate(String imageUri) throws IOException {
+        return annotate(new String[]{imageUri})[0];
+    }
+
+    /**
+     * Annotates several images, sending only the uncached ones, together in one batched request.
+     *
+     * @return one result per image, in the order given; null where Vision returned nothing
+     */
+    public WebDetectionResult[] annotate(String... imageUris) throws IOException {
+        WebDetectionResult[] results = new WebDetectionResult[imageUris.length];
+        String[] keys = new String[imageUris.length];
+        String[] misses = new String[imageUris.length];
+        int[] missIndex = new int[imageUris.length];
+        int missCount = 0;
+        for (int i = 0; i < imageUris.length; i++) {
+            keys[i] = AnnotationCache.key(imageUris[i], requestBuilder.getFeatureType(),
+                    requestBuilder.getMaxResults());
+            String body = cache.get(keys[i]);
+            if (body != null) {
+                results[i] = parse(body);
+                if (cacheHits != null) {
+                    cacheHits.increment();
+                }
+            } else {
+                misses[missCount] = imageUris[i];
+                missIndex[missCount] = i;
+                missCount++;
+            }
+        }
+        if (missCount == 0) {
+            return results;
+        }
+        if (cacheMisses != null) {
+            cacheMisses.add(missCount);
+        }
+
+        VisionClient.Response response;
+        try {
+            response = transport.annotate(requestBuilder.payload(Arrays.copyOf(misses, missCount)));
+        } catch (IOException e) {
+            if (failures != null) {
+                failures.increment();
+            }
+            throw e;
+        }
+        Log.d(TAG, "Vision request for " + missCount + " image(s) " + response.timing);
+        record(response.timing);
+        if (response.body == null || "".equals(response.body)) {
+            return results;
+        }
+        String[] responses = VisionResponseParser.splitResponses(response.body);
+        for (int m = 0; m < missCount && m < responses.length; m++) {
+            // Cache each image's answer on its own so later presses can hit it individually
+            String body = "{\"responses\":[" + responses[m] + "]}";
+            int i = missIndex[m];
+            results[i] = parse(body);
+            // An error is usually transient, it must not blank the image for the whole TTL
+            if (!results[i].hasError()) {
+                cache.put(keys[i], body);
+            }
+        }
+        return results;
+    }
+
+    private WebDetectionResult parse(String body) throws IOException {
+        long start = System.nanoTime();
+        WebDetectionResult result = VisionResponseParser.parse(body);
+        if (parseTime != null) {
+            parseTime.recordSince(start);
+        }
+        return result;
+    }
+
+    private void record(VisionClient.Timing timing) {
+        if (totalTime == null || timing == null) {
+            return;
+        }
+        dnsTime.record(timing.dnsNanos);
+        connectTime.record(timing.connectNanos);
+        // Only connections that were set up pay for a handshake, reused ones would pile up at 0
+        if (timing.newTlsSession) {
+            tlsTime.record(timing.tlsNanos);
+        }
+        ttfbTime.record(timing.ttfbNanos);
+        bodyTime.record(timing.bodyNanos);
+        totalTime.record(timing.totalNanos);
+    }
+
+    public AnnotationCache getCache() {
+        return cache;
+    }
+}
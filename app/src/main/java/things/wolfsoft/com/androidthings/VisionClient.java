@@ -0,0 +1,295 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Shared HTTP client for the Cloud Vision {@code images:annotate} endpoint.
+ *
+ * Connections are kept alive and pooled by the platform {@link HttpURLConnection}, so only
+ * the first request (or one after the pool dropped the socket) pays for DNS, TCP and TLS
+ * setup. Every call reports where its time went in a {@link Timing}.
+ */
+public class VisionClient implements VisionTransport {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 15000;
+    // Shortest idle time after which a platform pool may have closed the connection
+    static final long KEEP_ALIVE_MS = 5000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+
+    private static final ThreadLocal<Timing> CURRENT_TIMING = new ThreadLocal<>();
+
+    private final URL endpoint;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final SSLSocketFactory sslSocketFactory;
+    // When a response was last read to the end, handing its connection back to the pool
+    private volatile long releasedNanos;
+    private volatile boolean released;
+
+    private static class Holder {
+        static final VisionClient INSTANCE = new VisionClient(Constants.GOOGLE_VISION_URL + "?" +
+                Constants.PARAM_KEY + "=" + Constants.GOOGLE_VISION_API_KEY,
+                DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * Returns the process wide client for {@link Constants#GOOGLE_VISION_URL}, built on first use.
+     */
+    public static VisionClient getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public VisionClient(String endpoint, int connectTimeoutMs, int readTimeoutMs) {
+        try {
+            this.endpoint = new URL(endpoint);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Bad endpoint " + endpoint, e);
+        }
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.sslSocketFactory = new TimingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    /**
+     * POSTs a JSON payload and returns the response body.
+     */
+    public Response annotate(String payload) throws IOException {
+        return annotate(payload.getBytes(UTF_8));
+    }
+
+    public Response annotate(final byte[] payload) throws IOException {
+        return annotate(new Payload() {
+            @Override
+            public int length() {
+                return payload.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(payload);
+            }
+        });
+    }
+
+    /**
+     * POSTs a payload that is streamed straight into the request body.
+     */
+    @Override
+    public Response annotate(Payload payload) throws IOException {
+        Timing timing = new Timing();
+        CURRENT_TIMING.set(timing);
+        long start = System.nanoTime();
+        HttpURLConnection connection = null;
+        try {
+            if (!connectionPooled()) {
+                // About to open a new connection: warm the resolver cache the stack looks up in
+                resolve(timing);
+            }
+
+            connection = (HttpURLConnection) endpoint.openConnection();
+            if (connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            }
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setFixedLengthStreamingMode(payload.length());
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE_JSON);
+
+            long connectStart = System.nanoTime();
+            connection.connect();
+            long connectEnd = System.nanoTime();
+            if (timing.newTlsSession) {
+                // The socket factory saw the TCP socket come up, the handshake ran after that
+                timing.connectNanos = Math.max(0, timing.socketOpenedNanos - connectStart);
+                timing.tlsNanos = connectEnd - timing.socketOpenedNanos;
+            } else {
+                timing.connectNanos = connectEnd - connectStart;
+            }
+
+            long requestStart = System.nanoTime();
+            OutputStream out = connection.getOutputStream();
+            try {
+                payload.writeTo(out);
+            } finally {
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            timing.ttfbNanos = System.nanoTime() - requestStart;
+
+            long bodyStart = System.nanoTime();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            String body = in == null ? "" : readFully(in);
+            timing.bodyNanos = System.nanoTime() - bodyStart;
+            timing.totalNanos = System.nanoTime() - start;
+            releasedNanos = System.nanoTime();
+            released = true;
+
+            if (status >= 400) {
+                throw new IOException("Vision request failed with HTTP " + status + ": " + body);
+            }
+            return new Response(status, body, timing);
+        } catch (IOException e) {
+            if (connection != null) {
+                // Don't hand a half-read socket back to the pool.
+                connection.disconnect();
+            }
+            released = false;
+            throw e;
+        } finally {
+            CURRENT_TIMING.remove();
+        }
+    }
+
+    /**
+     * Whether an earlier response handed back a connection recently enough to still be pooled.
+     */
+    private boolean connectionPooled() {
+        return released && System.nanoTime() - releasedNanos < TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MS);
+    }
+
+    private void resolve(Timing timing) throws UnknownHostException {
+        long dnsStart = System.nanoTime();
+        InetAddress.getAllByName(endpoint.getHost());
+        timing.dnsNanos = System.nanoTime() - dnsStart;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return new String(buffer.toByteArray(), UTF_8);
+        } finally {
+            // Closing (not disconnecting) returns the connection to the keep-alive pool.
+            in.close();
+        }
+    }
+
+    /**
+     * A request body of known length that can write itself to the connection.
+     */
+    public interface Payload {
+        int length();
+
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    public static class Response {
+        public final int status;
+        public final String body;
+        public final Timing timing;
+
+        public Response(int status, String body, Timing timing) {
+            this.status = status;
+            this.body = body;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * Latency breakdown of one request, in nanoseconds. {@code dnsNanos}, {@code connectNanos}
+     * and {@code tlsNanos} are zero or near zero when a pooled connection was reused.
+     */
+    public static class Timing {
+        public long dnsNanos;
+        public long connectNanos;
+        public long tlsNanos;
+        public long ttfbNanos;
+        public long bodyNanos;
+        public long totalNanos;
+        public boolean newTlsSession;
+        long socketOpenedNanos;
+
+        @Override
+        public String toString() {
+            return "dns=" + dnsNanos / 1000 + "us connect=" + connectNanos / 1000
+                    + "us tls=" + tlsNanos / 1000 + "us ttfb=" + ttfbNanos / 1000
+                    + "us body=" + bodyNanos / 1000 + "us total=" + totalNanos / 1000 + "us"
+                    + (newTlsSession ? " (new TLS session)" : "");
+        }
+    }
+
+    /**
+     * Wraps the platform factory to note when the socket of a new connection is up. Sockets are
+     * returned untouched, so the stack still configures SNI, ALPN and cipher suites and runs the
+     * handshake itself; it is timed from here to the end of {@code connect()}.
+     */
+    private static class TimingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        TimingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private Socket opened(Socket socket) {
+            Timing timing = CURRENT_TIMING.get();
+            if (timing != null) {
+                timing.socketOpenedNanos = System.nanoTime();
+                timing.newTlsSession = true;
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return opened(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return opened(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return opened(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return opened(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return opened(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
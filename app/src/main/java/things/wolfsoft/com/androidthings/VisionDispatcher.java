@@ -0,0 +1,222 @@
+package things.wolfsoft.com.androidthings;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns bursts of Vision requests (one per button press) into batched calls.
+ *
+ * Presses arriving within the coalescing window are sent together in one batched
+ * {@code images:annotate} call, with repeated image URIs sent once. Starting a batch
+ * supersedes the one still in flight: it is cancelled and its results are never delivered.
+ * Results are delivered in press order and never for a press older than one already
+ * delivered, so the listener always ends on the newest press.
+ */
+public class VisionDispatcher {
+    private static final String TAG = "VisionDispatcher";
+
+    public static final long DEFAULT_WINDOW_MS = 150;
+
+    public interface Listener {
+        /**
+         * @param pressedAtNanos the time handed to {@link #submit} with the press
+         * @param result         null when Vision returned nothing for the image
+         */
+        void onResult(long press, long pressedAtNanos, String imageUri, WebDetectionResult result);
+
+        void onError(long press, long pressedAtNanos, String imageUri, IOException e);
+    }
+
+    private final VisionAnnotator annotator;
+    private final long windowMs;
+    private final Listener listener;
+    private final Executor callbackExecutor;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService requests;
+
+    private final Object lock = new Object();
+    private final List<Press> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private long nextPress = 1;
+    private long batchGeneration;
+    private Future<?> inFlight;
+    private long lastDelivered;
+
+    private long batches;
+    private long presses;
+    private long superseded;
+
+    /**
+     * @param callbackExecutor where the listener is called, typically the main thread
+     */
+    public VisionDispatcher(VisionAnnotator annotator, long windowMs, Listener listener,
+                            Executor callbackExecutor) {
+        this.annotator = annotator;
+        this.windowMs = windowMs;
+        this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
+        ThreadFactory threads = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        timer = Executors.newSingleThreadScheduledExecutor(threads);
+        requests = Executors.newCachedThreadPool(threads);
+    }
+
+    /**
+     * Records a press asking for {@code imageUri} to be annotated.
+     *
+     * @param pressedAtNanos when the button was pressed, reported back with the result
+     * @return the press number results will be reported with
+     */
+    public long submit(String imageUri, long pressedAtNanos) {
+        synchronized (lock) {
+            long press = nextPress++;
+            pending.add(new Press(press, pressedAtNanos, imageUri));
+            presses++;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, windowMs, TimeUnit.MILLISECONDS);
+            }
+            return press;
+        }
+    }
+
+    /**
+     * Sends everything pressed so far without waiting for the window to close.
+     */
+    public void flush() {
+        final List<Press> batch;
+        final long generation;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            generation = ++batchGeneration;
+            if (inFlight != null && !inFlight.isDone()) {
+                inFlight.cancel(true);
+                superseded++;
+            }
+            batches++;
+            inFlight = requests.submit(new Runnable() {
+                @Override
+                public void run() {
+                    execute(batch, generation);
+                }
+            });
+        }
+    }
+
+    private void execute(List<Press> batch, long generation) {
+        Map<String, Integer> uniqueUris = new LinkedHashMap<>();
+        for (Press press : batch) {
+            if (!uniqueUris.containsKey(press.imageUri)) {
+                uniqueUris.put(press.imageUri, uniqueUris.size());
+            }
+        }
+        String[] uris = uniqueUris.keySet().toArray(new String[uniqueUris.size()]);
+
+        WebDetectionResult[] results = null;
+        IOException error = null;
+        try {
+            results = annotator.annotate(uris);
+        } catch (IOException e) {
+            error = e;
+        }
+        if (isSuperseded(generation)) {
+            Log.d(TAG, "Dropping results of superseded batch " + generation);
+            return;
+        }
+        for (Press press : batch) {
+            WebDetectionResult result = results == null ? null : results[uniqueUris.get(press.imageUri)];
+            deliver(press, result, error, generation);
+        }
+    }
+
+    private boolean isSuperseded(long generation) {
+        synchronized (lock) {
+            return generation != batchGeneration;
+        }
+    }
+
+    private void deliver(final Press press, final WebDetectionResult result, final IOException error,
+                         final long generation) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    if (generation != batchGeneration || press.number <= lastDelivered) {
+                        return;
+                    }
+                    lastDelivered = press.number;
+                }
+                if (error != null) {
+                    listener.onError(press.number, press.pressedAtNanos, press.imageUri, error);
+                } else {
+                    listener.onResult(press.number, press.pressedAtNanos, press.imageUri, result);
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        requests.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return TAG + " presses=" + presses + " batches=" + batches + " superseded=" + superseded;
+        }
+    }
+
+    public long getBatchCount() {
+        synchronized (lock) {
+            return batches;
+        }
+    }
+
+    public long getSupersededCount() {
+        synchronized (lock) {
+            return superseded;
+        }
+    }
+
+    private static class Press {
+        final long number;
+        final long pressedAtNanos;
+        final String imageUri;
+
+        Press(long number, long pressedAtNanos, String imageUri) {
+            this.number = number;
+            this.pressedAtNanos = pressedAtNanos;
+            this.imageUri = imageUri;
+        }
+    }
+}
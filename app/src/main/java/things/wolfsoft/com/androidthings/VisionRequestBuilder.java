@@ -0,0 +1,168 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds {@code images:annotate} request bodies from precomputed JSON fragments.
+ *
+ * Only the image URIs change between calls, so everything else (including the feature type
+ * and {@code maxResults} of this builder) is encoded once. The escaped bytes of recently used
+ * URIs are cached as well, and bodies are written straight to the HTTP output stream.
+ * Several URIs produce one batched request with an entry per image.
+ */
+public class VisionRequestBuilder {
+
+    public static final String WEB_DETECTION = "WEB_DETECTION";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_CACHED_URIS = 64;
+
+    private static final byte[] PREFIX = ascii("{\"requests\":[");
+    private static final byte[] IMAGE_OPEN = ascii("{\"image\":{\"source\":{\"imageUri\":\"");
+    private static final byte[] SEPARATOR = ascii(",");
+    private static final byte[] SUFFIX = ascii("]}");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final String featureType;
+    private final int maxResults;
+    private final byte[] featureTail;
+    private final ConcurrentHashMap<String, byte[]> uriCache = new ConcurrentHashMap<>();
+
+    public VisionRequestBuilder(String featureType, int maxResults) {
+        this.featureType = featureType;
+        this.maxResults = maxResults;
+        featureTail = concat(ascii("\"}},\"features\":[{\"type\":\""), escape(featureType),
+                ascii("\",\"maxResults\":" + maxResults + "}]}"));
+    }
+
+    public String getFeatureType() {
+        return featureType;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Returns a payload annotating every URI in {@code imageUris} in one request.
+     */
+    public VisionClient.Payload payload(String... imageUris) {
+        if (imageUris.length == 0) {
+            throw new IllegalArgumentException("At least one image URI is required");
+        }
+        final byte[][] uris = new byte[imageUris.length][];
+        int length = PREFIX.length + SUFFIX.length + (uris.length - 1) * SEPARATOR.length;
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = encodedUri(imageUris[i]);
+            length += IMAGE_OPEN.length + uris[i].length + featureTail.length;
+        }
+        final int contentLength = length;
+        return new VisionClient.Payload() {
+            @Override
+            public int length() {
+                return contentLength;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                write(out, uris);
+            }
+        };
+    }
+
+    /**
+     * Convenience for logging and tests; the request path streams {@link #payload} instead.
+     */
+    public String build(String... imageUris) {
+        VisionClient.Payload payload = payload(imageUris);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length());
+        try {
+            payload.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private void write(OutputStream out, byte[][] uris) throws IOException {
+        out.write(PREFIX);
+        for (int i = 0; i < uris.length; i++) {
+            if (i > 0) {
+                out.write(SEPARATOR);
+            }
+            out.write(IMAGE_OPEN);
+            out.write(uris[i]);
+            out.write(featureTail);
+        }
+        out.write(SUFFIX);
+    }
+
+    private byte[] encodedUri(String uri) {
+        byte[] encoded = uriCache.get(uri);
+        if (encoded == null) {
+            encoded = escape(uri);
+            if (uriCache.size() < MAX_CACHED_URIS) {
+                uriCache.put(uri, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * UTF-8 bytes of {@code value} escaped for use inside a JSON string literal.
+     */
+    static byte[] escape(String value) {
+        byte[] raw = value.getBytes(UTF_8);
+        int extra = 0;
+        for (byte b : raw) {
+            if (b == '"' || b == '\\') {
+                extra += 1;
+            } else if (b >= 0 && b < 0x20) {
+                extra += 5;
+            }
+        }
+        if (extra == 0) {
+            return raw;
+        }
+        byte[] escaped = new byte[raw.length + extra];
+        int pos = 0;
+        for (byte b : raw) {
+            if (b == '"' || b == '\\') {
+                escaped[pos++] = '\\';
+                escaped[pos++] = b;
+            } else if (b >= 0 && b < 0x20) {
+                escaped[pos++] = '\\';
+                escaped[pos++] = 'u';
+                escaped[pos++] = '0';
+                escaped[pos++] = '0';
+                escaped[pos++] = HEX[b >> 4];
+                escaped[pos++] = HEX[b & 0xf];
+            } else {
+                escaped[pos++] = b;
+            }
+        }
+        return escaped;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+package things.wolfsoft.com.androidthings;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for Vision {@code images:annotate} responses.
+ *
+ * Walks the token stream once and only materializes {@code description} and {@code score} of
+ * {@code responses[0].webDetection.webEntities}; every other subtree (matching images, pages,
+ * further responses) is skipped without being built.
+ */
+public class VisionResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int INITIAL_CAPACITY = 8;
+
+    private VisionResponseParser() {
+    }
+
+    public static WebDetectionResult parse(String json) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(json);
+        try {
+            return parse(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public static WebDetectionResult parse(InputStream in) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(in);
+        try {
+            return parse(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns the raw JSON of each element of {@code responses}, in order, so the answers of a
+     * batched request can be handled (and cached) per image.
+     */
+    public static String[] splitResponses(String json) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(json);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("responses".equals(field) && value == JsonToken.START_ARRAY) {
+                    String[] responses = new String[INITIAL_CAPACITY];
+                    int count = 0;
+                    JsonToken token;
+                    while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+                        int start = (int) parser.getTokenLocation().getCharOffset();
+                        parser.skipChildren();
+                        int end = (int) parser.getCurrentLocation().getCharOffset();
+                        if (count == responses.length) {
+                            responses = Arrays.copyOf(responses, count * 2);
+                        }
+                        responses[count++] = json.substring(start, end);
+                    }
+                    return Arrays.copyOf(responses, count);
+                }
+                parser.skipChildren();
+            }
+            return new String[0];
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static WebDetectionResult parse(JsonParser parser) throws IOException {
+        Entities entities = new Entities();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("responses".equals(field) && value == JsonToken.START_ARRAY) {
+                JsonToken first = parser.nextToken();
+                if (first == JsonToken.START_OBJECT) {
+                    readResponse(parser, entities);
+                } else if (first != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                }
+                if (first != JsonToken.END_ARRAY) {
+                    // Remaining responses belong to other images of a batch.
+                    skipRestOfContainer(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return entities.toResult();
+    }
+
+    private static void readResponse(JsonParser parser, Entities entities) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("webDetection".equals(field) && value == JsonToken.START_OBJECT) {
+                readWebDetection(parser, entities);
+            } else if ("error".equals(field)) {
+                entities.error = true;
+                parser.skipChildren();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readWebDetection(JsonParser parser, Entities entities) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("webEntities".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readEntity(parser, entities);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readEntity(JsonParser parser, Entities entities) throws IOException {
+        String description = "";
+        float score = 0f;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("description".equals(field) && value == JsonToken.VALUE_STRING) {
+                description = parser.getText();
+            } else if ("score".equals(field) && value.isNumeric()) {
+                score = parser.getFloatValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        entities.add(description, score);
+    }
+
+    private static void skipRestOfContainer(JsonParser parser) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+        }
+    }
+
+    private static class Entities {
+        String[] descriptions = new String[INITIAL_CAPACITY];
+        float[] scores = new float[INITIAL_CAPACITY];
+        int count;
+        boolean error;
+
+        void add(String description, float score) {
+            if (count == descriptions.length) {
+                descriptions = Arrays.copyOf(descriptions, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            descriptions[count] = description;
+            scores[count] = score;
+            count++;
+        }
+
+        WebDetectionResult toResult() {
+            return new WebDetectionResult(descriptions, scores, count, error);
+        }
+    }
+}
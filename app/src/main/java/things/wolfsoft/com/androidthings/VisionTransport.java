@@ -0,0 +1,12 @@
+package things.wolfsoft.com.androidthings;
+
+import java.io.IOException;
+
+/**
+ * Sends one {@code images:annotate} request. {@link VisionClient} is the HTTP implementation;
+ * tests substitute a fake to count and script calls.
+ */
+public interface VisionTransport {
+
+    VisionClient.Response annotate(VisionClient.Payload payload) throws IOException;
+}
@@ -0,0 +1,45 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * The parts of a Vision {@code webDetection} response the app acts on: description and score
+ * of each web entity of the first response, in response order, and whether that response
+ * carried an {@code error} instead.
+ */
+public class WebDetectionResult {
+
+    private final String[] descriptions;
+    private final float[] scores;
+    private final int count;
+    private final boolean error;
+
+    WebDetectionResult(String[] descriptions, float[] scores, int count, boolean error) {
+        this.descriptions = descriptions;
+        this.scores = scores;
+        this.count = count;
+        this.error = error;
+    }
+
+    public int getEntityCount() {
+        return count;
+    }
+
+    public String getDescription(int index) {
+        return descriptions[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * True when Vision answered this image with an error, e.g. quota or a transient backend
+     * failure, rather than with an annotation.
+     */
+    public boolean hasError() {
+        return error;
+    }
+}
@@ -0,0 +1,168 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * LRU, TTL and disk behaviour of {@link AnnotationCache}, and {@link VisionAnnotator} on top of
+ * it with a fake transport.
+ */
+public class AnnotationCacheTest {
+
+    private static final String BODY = "{\"responses\":[{\"webDetection\":{\"webEntities\":"
+            + "[{\"score\":0.9,\"description\":\"Anger\"}]}}]}";
+
+    private File dir;
+    private long now = 1000;
+
+    private final AnnotationCache.Clock clock = new AnnotationCache.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    };
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("annotations").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        AnnotationCache cache = new AnnotationCache(2, 1 << 20, 60000, null, 0, clock);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void boundedByBytes() {
+        AnnotationCache cache = new AnnotationCache(100, 300, 60000, null, 0, clock);
+        cache.put("a", "0123456789012345678901234567890123456789");
+        cache.put("b", "0123456789012345678901234567890123456789");
+        cache.put("c", "0123456789012345678901234567890123456789");
+
+        assertTrue(cache.getMemoryBytes() <= 300);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void entriesExpire() {
+        AnnotationCache cache = new AnnotationCache(10, 1 << 20, 500, null, 0, clock);
+        cache.put("a", "1");
+        now += 499;
+        assertEquals("1", cache.get("a"));
+        now += 1;
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirations());
+    }
+
+    @Test
+    public void diskTierSurvivesRestart() {
+        AnnotationCache first = new AnnotationCache(10, 1 << 20, 60000, dir, 1 << 20, clock);
+        first.put(AnnotationCache.key("http://a", "WEB_DETECTION", 2), BODY);
+
+        AnnotationCache second = new AnnotationCache(10, 1 << 20, 60000, dir, 1 << 20, clock);
+        assertEquals(BODY, second.get(AnnotationCache.key("http://a", "WEB_DETECTION", 2)));
+        assertEquals(1, second.getDiskHits());
+        assertNull(second.get(AnnotationCache.key("http://a", "WEB_DETECTION", 3)));
+
+        now += 60000;
+        AnnotationCache third = new AnnotationCache(10, 1 << 20, 60000, dir, 1 << 20, clock);
+        assertNull(third.get(AnnotationCache.key("http://a", "WEB_DETECTION", 2)));
+    }
+
+    @Test
+    public void diskTierBoundedByBytes() {
+        AnnotationCache cache = new AnnotationCache(10, 1 << 20, 60000, dir, 300, clock);
+        for (int i = 0; i < 10; i++) {
+            cache.put("key" + i, BODY);
+        }
+        long total = 0;
+        for (File file : dir.listFiles()) {
+            total += file.length();
+        }
+        assertTrue(total <= 300);
+    }
+
+    @Test
+    public void warmPressSkipsTransport() throws Exception {
+        final int[] calls = new int[1];
+        VisionTransport transport = new VisionTransport() {
+            @Override
+            public VisionClient.Response annotate(VisionClient.Payload payload) throws IOException {
+                calls[0]++;
+                return new VisionClient.Response(200, BODY, new VisionClient.Timing());
+            }
+        };
+        VisionAnnotator annotator = new VisionAnnotator(transport,
+                new VisionRequestBuilder(VisionRequestBuilder.WEB_DETECTION, 2),
+                new AnnotationCache(10, 1 << 20, 60000, null, 0, clock));
+
+        WebDetectionResult cold = annotator.annotate(Constants.IMAGES[0]);
+        WebDetectionResult warm = annotator.annotate(Constants.IMAGES[0]);
+        annotator.annotate(Constants.IMAGES[1]);
+
+        assertEquals(2, calls[0]);
+        assertEquals("Anger", cold.getDescription(0));
+        assertEquals("Anger", warm.getDescription(0));
+    }
+
+    @Test
+    public void failedAnswersAreNotCached() throws Exception {
+        final String[] bodies = {
+                "{\"responses\":[{\"error\":{\"code\":8,\"message\":\"Quota exceeded\"}}]}",
+                "{\"responses\":[{\"webDetection\":{\"webEntities\":[{\"score\":}]}}]}",
+                BODY
+        };
+        final int[] calls = new int[1];
+        VisionTransport transport = new VisionTransport() {
+            @Override
+            public VisionClient.Response annotate(VisionClient.Payload payload) throws IOException {
+                return new VisionClient.Response(200, bodies[calls[0]++], new VisionClient.Timing());
+            }
+        };
+        VisionAnnotator annotator = new VisionAnnotator(transport,
+                new VisionRequestBuilder(VisionRequestBuilder.WEB_DETECTION, 2),
+                new AnnotationCache(10, 1 << 20, 60000, null, 0, clock));
+
+        WebDetectionResult quota = annotator.annotate(Constants.IMAGES[0]);
+        assertTrue(quota.hasError());
+        assertTrue(quota.isEmpty());
+        try {
+            annotator.annotate(Constants.IMAGES[0]);
+            fail("malformed body parsed");
+        } catch (IOException expected) {
+        }
+        assertEquals("Anger", annotator.annotate(Constants.IMAGES[0]).getDescription(0));
+        assertEquals("Anger", annotator.annotate(Constants.IMAGES[0]).getDescription(0));
+        assertEquals(3, calls[0]);
+    }
+}
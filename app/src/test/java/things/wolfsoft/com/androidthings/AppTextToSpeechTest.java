@@ -0,0 +1,204 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppTextToSpeechTest {
+
+    /**
+     * Speaks by sleeping: synthesis takes {@code synthMs} before audio starts, cached files start at once.
+     */
+    private static class FakeEngine implements SpeechEngine {
+        final List<String> spoken = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> rendered = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> cached = Collections.synchronizedList(new ArrayList<String>());
+        volatile long synthMs = 40;
+        volatile long playMs = 20;
+        volatile Listener listener;
+        volatile boolean shutdown;
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean speak(final String text, final String utteranceId) {
+            spoken.add(text);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sleep(cached.contains(text) ? 0 : synthMs);
+                    listener.onStart(utteranceId);
+                    sleep(playMs);
+                    listener.onDone(utteranceId);
+                }
+            }).start();
+            return true;
+        }
+
+        @Override
+        public boolean synthesizeToFile(String text, File file, String utteranceId) {
+            rendered.add(text);
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[]{'R', 'I', 'F', 'F'});
+            } catch (IOException e) {
+                return false;
+            }
+            listener.onStart(utteranceId);
+            listener.onDone(utteranceId);
+            return true;
+        }
+
+        @Override
+        public boolean addSpeech(String text, File file) {
+            cached.add(text);
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        private static void sleep(long ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private File cacheDir;
+    private FakeEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("tts").toFile();
+        engine = new FakeEngine();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void textIsBufferedUntilEngineIsReady() throws Exception {
+        AppTextToSpeech tts = new AppTextToSpeech(engine, null, AppTextToSpeech.VOCABULARY, 4);
+
+        tts.say("OUT");
+        Thread.sleep(50);
+        assertTrue(engine.spoken.isEmpty());
+        assertFalse(tts.isReady());
+
+        engine.listener.onInit(true);
+        Thread.sleep(150);
+
+        assertEquals(Collections.singletonList("OUT"), engine.spoken);
+        assertEquals(1, tts.getSpoken());
+        tts.shutdown();
+        assertTrue(engine.shutdown);
+    }
+
+    @Test
+    public void repeatedPendingPhraseIsSpokenOnce() throws Exception {
+        AppTextToSpeech tts = new AppTextToSpeech(engine, null, AppTextToSpeech.VOCABULARY, 4);
+
+        tts.say("IN");
+        tts.say("OUT");
+        tts.say("IN");
+        tts.say("OUT");
+        engine.listener.onInit(true);
+        Thread.sleep(400);
+
+        assertEquals(2, tts.getDeduplicated());
+        assertEquals(2, engine.spoken.size());
+        tts.shutdown();
+    }
+
+    @Test
+    public void fullQueueLosesOldestText() throws Exception {
+        AppTextToSpeech tts = new AppTextToSpeech(engine, null, AppTextToSpeech.VOCABULARY, 2);
+
+        tts.say("one");
+        tts.say("two");
+        tts.say("three");
+        engine.listener.onInit(true);
+        Thread.sleep(400);
+
+        assertEquals(1, tts.getDropped());
+        assertEquals(2, engine.spoken.size());
+        assertEquals("two", engine.spoken.get(0));
+        assertEquals("three", engine.spoken.get(1));
+        tts.shutdown();
+    }
+
+    @Test
+    public void vocabularyIsRenderedOnceAndStartsFaster() throws Exception {
+        engine.synthMs = 80;
+        AppTextToSpeech tts = new AppTextToSpeech(engine, cacheDir, AppTextToSpeech.VOCABULARY, 4);
+        engine.listener.onInit(true);
+        Thread.sleep(100);
+
+        assertEquals(4, engine.rendered.size());
+        assertTrue(tts.isCached("DOOR"));
+        assertTrue(new File(cacheDir, "door.wav").length() > 0);
+
+        tts.say("hello");
+        Thread.sleep(200);
+        long synthesized = tts.getMaxStartLatencyNanos();
+        tts.say("IN");
+        Thread.sleep(100);
+
+        assertEquals(2, tts.getSpoken());
+        assertEquals(1, tts.getSpokenFromCache());
+        assertTrue(synthesized >= 80000000L);
+        // Average of one synthesized and one cached start, the cached one near zero
+        assertTrue(tts.getAverageStartLatencyNanos() < synthesized * 3 / 4);
+        tts.shutdown();
+
+        // A second instance finds the files and does not synthesize again
+        FakeEngine second = new FakeEngine();
+        AppTextToSpeech again = new AppTextToSpeech(second, cacheDir, AppTextToSpeech.VOCABULARY, 4);
+        second.listener.onInit(true);
+        Thread.sleep(100);
+        assertTrue(second.rendered.isEmpty());
+        assertEquals(4, second.cached.size());
+        again.shutdown();
+    }
+
+    @Test
+    public void failedInitDropsText() throws Exception {
+        AppTextToSpeech tts = new AppTextToSpeech(engine, null, AppTextToSpeech.VOCABULARY, 4);
+
+        tts.say("DOOR");
+        engine.listener.onInit(false);
+        tts.say("IN");
+        Thread.sleep(50);
+
+        assertTrue(engine.spoken.isEmpty());
+        assertEquals(2, tts.getDropped());
+        tts.shutdown();
+    }
+}
@@ -0,0 +1,175 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BarometricTrendTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private static class Recorder implements BarometricTrend.Listener {
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void onChange(BarometricTrend.Level level, BarometricTrend.Tendency tendency, float pressureHpa,
+                             double slopeHpaPerHour) {
+            changes.add(level + " " + tendency);
+        }
+    }
+
+    /**
+     * Seconds and hPa per row of the recorded trace.
+     */
+    private static List<float[]> loadTrace() throws IOException {
+        InputStream in = BarometricTrendTest.class.getClassLoader().getResourceAsStream("pressure_trace.csv");
+        List<float[]> rows = new ArrayList<>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.startsWith("seconds")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                rows.add(new float[]{Float.parseFloat(fields[0]), Float.parseFloat(fields[1])});
+            }
+        } finally {
+            in.close();
+        }
+        return rows;
+    }
+
+    @Test
+    public void emaMovesPartWayToEachReading() {
+        EmaFilter ema = new EmaFilter(0.5f);
+        assertEquals(10f, ema.update(10f), 0);
+        assertEquals(15f, ema.update(20f), 0);
+        assertEquals(17.5f, ema.update(20f), 0);
+        ema.reset();
+        assertEquals(3f, ema.update(3f), 0);
+        assertEquals(0.2f, EmaFilter.ofSpan(9).update(0) + 0.2f, 1e-6);
+    }
+
+    @Test
+    public void kalmanSettlesOnNoisyConstant() {
+        KalmanFilter kalman = new KalmanFilter(0.0001f, 0.01f);
+        kalman.update(1000f);
+        // The second reading weighs as much as the first
+        float gainBefore = kalman.getGain();
+        assertEquals(0.5f, gainBefore, 0.01f);
+        java.util.Random random = new java.util.Random(1);
+        float last = 0;
+        for (int i = 0; i < 2000; i++) {
+            last = kalman.update(1000f + (float) random.nextGaussian() * 0.1f);
+        }
+        assertEquals(1000f, last, 0.05f);
+        assertTrue(kalman.getGain() < 0.2f);
+        assertTrue(gainBefore > kalman.getGain());
+    }
+
+    @Test
+    public void slopeOfLineIsExact() {
+        TrendSlope slope = new TrendSlope(3600 * SECOND, 1000);
+        long start = 5000000 * SECOND;
+        for (int i = 0; i <= 360; i++) {
+            slope.add(start + i * 10 * SECOND, 1000f + i * 10 / 1800f);
+        }
+        // 2hPa per hour, the first 361 readings fit the window and the capacity
+        assertEquals(2.0, slope.slopePerHour(), 1e-3);
+        assertEquals(3600 * SECOND, slope.spanNanos());
+    }
+
+    @Test
+    public void slopeWindowForgetsOldReadings() {
+        TrendSlope slope = new TrendSlope(600 * SECOND, 16);
+        for (int i = 0; i < 100; i++) {
+            slope.add(i * 60 * SECOND, i < 50 ? i : 50);
+        }
+        // Capacity and window both long past the ramp
+        assertEquals(0.0, slope.slopePerSecond(), 1e-9);
+        assertEquals(11, slope.size());
+        slope.clear();
+        assertEquals(0.0, slope.slopePerHour(), 0);
+    }
+
+    @Test
+    public void hysteresisHoldsLevelNearThreshold() {
+        Recorder recorder = new Recorder();
+        BarometricTrend trend = new BarometricTrend(new EmaFilter(1f), BarometricTrend.DEFAULT_CONFIG, recorder);
+        assertNull(trend.getLevel());
+
+        assertTrue(trend.update(0, 1035.5f));
+        assertEquals(BarometricTrend.Level.HIGH, trend.getLevel());
+        // Within the 1hPa margin either side of 1035 nothing moves
+        float[] wobble = {1034.2f, 1035.9f, 1034.1f, 1035.0f};
+        for (int i = 0; i < wobble.length; i++) {
+            assertFalse(trend.update((i + 1) * SECOND, wobble[i]));
+        }
+        assertTrue(trend.update(10 * SECOND, 1033.9f));
+        assertEquals(BarometricTrend.Level.MED, trend.getLevel());
+        assertFalse(trend.update(11 * SECOND, 1035.9f));
+        assertTrue(trend.update(12 * SECOND, 963f));
+        assertEquals(BarometricTrend.Level.LOW, trend.getLevel());
+        assertEquals(2, trend.getLevelChanges());
+        assertEquals(3, recorder.changes.size());
+    }
+
+    @Test
+    public void tendencyWaitsForSpanThenFollowsSlope() {
+        Recorder recorder = new Recorder();
+        BarometricTrend trend = new BarometricTrend(new KalmanFilter(0.0001f, 0.0025f),
+                BarometricTrend.DEFAULT_CONFIG, recorder);
+        // Falling 3hPa an hour, far past the threshold from the start
+        for (int i = 0; i < 180; i++) {
+            trend.update(i * 10 * SECOND, 1010f - i * 10 / 1200f);
+            if (i * 10 < 30 * 60) {
+                assertEquals(BarometricTrend.Tendency.STEADY, trend.getTendency());
+            }
+        }
+        assertEquals(BarometricTrend.Tendency.STEADY, trend.getTendency());
+        trend.update(180 * 10 * SECOND, 1010f - 180 * 10 / 1200f);
+        assertEquals(BarometricTrend.Tendency.FALLING, trend.getTendency());
+        assertEquals(-3.0, trend.getSlopeHpaPerHour(), 0.01);
+        assertEquals("MED FALLING", recorder.changes.get(recorder.changes.size() - 1));
+    }
+
+    @Test
+    public void recordedTraceChangesRarely() throws IOException {
+        List<float[]> trace = loadTrace();
+        Recorder recorder = new Recorder();
+        BarometricTrend trend = new BarometricTrend(new KalmanFilter(0.0001f, 0.0025f),
+                BarometricTrend.DEFAULT_CONFIG, recorder);
+        int rawFlips = 0;
+        Boolean rawHigh = null;
+        boolean fell = false;
+        for (float[] row : trace) {
+            trend.update((long) row[0] * SECOND, row[1]);
+            fell |= trend.getTendency() == BarometricTrend.Tendency.FALLING;
+            // The old display compared each raw reading to the threshold
+            boolean high = row[1] > 1035f;
+            if (rawHigh != null && high != rawHigh) {
+                rawFlips++;
+            }
+            rawHigh = high;
+        }
+
+        assertTrue("raw flips " + rawFlips, rawFlips > 50);
+        assertEquals(1, trend.getLevelChanges());
+        assertEquals(BarometricTrend.Level.MED, trend.getLevel());
+        assertTrue(fell);
+        assertEquals(BarometricTrend.Tendency.STEADY, trend.getTendency());
+        assertTrue("changes " + recorder.changes, recorder.changes.size() <= 4);
+        assertTrue(recorder.changes.size() * 100 < trace.size());
+    }
+}
@@ -0,0 +1,126 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoardProfileTest {
+
+    @After
+    public void tearDown() {
+        BoardDefaults.init(BoardProfile.resolve("rpi3", null, BoardProfile.builtIn()));
+    }
+
+    @Test
+    public void resolvesBuiltInProfileForInjectedDevice() {
+        BoardProfile profile = BoardProfile.resolve(BoardProfile.DEVICE_RPI3, null, BoardProfile.builtIn());
+
+        assertEquals("BCM6", profile.get(BoardProfile.KEY_RED_LED));
+        assertEquals("BCM21", profile.get(BoardProfile.KEY_BUTTON_A));
+        assertEquals("I2C1", profile.get(BoardProfile.KEY_I2C_BUS));
+        assertEquals("SPI0.0", profile.get(BoardProfile.KEY_SPI_BUS));
+        assertEquals("PWM1", profile.get(BoardProfile.KEY_SPEAKER_PWM));
+    }
+
+    @Test
+    public void edisonUsesArduinoPinsWhenGpioNamesSaySo() {
+        BoardProfile arduino = BoardProfile.resolve(BoardProfile.DEVICE_EDISON, lister("IO2", "IO3"),
+                BoardProfile.builtIn());
+        BoardProfile breakout = BoardProfile.resolve(BoardProfile.DEVICE_EDISON, lister("GP12", "GP13"),
+                BoardProfile.builtIn());
+
+        assertEquals(BoardProfile.DEVICE_EDISON_ARDUINO, arduino.getDevice());
+        assertEquals("IO13", arduino.get(BoardProfile.KEY_RED_LED));
+        assertEquals(BoardProfile.DEVICE_EDISON, breakout.getDevice());
+        assertEquals("GP45", breakout.get(BoardProfile.KEY_RED_LED));
+    }
+
+    @Test
+    public void missingPinFailsOnLookup() {
+        BoardProfile joule = BoardProfile.resolve(BoardProfile.DEVICE_JOULE, null, BoardProfile.builtIn());
+        BoardProfile unknown = BoardProfile.resolve("toaster", null, BoardProfile.builtIn());
+
+        assertEquals("I2C0", joule.get(BoardProfile.KEY_I2C_BUS));
+        assertFalse(joule.has(BoardProfile.KEY_RED_LED));
+        try {
+            joule.get(BoardProfile.KEY_RED_LED);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            unknown.get(BoardProfile.KEY_SPI_BUS);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void resourceProfilesAddBoardsAndOverrideBuiltIns() throws IOException {
+        String text = "# comment\n"
+                + "imx7d_pico.redLed=GPIO2_IO02\n"
+                + "imx7d_pico.spiBus=SPI3.1\n"
+                + "rpi3.spiBus = SPI0.1\n";
+        Map<String, BoardProfile> profiles = BoardProfile.load(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+
+        BoardProfile pico = BoardProfile.resolve("imx7d_pico", null, profiles);
+        BoardProfile rpi = BoardProfile.resolve(BoardProfile.DEVICE_RPI3, null, profiles);
+
+        assertEquals("GPIO2_IO02", pico.get(BoardProfile.KEY_RED_LED));
+        assertEquals("SPI3.1", pico.get(BoardProfile.KEY_SPI_BUS));
+        assertEquals("SPI0.1", rpi.get(BoardProfile.KEY_SPI_BUS));
+        assertEquals("BCM6", rpi.get(BoardProfile.KEY_RED_LED));
+        assertEquals("SPI0.0", BoardProfile.builtIn().get(BoardProfile.DEVICE_RPI3).get(BoardProfile.KEY_SPI_BUS));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedKeyIsRejected() throws IOException {
+        BoardProfile.load(new ByteArrayInputStream("redLed=BCM6\n".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void boardDefaultsDelegateToInstalledProfile() {
+        BoardProfile edison = BoardDefaults.init(BoardProfile.resolve(BoardProfile.DEVICE_EDISON,
+                lister("GP12"), BoardProfile.builtIn()));
+
+        assertSame(edison, BoardDefaults.getProfile());
+        assertEquals("GP45", BoardDefaults.getGPIOForBtnC());
+        assertEquals("SPI2", BoardDefaults.getSpiBus());
+        assertEquals("GP13", BoardDefaults.getSpeakerPwmPin());
+        assertTrue(BoardDefaults.getResolveNanos() >= 0);
+    }
+
+    @Test
+    public void profileIsImmutable() {
+        BoardProfile profile = BoardProfile.builtIn().get(BoardProfile.DEVICE_RPI3);
+        try {
+            BoardProfile.builtIn().put("x", profile);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        BoardProfile copy = new BoardProfile("x", Collections.singletonMap(BoardProfile.KEY_RED_LED, "A"));
+        assertEquals("A", copy.get(BoardProfile.KEY_RED_LED));
+    }
+
+    private static BoardProfile.GpioLister lister(final String... names) {
+        return new BoardProfile.GpioLister() {
+            @Override
+            public List<String> getGpioList() {
+                return Arrays.asList(names);
+            }
+        };
+    }
+}
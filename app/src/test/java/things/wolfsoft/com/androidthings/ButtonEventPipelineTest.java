@@ -0,0 +1,290 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ButtonEventPipelineTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static class Recorder implements ButtonGestureDetector.Listener {
+        final List<String> gestures = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+            gestures.add(button + ":" + gesture);
+        }
+    }
+
+    @Test
+    public void everyCursorSeesEveryEventInOrder() {
+        ButtonEventRing ring = new ButtonEventRing(8);
+        ButtonEventRing.Cursor first = ring.newCursor();
+        ButtonEventRing.Cursor second = ring.newCursor();
+        ButtonEvent event = new ButtonEvent();
+
+        ring.publish(0, true, 10);
+        ring.publish(2, false, 20);
+
+        assertTrue(first.poll(event));
+        assertEquals(0, event.button);
+        assertTrue(event.pressed);
+        assertEquals(10, event.timeNanos);
+        assertTrue(first.poll(event));
+        assertEquals(2, event.button);
+        assertFalse(event.pressed);
+        assertEquals(1, event.sequence);
+        assertFalse(first.poll(event));
+
+        assertEquals(2, second.backlog());
+        assertTrue(second.poll(event));
+        assertEquals(0, event.sequence);
+    }
+
+    @Test
+    public void slowCursorMakesProducerDropInsteadOfOverwrite() {
+        ButtonEventRing ring = new ButtonEventRing(4);
+        ButtonEventRing.Cursor cursor = ring.newCursor();
+        ButtonEvent event = new ButtonEvent();
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, ring.publish(1, i % 2 == 0, i));
+        }
+        assertEquals(-1, ring.publish(1, true, 99));
+        assertEquals(1, ring.getDropped());
+
+        assertTrue(cursor.poll(event));
+        assertEquals(0, event.timeNanos);
+        assertEquals(4, ring.publish(1, true, 4));
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(cursor.poll(event));
+            assertEquals(i, event.timeNanos);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new ButtonEventRing(6);
+    }
+
+    @Test
+    public void bouncesAreFiltered() {
+        ButtonGestureDetector detector = new ButtonGestureDetector(new ButtonGestureDetector.Config(20, 0, 0));
+        Recorder recorder = new Recorder();
+
+        assertTrue(detector.onEdge(0, true, 0, recorder));
+        assertFalse(detector.onEdge(0, false, 5 * MS, recorder));
+        assertFalse(detector.onEdge(0, true, 8 * MS, recorder));
+        assertTrue(detector.onEdge(0, false, 40 * MS, recorder));
+        assertFalse(detector.onEdge(0, false, 90 * MS, recorder));
+        // Other buttons debounce separately
+        assertTrue(detector.onEdge(1, true, 41 * MS, recorder));
+
+        assertEquals(3, detector.getBounces());
+        assertEquals(3, recorder.gestures.size());
+        assertEquals("0:PRESS", recorder.gestures.get(0));
+        assertEquals("0:RELEASE", recorder.gestures.get(1));
+    }
+
+    @Test
+    public void tapShorterThanDebounceStillReleases() {
+        ButtonGestureDetector detector = new ButtonGestureDetector(new ButtonGestureDetector.Config(20, 800, 0));
+        Recorder recorder = new Recorder();
+
+        assertTrue(detector.onEdge(2, true, 0, recorder));
+        // Released inside the debounce interval, and no edge follows
+        assertFalse(detector.onEdge(2, false, 10 * MS, recorder));
+        assertEquals(20 * MS, detector.nanosUntilNextTick(10 * MS));
+        detector.tick(30 * MS, recorder);
+        detector.tick(900 * MS, recorder);
+        assertTrue(detector.onEdge(2, true, 1000 * MS, recorder));
+
+        assertEquals(3, recorder.gestures.size());
+        assertEquals("2:RELEASE", recorder.gestures.get(1));
+        assertEquals("2:PRESS", recorder.gestures.get(2));
+        assertEquals(1, detector.getBounces());
+    }
+
+    @Test
+    public void settledReleaseIsTakenBeforeTheNextPress() {
+        ButtonGestureDetector detector = new ButtonGestureDetector(new ButtonGestureDetector.Config(20, 800, 0));
+        Recorder recorder = new Recorder();
+
+        detector.onEdge(0, true, 0, recorder);
+        detector.onEdge(0, false, 10 * MS, recorder);
+        // Both edges read in one batch, with no tick in between
+        assertTrue(detector.onEdge(0, true, 500 * MS, recorder));
+        detector.tick(900 * MS, recorder);
+
+        assertEquals(3, recorder.gestures.size());
+        assertEquals("0:RELEASE", recorder.gestures.get(1));
+        assertEquals("0:PRESS", recorder.gestures.get(2));
+    }
+
+    @Test
+    public void longPressFiresWhileHeld() {
+        ButtonGestureDetector detector = new ButtonGestureDetector(new ButtonGestureDetector.Config(0, 500, 0));
+        Recorder recorder = new Recorder();
+
+        detector.onEdge(2, true, 0, recorder);
+        assertEquals(400 * MS, detector.nanosUntilNextTick(100 * MS));
+        detector.tick(499 * MS, recorder);
+        assertEquals(1, recorder.gestures.size());
+        detector.tick(500 * MS, recorder);
+        detector.tick(900 * MS, recorder);
+        detector.onEdge(2, false, 1000 * MS, recorder);
+
+        assertEquals("2:LONG_PRESS", recorder.gestures.get(1));
+        assertEquals("2:RELEASE", recorder.gestures.get(2));
+        assertEquals(3, recorder.gestures.size());
+        assertEquals(-1, detector.nanosUntilNextTick(1000 * MS));
+    }
+
+    @Test
+    public void doublePressNeedsTwoQuickPresses() {
+        ButtonGestureDetector detector = new ButtonGestureDetector(new ButtonGestureDetector.Config(0, 0, 300));
+        Recorder recorder = new Recorder();
+
+        tap(detector, recorder, 0, 0);
+        tap(detector, recorder, 0, 200);
+        tap(detector, recorder, 0, 400);
+        tap(detector, recorder, 0, 1000);
+
+        int doubles = 0;
+        for (String gesture : recorder.gestures) {
+            if (gesture.endsWith("DOUBLE_PRESS")) {
+                doubles++;
+            }
+        }
+        // The third tap starts a new pair that the slow fourth does not complete
+        assertEquals(1, doubles);
+        assertEquals("0:DOUBLE_PRESS", recorder.gestures.get(3));
+    }
+
+    @Test
+    public void handlersConsumeIndependently() throws Exception {
+        ButtonEventPipeline pipeline = new ButtonEventPipeline(16);
+        Recorder fast = new Recorder();
+        final Recorder slow = new Recorder();
+        pipeline.addHandler("fast", ButtonGestureDetector.DEFAULT_CONFIG, fast);
+        pipeline.addHandler("slow", ButtonGestureDetector.DEFAULT_CONFIG, new ButtonGestureDetector.Listener() {
+            @Override
+            public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slow.onGesture(button, gesture, timeNanos);
+            }
+        });
+        pipeline.start();
+
+        long now = System.nanoTime();
+        pipeline.publish(0, true, now);
+        pipeline.publish(0, false, now + 50 * MS);
+        pipeline.publish(1, true, now + 100 * MS);
+        Thread.sleep(50);
+
+        assertEquals(3, fast.gestures.size());
+        assertTrue(slow.gestures.size() < 3);
+
+        pipeline.shutdown(1000);
+        assertEquals(3, slow.gestures.size());
+        assertEquals(3, pipeline.getStats("fast").events);
+        assertEquals(0, pipeline.getStats("slow").backlog);
+    }
+
+    @Test
+    public void everyHandlerReadsEveryPublishedEdgeOfAStorm() throws Exception {
+        ButtonEventPipeline pipeline = new ButtonEventPipeline(1024);
+        // No debounce, every edge is a gesture
+        ButtonGestureDetector.Config config = new ButtonGestureDetector.Config(0, 0, 0);
+        Recorder[] handlers = new Recorder[4];
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = new Recorder();
+            pipeline.addHandler("h" + i, config, handlers[i]);
+        }
+        pipeline.start();
+
+        int edges = 20000;
+        long published = 0;
+        for (int i = 0; i < edges; i++) {
+            if (pipeline.publish(i % 3, (i / 3) % 2 == 0) >= 0) {
+                published++;
+            }
+        }
+        pipeline.shutdown(5000);
+
+        // Back to back the handlers fall behind, and the producer drops rather than blocks
+        assertEquals(edges, published + pipeline.getDropped());
+        for (int i = 0; i < handlers.length; i++) {
+            assertEquals(published, pipeline.getStats("h" + i).events);
+            // Drops can pair up same-state edges the detector ignores
+            assertTrue(handlers[i].gestures.size() <= published);
+        }
+    }
+
+    @Test
+    public void longPressIsReportedWithoutFurtherEdges() throws Exception {
+        ButtonEventPipeline pipeline = new ButtonEventPipeline(16);
+        Recorder recorder = new Recorder();
+        pipeline.addHandler("sound", new ButtonGestureDetector.Config(20, 50, 0), recorder);
+        pipeline.start();
+
+        pipeline.publish(2, true);
+        Thread.sleep(120);
+
+        assertEquals(2, recorder.gestures.size());
+        assertEquals("2:LONG_PRESS", recorder.gestures.get(1));
+        pipeline.shutdown(100);
+    }
+
+    @Test
+    public void failingHandlerIsCounted() throws Exception {
+        ButtonEventPipeline pipeline = new ButtonEventPipeline(16);
+        pipeline.addHandler("broken", ButtonGestureDetector.DEFAULT_CONFIG, new ButtonGestureDetector.Listener() {
+            @Override
+            public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        pipeline.start();
+
+        pipeline.publish(0, true);
+        pipeline.shutdown(500);
+
+        assertEquals(1, pipeline.getStats("broken").failures);
+    }
+
+    private static void tap(ButtonGestureDetector detector, Recorder recorder, int button, long atMs) {
+        detector.onEdge(button, true, atMs * MS, recorder);
+        detector.onEdge(button, false, (atMs + 50) * MS, recorder);
+    }
+
+    @Test
+    public void metricsCountEdgesAndTimeHandlers() throws Exception {
+        Metrics metrics = new Metrics();
+        ButtonEventPipeline pipeline = new ButtonEventPipeline(16);
+        pipeline.addHandler("display", ButtonGestureDetector.DEFAULT_CONFIG, new Recorder());
+        pipeline.setMetrics(metrics);
+        pipeline.start();
+
+        long now = System.nanoTime();
+        pipeline.publish(0, true, now);
+        pipeline.publish(0, false, now + 50 * MS);
+        pipeline.shutdown(100);
+
+        assertEquals(Long.valueOf(2), metrics.counterValues().get("button.edges"));
+        assertEquals(Long.valueOf(0), metrics.counterValues().get("button.dropped"));
+        assertEquals(2, metrics.histogram("button.display.latency").snapshot().count);
+    }
+}
@@ -0,0 +1,83 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * APA102 framing and transfer splitting of {@link ChunkedApa102Sink}.
+ */
+public class ChunkedApa102SinkTest {
+
+    /** Byte-counting fake SPI device that also keeps the wire bytes. */
+    static class FakeSpi implements SpiWriter {
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        final List<Integer> transfers = new ArrayList<>();
+
+        @Override
+        public void write(byte[] buffer, int length) throws IOException {
+            wire.write(buffer, 0, length);
+            transfers.add(length);
+        }
+    }
+
+    @Test
+    public void encodesStartPixelAndEndFrames() throws Exception {
+        FakeSpi spi = new FakeSpi();
+        ChunkedApa102Sink sink = new ChunkedApa102Sink(spi, 2, true, 4096);
+        sink.setBrightness(1);
+        sink.write(new int[]{0xff112233, 0xff445566});
+
+        assertArrayEquals(new byte[]{
+                0, 0, 0, 0,
+                (byte) 0xE1, 0x33, 0x22, 0x11,
+                (byte) 0xE1, 0x66, 0x55, 0x44,
+                0, 0, 0, 0}, spi.wire.toByteArray());
+        assertEquals(1, spi.transfers.size());
+    }
+
+    @Test
+    public void rgbOrderAndShortFrames() throws Exception {
+        FakeSpi spi = new FakeSpi();
+        ChunkedApa102Sink sink = new ChunkedApa102Sink(spi, 2, false, 4096);
+        sink.setBrightness(31);
+        sink.write(new int[]{0xff112233});
+
+        byte[] wire = spi.wire.toByteArray();
+        assertEquals((byte) 0xFF, wire[4]);
+        assertEquals(0x11, wire[5]);
+        assertEquals(0x33, wire[7]);
+        // Missing pixels are sent dark
+        assertEquals(0, wire[9] | wire[10] | wire[11]);
+    }
+
+    @Test
+    public void longChainIsSplitIntoTransfers() throws Exception {
+        FakeSpi spi = new FakeSpi();
+        int leds = 1000;
+        ChunkedApa102Sink sink = new ChunkedApa102Sink(spi, leds, true, 1024);
+        int[] frame = new int[leds];
+        for (int i = 0; i < leds; i++) {
+            frame[i] = i;
+        }
+        sink.write(frame);
+
+        int expected = 4 + leds * 4 + (leds + 15) / 16;
+        assertEquals(expected, spi.wire.size());
+        assertEquals(expected, sink.getBytesWritten());
+        for (int size : spi.transfers) {
+            assertTrue(size <= 1024);
+        }
+        assertEquals((expected + 1023) / 1024, spi.transfers.size());
+        byte[] wire = spi.wire.toByteArray();
+        // Pixel 999 = 0x0003E7 in BGR order
+        int pixel = 4 + 999 * 4;
+        assertEquals((byte) 0xE7, wire[pixel + 1]);
+        assertEquals(0x03, wire[pixel + 2]);
+    }
+}
@@ -0,0 +1,179 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DisplayModeMachineTest {
+
+    private static class Recorder implements DisplayModeMachine.Listener {
+        final List<DisplayModeMachine.State> changes =
+                Collections.synchronizedList(new ArrayList<DisplayModeMachine.State>());
+        final AtomicInteger badSteps = new AtomicInteger();
+
+        @Override
+        public void onChange(DisplayModeMachine.State previous, DisplayModeMachine.State current,
+                             DisplayModeMachine.Event cause) {
+            if (current.version != previous.version + 1 || current.mode == previous.mode
+                    || current.mode != DisplayModeMachine.next(previous.mode, cause)) {
+                badSteps.incrementAndGet();
+            }
+            changes.add(current);
+        }
+    }
+
+    @Test
+    public void transitionTable() {
+        for (DisplayMode mode : DisplayMode.values()) {
+            assertSame(DisplayMode.DOOR, DisplayModeMachine.next(mode, DisplayModeMachine.Event.DOOR));
+            assertSame(DisplayMode.CLEAR, DisplayModeMachine.next(mode, DisplayModeMachine.Event.CLEAR));
+            assertSame(DisplayMode.OUT, DisplayModeMachine.next(mode, DisplayModeMachine.Event.ANGRY));
+            assertSame(DisplayMode.IN, DisplayModeMachine.next(mode, DisplayModeMachine.Event.CALM));
+        }
+        assertSame(DisplayMode.IN, DisplayModeMachine.next(DisplayMode.OUT, DisplayModeMachine.Event.TOGGLE));
+        assertSame(DisplayMode.OUT, DisplayModeMachine.next(DisplayMode.IN, DisplayModeMachine.Event.TOGGLE));
+        assertSame(DisplayMode.OUT, DisplayModeMachine.next(DisplayMode.DOOR, DisplayModeMachine.Event.TOGGLE));
+        assertSame(DisplayMode.OUT, DisplayModeMachine.next(DisplayMode.CLEAR, DisplayModeMachine.Event.TOGGLE));
+    }
+
+    @Test
+    public void listenersHearOnlyRealChanges() {
+        DisplayModeMachine machine = new DisplayModeMachine(DisplayMode.DOOR);
+        Recorder recorder = new Recorder();
+        machine.addListener(recorder);
+
+        machine.fire(DisplayModeMachine.Event.DOOR, 1);
+        machine.fire(DisplayModeMachine.Event.TOGGLE, 2);
+        machine.fire(DisplayModeMachine.Event.ANGRY, 3);
+        machine.fire(DisplayModeMachine.Event.TOGGLE, 4);
+
+        assertEquals(2, recorder.changes.size());
+        assertEquals(DisplayMode.OUT, recorder.changes.get(0).mode);
+        assertEquals(DisplayMode.IN, recorder.changes.get(1).mode);
+        assertEquals(2, machine.getState().version);
+        assertEquals(4, machine.getState().inputNanos);
+        assertEquals(2, machine.getUnchanged());
+        assertEquals(0, recorder.badSteps.get());
+    }
+
+    @Test
+    public void staleResultDoesNotOverwriteNewerInput() {
+        DisplayModeMachine machine = new DisplayModeMachine(DisplayMode.DOOR);
+
+        machine.fire(DisplayModeMachine.Event.DOOR, 100);
+        machine.fire(DisplayModeMachine.Event.CLEAR, 200);
+
+        assertNull(machine.fireIfNotNewer(DisplayModeMachine.Event.ANGRY, 100));
+        assertEquals(DisplayMode.CLEAR, machine.getMode());
+        assertEquals(1, machine.getStale());
+
+        assertNotNull(machine.fireIfNotNewer(DisplayModeMachine.Event.ANGRY, 200));
+        assertEquals(DisplayMode.OUT, machine.getMode());
+    }
+
+    @Test
+    public void repeatedPressStillMakesOlderResultsStale() {
+        DisplayModeMachine machine = new DisplayModeMachine(DisplayMode.DOOR);
+
+        // Already DOOR, so no change, but the second press is newer than the first
+        machine.fire(DisplayModeMachine.Event.DOOR, 100);
+        machine.fire(DisplayModeMachine.Event.DOOR, 200);
+
+        assertEquals(0, machine.getState().version);
+        assertNull(machine.fireIfNotNewer(DisplayModeMachine.Event.CALM, 100));
+        assertEquals(DisplayMode.IN, machine.fireIfNotNewer(DisplayModeMachine.Event.CALM, 200).mode);
+    }
+
+    @Test
+    public void compareAndFireChecksVersion() {
+        DisplayModeMachine machine = new DisplayModeMachine(DisplayMode.IN);
+        long version = machine.getState().version;
+
+        assertEquals(DisplayMode.OUT, machine.compareAndFire(version, DisplayModeMachine.Event.TOGGLE).mode);
+        assertNull(machine.compareAndFire(version, DisplayModeMachine.Event.TOGGLE));
+        assertEquals(DisplayMode.OUT, machine.getMode());
+    }
+
+    @Test
+    public void concurrentFuzzKeepsVersionsContiguous() throws Exception {
+        final DisplayModeMachine machine = new DisplayModeMachine(DisplayMode.DOOR);
+        final Recorder recorder = new Recorder();
+        machine.addListener(recorder);
+        final AtomicLong clock = new AtomicLong();
+        final AtomicInteger staleApplied = new AtomicInteger();
+        final AtomicInteger nonMonotonic = new AtomicInteger();
+        final int threads = 8;
+        final int iterations = 20000;
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final DisplayModeMachine.Event[] events = DisplayModeMachine.Event.values();
+
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        go.await();
+                        long lastSeen = Long.MIN_VALUE;
+                        for (int i = 0; i < iterations; i++) {
+                            DisplayModeMachine.Event event = events[random.nextInt(events.length)];
+                            DisplayModeMachine.State state;
+                            if (random.nextBoolean()) {
+                                state = machine.fire(event, clock.incrementAndGet());
+                            } else {
+                                // An async result for some recent input
+                                long inputNanos = clock.get() - random.nextInt(4);
+                                state = machine.fireIfNotNewer(event, inputNanos);
+                                if (state != null && state.inputNanos != inputNanos) {
+                                    staleApplied.incrementAndGet();
+                                }
+                            }
+                            DisplayModeMachine.State now = machine.getState();
+                            if (now.inputNanos < lastSeen) {
+                                nonMonotonic.incrementAndGet();
+                            }
+                            lastSeen = now.inputNanos;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        go.countDown();
+        done.await();
+
+        assertEquals(0, recorder.badSteps.get());
+        assertEquals(0, staleApplied.get());
+        assertEquals(0, nonMonotonic.get());
+        long finalVersion = machine.getState().version;
+        assertEquals(finalVersion, recorder.changes.size());
+        assertEquals(finalVersion, machine.getChanges());
+        Set<Long> versions = new HashSet<>();
+        for (DisplayModeMachine.State state : recorder.changes) {
+            versions.add(state.version);
+        }
+        // Every version from 1 up was reported exactly once
+        assertEquals(finalVersion, versions.size());
+        assertTrue(versions.contains(finalVersion));
+        assertEquals(threads * iterations, machine.getChanges() + machine.getUnchanged() + machine.getStale());
+    }
+}
@@ -0,0 +1,158 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndicatorLedsTest {
+
+    /**
+     * Counts every call that would be a syscall on device.
+     */
+    private static class FakeGpio implements GpioOutput {
+        int directionCalls;
+        int valueCalls;
+        boolean high;
+        boolean failNext;
+        final List<Boolean> values = new ArrayList<>();
+
+        @Override
+        public synchronized void setOutput(boolean initiallyHigh) throws IOException {
+            directionCalls++;
+            high = initiallyHigh;
+        }
+
+        @Override
+        public synchronized void setValue(boolean high) throws IOException {
+            if (failNext) {
+                failNext = false;
+                throw new IOException("bus error");
+            }
+            valueCalls++;
+            this.high = high;
+            values.add(high);
+        }
+
+        synchronized int syscalls() {
+            return directionCalls + valueCalls;
+        }
+    }
+
+    private final FakeGpio red = new FakeGpio();
+    private final FakeGpio blue = new FakeGpio();
+    private final FakeGpio green = new FakeGpio();
+
+    @Test
+    public void directionIsConfiguredOnceLow() throws IOException {
+        IndicatorLeds leds = new IndicatorLeds(red, blue, green);
+
+        leds.show(0);
+        leds.show(1);
+        leds.show(2);
+
+        assertEquals(1, red.directionCalls);
+        assertEquals(1, blue.directionCalls);
+        assertEquals(1, green.directionCalls);
+        assertEquals(0, leds.getMask() & 3);
+        leds.shutdown();
+    }
+
+    @Test
+    public void onlyChangedPinsAreWritten() throws IOException {
+        IndicatorLeds leds = new IndicatorLeds(red, blue, green);
+        int setup = red.syscalls() + blue.syscalls() + green.syscalls();
+
+        assertEquals(1, leds.setMask(1));
+        // Switching from red to green is one pin off and one on, the old code made four calls
+        assertEquals(2, leds.setMask(4));
+        assertEquals(0, leds.setMask(4));
+        leds.show(2);
+
+        assertEquals(3, red.syscalls() + blue.syscalls() + green.syscalls() - setup);
+        assertEquals(3, leds.getWrites());
+        assertFalse(red.high);
+        assertTrue(green.high);
+        assertEquals(0, blue.valueCalls);
+        leds.shutdown();
+    }
+
+    @Test
+    public void setChangesOneLed() throws IOException {
+        IndicatorLeds leds = new IndicatorLeds(red, blue, green);
+
+        leds.set(1, true);
+        leds.set(0, true);
+        leds.set(1, false);
+        leds.set(1, false);
+
+        assertEquals(1, leds.getMask());
+        assertEquals(3, leds.getWrites());
+        leds.shutdown();
+    }
+
+    @Test
+    public void failedWriteLeavesStateMatchingHardware() throws IOException {
+        IndicatorLeds leds = new IndicatorLeds(red, blue, green);
+        green.failNext = true;
+        try {
+            leds.setMask(5);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(1, leds.getMask());
+
+        assertEquals(1, leds.setMask(5));
+        assertTrue(green.high);
+        leds.shutdown();
+    }
+
+    @Test
+    public void blinkTogglesFromTimerAndStopsOnDirectChange() throws Exception {
+        IndicatorLeds leds = new IndicatorLeds(red, blue, green);
+
+        leds.blink(1, 10, 10);
+        Thread.sleep(120);
+        leds.show(0);
+        int blinkWrites;
+        synchronized (blue) {
+            blinkWrites = blue.valueCalls;
+        }
+        Thread.sleep(60);
+
+        assertTrue("only " + blinkWrites + " blink writes", blinkWrites >= 4);
+        assertEquals(blinkWrites, blue.valueCalls);
+        assertFalse(blue.high);
+        assertTrue(red.high);
+        for (int i = 1; i < blue.values.size(); i++) {
+            // Every write is a real transition
+            assertTrue(blue.values.get(i) != blue.values.get(i - 1));
+        }
+        leds.shutdown();
+    }
+
+    @Test
+    public void oneShotPatternEndsOnLastStep() throws Exception {
+        IndicatorLeds leds = new IndicatorLeds(red, blue, green);
+
+        leds.play(new int[]{1, 2, 4, 7}, new long[]{5, 5, 5, 5}, false);
+        Thread.sleep(100);
+
+        assertEquals(7, leds.getMask());
+        assertEquals(3, red.valueCalls);
+        assertEquals(3, blue.valueCalls);
+        assertEquals(1, green.valueCalls);
+        leds.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void patternNeedsOneDurationPerStep() throws IOException {
+        new IndicatorLeds(red).play(new int[]{1, 0}, new long[]{10}, true);
+    }
+}
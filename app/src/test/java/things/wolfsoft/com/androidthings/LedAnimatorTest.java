@@ -0,0 +1,122 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frames produced by {@link LedAnimator} and the {@link LedPalette} tables behind them.
+ */
+public class LedAnimatorTest {
+
+    private static final int[] RAINBOW = {0xffff0000, 0xffffff00, 0xff00ff00, 0xff0000ff};
+
+    private static class FakeSink implements LedStripSink {
+        int[] lastFrame;
+
+        @Override
+        public void setBrightness(int brightness) throws IOException {
+        }
+
+        @Override
+        public void write(int[] colors) throws IOException {
+            lastFrame = colors.clone();
+        }
+    }
+
+    private int[] nextFrame(LedAnimator animator, LedStripRenderer renderer, FakeSink sink) {
+        animator.renderNextFrame();
+        renderer.renderFrame();
+        return sink.lastFrame;
+    }
+
+    @Test
+    public void paletteOrders() {
+        LedPalette palette = new LedPalette(RAINBOW);
+        assertArrayEquals(RAINBOW, palette.rainbow(true));
+        assertArrayEquals(new int[]{0xff0000ff, 0xff00ff00, 0xffffff00, 0xffff0000}, palette.rainbow(false));
+    }
+
+    @Test
+    public void hsvRainbowWalksTheHueCircle() {
+        assertArrayEquals(new int[]{0xffff0000, 0xffffff00, 0xff00ff00, 0xff00ffff, 0xff0000ff, 0xffff00ff},
+                LedPalette.hsvRainbow(6));
+        // Halfway from red to yellow
+        assertEquals(0xffff8000, LedPalette.hsvRainbow(12)[1]);
+    }
+
+    @Test
+    public void gammaCorrectedLevels() {
+        LedPalette palette = new LedPalette(RAINBOW);
+        assertEquals(0xffff0000, palette.dimmed(0, LedPalette.LEVELS));
+        assertEquals(0xff000000, palette.dimmed(0, 0));
+        int half = (palette.dimmed(0, LedPalette.LEVELS / 2) >> 16) & 0xff;
+        // Perceptual half brightness is well below half the PWM duty cycle
+        assertTrue("half level was " + half, half > 40 && half < 80);
+        assertEquals(RAINBOW[0], palette.faded(0, 0));
+    }
+
+    @Test
+    public void chaseRotatesPalette() {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 4);
+        LedAnimator animator = new LedAnimator(renderer, new LedPalette(RAINBOW), 1);
+
+        animator.prepare(LedAnimator.Pattern.CHASE);
+        assertArrayEquals(RAINBOW, nextFrame(animator, renderer, sink));
+        assertArrayEquals(new int[]{0xff0000ff, 0xffff0000, 0xffffff00, 0xff00ff00},
+                nextFrame(animator, renderer, sink));
+
+        animator.prepare(LedAnimator.Pattern.REVERSE_CHASE);
+        nextFrame(animator, renderer, sink);
+        assertArrayEquals(new int[]{0xffffff00, 0xff00ff00, 0xff0000ff, 0xffff0000},
+                nextFrame(animator, renderer, sink));
+        animator.shutdown();
+    }
+
+    @Test
+    public void sparkleUsesPaletteColors() {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 7);
+        LedAnimator animator = new LedAnimator(renderer, new LedPalette(RAINBOW), 1);
+
+        animator.prepare(LedAnimator.Pattern.SPARKLE);
+        for (int color : nextFrame(animator, renderer, sink)) {
+            assertTrue(color == RAINBOW[0] || color == RAINBOW[1] || color == RAINBOW[2] || color == RAINBOW[3]);
+        }
+        animator.shutdown();
+    }
+
+    @Test
+    public void longChainSparkleIsComputedInParallel() {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 1000);
+        LedAnimator animator = new LedAnimator(renderer, new LedPalette(RAINBOW), 1);
+
+        animator.prepare(LedAnimator.Pattern.SPARKLE);
+        int[] frame = nextFrame(animator, renderer, sink);
+        assertEquals(1000, frame.length);
+        for (int color : frame) {
+            assertTrue(color == RAINBOW[0] || color == RAINBOW[1] || color == RAINBOW[2] || color == RAINBOW[3]);
+        }
+        assertEquals(Math.min(Runtime.getRuntime().availableProcessors(), 1000 / 128), animator.getParallelism());
+        animator.shutdown();
+    }
+
+    @Test
+    public void framesAreCountedAndTimedPerPattern() {
+        LedStripRenderer renderer = new LedStripRenderer(new FakeSink(), 7);
+        LedAnimator animator = new LedAnimator(renderer, new LedPalette(RAINBOW), 1);
+        for (LedAnimator.Pattern pattern : LedAnimator.Pattern.values()) {
+            animator.prepare(pattern);
+            for (int i = 0; i < 1000; i++) {
+                animator.renderNextFrame();
+            }
+            assertEquals(1000, animator.getFrameCount(pattern));
+            assertTrue(animator.getAverageFrameNanos(pattern) > 0);
+        }
+        animator.shutdown();
+    }
+}
@@ -0,0 +1,106 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frame diffing and coalescing of {@link LedStripRenderer} against a fake strip.
+ */
+public class LedStripRendererTest {
+
+    private static class FakeSink implements LedStripSink {
+        int writes;
+        int brightnessCalls;
+        int brightness;
+        int[] lastFrame;
+
+        @Override
+        public void setBrightness(int brightness) throws IOException {
+            brightnessCalls++;
+            this.brightness = brightness;
+        }
+
+        @Override
+        public void write(int[] colors) throws IOException {
+            writes++;
+            lastFrame = colors.clone();
+        }
+    }
+
+    @Test
+    public void burstIsCoalescedIntoOneWrite() throws Exception {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 3);
+
+        renderer.submit(new int[]{1, 2, 3}, 1);
+        renderer.submit(new int[]{4, 5, 6}, 1);
+        renderer.submit(new int[]{7, 8, 9}, 1);
+        assertTrue(renderer.renderFrame());
+
+        assertEquals(1, sink.writes);
+        assertArrayEquals(new int[]{7, 8, 9}, sink.lastFrame);
+        assertEquals(3, renderer.getFramesSubmitted());
+        assertEquals(1, renderer.getFramesWritten());
+    }
+
+    @Test
+    public void identicalFrameIsSkipped() throws Exception {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 3);
+
+        renderer.submit(new int[]{1, 2, 3}, 1);
+        renderer.renderFrame();
+        renderer.submit(new int[]{1, 2, 3}, 1);
+        assertFalse(renderer.renderFrame());
+
+        assertEquals(1, sink.writes);
+        assertEquals(1, sink.brightnessCalls);
+        assertEquals(1, renderer.getFramesSkipped());
+    }
+
+    @Test
+    public void brightnessChangeForcesWrite() throws Exception {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 3);
+
+        renderer.submit(new int[]{1, 2, 3}, 1);
+        renderer.renderFrame();
+        renderer.clear();
+        renderer.renderFrame();
+
+        assertEquals(2, sink.writes);
+        assertEquals(0, sink.brightness);
+        assertArrayEquals(new int[]{0, 0, 0}, sink.lastFrame);
+    }
+
+    @Test
+    public void submittedArrayIsCopied() throws Exception {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 3);
+        int[] frame = {1, 2, 3};
+
+        renderer.submit(frame, 1);
+        frame[0] = 42;
+        renderer.renderFrame();
+
+        assertArrayEquals(new int[]{1, 2, 3}, sink.lastFrame);
+    }
+
+    @Test
+    public void renderThreadWritesPendingFrame() throws Exception {
+        FakeSink sink = new FakeSink();
+        LedStripRenderer renderer = new LedStripRenderer(sink, 3, 1);
+        renderer.start();
+        for (int i = 0; i < 100; i++) {
+            renderer.submit(new int[]{i, i, i}, 1);
+        }
+        renderer.stop();
+
+        assertArrayEquals(new int[]{99, 99, 99}, sink.lastFrame);
+        assertTrue(sink.writes <= 100);
+        assertEquals(100, renderer.getFramesSubmitted());
+    }
+}
@@ -0,0 +1,243 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MarqueeTest {
+
+    private final PeripheralExecutor executor = new PeripheralExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdown(1000);
+    }
+
+    private void awaitLane() throws InterruptedException {
+        assertTrue(executor.awaitIdle(PeripheralExecutor.Bus.I2C, 2, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Records each frame as the characters it would show, or the idle text shown.
+     */
+    private static class FakeFrameDisplay implements FrameDisplay {
+        final List<String> frames = new ArrayList<>();
+        final List<String> idle = new ArrayList<>();
+        final List<short[]> strips = new ArrayList<>();
+        final Set<Thread> writers = new HashSet<>();
+
+        @Override
+        public synchronized void showFrame(short[] strip, int offset) throws IOException {
+            writers.add(Thread.currentThread());
+            if (strips.isEmpty() || strips.get(strips.size() - 1) != strip) {
+                strips.add(strip);
+            }
+            StringBuilder frame = new StringBuilder();
+            for (int i = 0; i < SegmentDisplayWriter.DIGITS; i++) {
+                frame.append(decode(strip[offset + i]));
+            }
+            frames.add(frame.toString());
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void show(String text) throws IOException {
+            writers.add(Thread.currentThread());
+            idle.add(text);
+            notifyAll();
+        }
+
+        synchronized List<String> frames() {
+            return new ArrayList<>(frames);
+        }
+
+        synchronized void awaitIdle(int count, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (idle.size() < count && System.currentTimeMillis() < deadline) {
+                wait(deadline - System.currentTimeMillis());
+            }
+        }
+
+        synchronized void awaitFrames(int count, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (frames.size() < count && System.currentTimeMillis() < deadline) {
+                wait(deadline - System.currentTimeMillis());
+            }
+        }
+
+        private static char decode(short data) {
+            if (data == 0) {
+                return ' ';
+            }
+            // Letters and digits first, some punctuation shares their glyphs
+            String candidates = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.";
+            for (int i = 0; i < candidates.length(); i++) {
+                char c = candidates.charAt(i);
+                if (AlphanumericFont.glyph(c) == data) {
+                    return c;
+                }
+            }
+            return '?';
+        }
+    }
+
+    @Test
+    public void messageScrollsAcrossThenShowsIdleText() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 4, executor);
+        marquee.setIdleText("DOOR");
+        awaitLane();
+
+        marquee.post(new Marquee.Message("HI", Marquee.PRIORITY_INFO, 1, 20));
+        display.awaitIdle(2, 5000);
+
+        assertEquals("DOOR", display.idle.get(1));
+        List<String> frames = display.frames();
+        // Enters from the right, leaves on the left: 2 + 4 + 1 windows
+        assertEquals(7, frames.size());
+        assertEquals("    ", frames.get(0));
+        assertEquals("   H", frames.get(1));
+        assertEquals("HI  ", frames.get(4));
+        assertEquals("    ", frames.get(6));
+        assertEquals(1, marquee.getCompleted());
+        assertNull(marquee.getCurrent());
+        marquee.shutdown();
+    }
+
+    @Test
+    public void passesRepeatFromOneStrip() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 4, executor);
+
+        Marquee.Message message = new Marquee.Message("ABCDEF", Marquee.PRIORITY_INFO, 3, 20);
+        marquee.post(message);
+        display.awaitIdle(1, 5000);
+
+        assertEquals(3 * message.getFramesPerPass(), display.frames().size());
+        // Every frame is a window onto the strip encoded when the message was built
+        assertEquals(1, display.strips.size());
+        marquee.shutdown();
+    }
+
+    @Test
+    public void higherPriorityInterruptsAndLowerResumes() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 4, executor);
+
+        marquee.post(new Marquee.Message("IP 10.0.0.1", Marquee.PRIORITY_INFO, 1, 60000));
+        marquee.post(new Marquee.Message("CAT", Marquee.PRIORITY_ALERT, 1, 60000));
+
+        assertEquals("CAT", marquee.getCurrent().getText());
+        assertEquals(1, marquee.getInterrupted());
+        assertEquals(1, marquee.getPending());
+
+        marquee.cancelBelow(Marquee.PRIORITY_ALERT);
+        assertEquals("CAT", marquee.getCurrent().getText());
+        assertEquals(0, marquee.getPending());
+        assertEquals(1, marquee.getDropped());
+        marquee.shutdown();
+    }
+
+    @Test
+    public void equalPriorityWaitsItsTurnInOrder() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 4, executor);
+
+        marquee.post(new Marquee.Message("ONE", Marquee.PRIORITY_STATUS, 1, 20));
+        marquee.post(new Marquee.Message("TWO", Marquee.PRIORITY_STATUS, 1, 20));
+        marquee.post(new Marquee.Message("LOW", Marquee.PRIORITY_INFO, 1, 20));
+        marquee.post(new Marquee.Message("TRE", Marquee.PRIORITY_STATUS, 1, 20));
+        display.awaitIdle(1, 5000);
+
+        List<String> frames = display.frames();
+        // Each 3 character message fully shown at frame 4 of its 8
+        assertEquals("ONE ", frames.get(4));
+        assertEquals("TWO ", frames.get(12));
+        assertEquals("TRE ", frames.get(20));
+        assertEquals("LOW ", frames.get(28));
+        assertEquals(4, marquee.getCompleted());
+        marquee.shutdown();
+    }
+
+    @Test
+    public void overCapacityDropsLowestPriority() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 2, executor);
+
+        marquee.post(new Marquee.Message("NOW", Marquee.PRIORITY_ALERT, 1, 60000));
+        marquee.post(new Marquee.Message("A", Marquee.PRIORITY_STATUS, 1, 60000));
+        marquee.post(new Marquee.Message("B", Marquee.PRIORITY_INFO, 1, 60000));
+        marquee.post(new Marquee.Message("C", Marquee.PRIORITY_STATUS, 1, 60000));
+
+        assertEquals(2, marquee.getPending());
+        assertEquals(1, marquee.getDropped());
+
+        marquee.clear();
+        assertNull(marquee.getCurrent());
+        assertEquals(0, marquee.getPending());
+        marquee.shutdown();
+    }
+
+    @Test
+    public void idleTextOnlyShownWhileNothingScrolls() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 4, executor);
+
+        marquee.post(new Marquee.Message("LONG TEXT", Marquee.PRIORITY_INFO, 1, 60000));
+        marquee.setIdleText("IN");
+        awaitLane();
+        assertTrue(display.idle.isEmpty());
+
+        marquee.cancelBelow(Marquee.PRIORITY_STATUS);
+        awaitLane();
+        assertEquals("IN", display.idle.get(0));
+        marquee.shutdown();
+    }
+
+    @Test
+    public void postingOnlyQueuesAndTheLaneWrites() throws Exception {
+        FakeFrameDisplay display = new FakeFrameDisplay();
+        Marquee marquee = new Marquee(display, 4, executor);
+
+        marquee.post(new Marquee.Message("HI", Marquee.PRIORITY_INFO, 1, 20));
+        display.awaitIdle(1, 5000);
+
+        // Neither the first frame nor the idle text was written by the posting thread
+        synchronized (display) {
+            assertEquals(1, display.writers.size());
+            assertFalse(display.writers.contains(Thread.currentThread()));
+        }
+        marquee.shutdown();
+    }
+
+    @Test
+    public void writerShowsFramesWithoutRewritingBlanks() throws Exception {
+        final List<Integer> writes = new ArrayList<>();
+        SegmentDisplayWriter writer = new SegmentDisplayWriter(new SegmentOutput() {
+            @Override
+            public void writeColumn(int column, short data) {
+                writes.add(column);
+            }
+        }, 1000);
+        short[] strip = SegmentDisplayWriter.scrollStrip("AB");
+
+        writer.showFrame(strip, 0);
+        writer.showFrame(strip, 1);
+
+        // Four blanks, then only the rightmost digit changes
+        assertEquals(5, writes.size());
+        assertEquals(3, (int) writes.get(4));
+        writer.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void bucketsAreContiguousAndTight() {
+        assertEquals(0, Metrics.Histogram.bucketOf(0));
+        assertEquals(31, Metrics.Histogram.bucketOf(31));
+        for (int bucket = 0; bucket < Metrics.Histogram.BUCKETS - 1; bucket++) {
+            long low = Metrics.Histogram.lowestOf(bucket);
+            long high = Metrics.Histogram.highestOf(bucket);
+            assertEquals(bucket, Metrics.Histogram.bucketOf(low));
+            assertEquals(bucket, Metrics.Histogram.bucketOf(high));
+            assertEquals(high + 1, Metrics.Histogram.lowestOf(bucket + 1));
+            // Never wider than 1/16th of the values in it
+            assertTrue("bucket " + bucket, high - low <= Math.max(0, low / Metrics.Histogram.SUB_BUCKETS));
+        }
+        assertEquals(Metrics.Histogram.BUCKETS - 1, Metrics.Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        Metrics.Histogram histogram = new Metrics().histogram("latency");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        Metrics.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.maxNanos);
+        assertEquals(500500, snapshot.meanNanos());
+        long p50 = snapshot.percentileNanos(0.5);
+        long p99 = snapshot.percentileNanos(0.99);
+        assertTrue("p50 " + p50, p50 >= 500000 && p50 <= 500000 * 17 / 16);
+        assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 1000000);
+        assertEquals(0, new Metrics.Histogram().snapshot().percentileNanos(0.99));
+    }
+
+    @Test
+    public void intervalSnapshots() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        Metrics.Snapshot first = histogram.snapshot();
+        histogram.record(1000);
+        histogram.record(2000);
+        Metrics.Snapshot interval = histogram.snapshot().since(first);
+        assertEquals(2, interval.count);
+        assertEquals(3000, interval.sumNanos);
+        // Only the recent, fast recordings count
+        assertTrue(interval.maxNanos >= 2000 && interval.maxNanos < 2200);
+    }
+
+    @Test
+    public void instrumentsAreSharedByName() {
+        Metrics metrics = new Metrics();
+        metrics.counter("button.edges").increment();
+        metrics.counter("button.edges").add(2);
+        assertSame(metrics.histogram("io.gpio.exec"), metrics.histogram("io.gpio.exec"));
+        assertEquals(Long.valueOf(3), metrics.counterValues().get("button.edges"));
+    }
+
+    @Test
+    public void reportsOnlyWhatMoved() {
+        Metrics metrics = new Metrics();
+        MetricsReporter reporter = new MetricsReporter(metrics);
+        metrics.counter("tts.spoken").increment();
+        metrics.counter("tts.errors");
+        metrics.histogram("vision.total").record(TimeUnit.MILLISECONDS.toNanos(120));
+        metrics.gauge("io.gpio.queue", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return 3;
+            }
+        });
+
+        String first = reporter.report(false);
+        assertTrue(first, first.contains("tts.spoken 1 +1\n"));
+        assertFalse(first, first.contains("tts.errors"));
+        assertTrue(first, first.contains("vision.total n=1 p50=120ms p99=120ms max=120ms total=1\n"));
+        assertTrue(first, first.contains("io.gpio.queue 3\n"));
+
+        String second = reporter.report(false);
+        assertFalse(second, second.contains("tts.spoken"));
+        assertFalse(second, second.contains("vision.total"));
+        assertTrue(reporter.report(true).contains("vision.total n=0"));
+        reporter.shutdown();
+    }
+
+    @Test
+    public void recordsEveryValue() {
+        Metrics metrics = new Metrics();
+        Metrics.Counter counter = metrics.counter("events");
+        Metrics.Histogram histogram = metrics.histogram("latency");
+        long value = 1;
+        long max = 0;
+        for (int i = 0; i < 220000; i++) {
+            counter.increment();
+            value = value * 31 % 100000007;
+            histogram.record(value);
+            max = Math.max(max, value);
+        }
+        assertEquals(220000, counter.get());
+        Metrics.Snapshot snapshot = histogram.snapshot();
+        assertEquals(220000, snapshot.count);
+        assertEquals(max, snapshot.maxNanos);
+    }
+
+
+    @Test
+    public void peripheralLanesReportPerBus() throws Exception {
+        Metrics metrics = new Metrics();
+        PeripheralExecutor executor = new PeripheralExecutor();
+        executor.setMetrics(metrics);
+        executor.submit(PeripheralExecutor.Bus.GPIO, new PeripheralExecutor.Command() {
+            @Override
+            public void execute() {
+            }
+        });
+        executor.submit(PeripheralExecutor.Bus.I2C, new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                throw new IOException("nack");
+            }
+        });
+        assertTrue(executor.awaitIdle(PeripheralExecutor.Bus.GPIO, 1, TimeUnit.SECONDS));
+        assertTrue(executor.awaitIdle(PeripheralExecutor.Bus.I2C, 1, TimeUnit.SECONDS));
+        executor.shutdown(1000);
+
+        assertEquals(1, metrics.histogram("io.gpio.exec").snapshot().count);
+        assertEquals(1, metrics.histogram("io.gpio.latency").snapshot().count);
+        assertEquals(Long.valueOf(0), metrics.counterValues().get("io.gpio.failed"));
+        assertEquals(Long.valueOf(1), metrics.counterValues().get("io.i2c.failed"));
+        assertEquals(Long.valueOf(0), metrics.gaugeValues().get("io.i2c.queue"));
+    }
+}
@@ -0,0 +1,189 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coalescing, overflow and bookkeeping of {@link PeripheralExecutor} lanes with fake devices.
+ */
+public class PeripheralExecutorTest {
+
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+    private PeripheralExecutor.Command write(final String value) {
+        return new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                log.add(value);
+            }
+        };
+    }
+
+    /** Parks the lane worker until the latch is released. */
+    private PeripheralExecutor.Command blockOn(final CountDownLatch started, final CountDownLatch release) {
+        return new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void lastWriterWinsPerDevice() throws Exception {
+        PeripheralExecutor executor = new PeripheralExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(PeripheralExecutor.Bus.I2C, blockOn(started, release));
+        started.await();
+
+        executor.submit(PeripheralExecutor.Bus.I2C, "display", write("DOOR"));
+        executor.submit(PeripheralExecutor.Bus.I2C, "display", write("IN"));
+        executor.submit(PeripheralExecutor.Bus.I2C, "other", write("x"));
+        executor.submit(PeripheralExecutor.Bus.I2C, "display", write("OUT"));
+        assertEquals(2, executor.getQueueDepth(PeripheralExecutor.Bus.I2C));
+
+        release.countDown();
+        assertTrue(executor.awaitIdle(PeripheralExecutor.Bus.I2C, 1, TimeUnit.SECONDS));
+
+        assertEquals(2, log.size());
+        assertEquals("OUT", log.get(0));
+        assertEquals("x", log.get(1));
+        PeripheralExecutor.Stats stats = executor.getStats(PeripheralExecutor.Bus.I2C);
+        assertEquals(5, stats.submitted);
+        assertEquals(3, stats.executed);
+        assertEquals(2, stats.coalesced);
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void dropOldestEvictsHead() throws Exception {
+        PeripheralExecutor executor = new PeripheralExecutor(2, PeripheralExecutor.OverflowPolicy.DROP_OLDEST, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(PeripheralExecutor.Bus.GPIO, blockOn(started, release));
+        started.await();
+
+        assertTrue(executor.submit(PeripheralExecutor.Bus.GPIO, write("a")));
+        assertTrue(executor.submit(PeripheralExecutor.Bus.GPIO, write("b")));
+        assertTrue(executor.submit(PeripheralExecutor.Bus.GPIO, write("c")));
+        release.countDown();
+        executor.awaitIdle(PeripheralExecutor.Bus.GPIO, 1, TimeUnit.SECONDS);
+
+        assertEquals("[b, c]", log.toString());
+        assertEquals(1, executor.getStats(PeripheralExecutor.Bus.GPIO).dropped);
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void dropNewestRejectsSubmit() throws Exception {
+        PeripheralExecutor executor = new PeripheralExecutor(1, PeripheralExecutor.OverflowPolicy.DROP_NEWEST, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(PeripheralExecutor.Bus.PWM, blockOn(started, release));
+        started.await();
+
+        assertTrue(executor.submit(PeripheralExecutor.Bus.PWM, write("a")));
+        assertFalse(executor.submit(PeripheralExecutor.Bus.PWM, write("b")));
+        release.countDown();
+        executor.awaitIdle(PeripheralExecutor.Bus.PWM, 1, TimeUnit.SECONDS);
+
+        assertEquals("[a]", log.toString());
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void blockedSubmitsForOneDeviceStillCoalesce() throws Exception {
+        final PeripheralExecutor executor = new PeripheralExecutor(2, PeripheralExecutor.OverflowPolicy.BLOCK, 5000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(PeripheralExecutor.Bus.I2C, blockOn(started, release));
+        started.await();
+        executor.submit(PeripheralExecutor.Bus.I2C, write("fill1"));
+        executor.submit(PeripheralExecutor.Bus.I2C, write("fill2"));
+
+        Thread[] writers = new Thread[2];
+        for (int i = 0; i < writers.length; i++) {
+            final String value = "display" + i;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    executor.submit(PeripheralExecutor.Bus.I2C, "display", write(value));
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            while (writer.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread writer : writers) {
+            writer.join(1000);
+        }
+        assertTrue(executor.awaitIdle(PeripheralExecutor.Bus.I2C, 1, TimeUnit.SECONDS));
+
+        assertEquals(3, log.size());
+        assertTrue(log.toString(), log.get(2).startsWith("display"));
+        assertEquals(1, executor.getStats(PeripheralExecutor.Bus.I2C).coalesced);
+
+        // The device mapping survived, so the next burst coalesces again
+        CountDownLatch startedAgain = new CountDownLatch(1);
+        CountDownLatch releaseAgain = new CountDownLatch(1);
+        executor.submit(PeripheralExecutor.Bus.I2C, blockOn(startedAgain, releaseAgain));
+        startedAgain.await();
+        executor.submit(PeripheralExecutor.Bus.I2C, "display", write("a"));
+        executor.submit(PeripheralExecutor.Bus.I2C, "display", write("b"));
+        assertEquals(1, executor.getQueueDepth(PeripheralExecutor.Bus.I2C));
+        releaseAgain.countDown();
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void slowBusDoesNotDelayOtherBuses() throws Exception {
+        PeripheralExecutor executor = new PeripheralExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(PeripheralExecutor.Bus.I2C, blockOn(started, release));
+        started.await();
+
+        executor.submit(PeripheralExecutor.Bus.GPIO, write("led"));
+        assertTrue(executor.awaitIdle(PeripheralExecutor.Bus.GPIO, 1, TimeUnit.SECONDS));
+        assertEquals("[led]", log.toString());
+
+        release.countDown();
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void failingCommandIsCountedAndLaneKeepsRunning() throws Exception {
+        PeripheralExecutor executor = new PeripheralExecutor();
+        executor.submit(PeripheralExecutor.Bus.SPI, new PeripheralExecutor.Command() {
+            @Override
+            public void execute() throws IOException {
+                throw new IOException("bus error");
+            }
+        });
+        executor.submit(PeripheralExecutor.Bus.SPI, write("ok"));
+        executor.awaitIdle(PeripheralExecutor.Bus.SPI, 1, TimeUnit.SECONDS);
+
+        assertEquals("[ok]", log.toString());
+        assertEquals(1, executor.getStats(PeripheralExecutor.Bus.SPI).failed);
+        executor.shutdown(1000);
+        assertFalse(executor.submit(PeripheralExecutor.Bus.SPI, write("late")));
+    }
+}
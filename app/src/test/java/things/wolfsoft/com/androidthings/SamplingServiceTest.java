@@ -0,0 +1,171 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingServiceTest {
+
+    private static final long MS = 1000000L;
+
+    /**
+     * Hands readings to the service when told to, like a sensor delivering a batch.
+     */
+    static class FakeSensorSource implements SensorSource {
+        SampleSink sink;
+        int samplingPeriodUs;
+        int maxReportLatencyUs;
+        int flushes;
+        boolean closed;
+
+        @Override
+        public void start(SampleSink sink, int samplingPeriodUs, int maxReportLatencyUs) {
+            this.sink = sink;
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        void deliver(SensorChannel channel, long timestampNanos, float value) {
+            sink.onSample(channel, timestampNanos, value);
+        }
+    }
+
+    private static class Recorder implements SamplingService.Listener {
+        final List<float[]> readings = new ArrayList<>();
+
+        @Override
+        public void onReading(SensorChannel channel, long timestampNanos, float mean, int samples) {
+            readings.add(new float[]{channel.ordinal(), timestampNanos / MS, mean, samples});
+        }
+    }
+
+    @Test
+    public void ringKeepsNewestInOrder() {
+        SampleRing ring = new SampleRing(3);
+        assertEquals(4, ring.getCapacity());
+        assertTrue(Float.isNaN(ring.latestValue()));
+
+        for (int i = 0; i < 6; i++) {
+            ring.add(i * MS, i);
+        }
+        long[] timestamps = new long[4];
+        float[] values = new float[4];
+
+        assertEquals(4, ring.size());
+        assertEquals(6, ring.getTotal());
+        assertEquals(4, ring.copyLatest(10, timestamps, values));
+        assertEquals(2f, values[0], 0);
+        assertEquals(5f, values[3], 0);
+        assertEquals(2, ring.copyLatest(2, timestamps, values));
+        assertEquals(4f, values[0], 0);
+        assertEquals(5 * MS, ring.latestTimestamp());
+        assertEquals(1000.0, ring.rateHz(), 0.001);
+    }
+
+    @Test
+    public void startPassesRateAndLatency() throws Exception {
+        FakeSensorSource source = new FakeSensorSource();
+        SamplingService service = new SamplingService(source, new SamplingService.Config(100000, 2000000, 16));
+        service.flush();
+        service.start();
+        service.flush();
+
+        assertEquals(100000, source.samplingPeriodUs);
+        assertEquals(2000000, source.maxReportLatencyUs);
+        assertEquals(1, source.flushes);
+        service.close();
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void decimatesByReadingTime() throws Exception {
+        FakeSensorSource source = new FakeSensorSource();
+        SamplingService service = new SamplingService(source, SamplingService.DEFAULT_CONFIG);
+        Recorder everySecond = new Recorder();
+        service.addListener(everySecond, 1000);
+        service.start();
+
+        // A 2.5 second batch of 4Hz readings arriving at once
+        for (int i = 0; i < 10; i++) {
+            source.deliver(SensorChannel.TEMPERATURE, 1000 * MS + i * 250 * MS, i);
+        }
+
+        assertEquals(2, everySecond.readings.size());
+        float[] first = everySecond.readings.get(0);
+        assertEquals(1.5f, first[2], 0.0001f);
+        assertEquals(4f, first[3], 0);
+        assertEquals(1750f, first[1], 0);
+        assertEquals(5.5f, everySecond.readings.get(1)[2], 0.0001f);
+        assertEquals(9f, service.getLatest(SensorChannel.TEMPERATURE), 0);
+        assertEquals(10, service.getRing(SensorChannel.TEMPERATURE).size());
+    }
+
+    @Test
+    public void channelsAreDecimatedSeparately() throws Exception {
+        FakeSensorSource source = new FakeSensorSource();
+        SamplingService service = new SamplingService(source, SamplingService.DEFAULT_CONFIG);
+        Recorder recorder = new Recorder();
+        service.addListener(recorder, 500);
+        service.start();
+
+        for (int i = 0; i < 4; i++) {
+            source.deliver(SensorChannel.TEMPERATURE, i * 300 * MS, 20);
+            source.deliver(SensorChannel.PRESSURE, i * 300 * MS, 1000);
+        }
+
+        // 600ms closes the first window of each channel
+        assertEquals(2, recorder.readings.size());
+        for (float[] reading : recorder.readings) {
+            float expected = reading[0] == SensorChannel.TEMPERATURE.ordinal() ? 20 : 1000;
+            assertEquals(expected, reading[2], 0);
+        }
+        assertTrue(Float.isNaN(new SamplingService(source, SamplingService.DEFAULT_CONFIG)
+                .getLatest(SensorChannel.PRESSURE)));
+    }
+
+    @Test
+    public void dropsReadingsOlderThanNewest() throws Exception {
+        FakeSensorSource source = new FakeSensorSource();
+        SamplingService service = new SamplingService(source, SamplingService.DEFAULT_CONFIG);
+        service.start();
+
+        source.deliver(SensorChannel.PRESSURE, 10 * MS, 1000);
+        source.deliver(SensorChannel.PRESSURE, 10 * MS, 1001);
+        source.deliver(SensorChannel.PRESSURE, 5 * MS, 1002);
+        source.deliver(SensorChannel.TEMPERATURE, 5 * MS, 20);
+
+        assertEquals(4, service.getSamples());
+        assertEquals(2, service.getOutOfOrder());
+        assertEquals(1000f, service.getLatest(SensorChannel.PRESSURE), 0);
+    }
+
+    @Test
+    public void removedListenerHearsNothing() throws Exception {
+        FakeSensorSource source = new FakeSensorSource();
+        SamplingService service = new SamplingService(source, SamplingService.DEFAULT_CONFIG);
+        Recorder recorder = new Recorder();
+        service.addListener(recorder, 1);
+        service.start();
+        service.removeListener(recorder);
+
+        for (int i = 0; i < 5; i++) {
+            source.deliver(SensorChannel.TEMPERATURE, i * 10 * MS, i);
+        }
+
+        assertTrue(recorder.readings.isEmpty());
+    }
+}
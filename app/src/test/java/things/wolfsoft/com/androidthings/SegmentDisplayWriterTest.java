@@ -0,0 +1,154 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentDisplayWriterTest {
+
+    private static class FakeDisplay implements SegmentOutput {
+        final short[] columns = new short[SegmentDisplayWriter.DIGITS];
+        final List<Integer> writes = new ArrayList<>();
+        int failColumn = -1;
+
+        @Override
+        public synchronized void writeColumn(int column, short data) throws IOException {
+            if (column == failColumn) {
+                failColumn = -1;
+                throw new IOException("nack");
+            }
+            columns[column] = data;
+            writes.add(column);
+        }
+
+        synchronized short[] snapshot() {
+            return columns.clone();
+        }
+    }
+
+    private static short[] expected(String text) {
+        short[] out = new short[SegmentDisplayWriter.DIGITS];
+        AlphanumericFont.encode(text, out, 0);
+        return out;
+    }
+
+    @Test
+    public void fontFoldsDotsIntoPreviousDigit() {
+        short[] out = new short[4];
+
+        assertEquals(3, AlphanumericFont.encode("1.5C", out, 0));
+        assertEquals(AlphanumericFont.glyph('1') | AlphanumericFont.DECIMAL_POINT, out[0]);
+        assertEquals(AlphanumericFont.glyph('5'), out[1]);
+        assertEquals(3, AlphanumericFont.digits("1.5C"));
+        assertEquals(2, AlphanumericFont.digits(".."));
+        assertEquals(0x00F7, AlphanumericFont.glyph('A'));
+        assertEquals(0, AlphanumericFont.glyph('é'));
+    }
+
+    @Test
+    public void sameTextIsNotWrittenAgain() throws IOException {
+        FakeDisplay display = new FakeDisplay();
+        SegmentDisplayWriter writer = new SegmentDisplayWriter(display, 100, "DOOR", "IN", "OUT");
+
+        writer.show("DOOR");
+        writer.show("DOOR");
+        writer.show("DOOR");
+
+        assertEquals(4, display.writes.size());
+        assertArrayEquals(expected("DOOR"), display.snapshot());
+        assertEquals(3, writer.getFrames());
+        assertEquals(4 * SegmentDisplayWriter.BYTES_PER_COLUMN, writer.getBytesWritten());
+        assertEquals(3 * 4 * SegmentDisplayWriter.BYTES_PER_COLUMN, writer.getFullRewriteBytes());
+        writer.shutdown();
+    }
+
+    @Test
+    public void onlyChangedDigitsAreWritten() throws IOException {
+        FakeDisplay display = new FakeDisplay();
+        SegmentDisplayWriter writer = new SegmentDisplayWriter(display, 100, "IN", "OUT");
+
+        writer.show("OUT");
+        display.writes.clear();
+        writer.show("OUR");
+
+        assertEquals(1, display.writes.size());
+        assertEquals(2, (int) display.writes.get(0));
+
+        display.writes.clear();
+        writer.show("IN");
+        // I, N and the now blank third digit
+        assertEquals(3, display.writes.size());
+        assertArrayEquals(expected("IN"), display.snapshot());
+
+        display.writes.clear();
+        writer.clear();
+        writer.clear();
+        assertEquals(2, display.writes.size());
+        writer.shutdown();
+    }
+
+    @Test
+    public void failedDigitIsRetriedOnNextFrame() throws IOException {
+        FakeDisplay display = new FakeDisplay();
+        SegmentDisplayWriter writer = new SegmentDisplayWriter(display, 100);
+        display.failColumn = 1;
+        try {
+            writer.show("DOOR");
+            fail();
+        } catch (IOException expected) {
+        }
+
+        display.writes.clear();
+        writer.show("DOOR");
+
+        assertTrue(display.writes.contains(1));
+        assertArrayEquals(expected("DOOR"), display.snapshot());
+        writer.shutdown();
+    }
+
+    @Test
+    public void invalidateForcesFullFrame() throws IOException {
+        FakeDisplay display = new FakeDisplay();
+        SegmentDisplayWriter writer = new SegmentDisplayWriter(display, 100);
+        writer.show("OUT");
+        display.writes.clear();
+
+        writer.invalidate();
+        writer.show("OUT");
+
+        assertEquals(4, display.writes.size());
+        writer.shutdown();
+    }
+
+    @Test
+    public void longTextScrollsUntilReplaced() throws Exception {
+        FakeDisplay display = new FakeDisplay();
+        SegmentDisplayWriter writer = new SegmentDisplayWriter(display, 10);
+
+        writer.show("HELLO");
+        assertTrue(writer.isScrolling());
+        // Starts blank, the text enters from the right
+        assertArrayEquals(new short[4], display.snapshot());
+        Thread.sleep(55);
+        assertTrue(writer.getFrames() >= 4);
+
+        writer.show("IN");
+        long frames = writer.getFrames();
+        Thread.sleep(40);
+
+        assertFalse(writer.isScrolling());
+        assertEquals(frames, writer.getFrames());
+        assertArrayEquals(expected("IN"), display.snapshot());
+        // Blank digits around the text and repeated letters keep writes under a full rewrite
+        assertTrue(writer.getBytesWritten() < writer.getFullRewriteBytes());
+        writer.shutdown();
+    }
+}
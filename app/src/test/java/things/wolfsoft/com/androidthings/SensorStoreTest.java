@@ -0,0 +1,204 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorStoreTest {
+
+    // 2017-05-11T00:00:00Z, on an hour boundary
+    private static final long T0 = 1494460800000L;
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("sensors").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        delete(dir);
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static float valueAt(long millis) {
+        return (float) (1000 + 10 * Math.sin(millis / 600000.0));
+    }
+
+    private static SensorSummary bruteForce(long from, long to, long step) {
+        SensorSummary summary = new SensorSummary();
+        for (long t = T0; t < T0 + 3 * SensorStore.HOUR_MS; t += step) {
+            if (t >= from && t < to) {
+                summary.add(valueAt(t));
+            }
+        }
+        return summary;
+    }
+
+    @Test
+    public void readsBackRawReadingsAcrossSegments() throws IOException {
+        SensorStore store = new SensorStore(dir, 100, 10);
+        for (int i = 0; i < 450; i++) {
+            assertTrue(store.append(SensorChannel.PRESSURE, T0 + i * 100L, i));
+        }
+        long[] timestamps = new long[1000];
+        float[] values = new float[1000];
+
+        int n = store.readRaw(SensorChannel.PRESSURE, T0 + 9950, T0 + 20000, timestamps, values);
+
+        assertEquals(100, n);
+        assertEquals(T0 + 10000, timestamps[0]);
+        assertEquals(100f, values[0], 0);
+        assertEquals(199f, values[99], 0);
+        assertEquals(5, store.getRollovers());
+        assertEquals(0, store.readRaw(SensorChannel.TEMPERATURE, T0, T0 + 20000, timestamps, values));
+        assertEquals(3, store.readRaw(SensorChannel.PRESSURE, T0, T0 + 20000, new long[3], new float[3]));
+        store.close();
+    }
+
+    @Test
+    public void rejectsOlderReadingsAndDropsOldSegments() throws IOException {
+        SensorStore store = new SensorStore(dir, 10, 2);
+        for (int i = 0; i < 35; i++) {
+            store.append(SensorChannel.TEMPERATURE, T0 + i * 1000L, i);
+        }
+        assertFalse(store.append(SensorChannel.TEMPERATURE, T0, 0));
+        assertEquals(1, store.getRejected());
+
+        long[] timestamps = new long[100];
+        float[] values = new float[100];
+        int n = store.readRaw(SensorChannel.TEMPERATURE, T0, T0 + 100000, timestamps, values);
+
+        // Two segments of ten: the full one before the newest and the five readings since
+        assertEquals(15, n);
+        assertEquals(20f, values[0], 0);
+        assertEquals(2, new File(dir, "temperature").listFiles(new java.io.FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(".seg");
+            }
+        }).length);
+        store.close();
+        assertFalse(store.append(SensorChannel.TEMPERATURE, T0 + 100000, 0));
+    }
+
+    @Test
+    public void summaryMatchesRawAcrossBucketEdges() throws IOException {
+        SensorStore store = new SensorStore(dir, 4096, 100);
+        long step = 700;
+        for (long t = T0; t < T0 + 3 * SensorStore.HOUR_MS; t += step) {
+            store.append(SensorChannel.PRESSURE, t, valueAt(t));
+        }
+        SensorSummary summary = new SensorSummary();
+        long[][] ranges = {
+                {T0, T0 + 3 * SensorStore.HOUR_MS},
+                {T0 + 12345, T0 + 2 * SensorStore.HOUR_MS + 54321},
+                {T0 + 61000, T0 + 119000},
+                {T0 + 10, T0 + 20},
+                {T0 + SensorStore.HOUR_MS - 5000, T0 + SensorStore.HOUR_MS + 65000},
+        };
+        for (long[] range : ranges) {
+            SensorSummary expected = bruteForce(range[0], range[1], step);
+            store.summarize(SensorChannel.PRESSURE, range[0], range[1], summary);
+            assertEquals(expected.getCount(), summary.getCount());
+            assertEquals(expected.getMin(), summary.getMin(), 0);
+            assertEquals(expected.getMax(), summary.getMax(), 0);
+            assertEquals(expected.getMean(), summary.getMean(), 0.001);
+        }
+        store.close();
+    }
+
+    @Test
+    public void multiDaySummaryUsesHourRollupsWithoutLosingReadings() throws IOException {
+        SensorStore store = new SensorStore(dir, 4096, 100);
+        long step = 10000;
+        long end = T0 + 2 * 24 * SensorStore.HOUR_MS;
+        SensorSummary expected = new SensorSummary();
+        long from = T0 + 12345;
+        long to = end - 54321;
+        for (long t = T0; t < end; t += step) {
+            float value = (float) (1000 + 10 * Math.sin(t / 3600000.0));
+            store.append(SensorChannel.PRESSURE, t, value);
+            if (t >= from && t < to) {
+                expected.add(value);
+            }
+        }
+
+        SensorSummary summary = store.summarize(SensorChannel.PRESSURE, from, to, new SensorSummary());
+
+        assertEquals((to - from) / step, summary.getCount(), 1);
+        assertEquals(expected.getCount(), summary.getCount());
+        assertEquals(expected.getMin(), summary.getMin(), 0);
+        assertEquals(expected.getMax(), summary.getMax(), 0);
+        assertEquals(expected.getMean(), summary.getMean(), 0.001);
+        store.close();
+    }
+
+    @Test
+    public void rollupsPerMinuteAndHour() throws IOException {
+        SensorStore store = new SensorStore(dir, 4096, 10);
+        for (int i = 0; i < 120; i++) {
+            store.append(SensorChannel.TEMPERATURE, T0 + i * 1000L, i);
+        }
+        long[] starts = new long[10];
+        float[] mins = new float[10];
+        float[] maxs = new float[10];
+        float[] means = new float[10];
+
+        assertEquals(2, store.readRollups(SensorChannel.TEMPERATURE, SensorStore.Resolution.MINUTE,
+                T0, T0 + SensorStore.HOUR_MS, starts, mins, maxs, means));
+        assertEquals(T0 + SensorStore.MINUTE_MS, starts[1]);
+        assertEquals(60f, mins[1], 0);
+        assertEquals(119f, maxs[1], 0);
+        assertEquals(89.5f, means[1], 0.001f);
+
+        assertEquals(1, store.readRollups(SensorChannel.TEMPERATURE, SensorStore.Resolution.HOUR,
+                T0, T0 + SensorStore.HOUR_MS, starts, mins, maxs, means));
+        assertEquals(59.5f, means[0], 0.001f);
+        store.close();
+    }
+
+    @Test
+    public void reopenContinuesWhereItLeftOff() throws IOException {
+        SensorStore store = new SensorStore(dir, 50, 10);
+        for (int i = 0; i < 75; i++) {
+            store.append(SensorChannel.PRESSURE, T0 + i * 1000L, i);
+        }
+        store.close();
+
+        store = new SensorStore(dir, 50, 10);
+        assertFalse(store.append(SensorChannel.PRESSURE, T0, 0));
+        for (int i = 75; i < 120; i++) {
+            assertTrue(store.append(SensorChannel.PRESSURE, T0 + i * 1000L, i));
+        }
+        long[] timestamps = new long[200];
+        float[] values = new float[200];
+        assertEquals(120, store.readRaw(SensorChannel.PRESSURE, T0, T0 + 200000, timestamps, values));
+        for (int i = 0; i < 120; i++) {
+            assertEquals((float) i, values[i], 0);
+        }
+        SensorSummary summary = store.summarize(SensorChannel.PRESSURE, T0, T0 + SensorStore.HOUR_MS,
+                new SensorSummary());
+        assertEquals(120, summary.getCount());
+        assertEquals(59.5f, summary.getMean(), 0.001f);
+        store.close();
+    }
+}
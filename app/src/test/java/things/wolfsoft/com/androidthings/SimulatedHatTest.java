@@ -0,0 +1,163 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimulatedHatTest {
+
+    @Test
+    public void recordsEveryOutputInOrder() throws IOException {
+        SimulatedHat hat = new SimulatedHat(SimulatedHat.INSTANT);
+        GpioOutput[] leds = hat.openLeds();
+        SegmentOutput display = hat.openDisplay();
+        LedStripSink strip = hat.openLedStrip(3);
+        ToneOutput speaker = hat.openSpeaker();
+
+        leds[RainbowHat.LED_BLUE].setValue(true);
+        display.writeColumn(2, (short) 0x00F7);
+        strip.write(new int[]{1, 2, 3});
+        speaker.play(440.5);
+        speaker.stop();
+
+        assertEquals(5, hat.getLogSize());
+        assertEquals(SimulatedHat.Device.LED, hat.getLogDevice(0));
+        assertEquals(RainbowHat.LED_BLUE, hat.getLogIndex(0));
+        assertEquals(1, hat.getLogValue(0));
+        assertEquals(SimulatedHat.Device.DISPLAY, hat.getLogDevice(1));
+        assertEquals(0x00F7, hat.getLogValue(1));
+        assertEquals(3, hat.getLogIndex(2));
+        assertEquals(440500, hat.getLogValue(3));
+        assertEquals(0, hat.getLogValue(4));
+        assertTrue(hat.getLogTime(4) >= hat.getLogTime(0));
+
+        assertTrue(hat.isLedOn(RainbowHat.LED_BLUE));
+        assertFalse(hat.isLedOn(RainbowHat.LED_RED));
+        assertEquals(0x00F7, hat.getColumn(2));
+        assertArrayEquals(new int[]{1, 2, 3}, hat.getStrip());
+        assertEquals(0.0, hat.getFrequency(), 0);
+        assertEquals(2, hat.getCount(SimulatedHat.Device.SPEAKER));
+    }
+
+    @Test
+    public void logKeepsNewest() throws IOException {
+        SimulatedHat hat = new SimulatedHat(new SimulatedHat.Config(0, 0, 0, 0, 4));
+        SegmentOutput display = hat.openDisplay();
+        for (int i = 0; i < 10; i++) {
+            display.writeColumn(i % 4, (short) i);
+        }
+        assertEquals(4, hat.getLogSize());
+        assertEquals(6, hat.getLogValue(0));
+        assertEquals(9, hat.getLogValue(3));
+        assertEquals(10, hat.getCount(SimulatedHat.Device.DISPLAY));
+    }
+
+    @Test
+    public void busTimeIsHeldPerCall() throws IOException {
+        SimulatedHat hat = new SimulatedHat(new SimulatedHat.Config(0, 2000000, 100000, 0, 16));
+        SegmentOutput display = hat.openDisplay();
+        LedStripSink strip = hat.openLedStrip(7);
+
+        long start = System.nanoTime();
+        display.writeColumn(0, (short) 1);
+        display.writeColumn(1, (short) 1);
+        long i2c = System.nanoTime() - start;
+        start = System.nanoTime();
+        // 7 LEDs: 36 bytes on the wire
+        strip.write(new int[7]);
+        long spi = System.nanoTime() - start;
+
+        assertTrue("I2C took " + i2c, i2c >= 4000000);
+        assertTrue("SPI took " + spi, spi >= 3600000);
+    }
+
+    @Test
+    public void buttonsAndSensorsAreDrivenByTheCaller() throws IOException {
+        SimulatedHat hat = new SimulatedHat(SimulatedHat.INSTANT);
+        final List<String> edges = new ArrayList<>();
+        hat.openButtons(new RainbowHat.ButtonListener() {
+            @Override
+            public void onButton(int button, boolean pressed, long timeNanos) {
+                edges.add(button + (pressed ? " down " : " up ") + timeNanos);
+            }
+        });
+        hat.button(RainbowHat.BUTTON_C, true, 5);
+        hat.button(RainbowHat.BUTTON_C, false, 9);
+        assertEquals("2 down 5", edges.get(0));
+        assertEquals("2 up 9", edges.get(1));
+
+        float[] first = readings(hat, 42);
+        float[] second = readings(new SimulatedHat(SimulatedHat.INSTANT), 42);
+        assertArrayEquals(new int[]{Float.floatToIntBits(first[0]), Float.floatToIntBits(first[1])},
+                new int[]{Float.floatToIntBits(second[0]), Float.floatToIntBits(second[1])});
+        assertEquals(1013f, first[1], 3f);
+        assertEquals(21f, first[0], 2f);
+    }
+
+    private static float[] readings(SimulatedHat hat, long seed) throws IOException {
+        SamplingService service = new SamplingService(hat.openSensors(), SamplingService.DEFAULT_CONFIG);
+        service.start();
+        long end = hat.emitSensorReadings(100, 0, 250000000L, 21f, 1013f, 0.1f, seed);
+        assertEquals(25000000000L, end);
+        assertEquals(200, service.getSamples());
+        return new float[]{service.getLatest(SensorChannel.TEMPERATURE), service.getLatest(SensorChannel.PRESSURE)};
+    }
+
+    @Test
+    public void closedHatRefusesOutput() throws IOException {
+        SimulatedHat hat = new SimulatedHat(SimulatedHat.INSTANT);
+        GpioOutput[] leds = hat.openLeds();
+        hat.close();
+        try {
+            leds[0].setValue(true);
+            fail();
+        } catch (IOException expected) {
+            assertEquals(0, hat.getCount(SimulatedHat.Device.LED));
+        }
+    }
+
+    @Test
+    public void buttonPressLightsLedThroughButtonActions() throws Exception {
+        SimulatedHat hat = new SimulatedHat(SimulatedHat.RASPBERRY_PI);
+        final CountDownLatch lit = new CountDownLatch(1);
+        hat.setIoListener(new SimulatedHat.IoListener() {
+            @Override
+            public void onIo(SimulatedHat.Device device, int index, long value, long timeNanos) {
+                if (device == SimulatedHat.Device.LED && value == 1) {
+                    lit.countDown();
+                }
+            }
+        });
+        PeripheralExecutor executor = new PeripheralExecutor();
+        IndicatorLeds leds = new IndicatorLeds(hat.openLeds());
+        ButtonActions actions = new ButtonActions(hat, executor, new DisplayModeMachine(DisplayMode.DOOR),
+                new LedPalette(LedPalette.hsvRainbow(7)), 7, null);
+        actions.setIndicatorLeds(leds);
+        actions.start();
+        actions.openButtons();
+        try {
+            long pressed = System.nanoTime();
+            hat.button(RainbowHat.BUTTON_B, true, pressed);
+            assertTrue(lit.await(1, TimeUnit.SECONDS));
+            // At least the one GPIO write on the Pi bus
+            assertTrue(System.nanoTime() - pressed >= SimulatedHat.RASPBERRY_PI.gpioNanos);
+            assertTrue(hat.isLedOn(RainbowHat.LED_GREEN));
+            assertFalse(hat.isLedOn(RainbowHat.LED_RED));
+        } finally {
+            actions.shutdown(200);
+            executor.shutdown(200);
+            leds.shutdown();
+            hat.close();
+        }
+    }
+}
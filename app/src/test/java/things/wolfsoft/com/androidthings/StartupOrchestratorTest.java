@@ -0,0 +1,292 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StartupOrchestratorTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Stands in for a driver whose open call takes a while.
+     */
+    private static class FakeDriver implements StartupOrchestrator.Task {
+        private final long delayMs;
+        private final List<String> opened;
+        private final String name;
+
+        FakeDriver(String name, long delayMs, List<String> opened) {
+            this.name = name;
+            this.delayMs = delayMs;
+            this.opened = opened;
+        }
+
+        @Override
+        public void run() throws IOException {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            opened.add(name);
+        }
+    }
+
+    /**
+     * Counts down when it starts, then opens like a {@link FakeDriver}.
+     */
+    private static class StartSignalingDriver extends FakeDriver {
+        private final CountDownLatch started;
+
+        StartSignalingDriver(String name, long delayMs, List<String> opened, CountDownLatch started) {
+            super(name, delayMs, opened);
+            this.started = started;
+        }
+
+        @Override
+        public void run() throws IOException {
+            started.countDown();
+            super.run();
+        }
+    }
+
+    private static class RecordingListener implements StartupOrchestrator.Listener {
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile long inputReady = -1;
+        volatile List<StartupOrchestrator.Entry> timeline;
+
+        @Override
+        public void onInputReady(long elapsedNanos) {
+            inputReady = elapsedNanos;
+        }
+
+        @Override
+        public void onFinished(List<StartupOrchestrator.Entry> timeline) {
+            this.timeline = timeline;
+            finished.countDown();
+        }
+    }
+
+    @Test
+    public void outputBusesOpenInParallelWithInput() throws Exception {
+        final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch outputsStarted = new CountDownLatch(3);
+        final boolean[] overlapped = new boolean[1];
+        RecordingListener listener = new RecordingListener();
+        StartupOrchestrator startup = new StartupOrchestrator(listener, DIRECT);
+        startup.add(StartupOrchestrator.Stage.INPUT, "GPIO", "buttons", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                // Only returns early if every output bus started while input was still opening
+                try {
+                    overlapped[0] = outputsStarted.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                opened.add("buttons");
+            }
+        }).add(StartupOrchestrator.Stage.OUTPUT, "GPIO", "leds",
+                new StartSignalingDriver("leds", 20, opened, outputsStarted))
+                .add(StartupOrchestrator.Stage.OUTPUT, "SPI", "ledstrip",
+                        new StartSignalingDriver("ledstrip", 20, opened, outputsStarted))
+                .add(StartupOrchestrator.Stage.OUTPUT, "I2C", "display",
+                        new StartSignalingDriver("display", 20, opened, outputsStarted));
+
+        startup.start();
+        assertTrue(startup.awaitFinished(2, TimeUnit.SECONDS));
+
+        assertTrue(overlapped[0]);
+        assertEquals(4, opened.size());
+        assertTrue(listener.finished.await(1, TimeUnit.SECONDS));
+        assertEquals(4, listener.timeline.size());
+        // Outputs were opened on workers while input was still opening
+        StartupOrchestrator.Entry buttons = find(listener.timeline, "buttons");
+        for (StartupOrchestrator.Entry entry : listener.timeline) {
+            if (entry != buttons) {
+                assertTrue(entry.startNanos < buttons.endNanos);
+                assertNotEquals(buttons.thread, entry.thread);
+            }
+        }
+    }
+
+    @Test
+    public void devicesOnOneBusOpenInOrder() throws Exception {
+        List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        StartupOrchestrator startup = new StartupOrchestrator(new RecordingListener(), DIRECT);
+        startup.add(StartupOrchestrator.Stage.OUTPUT, "I2C", "display", new FakeDriver("display", 60, opened))
+                .add(StartupOrchestrator.Stage.OUTPUT, "I2C", "sensor", new FakeDriver("sensor", 10, opened));
+
+        startup.start();
+        assertTrue(startup.awaitFinished(2, TimeUnit.SECONDS));
+
+        assertEquals("display", opened.get(0));
+        assertEquals("sensor", opened.get(1));
+        List<StartupOrchestrator.Entry> timeline = startup.getTimeline();
+        assertTrue(timeline.get(1).startNanos >= timeline.get(0).endNanos);
+    }
+
+    @Test
+    public void deferredTasksWaitForInputAndNotForSlowOutputs() throws Exception {
+        List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        RecordingListener listener = new RecordingListener();
+        StartupOrchestrator startup = new StartupOrchestrator(listener, DIRECT);
+        startup.add(StartupOrchestrator.Stage.DEFERRED, "TTS", "tts", new FakeDriver("tts", 20, opened))
+                .add(StartupOrchestrator.Stage.OUTPUT, "SPI", "ledstrip", new FakeDriver("ledstrip", 300, opened))
+                .add(StartupOrchestrator.Stage.INPUT, "GPIO", "buttons", new FakeDriver("buttons", 50, opened));
+
+        startup.start();
+        // Input runs on the caller, ready as soon as start() returns
+        assertTrue(startup.getInputReadyNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(startup.getInputReadyNanos(), listener.inputReady);
+        assertTrue(startup.awaitFinished(2, TimeUnit.SECONDS));
+
+        StartupOrchestrator.Entry tts = find(startup.getTimeline(), "tts");
+        StartupOrchestrator.Entry strip = find(startup.getTimeline(), "ledstrip");
+        assertTrue(tts.startNanos >= startup.getInputReadyNanos());
+        assertTrue(tts.endNanos < strip.endNanos);
+        assertTrue(startup.getTotalNanos() >= strip.endNanos);
+        assertEquals(StartupOrchestrator.Stage.DEFERRED, tts.stage);
+    }
+
+    @Test
+    public void deferredTasksWaitForOutputsOnTheirBus() throws Exception {
+        final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch ttsOpened = new CountDownLatch(1);
+        StartupOrchestrator startup = new StartupOrchestrator(new RecordingListener(), DIRECT);
+        startup.add(StartupOrchestrator.Stage.OUTPUT, "I2C", "display", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                // Still opening when deferred tasks on other buses are released
+                try {
+                    ttsOpened.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                opened.add("display");
+            }
+        }).add(StartupOrchestrator.Stage.DEFERRED, "I2C", "sensors", new FakeDriver("sensors", 0, opened))
+                .add(StartupOrchestrator.Stage.DEFERRED, "TTS", "tts", new StartupOrchestrator.Task() {
+                    @Override
+                    public void run() {
+                        opened.add("tts");
+                        ttsOpened.countDown();
+                    }
+                });
+
+        startup.start();
+        assertTrue(startup.awaitFinished(2, TimeUnit.SECONDS));
+
+        assertEquals("[tts, display, sensors]", opened.toString());
+        StartupOrchestrator.Entry display = find(startup.getTimeline(), "display");
+        StartupOrchestrator.Entry sensors = find(startup.getTimeline(), "sensors");
+        assertTrue(sensors.startNanos >= display.endNanos);
+    }
+
+    @Test
+    public void failuresAreRecordedAndDoNotStopTheBus() throws Exception {
+        List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        StartupOrchestrator startup = new StartupOrchestrator(new RecordingListener(), DIRECT);
+        startup.add(StartupOrchestrator.Stage.OUTPUT, "PWM", "speaker", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                throw new IOException("no PWM");
+            }
+        }).add(StartupOrchestrator.Stage.OUTPUT, "PWM", "buzzer", new FakeDriver("buzzer", 0, opened));
+
+        startup.start();
+        assertTrue(startup.awaitFinished(2, TimeUnit.SECONDS));
+
+        assertNotNull(find(startup.getTimeline(), "speaker").error);
+        assertNull(find(startup.getTimeline(), "buzzer").error);
+        assertEquals(1, opened.size());
+    }
+
+    @Test
+    public void inputOnlyStartupFinishesImmediately() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        StartupOrchestrator startup = new StartupOrchestrator(listener, DIRECT);
+        startup.add(StartupOrchestrator.Stage.INPUT, "GPIO", "buttons",
+                new FakeDriver("buttons", 0, new ArrayList<String>()));
+
+        startup.start();
+
+        assertTrue(startup.awaitFinished(0, TimeUnit.MILLISECONDS));
+        assertEquals(1, listener.timeline.size());
+    }
+
+    @Test
+    public void tasksRunningAtShutdownCannotPublish() throws Exception {
+        final CountDownLatch opening = new CountDownLatch(1);
+        final CountDownLatch shutDown = new CountDownLatch(1);
+        final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> closed = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        final StartupOrchestrator startup = new StartupOrchestrator(new RecordingListener(), DIRECT);
+        startup.add(StartupOrchestrator.Stage.DEFERRED, "PWM", "speaker", new StartupOrchestrator.Task() {
+            @Override
+            public void run() throws IOException {
+                opening.countDown();
+                try {
+                    shutDown.await();
+                } catch (InterruptedException e) {
+                    // shutdown() interrupts, the driver opened anyway
+                }
+                if (!startup.publish(new Runnable() {
+                    @Override
+                    public void run() {
+                        published.add("speaker");
+                    }
+                })) {
+                    closed.add("speaker");
+                }
+            }
+        }).add(StartupOrchestrator.Stage.DEFERRED, "PWM", "buzzer", new FakeDriver("buzzer", 0, opened));
+
+        startup.start();
+        assertTrue(opening.await(1, TimeUnit.SECONDS));
+        startup.shutdown();
+        shutDown.countDown();
+
+        assertTrue(startup.awaitFinished(1, TimeUnit.SECONDS));
+        assertTrue(startup.isCancelled());
+        assertEquals("[]", published.toString());
+        assertEquals("[speaker]", closed.toString());
+        // The next task on the bus never started
+        assertEquals(0, opened.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tasksCannotBeAddedOnceStarted() {
+        StartupOrchestrator startup = new StartupOrchestrator(new RecordingListener(), DIRECT);
+        startup.start();
+        startup.add(StartupOrchestrator.Stage.INPUT, "GPIO", "late", new FakeDriver("late", 0,
+                new ArrayList<String>()));
+    }
+
+    private static StartupOrchestrator.Entry find(List<StartupOrchestrator.Entry> timeline, String name) {
+        for (StartupOrchestrator.Entry entry : timeline) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        throw new AssertionError("no " + name + " in " + timeline);
+    }
+}
@@ -0,0 +1,77 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TimestampFormatterTest {
+
+    private static String reference(long millis) {
+        return new SimpleDateFormat(TimestampFormatter.DISPLAY_PATTERN, Locale.US).format(new Date(millis));
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() {
+        TimestampFormatter formatter = new TimestampFormatter(TimestampFormatter.DISPLAY_PATTERN, Locale.US);
+        long[] samples = {0L, 999L, 1000L, 1494460800123L, -1L, -1001L, 4102444799999L};
+        for (long millis : samples) {
+            assertEquals(reference(millis), formatter.format(millis));
+        }
+    }
+
+    @Test
+    public void sameSecondReusesString() {
+        TimestampFormatter formatter = new TimestampFormatter(TimestampFormatter.DISPLAY_PATTERN, Locale.US);
+        String first = formatter.format(1494460800000L);
+
+        assertSame(first, formatter.format(1494460800999L));
+        assertNotSame(first, formatter.format(1494460801000L));
+        assertEquals(reference(1494460800500L), formatter.format(1494460800500L));
+    }
+
+    @Test
+    public void threadsDoNotShareState() throws Exception {
+        final TimestampFormatter formatter = new TimestampFormatter(TimestampFormatter.DISPLAY_PATTERN, Locale.US);
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = 1494460800000L + t * 86400000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        long millis = base + i * 500L;
+                        if (!reference(millis).equals(formatter.format(millis))) {
+                            error.set("Wrong text for " + millis);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error.get() != null) {
+            fail(error.get());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSubSecondPatterns() {
+        new TimestampFormatter("HH:mm:ss.SSS", Locale.US);
+    }
+
+    @Test
+    public void utilitiesFormatsGivenTime() {
+        assertEquals(reference(1494460800000L), Utilities.getDate(1494460800000L));
+    }
+}
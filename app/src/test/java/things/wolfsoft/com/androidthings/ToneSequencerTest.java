@@ -0,0 +1,268 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ToneSequencerTest {
+
+    /**
+     * Runs scheduled steps only when the test moves its clock forward.
+     */
+    private static class ManualScheduler implements ToneSequencer.Scheduler {
+        private final List<Long> times = new ArrayList<>();
+        private final List<Runnable> steps = new ArrayList<>();
+        private long now;
+        private boolean shutdown;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable step, long delayNanos) {
+            if (shutdown) {
+                throw new RejectedExecutionException();
+            }
+            long at = now + Math.max(0, delayNanos);
+            int i = 0;
+            while (i < times.size() && times.get(i) <= at) {
+                i++;
+            }
+            times.add(i, at);
+            steps.add(i, step);
+        }
+
+        @Override
+        public void shutdown(long timeoutMs) {
+            shutdown = true;
+        }
+
+        /**
+         * Runs everything due within {@code ms}, each step at its own time.
+         */
+        void advance(long ms) {
+            long until = now + TimeUnit.MILLISECONDS.toNanos(ms);
+            while (!times.isEmpty() && times.get(0) <= until) {
+                // A step that is late runs now, not at its scheduled time
+                now = Math.max(now, times.remove(0));
+                steps.remove(0).run();
+            }
+            now = until;
+        }
+
+        long millis() {
+            return TimeUnit.NANOSECONDS.toMillis(now);
+        }
+    }
+
+    /**
+     * Records every call with the scheduler time it was made at.
+     */
+    private static class FakeSpeaker implements ToneOutput {
+        final List<Double> frequencies = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        final ManualScheduler clock;
+        volatile boolean fail;
+
+        FakeSpeaker(ManualScheduler clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public synchronized void play(double frequency) throws IOException {
+            if (fail) {
+                throw new IOException("pwm gone");
+            }
+            frequencies.add(frequency);
+            times.add(clock == null ? 0 : clock.millis());
+        }
+
+        @Override
+        public synchronized void stop() throws IOException {
+            frequencies.add(0.0);
+            times.add(clock == null ? 0 : clock.millis());
+        }
+
+        synchronized double last() {
+            return frequencies.isEmpty() ? -1 : frequencies.get(frequencies.size() - 1);
+        }
+    }
+
+    private final ManualScheduler timer = new ManualScheduler();
+    private final FakeSpeaker speaker = new FakeSpeaker(timer);
+    private final ToneSequencer sequencer = new ToneSequencer(speaker, ToneSequencer.DEFAULT_QUEUE_CAPACITY, timer);
+
+    @Test
+    public void sweepIsQuantizedAndFlattened() {
+        ToneSequence sweep = new ToneSequence.Builder(10).sweep(100, 1760, 50).build();
+
+        assertEquals(10, sweep.size());
+        assertEquals(50, sweep.getDurationMs());
+        assertEquals(100f, sweep.getFrequency(0), 0);
+        assertEquals(1590f, sweep.getFrequency(9), 0);
+        assertEquals(45, sweep.getOffsetMs(9));
+    }
+
+    @Test
+    public void slowSweepMergesStepsThatRoundTheSame() {
+        // 20Hz over 100ms is 20 steps of 1Hz, only the 10Hz quanta remain
+        ToneSequence sweep = new ToneSequence.Builder(10).sweep(440, 460, 100).build();
+
+        assertEquals(3, sweep.size());
+        assertEquals(440f, sweep.getFrequency(0), 0);
+        assertEquals(450f, sweep.getFrequency(1), 0);
+        assertEquals(460f, sweep.getFrequency(2), 0);
+        assertEquals(25, sweep.getOffsetMs(1));
+        assertEquals(100, sweep.getDurationMs());
+    }
+
+    @Test
+    public void repeatCopiesFromMark() {
+        ToneSequence sequence = new ToneSequence.Builder()
+                .rest(300)
+                .mark()
+                .note(440, 20)
+                .note(880, 30)
+                .repeat(2)
+                .build();
+
+        assertEquals(7, sequence.size());
+        assertEquals(450, sequence.getDurationMs());
+        assertEquals(0f, sequence.getFrequency(0), 0);
+        assertEquals(440f, sequence.getFrequency(3), 0);
+        assertEquals(350, sequence.getOffsetMs(3));
+        assertEquals(880f, sequence.getFrequency(6), 0);
+        assertEquals(420, sequence.getOffsetMs(6));
+    }
+
+    @Test
+    public void playsStepsOnScheduleAndStopsAtTheEnd() {
+        sequencer.play(new ToneSequence.Builder().note(440, 40).note(880, 40).build());
+        timer.advance(200);
+
+        assertEquals(3, speaker.frequencies.size());
+        assertEquals(440.0, speaker.frequencies.get(0), 0);
+        assertEquals(880.0, speaker.frequencies.get(1), 0);
+        assertEquals(0.0, speaker.frequencies.get(2), 0);
+        assertEquals(Long.valueOf(0), speaker.times.get(0));
+        assertEquals(Long.valueOf(40), speaker.times.get(1));
+        assertEquals(Long.valueOf(80), speaker.times.get(2));
+        assertFalse(sequencer.isPlaying());
+    }
+
+    @Test
+    public void lateFirstStepDoesNotShortenTheFirstNote() {
+        sequencer.play(new ToneSequence.Builder().note(440, 40).note(880, 40).build());
+        // The timer gets to the first step late, e.g. behind a slow PWM write
+        timer.now += TimeUnit.MILLISECONDS.toNanos(15);
+        timer.advance(200);
+
+        assertEquals(Long.valueOf(15), speaker.times.get(0));
+        assertEquals(Long.valueOf(55), speaker.times.get(1));
+        assertEquals(Long.valueOf(95), speaker.times.get(2));
+    }
+
+    @Test
+    public void repeatedFrequencyIsNotWrittenAgain() {
+        ToneSequence note = new ToneSequence.Builder().note(440, 20).build();
+
+        sequencer.enqueue(note);
+        sequencer.enqueue(note);
+        timer.advance(150);
+
+        // One play for both notes and one stop at the end
+        assertEquals(2, sequencer.getPwmWrites());
+        assertEquals(1, sequencer.getSkippedWrites());
+        assertEquals(2, speaker.frequencies.size());
+        assertEquals(Long.valueOf(40), speaker.times.get(1));
+    }
+
+    @Test
+    public void playPreemptsAndClearsQueue() {
+        sequencer.play(new ToneSequence.Builder().note(300, 1000).build());
+        sequencer.enqueue(new ToneSequence.Builder().note(500, 1000).build());
+        timer.advance(30);
+        sequencer.play(new ToneSequence.Builder().note(700, 30).build());
+        timer.advance(150);
+
+        assertEquals(1, sequencer.getPreempted());
+        assertEquals(1, sequencer.getDropped());
+        assertFalse(speaker.frequencies.contains(500.0));
+        assertEquals(0.0, speaker.last(), 0);
+        assertEquals(Long.valueOf(60), speaker.times.get(speaker.times.size() - 1));
+        assertFalse(sequencer.isPlaying());
+    }
+
+    @Test
+    public void fullQueueDropsNewest() {
+        ToneSequencer sequencer = new ToneSequencer(speaker, 1, timer);
+        ToneSequence note = new ToneSequence.Builder().note(440, 1000).build();
+
+        assertTrue(sequencer.enqueue(note));
+        assertTrue(sequencer.enqueue(note));
+        assertFalse(sequencer.enqueue(note));
+        assertEquals(1, sequencer.getDropped());
+    }
+
+    @Test
+    public void ioErrorAbortsSequenceWithoutThrowing() {
+        speaker.fail = true;
+
+        sequencer.play(new ToneSequence.Builder().note(440, 500).build());
+        timer.advance(50);
+
+        assertEquals(1, sequencer.getFailures());
+        assertFalse(sequencer.isPlaying());
+
+        speaker.fail = false;
+        sequencer.play(new ToneSequence.Builder().note(880, 10).build());
+        timer.advance(60);
+        assertEquals(880.0, speaker.frequencies.get(0), 0);
+    }
+
+    @Test
+    public void stopSilencesImmediately() {
+        sequencer.play(new ToneSequence.Builder().note(440, 1000).build());
+        timer.advance(20);
+        sequencer.stop();
+        timer.advance(0);
+
+        assertEquals(0.0, speaker.last(), 0);
+        assertEquals(2, speaker.frequencies.size());
+        assertEquals(Long.valueOf(20), speaker.times.get(1));
+    }
+
+    @Test
+    public void shutdownRejectsFurtherSequences() {
+        sequencer.shutdown(0);
+        timer.advance(0);
+        sequencer.play(new ToneSequence.Builder().note(440, 10).build());
+
+        assertFalse(sequencer.isPlaying());
+    }
+
+    @Test
+    public void timerThreadPlaysToTheEnd() throws Exception {
+        FakeSpeaker speaker = new FakeSpeaker(null);
+        ToneSequencer sequencer = new ToneSequencer(speaker);
+
+        sequencer.play(new ToneSequence.Builder().note(440, 5).note(880, 5).build());
+        for (int i = 0; i < 100 && sequencer.isPlaying(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(sequencer.isPlaying());
+        assertEquals(0.0, speaker.last(), 0);
+        sequencer.shutdown(100);
+    }
+}
@@ -0,0 +1,113 @@
+package things.wolfsoft.com.androidthings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link VisionClient} against a local HTTP stand-in for the Vision endpoint.
+ */
+public class VisionClientTest {
+
+    private HttpServer server;
+    private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/images:annotate", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                bodies.add(read(exchange.getRequestBody()));
+                byte[] response = "{\"responses\":[{}]}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/images:annotate?key=test";
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[512];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            out.write(chunk, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void postsPayloadAndReturnsBody() throws Exception {
+        VisionClient client = new VisionClient(endpoint(), 1000, 1000);
+
+        VisionClient.Response response = client.annotate("{\"requests\":[]}");
+
+        assertEquals(200, response.status);
+        assertEquals("{\"responses\":[{}]}", response.body);
+        assertEquals("{\"requests\":[]}", bodies.get(0));
+        assertTrue(response.timing.totalNanos > 0);
+        assertTrue(response.timing.ttfbNanos > 0);
+        assertFalse(response.timing.newTlsSession);
+    }
+
+    @Test
+    public void connectionIsKeptAlive() throws Exception {
+        VisionClient client = new VisionClient(endpoint(), 1000, 1000);
+
+        client.annotate("{}");
+        client.annotate("{}");
+        client.annotate("{}");
+
+        assertEquals(3, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+        assertEquals(clientPorts.get(0), clientPorts.get(2));
+    }
+
+    @Test
+    public void reusedConnectionSkipsLookup() throws Exception {
+        VisionClient client = new VisionClient(endpoint(), 1000, 1000);
+
+        VisionClient.Response first = client.annotate("{}");
+        VisionClient.Response second = client.annotate("{}");
+
+        assertTrue(first.timing.dnsNanos > 0);
+        assertEquals(0, second.timing.dnsNanos);
+    }
+
+    @Test(expected = IOException.class)
+    public void errorStatusIsReported() throws Exception {
+        VisionClient client = new VisionClient(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/missing", 1000, 1000);
+        client.annotate("{}");
+    }
+}
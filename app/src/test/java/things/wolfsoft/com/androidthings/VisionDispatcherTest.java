@@ -0,0 +1,186 @@
+package things.wolfsoft.com.androidthings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link VisionDispatcher} against a local mock of {@code images:annotate} that answers every
+ * image of a batch with a web entity named after its URI.
+ */
+public class VisionDispatcherTest {
+
+    private static final Pattern IMAGE_URI = Pattern.compile("\"imageUri\":\"([^\"]*)\"");
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private HttpServer server;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<Integer> imagesPerCall = Collections.synchronizedList(new ArrayList<Integer>());
+    private volatile long firstCallDelayMs;
+
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Long> deliveredPresses = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Long> deliveredTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int call = calls.incrementAndGet();
+                String body = read(exchange.getRequestBody());
+                if (call == 1 && firstCallDelayMs > 0) {
+                    try {
+                        Thread.sleep(firstCallDelayMs);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                StringBuilder response = new StringBuilder("{\"responses\":[");
+                Matcher matcher = IMAGE_URI.matcher(body);
+                int images = 0;
+                while (matcher.find()) {
+                    if (images++ > 0) {
+                        response.append(',');
+                    }
+                    response.append("{\"webDetection\":{\"webEntities\":[{\"score\":0.9,\"description\":\"")
+                            .append(matcher.group(1)).append("\"}]}}");
+                }
+                response.append("]}");
+                imagesPerCall.add(images);
+                byte[] bytes = response.toString().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[512];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            out.write(chunk, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private VisionDispatcher dispatcher(long windowMs, final CountDownLatch done) {
+        VisionClient client = new VisionClient(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/annotate", 2000, 2000);
+        VisionAnnotator annotator = new VisionAnnotator(client,
+                new VisionRequestBuilder(VisionRequestBuilder.WEB_DETECTION, 2),
+                new AnnotationCache(32, 1 << 20, 60000));
+        return new VisionDispatcher(annotator, windowMs, new VisionDispatcher.Listener() {
+            @Override
+            public void onResult(long press, long pressedAtNanos, String imageUri,
+                                 WebDetectionResult result) {
+                deliveredPresses.add(press);
+                deliveredTimes.add(pressedAtNanos);
+                delivered.add(result.getDescription(0));
+                done.countDown();
+            }
+
+            @Override
+            public void onError(long press, long pressedAtNanos, String imageUri, IOException e) {
+                fail("unexpected error " + e);
+            }
+        }, DIRECT);
+    }
+
+    @Test
+    public void burstIsBatchedAndDeduplicated() throws Exception {
+        CountDownLatch done = new CountDownLatch(5);
+        VisionDispatcher dispatcher = dispatcher(200, done);
+
+        dispatcher.submit("http://img/a", 100);
+        dispatcher.submit("http://img/b", 200);
+        dispatcher.submit("http://img/a", 300);
+        dispatcher.submit("http://img/c", 400);
+        dispatcher.submit("http://img/b", 500);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(Integer.valueOf(3), imagesPerCall.get(0));
+        assertEquals("[http://img/a, http://img/b, http://img/a, http://img/c, http://img/b]",
+                delivered.toString());
+        assertEquals("[1, 2, 3, 4, 5]", deliveredPresses.toString());
+        // Each result carries the time of the press that asked for it
+        assertEquals("[100, 200, 300, 400, 500]", deliveredTimes.toString());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void supersededBatchIsDropped() throws Exception {
+        firstCallDelayMs = 500;
+        CountDownLatch done = new CountDownLatch(1);
+        VisionDispatcher dispatcher = dispatcher(1000, done);
+
+        dispatcher.submit("http://img/old", 100);
+        dispatcher.flush();
+        Thread.sleep(100);
+        dispatcher.submit("http://img/new", 200);
+        dispatcher.flush();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // Give the slow first call time to finish; its result must not be applied
+        Thread.sleep(700);
+        assertEquals("[http://img/new]", delivered.toString());
+        assertEquals("[2]", deliveredPresses.toString());
+        assertEquals(1, dispatcher.getSupersededCount());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void cachedImagesSkipTheNetwork() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        VisionDispatcher dispatcher = dispatcher(10, first);
+        dispatcher.submit("http://img/a", 100);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        dispatcher.submit("http://img/a", 200);
+        dispatcher.flush();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, delivered.size());
+        assertEquals(1, calls.get());
+        dispatcher.shutdown();
+    }
+}
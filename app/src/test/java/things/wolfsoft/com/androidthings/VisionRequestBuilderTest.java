@@ -0,0 +1,55 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Byte-exact output of {@link VisionRequestBuilder}.
+ */
+public class VisionRequestBuilderTest {
+
+    private final VisionRequestBuilder builder =
+            new VisionRequestBuilder(VisionRequestBuilder.WEB_DETECTION, 2);
+
+    @Test
+    public void singleImage() {
+        assertEquals("{\"requests\":[{\"image\":{\"source\":{\"imageUri\":\"http://a/b.jpg\"}},"
+                        + "\"features\":[{\"type\":\"WEB_DETECTION\",\"maxResults\":2}]}]}",
+                builder.build("http://a/b.jpg"));
+    }
+
+    @Test
+    public void batchOfImages() {
+        assertEquals("{\"requests\":["
+                        + "{\"image\":{\"source\":{\"imageUri\":\"http://a\"}},"
+                        + "\"features\":[{\"type\":\"WEB_DETECTION\",\"maxResults\":2}]},"
+                        + "{\"image\":{\"source\":{\"imageUri\":\"http://b\"}},"
+                        + "\"features\":[{\"type\":\"WEB_DETECTION\",\"maxResults\":2}]}]}",
+                builder.build("http://a", "http://b"));
+    }
+
+    @Test
+    public void escapesUri() {
+        String json = new VisionRequestBuilder("LABEL_DETECTION", 5).build("http://a/\"q\"\\\t");
+        assertTrue(json, json.contains("\"imageUri\":\"http://a/\\\"q\\\"\\\\\\u0009\""));
+        assertTrue(json, json.contains("\"type\":\"LABEL_DETECTION\",\"maxResults\":5"));
+    }
+
+    @Test
+    public void lengthMatchesStreamedBytes() throws Exception {
+        String uri = Constants.IMAGES[2];
+        VisionClient.Payload payload = builder.payload(uri, "http://\u00fc.example/\u00df");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        payload.writeTo(out);
+
+        assertEquals(out.size(), payload.length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresAnImage() {
+        builder.payload();
+    }
+}
@@ -0,0 +1,114 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Scanner;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link VisionResponseParser} on a recorded webDetection response and on edge cases.
+ */
+public class VisionResponseParserTest {
+
+    @Test
+    public void parsesRecordedResponse() throws Exception {
+        InputStream in = getClass().getClassLoader().getResourceAsStream("vision_web_detection.json");
+        WebDetectionResult result = VisionResponseParser.parse(in);
+
+        assertEquals(3, result.getEntityCount());
+        assertEquals("Anger", result.getDescription(0));
+        assertEquals(0.8341f, result.getScore(0), 1e-6);
+        assertEquals("Threat", result.getDescription(2));
+    }
+
+    @Test
+    public void skipsBulkySectionsAroundTheEntities() throws Exception {
+        InputStream in = getClass().getClassLoader().getResourceAsStream("vision_web_detection.json");
+        String recorded = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        // The matching pages Vision lists for popular images
+        StringBuilder pages = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            pages.append("{\"url\":\"https://example.org/page/").append(i)
+                    .append(".html\",\"pageTitle\":\"Matching page ").append(i).append("\"},");
+        }
+        String padded = recorded.replace("\"pagesWithMatchingImages\": [",
+                "\"pagesWithMatchingImages\": [" + pages);
+        assertTrue(padded.length() > recorded.length());
+
+        WebDetectionResult result = VisionResponseParser.parse(padded);
+
+        assertEquals(3, result.getEntityCount());
+        assertEquals("Anger", result.getDescription(0));
+        assertEquals(0.8341f, result.getScore(0), 1e-6);
+        assertEquals("Threat", result.getDescription(2));
+    }
+
+    @Test
+    public void onlyFirstResponseIsRead() throws Exception {
+        WebDetectionResult result = VisionResponseParser.parse("{\"responses\":["
+                + "{\"labelAnnotations\":[{\"description\":\"x\"}],"
+                + "\"webDetection\":{\"webEntities\":[{\"score\":0.7,\"description\":\"Anger\",\"extra\":{\"a\":[1,2]}}]}},"
+                + "{\"webDetection\":{\"webEntities\":[{\"score\":0.1,\"description\":\"Other\"}]}}"
+                + "],\"trailing\":true}");
+
+        assertEquals(1, result.getEntityCount());
+        assertEquals("Anger", result.getDescription(0));
+        assertEquals(0.7f, result.getScore(0), 1e-6);
+    }
+
+    @Test
+    public void missingFieldsDefault() throws Exception {
+        WebDetectionResult result = VisionResponseParser.parse(
+                "{\"responses\":[{\"webDetection\":{\"webEntities\":[{\"entityId\":\"/m/1\"}]}}]}");
+
+        assertEquals(1, result.getEntityCount());
+        assertEquals("", result.getDescription(0));
+        assertEquals(0f, result.getScore(0), 0);
+    }
+
+    @Test
+    public void errorResponse() throws Exception {
+        WebDetectionResult result = VisionResponseParser.parse(
+                "{\"responses\":[{\"error\":{\"code\":14,\"message\":\"Unavailable\"}}]}");
+        assertTrue(result.hasError());
+        assertTrue(result.isEmpty());
+        assertFalse(VisionResponseParser.parse("{\"responses\":[{}]}").hasError());
+    }
+
+    @Test
+    public void emptyResponses() throws Exception {
+        assertTrue(VisionResponseParser.parse("{\"responses\":[]}").isEmpty());
+        assertTrue(VisionResponseParser.parse("{\"responses\":[{}]}").isEmpty());
+        assertTrue(VisionResponseParser.parse("{}").isEmpty());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() throws Exception {
+        StringBuilder json = new StringBuilder("{\"responses\":[{\"webDetection\":{\"webEntities\":[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"score\":").append(i / 100.0).append(",\"description\":\"e").append(i).append("\"}");
+        }
+        json.append("]}}]}");
+
+        WebDetectionResult result = VisionResponseParser.parse(json.toString());
+
+        assertEquals(50, result.getEntityCount());
+        assertEquals("e49", result.getDescription(49));
+    }
+
+    @Test
+    public void splitsBatchedResponses() throws Exception {
+        String[] responses = VisionResponseParser.splitResponses(
+                "{\"responses\":[{\"webDetection\":{\"webEntities\":[]}}, {\"error\":{\"code\":3}}]}");
+
+        assertEquals(2, responses.length);
+        assertEquals("{\"webDetection\":{\"webEntities\":[]}}", responses[0]);
+        assertEquals("{\"error\":{\"code\":3}}", responses[1]);
+        assertEquals(0, VisionResponseParser.splitResponses("{}").length);
+    }
+}
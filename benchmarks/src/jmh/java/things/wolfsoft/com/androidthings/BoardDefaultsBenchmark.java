@@ -0,0 +1,51 @@
+package things.wolfsoft.com.androidthings;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Board pin lookups: resolving the profile from the bundled properties once at startup, and
+ * the per-peripheral getters every open goes through afterwards.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BoardDefaultsBenchmark {
+
+    private Context context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new Context();
+        BoardDefaults.init(context);
+    }
+
+    @Benchmark
+    public BoardProfile resolve() {
+        return BoardDefaults.init(context);
+    }
+
+    @Benchmark
+    public void lookupAll(Blackhole blackhole) {
+        blackhole.consume(BoardDefaults.getGPIOForBtnA());
+        blackhole.consume(BoardDefaults.getGPIOForBtnB());
+        blackhole.consume(BoardDefaults.getGPIOForBtnC());
+        blackhole.consume(BoardDefaults.getGPIOForRedLED());
+        blackhole.consume(BoardDefaults.getGPIOForGreenLED());
+        blackhole.consume(BoardDefaults.getGPIOForBlueLED());
+        blackhole.consume(BoardDefaults.getI2cBus());
+        blackhole.consume(BoardDefaults.getSpiBus());
+        blackhole.consume(BoardDefaults.getSpeakerPwmPin());
+    }
+}
@@ -0,0 +1,65 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The activity's display handler, from {@link ButtonActions}, on the input thread: a press
+ * and release of one button through gesture detection into the display mode machine, cycling
+ * the three buttons. Edges are stamped a finger's pace apart so every one is a gesture, not a
+ * bounce, except in {@link #bounce()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ButtonCallbackBenchmark {
+
+    private static final long EDGE_SPACING_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private ButtonGestureDetector detector;
+    private DisplayModeMachine machine;
+    private ButtonGestureDetector.Listener displayHandler;
+    private long edgeNanos;
+    private int button;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        detector = new ButtonGestureDetector(ButtonGestureDetector.DEFAULT_CONFIG);
+        machine = new DisplayModeMachine(DisplayMode.CLEAR);
+        ButtonActions actions = new ButtonActions(new SimulatedHat(SimulatedHat.INSTANT),
+                new PeripheralExecutor(), machine, new LedPalette(LedPalette.hsvRainbow(1)), 1, null);
+        displayHandler = actions.displayHandler;
+        // One accepted press and release, so the edge in bounce() follows a real one
+        edgeNanos += EDGE_SPACING_NANOS;
+        detector.onEdge(button, true, edgeNanos, displayHandler);
+        edgeNanos += EDGE_SPACING_NANOS;
+        detector.onEdge(button, false, edgeNanos, displayHandler);
+    }
+
+    @Benchmark
+    public DisplayModeMachine.State pressAndRelease() {
+        button = (button + 1) % 3;
+        edgeNanos += EDGE_SPACING_NANOS;
+        detector.onEdge(button, true, edgeNanos, displayHandler);
+        edgeNanos += EDGE_SPACING_NANOS;
+        detector.onEdge(button, false, edgeNanos, displayHandler);
+        return machine.getState();
+    }
+
+    /**
+     * A contact bounce inside the debounce interval, which must be dropped cheaply: a press
+     * right after the release, so it is a state change the debounce has to reject.
+     */
+    @Benchmark
+    public boolean bounce() {
+        return detector.onEdge(button, true, edgeNanos + 1, displayHandler);
+    }
+}
@@ -0,0 +1,56 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing a button edge into the pipeline during an edge storm, with four handler threads
+ * like the activity (display, LEDs, sound, network) reading behind it. Handlers fall behind
+ * at this rate, so the cost includes the producer dropping edges rather than blocking.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ButtonPipelineBenchmark {
+
+    private static final int HANDLERS = 4;
+
+    private ButtonEventPipeline pipeline;
+    private int edge;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pipeline = new ButtonEventPipeline(1024);
+        // No debounce, every edge is a gesture
+        ButtonGestureDetector.Config config = new ButtonGestureDetector.Config(0, 0, 0);
+        ButtonGestureDetector.Listener listener = new ButtonGestureDetector.Listener() {
+            @Override
+            public void onGesture(int button, ButtonGestureDetector.Gesture gesture, long timeNanos) {
+            }
+        };
+        for (int i = 0; i < HANDLERS; i++) {
+            pipeline.addHandler("h" + i, config, listener);
+        }
+        pipeline.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pipeline.shutdown(5000);
+    }
+
+    @Benchmark
+    public long publish() {
+        int i = edge++;
+        return pipeline.publish(i % 3, (i / 3) % 2 == 0);
+    }
+}
@@ -0,0 +1,102 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time from a button edge on a {@link SimulatedHat} to its indicator LED write, through the
+ * activity's {@link ButtonActions}, GPIO lane and {@link IndicatorLeds}, with and without
+ * Raspberry Pi bus times. Sampled, so the results carry percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ButtonToLedBenchmark {
+
+    private static final long EDGE_SPACING_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int LED_COUNT = 7;
+
+    @Param({"INSTANT", "RASPBERRY_PI"})
+    public String bus;
+
+    private SimulatedHat hat;
+    private PeripheralExecutor executor;
+    private ButtonActions actions;
+    private IndicatorLeds leds;
+    private final AtomicLong lastLit = new AtomicLong();
+    private final Object lit = new Object();
+    private long edgeNanos;
+    private int button;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        hat = new SimulatedHat("RASPBERRY_PI".equals(bus) ? SimulatedHat.RASPBERRY_PI : SimulatedHat.INSTANT);
+        executor = new PeripheralExecutor();
+        leds = new IndicatorLeds(hat.openLeds());
+        hat.setIoListener(new SimulatedHat.IoListener() {
+            @Override
+            public void onIo(SimulatedHat.Device device, int index, long value, long timeNanos) {
+                if (device == SimulatedHat.Device.LED && value == 1) {
+                    synchronized (lit) {
+                        lastLit.set(timeNanos);
+                        lit.notifyAll();
+                    }
+                }
+            }
+        });
+        // Only the indicator LEDs are open, the other outputs' handlers find nothing to drive
+        actions = new ButtonActions(hat, executor, new DisplayModeMachine(DisplayMode.DOOR),
+                new LedPalette(LedPalette.hsvRainbow(LED_COUNT)), LED_COUNT, null);
+        actions.setIndicatorLeds(leds);
+        actions.start();
+        actions.openButtons();
+        edgeNanos = System.nanoTime();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        actions.shutdown(200);
+        executor.shutdown(200);
+        leds.shutdown();
+        hat.close();
+    }
+
+    /**
+     * Presses the next button, whose LED is not lit, and waits for the LED write; the release
+     * goes out after the wait.
+     */
+    @Benchmark
+    public long pressToLed() throws InterruptedException {
+        // Cycling the buttons means every press lights a different LED
+        button = (button + 1) % 3;
+        long pressed = System.nanoTime();
+        edgeNanos += EDGE_SPACING_NANOS;
+        hat.button(button, true, edgeNanos);
+        long litAt;
+        synchronized (lit) {
+            while ((litAt = lastLit.get()) < pressed) {
+                long left = pressed + TIMEOUT_NANOS - System.nanoTime();
+                if (left <= 0) {
+                    throw new IllegalStateException("LED " + button + " never lit");
+                }
+                lit.wait(Math.max(1, left / 1000000));
+            }
+        }
+        edgeNanos += EDGE_SPACING_NANOS;
+        hat.button(button, false, edgeNanos);
+        return litAt;
+    }
+}
@@ -0,0 +1,65 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alphanumeric display strings: glyph encoding alone, a marquee strip, and a mode change
+ * shown through {@link SegmentDisplayWriter} on a {@link SimulatedHat} display, where only
+ * the columns that differ are written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DisplayEncodingBenchmark {
+
+    private static final String[] MODES = {DisplayMode.DOOR.getText(), DisplayMode.IN.getText(),
+            DisplayMode.OUT.getText()};
+    private static final String READING = "21.5C";
+    private static final String IP = "IP 192.168.1.20";
+
+    private final short[] glyphs = new short[SegmentDisplayWriter.DIGITS + 1];
+    private SimulatedHat hat;
+    private SegmentDisplayWriter writer;
+    private int mode;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hat = new SimulatedHat(SimulatedHat.INSTANT);
+        writer = new SegmentDisplayWriter(hat.openDisplay(), SegmentDisplayWriter.DEFAULT_SCROLL_INTERVAL_MS,
+                MODES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.shutdown();
+        hat.close();
+    }
+
+    @Benchmark
+    public int encode() {
+        return AlphanumericFont.encode(READING, glyphs, 0);
+    }
+
+    @Benchmark
+    public short[] scrollStrip() {
+        return SegmentDisplayWriter.scrollStrip(IP);
+    }
+
+    @Benchmark
+    public long showMode() throws IOException {
+        mode = (mode + 1) % MODES.length;
+        writer.show(MODES[mode]);
+        return writer.getColumnWrites();
+    }
+}
@@ -0,0 +1,116 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The strip's rainbow: building {@code mRainbow} and its palette at startup, and one animation
+ * frame rendered and written to a {@link SimulatedHat} strip without bus time, for the HAT's
+ * seven pixels and longer chains. The chunked variant encodes APA102 frames and splits them
+ * into SPI transfers as a long chain on real hardware does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LedFrameBenchmark {
+
+    @State(Scope.Thread)
+    public static class Chain {
+        @Param({"7", "144", "1000"})
+        public int leds;
+
+        int[] rainbow;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            rainbow = LedPalette.hsvRainbow(leds);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Strip {
+        @Param({"CHASE", "SPARKLE", "BREATHE"})
+        public String pattern;
+
+        SimulatedHat hat;
+        LedStripRenderer renderer;
+        LedAnimator animator;
+
+        @Setup(Level.Trial)
+        public void setUp(Chain chain) {
+            hat = new SimulatedHat(SimulatedHat.INSTANT);
+            renderer = new LedStripRenderer(hat.openLedStrip(chain.leds), chain.leds);
+            animator = new LedAnimator(renderer, new LedPalette(chain.rainbow), 1);
+            animator.prepare(LedAnimator.Pattern.valueOf(pattern));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            animator.shutdown();
+            hat.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChunkedStrip {
+        private static final int MAX_TRANSFER_BYTES = 4096;
+
+        @Param({"CHASE", "SPARKLE"})
+        public String pattern;
+
+        LedStripRenderer renderer;
+        LedAnimator animator;
+
+        @Setup(Level.Trial)
+        public void setUp(Chain chain) {
+            SpiWriter discard = new SpiWriter() {
+                @Override
+                public void write(byte[] buffer, int length) throws IOException {
+                }
+            };
+            renderer = new LedStripRenderer(
+                    new ChunkedApa102Sink(discard, chain.leds, true, MAX_TRANSFER_BYTES), chain.leds);
+            animator = new LedAnimator(renderer, new LedPalette(chain.rainbow), 1);
+            animator.prepare(LedAnimator.Pattern.valueOf(pattern));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            animator.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int[] rainbow(Chain chain) {
+        return LedPalette.hsvRainbow(chain.leds);
+    }
+
+    @Benchmark
+    public LedPalette palette(Chain chain) {
+        return new LedPalette(chain.rainbow);
+    }
+
+    @Benchmark
+    public long frame(Strip strip) {
+        strip.animator.renderNextFrame();
+        strip.renderer.renderFrame();
+        return strip.renderer.getFramesWritten();
+    }
+
+    @Benchmark
+    public long chunkedFrame(ChunkedStrip strip) {
+        strip.animator.renderNextFrame();
+        strip.renderer.renderFrame();
+        return strip.renderer.getFramesWritten();
+    }
+}
@@ -0,0 +1,63 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording into {@link Metrics} from one thread, and from four at once as when the
+ * bus lanes, button handlers and sensor thread all record into shared instruments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter counter = metrics.counter("button.edges");
+    private final Metrics.Histogram histogram = metrics.histogram("io.gpio.exec");
+
+    @State(Scope.Thread)
+    public static class Latency {
+        long nanos = 1;
+
+        long next() {
+            // Spread over the buckets like real latencies, from nanos to milliseconds
+            nanos = nanos * 6364136223846793005L + 1442695040888963407L;
+            return (nanos >>> 44) + 100;
+        }
+    }
+
+    @Benchmark
+    public void count() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void record(Latency latency) {
+        histogram.record(latency.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void countContended() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended(Latency latency) {
+        histogram.record(latency.next());
+    }
+
+    @Benchmark
+    public Metrics.Snapshot snapshot() {
+        return histogram.snapshot();
+    }
+}
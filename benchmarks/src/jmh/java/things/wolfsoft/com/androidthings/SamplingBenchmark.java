@@ -0,0 +1,70 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sensor sample through {@link SamplingService}, fed at full speed with a screen and a
+ * display rate listener like the activity registers, channels alternating.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SamplingBenchmark {
+
+    private static final long PERIOD_NANOS = 250000000L;
+
+    private SamplingService service;
+    private SampleSink sink;
+    private long timestampNanos;
+    private int sample;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        service = new SamplingService(new SensorSource() {
+            @Override
+            public void start(SampleSink sink, int samplingPeriodUs, int maxReportLatencyUs) {
+                SamplingBenchmark.this.sink = sink;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, SamplingService.DEFAULT_CONFIG);
+        SamplingService.Listener listener = new SamplingService.Listener() {
+            @Override
+            public void onReading(SensorChannel channel, long timestampNanos, float mean, int samples) {
+            }
+        };
+        service.addListener(listener, 1000);
+        service.addListener(listener, 60000);
+        service.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public void sample() {
+        timestampNanos += PERIOD_NANOS;
+        sample++;
+        sink.onSample((sample & 1) == 0 ? SensorChannel.TEMPERATURE : SensorChannel.PRESSURE,
+                timestampNanos, 1013.25f + (sample & 7));
+    }
+}
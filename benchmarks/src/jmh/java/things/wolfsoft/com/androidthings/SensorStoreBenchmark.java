@@ -0,0 +1,107 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SensorStore} on a plain JVM against a temporary directory: appending a 10Hz reading,
+ * and summarizing or reading back a store holding a week of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorStoreBenchmark {
+
+    // 2017-05-11T00:00:00Z, on an hour boundary
+    private static final long T0 = 1494460800000L;
+    private static final long PERIOD_MS = 100;
+    private static final long WEEK_MS = 7 * 24 * SensorStore.HOUR_MS;
+
+    public abstract static class Store {
+        File dir;
+        SensorStore store;
+        long nextMillis = T0;
+
+        void open() throws IOException {
+            dir = Files.createTempDirectory("sensorbench").toFile();
+            store = new SensorStore(dir);
+        }
+
+        boolean append() throws IOException {
+            long millis = nextMillis;
+            nextMillis += PERIOD_MS;
+            return store.append(SensorChannel.PRESSURE, millis, 1013.25f);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            store.close();
+            delete(dir);
+        }
+
+        private static void delete(File file) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    delete(child);
+                }
+            }
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Empty extends Store {
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            open();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Week extends Store {
+        final SensorSummary summary = new SensorSummary();
+        final long[] timestamps = new long[(int) (SensorStore.HOUR_MS / PERIOD_MS)];
+        final float[] values = new float[timestamps.length];
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            open();
+            while (nextMillis < T0 + WEEK_MS) {
+                append();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean append(Empty empty) throws IOException {
+        return empty.append();
+    }
+
+    /**
+     * Neither end on a minute, so raw readings, minute and hour rollups all take part.
+     */
+    @Benchmark
+    public SensorSummary summarizeWeek(Week week) throws IOException {
+        return week.store.summarize(SensorChannel.PRESSURE, T0 + 12345, T0 + WEEK_MS - 54321,
+                week.summary);
+    }
+
+    @Benchmark
+    public int readRawHour(Week week) throws IOException {
+        long from = T0 + 3 * 24 * SensorStore.HOUR_MS;
+        return week.store.readRaw(SensorChannel.PRESSURE, from, from + SensorStore.HOUR_MS,
+                week.timestamps, week.values);
+    }
+}
@@ -0,0 +1,48 @@
+package things.wolfsoft.com.androidthings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Utilities#getDate()} as the activity calls it, several times a second, once a
+ * millisecond as sensor callbacks would, and with every call in a new second, against the
+ * format-per-call it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class UtilitiesBenchmark {
+
+    private long epochMillis = System.currentTimeMillis();
+
+    @Benchmark
+    public String getDate() {
+        return Utilities.getDate();
+    }
+
+    @Benchmark
+    public String getDateEveryMillisecond() {
+        epochMillis++;
+        return Utilities.getDate(epochMillis);
+    }
+
+    @Benchmark
+    public String getDateNewSecond() {
+        epochMillis += 1000;
+        return Utilities.getDate(epochMillis);
+    }
+
+    @Benchmark
+    public String formatPerCall() {
+        return new SimpleDateFormat(TimestampFormatter.DISPLAY_PATTERN, Locale.US).format(new Date());
+    }
+}
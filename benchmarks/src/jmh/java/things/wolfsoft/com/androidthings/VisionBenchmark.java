@@ -0,0 +1,137 @@
+package things.wolfsoft.com.androidthings;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vision request building, streamed the way the HTTP body receives it and as a string, and
+ * parsing of a recorded web detection response, all without the network. The org.json
+ * variants are the nested build and DOM walk the builder and streaming parser replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class VisionBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private VisionRequestBuilder builder;
+    private String uri;
+    private String response;
+    private String largeResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        builder = new VisionRequestBuilder(VisionRequestBuilder.WEB_DETECTION, 2);
+        uri = Constants.IMAGES[0];
+        try (InputStream in = VisionBenchmark.class.getResourceAsStream("/vision_web_detection.json")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            response = new String(out.toByteArray(), Charset.forName("UTF-8"));
+        }
+        // Padded with the bulky sections Vision returns for popular images
+        StringBuilder pages = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            pages.append("{\"url\":\"https://example.org/page/").append(i)
+                    .append("/with/a/reasonably/long/path.html\",\"pageTitle\":\"Matching page ")
+                    .append(i).append("\"},");
+        }
+        largeResponse = response.replace("\"pagesWithMatchingImages\": [",
+                "\"pagesWithMatchingImages\": [" + pages);
+    }
+
+    @Benchmark
+    public int streamRequest() throws IOException {
+        VisionClient.Payload payload = builder.payload(uri);
+        payload.writeTo(DISCARD);
+        return payload.length();
+    }
+
+    @Benchmark
+    public String buildRequest() {
+        return builder.build(uri);
+    }
+
+    @Benchmark
+    public int streamRequestOrgJson() throws IOException, JSONException {
+        JSONObject requests = new JSONObject();
+        JSONArray arrRequest = new JSONArray();
+        JSONObject image = new JSONObject();
+        JSONObject source = new JSONObject();
+        JSONObject imageUri = new JSONObject();
+        imageUri.put("imageUri", uri);
+        source.put("source", imageUri);
+        image.put("image", source);
+        JSONArray arrFeatures = new JSONArray();
+        JSONObject feature = new JSONObject();
+        feature.put("type", "WEB_DETECTION");
+        feature.put("maxResults", 2);
+        arrFeatures.put(0, feature);
+        image.put("features", arrFeatures);
+        arrRequest.put(0, image);
+        requests.put("requests", arrRequest);
+        byte[] body = requests.toString().getBytes("UTF-8");
+        DISCARD.write(body);
+        return body.length;
+    }
+
+    @Benchmark
+    public WebDetectionResult parseResponse() throws IOException {
+        return VisionResponseParser.parse(response);
+    }
+
+    /**
+     * The activity's anger decision on a large response.
+     */
+    @Benchmark
+    public boolean decideLargeResponse() throws IOException {
+        WebDetectionResult result = VisionResponseParser.parse(largeResponse);
+        boolean angry = false;
+        for (int i = 0; i < result.getEntityCount(); i++) {
+            angry = result.getDescription(i).contains("Anger") && result.getScore(i) > 0.5;
+        }
+        return angry;
+    }
+
+    @Benchmark
+    public boolean decideLargeResponseOrgJson() throws JSONException {
+        JSONObject webDetection = new JSONObject(largeResponse).getJSONArray("responses")
+                .getJSONObject(0).getJSONObject("webDetection");
+        JSONArray webEntities = webDetection.getJSONArray("webEntities");
+        boolean angry = false;
+        for (int i = 0; i < webEntities.length(); i++) {
+            JSONObject webEntity = webEntities.getJSONObject(i);
+            angry = webEntity.getString("description").contains("Anger")
+                    && webEntity.getDouble("score") > 0.5;
+        }
+        return angry;
+    }
+}
@@ -0,0 +1,15 @@
+package android.content;
+
+import android.content.res.Resources;
+
+/**
+ * JVM stand-in for an application context, only as far as raw resources.
+ */
+public class Context {
+
+    private final Resources resources = new Resources();
+
+    public Resources getResources() {
+        return resources;
+    }
+}
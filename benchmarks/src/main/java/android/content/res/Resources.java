@@ -0,0 +1,27 @@
+package android.content.res;
+
+import java.io.InputStream;
+
+import things.wolfsoft.com.androidthings.R;
+
+/**
+ * JVM stand-in for the app resources, serving the raw files the benchmark module copies from
+ * {@code app/src/main/res/raw} onto its classpath.
+ */
+public class Resources {
+
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public InputStream openRawResource(int id) {
+        String name = id == R.raw.board_profiles ? "board_profiles.properties" : null;
+        InputStream in = name == null ? null : Resources.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+        }
+        return in;
+    }
+}
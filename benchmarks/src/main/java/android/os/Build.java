@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * JVM stand-in for the device build info; the device defaults to the Raspberry Pi the HAT
+ * sits on and can be changed with {@code -Dandroid.os.Build.DEVICE=<device>}.
+ */
+public final class Build {
+
+    public static final String DEVICE = System.getProperty("android.os.Build.DEVICE", "rpi3");
+
+    private Build() {
+    }
+}
@@ -0,0 +1,14 @@
+package com.google.android.things.pio;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM stand-in for the peripheral manager, for board lookups only; there are no pins to list.
+ */
+public class PeripheralManagerService {
+
+    public List<String> getGpioList() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,197 @@
+package things.wolfsoft.com.androidthings;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file against a stored baseline, benchmark by benchmark, on both
+ * the primary score and the allocation rate the gc profiler adds. A change only counts as a
+ * regression when it is worse by more than the tolerance and by more than the two runs' error
+ * bars, so run to run noise on the same box doesn't fail the comparison.
+ */
+public class BaselineComparator {
+
+    public static final double DEFAULT_TOLERANCE = 0.10;
+    // Allocation per op is estimated from the GC counters and jitters by a few bytes
+    static final double ALLOCATION_SLACK_BYTES = 16;
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    public static class Score {
+        public final String key;
+        public final String mode;
+        public final String unit;
+        public final double score;
+        public final double error;
+        /**
+         * Bytes allocated per operation, NaN when the run had no gc profiler.
+         */
+        public final double bytesPerOp;
+
+        public Score(String key, String mode, String unit, double score, double error, double bytesPerOp) {
+            this.key = key;
+            this.mode = mode;
+            this.unit = unit;
+            this.score = score;
+            this.error = error;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /**
+         * Throughput improves upwards, every other JMH mode measures time.
+         */
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    public static class Change {
+        public final String key;
+        public final String metric;
+        public final String unit;
+        public final double baseline;
+        public final double current;
+        public final boolean regressed;
+
+        Change(String key, String metric, String unit, double baseline, double current, boolean regressed) {
+            this.key = key;
+            this.metric = metric;
+            this.unit = unit;
+            this.baseline = baseline;
+            this.current = current;
+            this.regressed = regressed;
+        }
+
+        @Override
+        public String toString() {
+            String change = baseline == 0 ? "n/a" : String.format("%+.1f%%", (current - baseline) * 100 / baseline);
+            return String.format("%-4s %-70s %-6s %12.2f -> %12.2f %-8s %8s", regressed ? "FAIL" : "ok",
+                    key, metric, baseline, current, unit, change);
+        }
+    }
+
+    /**
+     * Reads the scores of a JMH result file ({@code -rf json}), keyed by benchmark, mode and
+     * parameters.
+     */
+    public static Map<String, Score> read(InputStream in) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        JsonNode root = new ObjectMapper().readTree(in);
+        for (JsonNode run : root) {
+            String mode = run.path("mode").asText();
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            Map<String, String> params = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = run.path("params").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> param = fields.next();
+                params.put(param.getKey(), param.getValue().asText());
+            }
+            if (!params.isEmpty()) {
+                key.append(params);
+            }
+            key.append(' ').append(mode);
+
+            JsonNode primary = run.path("primaryMetric");
+            double bytesPerOp = Double.NaN;
+            Iterator<Map.Entry<String, JsonNode>> secondary = run.path("secondaryMetrics").fields();
+            while (secondary.hasNext()) {
+                Map.Entry<String, JsonNode> metric = secondary.next();
+                // JMH prefixes profiler metrics with a middle dot
+                if (metric.getKey().endsWith(ALLOCATION_METRIC)) {
+                    bytesPerOp = metric.getValue().path("score").asDouble(Double.NaN);
+                }
+            }
+            scores.put(key.toString(), new Score(key.toString(), mode, primary.path("scoreUnit").asText(),
+                    primary.path("score").asDouble(Double.NaN), primary.path("scoreError").asDouble(Double.NaN),
+                    bytesPerOp));
+        }
+        return scores;
+    }
+
+    public static Map<String, Score> read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Score and allocation changes of every benchmark present in both runs.
+     *
+     * @param tolerance relative change, e.g. 0.1, that a result may get worse by
+     */
+    public static List<Change> compare(Map<String, Score> baseline, Map<String, Score> current, double tolerance) {
+        List<Change> changes = new ArrayList<>();
+        for (Score now : current.values()) {
+            Score then = baseline.get(now.key);
+            if (then == null) {
+                continue;
+            }
+            double noise = finiteOrZero(then.error) + finiteOrZero(now.error);
+            double worse = now.higherIsBetter() ? then.score - now.score : now.score - then.score;
+            boolean slower = worse > then.score * tolerance && worse > noise;
+            changes.add(new Change(now.key, "score", now.unit, then.score, now.score, slower));
+
+            if (!Double.isNaN(then.bytesPerOp) && !Double.isNaN(now.bytesPerOp)) {
+                double grown = now.bytesPerOp - then.bytesPerOp;
+                boolean allocates = grown > then.bytesPerOp * tolerance && grown > ALLOCATION_SLACK_BYTES;
+                changes.add(new Change(now.key, "alloc", "B/op", then.bytesPerOp, now.bytesPerOp, allocates));
+            }
+        }
+        return changes;
+    }
+
+    private static double finiteOrZero(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? 0 : value;
+    }
+
+    /**
+     * {@code <baseline.json> <results.json> [tolerance]}; exits with 1 if anything regressed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparator <baseline.json> <results.json> [tolerance]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        if (!baselineFile.isFile()) {
+            System.err.println("No baseline at " + baselineFile + ", record one with jmhSaveBaseline");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        Map<String, Score> baseline = read(baselineFile);
+        Map<String, Score> current = read(new File(args[1]));
+
+        int regressions = 0;
+        for (Change change : compare(baseline, current, tolerance)) {
+            System.out.println(change);
+            if (change.regressed) {
+                regressions++;
+            }
+        }
+        for (String key : current.keySet()) {
+            if (!baseline.containsKey(key)) {
+                System.out.println("new  " + key);
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println("gone " + key);
+            }
+        }
+        System.out.println(String.format("%d regression(s) beyond %.0f%% against %s", regressions,
+                tolerance * 100, baselineFile));
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+}
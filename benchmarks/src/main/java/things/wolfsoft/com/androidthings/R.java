@@ -0,0 +1,11 @@
+package things.wolfsoft.com.androidthings;
+
+/**
+ * The resource ids the benchmarked classes refer to, in place of the one aapt generates.
+ */
+public final class R {
+
+    public static final class raw {
+        public static final int board_profiles = 0x7f060000;
+    }
+}
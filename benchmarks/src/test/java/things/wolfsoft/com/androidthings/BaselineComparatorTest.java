@@ -0,0 +1,70 @@
+package things.wolfsoft.com.androidthings;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BaselineComparatorTest {
+
+    private static Map<String, BaselineComparator.Score> run(String mode, double score, double error,
+                                                            double bytesPerOp) throws IOException {
+        String json = "[{\"benchmark\":\"a.B.frame\",\"mode\":\"" + mode + "\",\"params\":{\"leds\":\"7\"},"
+                + "\"primaryMetric\":{\"score\":" + score + ",\"scoreError\":" + error + ",\"scoreUnit\":\"ns/op\"},"
+                + "\"secondaryMetrics\":{\"\u00b7gc.alloc.rate.norm\":{\"score\":" + bytesPerOp + "}}}]";
+        return BaselineComparator.read(new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static boolean regressed(List<BaselineComparator.Change> changes, String metric) {
+        for (BaselineComparator.Change change : changes) {
+            if (change.metric.equals(metric)) {
+                return change.regressed;
+            }
+        }
+        throw new AssertionError("No " + metric + " change");
+    }
+
+    @Test
+    public void readsScoresKeyedByParams() throws IOException {
+        BaselineComparator.Score score = run("avgt", 100, 2, 48).get("a.B.frame{leds=7} avgt");
+        assertNotNull(score);
+        assertEquals(100, score.score, 0);
+        assertEquals(48, score.bytesPerOp, 0);
+    }
+
+    @Test
+    public void slowerBeyondToleranceAndErrorRegresses() throws IOException {
+        List<BaselineComparator.Change> changes = BaselineComparator.compare(run("avgt", 100, 2, 0),
+                run("avgt", 120, 2, 0), BaselineComparator.DEFAULT_TOLERANCE);
+        assertTrue(regressed(changes, "score"));
+        assertFalse(regressed(changes, "alloc"));
+    }
+
+    @Test
+    public void changesWithinErrorBarsAreNoise() throws IOException {
+        List<BaselineComparator.Change> changes = BaselineComparator.compare(run("avgt", 100, 15, 0),
+                run("avgt", 120, 15, 0), BaselineComparator.DEFAULT_TOLERANCE);
+        assertFalse(regressed(changes, "score"));
+    }
+
+    @Test
+    public void throughputRegressesDownwards() throws IOException {
+        assertTrue(regressed(BaselineComparator.compare(run("thrpt", 100, 0, 0), run("thrpt", 80, 0, 0),
+                BaselineComparator.DEFAULT_TOLERANCE), "score"));
+        assertFalse(regressed(BaselineComparator.compare(run("thrpt", 100, 0, 0), run("thrpt", 130, 0, 0),
+                BaselineComparator.DEFAULT_TOLERANCE), "score"));
+    }
+
+    @Test
+    public void allocationNeedsMoreThanJitterToRegress() throws IOException {
+        assertFalse(regressed(BaselineComparator.compare(run("avgt", 100, 0, 0), run("avgt", 100, 0, 8),
+                BaselineComparator.DEFAULT_TOLERANCE), "alloc"));
+        assertTrue(regressed(BaselineComparator.compare(run("avgt", 100, 0, 0), run("avgt", 100, 0, 64),
+                BaselineComparator.DEFAULT_TOLERANCE), "alloc"));
+    }
+}